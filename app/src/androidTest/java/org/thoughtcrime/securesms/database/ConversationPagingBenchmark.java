@@ -0,0 +1,173 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares loading a page of a single 500k message conversation, against a real SQLCipher database,
+ * by offset with {@link MmsSmsDatabase#getConversation(long, long, long)} versus relative to the
+ * previous message with {@link MmsSmsDatabase#getConversationAfter}.
+ */
+public final class ConversationPagingBenchmark {
+
+  private static final String TAG       = "ConversationPagingBenchmark";
+  private static final String PASSWORD  = "benchmark";
+  private static final int    MESSAGES  = 500_000;
+  private static final int    PAGE_SIZE = 50;
+  private static final int    RUNS      = 5;
+  private static final long   THREAD_ID = 1;
+  private static final int[]  DEPTHS    = { 1_000, 100_000, 250_000, 450_000 };
+
+  private File                                          file;
+  private net.zetetic.database.sqlcipher.SQLiteDatabase db;
+  private MmsSmsDatabase                                mmsSmsDatabase;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SqlCipherLibraryLoader.load();
+
+    file = context.getDatabasePath("conversation-paging-benchmark.db");
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+    file.getParentFile().mkdirs();
+
+    db = net.zetetic.database.sqlcipher.SQLiteDatabase.openDatabase(file.getPath(), PASSWORD, null, net.zetetic.database.sqlcipher.SQLiteDatabase.OPEN_READWRITE | net.zetetic.database.sqlcipher.SQLiteDatabase.CREATE_IF_NECESSARY, null, new SqlCipherDatabaseHook());
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    for (String index : SmsDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+    for (String index : MmsDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+
+    Random random = new Random(42);
+
+    db.beginTransaction();
+    try (SQLiteStatement sms = db.compileStatement("INSERT INTO " + SmsDatabase.TABLE_NAME + " (" + SmsDatabase.THREAD_ID + ", " + SmsDatabase.DATE_RECEIVED + ", " + SmsDatabase.DATE_SENT + ", " + SmsDatabase.TYPE + ", " + SmsDatabase.BODY + ", " + SmsDatabase.READ + ") VALUES (?, ?, ?, ?, ?, 1)");
+         SQLiteStatement mms = db.compileStatement("INSERT INTO " + MmsDatabase.TABLE_NAME + " (" + MmsDatabase.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + ", " + MmsDatabase.DATE_SENT + ", " + MmsDatabase.MESSAGE_BOX + ", " + MmsDatabase.BODY + ", " + MmsDatabase.READ + ") VALUES (?, ?, ?, ?, ?, 1)"))
+    {
+      for (int i = 0; i < MESSAGES; i++) {
+        SQLiteStatement statement = random.nextBoolean() ? sms : mms;
+        long            date      = i / 3;
+
+        statement.bindLong(1, THREAD_ID);
+        statement.bindLong(2, date);
+        statement.bindLong(3, date);
+        statement.bindLong(4, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+        statement.bindString(5, "Message body number " + i);
+        statement.executeInsert();
+        statement.clearBindings();
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    mmsSmsDatabase = new MmsSmsDatabase(context, new BenchmarkOpenHelper(context, db));
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+  }
+
+  @Test
+  public void getConversationAfter_costDoesNotGrowWithDepth() {
+    long deepestOffsetNanos = 0;
+    long deepestKeysetNanos = 0;
+
+    for (int depth : DEPTHS) {
+      ConversationAnchor       anchor   = readAnchors(mmsSmsDatabase.getConversation(THREAD_ID, depth - 1, 1)).get(0);
+      List<ConversationAnchor> expected = readAnchors(mmsSmsDatabase.getConversation(THREAD_ID, depth, PAGE_SIZE));
+
+      assertEquals(expected, readAnchors(mmsSmsDatabase.getConversationAfter(THREAD_ID, anchor, 0, PAGE_SIZE)));
+
+      long offsetNanos = 0;
+      long keysetNanos = 0;
+
+      for (int i = 0; i < RUNS; i++) {
+        long start = System.nanoTime();
+        readAnchors(mmsSmsDatabase.getConversation(THREAD_ID, depth, PAGE_SIZE));
+        offsetNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        readAnchors(mmsSmsDatabase.getConversationAfter(THREAD_ID, anchor, 0, PAGE_SIZE));
+        keysetNanos += System.nanoTime() - start;
+      }
+
+      Log.i(TAG, String.format(Locale.US, "%d messages, page of %d at depth %d: %.2f ms by offset, %.2f ms by anchor (%.1fx)",
+                               MESSAGES, PAGE_SIZE, depth, offsetNanos / 1_000_000.0 / RUNS, keysetNanos / 1_000_000.0 / RUNS, (double) offsetNanos / keysetNanos));
+
+      deepestOffsetNanos = offsetNanos;
+      deepestKeysetNanos = keysetNanos;
+    }
+
+    assertTrue(deepestKeysetNanos < deepestOffsetNanos);
+  }
+
+  private static @NonNull List<ConversationAnchor> readAnchors(@NonNull Cursor cursor) {
+    List<ConversationAnchor> anchors = new ArrayList<>(cursor.getCount());
+
+    try {
+      while (cursor.moveToNext()) {
+        anchors.add(new ConversationAnchor(cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)),
+                                           cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID)),
+                                           MmsSmsDatabase.MMS_TRANSPORT.equals(cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT)))));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return anchors;
+  }
+
+  /**
+   * Runs everything against the benchmark database instead of opening the app's own.
+   */
+  private static final class BenchmarkOpenHelper extends SQLCipherOpenHelper {
+
+    private final net.zetetic.database.sqlcipher.SQLiteDatabase db;
+
+    BenchmarkOpenHelper(@NonNull Context context, @NonNull net.zetetic.database.sqlcipher.SQLiteDatabase db) {
+      super(context, new DatabaseSecret(new byte[32]));
+      this.db = db;
+    }
+
+    @Override
+    public @NonNull SQLiteDatabase getSignalReadableDatabase() {
+      return new SQLiteDatabase(db, null);
+    }
+
+    @Override
+    public @NonNull SQLiteDatabase getSignalWritableDatabase() {
+      return new SQLiteDatabase(db, null);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares looking up the groups a recipient is in, against a real SQLCipher database with
+ * thousands of groups, using the membership table versus matching the serialized member lists the
+ * way {@link GroupDatabase#getGroupsContainingMember} used to.
+ */
+public final class GroupMembershipBenchmark {
+
+  private static final String TAG        = "GroupMembershipBenchmark";
+  private static final String PASSWORD   = "benchmark";
+  private static final int    GROUPS     = 5_000;
+  private static final int    RECIPIENTS = 2_000;
+  private static final int    MEMBERS    = 20;
+  private static final int    LOOKUPS    = 200;
+
+  private static final String JOIN = GroupDatabase.TABLE_NAME + " INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + GroupDatabase.TABLE_NAME + "." + GroupDatabase.RECIPIENT_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID;
+
+  private static final String MEMBERSHIP_QUERY = "SELECT " + GroupDatabase.TABLE_NAME + "." + GroupDatabase.GROUP_ID + " FROM " + JOIN + " " +
+                                                 "WHERE " + GroupDatabase.TABLE_NAME + "." + GroupDatabase.GROUP_ID + " IN (SELECT group_id FROM " + GroupDatabase.MEMBERSHIP_TABLE_NAME + " WHERE recipient_id = ?) " +
+                                                 "AND " + GroupDatabase.ACTIVE + " = 1 " +
+                                                 "ORDER BY " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.DATE + " DESC";
+
+  private static final String MEMBERS_LIKE_QUERY = "SELECT " + GroupDatabase.TABLE_NAME + "." + GroupDatabase.GROUP_ID + ", " + GroupDatabase.MEMBERS + " FROM " + JOIN + " " +
+                                                   "WHERE " + GroupDatabase.MEMBERS + " LIKE ? " +
+                                                   "AND " + GroupDatabase.ACTIVE + " = 1 " +
+                                                   "ORDER BY " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.DATE + " DESC";
+
+  private File                                          file;
+  private net.zetetic.database.sqlcipher.SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SqlCipherLibraryLoader.load();
+
+    file = context.getDatabasePath("group-membership-benchmark.db");
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+    file.getParentFile().mkdirs();
+
+    db = net.zetetic.database.sqlcipher.SQLiteDatabase.openDatabase(file.getPath(), PASSWORD, null, net.zetetic.database.sqlcipher.SQLiteDatabase.OPEN_READWRITE | net.zetetic.database.sqlcipher.SQLiteDatabase.CREATE_IF_NECESSARY, null, new SqlCipherDatabaseHook());
+
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+    db.execSQL(ThreadDatabase.CREATE_TABLE);
+    db.execSQL(GroupDatabase.CREATE_TABLE);
+    db.execSQL(GroupDatabase.CREATE_MEMBERSHIP_TABLE);
+    for (String index : GroupDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+    for (String index : ThreadDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+
+    Random random = new Random(42);
+
+    db.beginTransaction();
+    try {
+      for (int i = 1; i <= RECIPIENTS + GROUPS; i++) {
+        db.execSQL("INSERT INTO " + RecipientDatabase.TABLE_NAME + " (" + RecipientDatabase.ID + ") VALUES (?)", new Object[] { i });
+      }
+
+      for (int i = 0; i < GROUPS; i++) {
+        long             groupRecipientId = RECIPIENTS + 1 + i;
+        String           groupId          = "__textsecure_group__!" + i;
+        Set<RecipientId> members          = new HashSet<>();
+
+        while (members.size() < MEMBERS) {
+          members.add(RecipientId.from(1 + random.nextInt(RECIPIENTS)));
+        }
+
+        db.execSQL("INSERT INTO " + GroupDatabase.TABLE_NAME + " (" + GroupDatabase.GROUP_ID + ", " + GroupDatabase.RECIPIENT_ID + ", " + GroupDatabase.MEMBERS + ", " + GroupDatabase.ACTIVE + ") VALUES (?, ?, ?, 1)",
+                   new Object[] { groupId, groupRecipientId, RecipientId.toSerializedList(members) });
+        db.execSQL("INSERT INTO " + ThreadDatabase.TABLE_NAME + " (" + ThreadDatabase.RECIPIENT_ID + ", " + ThreadDatabase.DATE + ") VALUES (?, ?)", new Object[] { groupRecipientId, i });
+
+        for (RecipientId member : members) {
+          db.execSQL("INSERT INTO " + GroupDatabase.MEMBERSHIP_TABLE_NAME + " (group_id, recipient_id) VALUES (?, ?)", new Object[] { groupId, member.toLong() });
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+  }
+
+  @Test
+  public void getGroupsContainingMember_membershipTableBeatsMemberLists() {
+    for (int i = 1; i <= 10; i++) {
+      assertEquals(queryMemberLists(RecipientId.from(i)), queryMembershipTable(RecipientId.from(i)));
+    }
+
+    long memberListNanos = 0;
+    long membershipNanos = 0;
+
+    for (int i = 0; i < LOOKUPS; i++) {
+      RecipientId recipientId = RecipientId.from(1 + (i * 7) % RECIPIENTS);
+
+      long start = System.nanoTime();
+      queryMemberLists(recipientId);
+      memberListNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      queryMembershipTable(recipientId);
+      membershipNanos += System.nanoTime() - start;
+    }
+
+    Log.i(TAG, String.format(Locale.US, "%d groups, %d lookups: %.2f ms per lookup with member lists, %.2f ms per lookup with the membership table (%.1fx)",
+                             GROUPS, LOOKUPS, memberListNanos / 1_000_000.0 / LOOKUPS, membershipNanos / 1_000_000.0 / LOOKUPS, (double) memberListNanos / membershipNanos));
+
+    assertTrue(membershipNanos < memberListNanos);
+  }
+
+  private @NonNull List<String> queryMembershipTable(@NonNull RecipientId recipientId) {
+    List<String> groupIds = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery(MEMBERSHIP_QUERY, new String[] { recipientId.serialize() })) {
+      while (cursor.moveToNext()) {
+        groupIds.add(cursor.getString(0));
+      }
+    }
+
+    return groupIds;
+  }
+
+  private @NonNull List<String> queryMemberLists(@NonNull RecipientId recipientId) {
+    List<String> groupIds = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery(MEMBERS_LIKE_QUERY, new String[] { "%" + recipientId.serialize() + "%" })) {
+      while (cursor.moveToNext()) {
+        if (RecipientId.serializedListContains(cursor.getString(1), recipientId)) {
+          groupIds.add(cursor.getString(0));
+        }
+      }
+    }
+
+    return groupIds;
+  }
+}
@@ -0,0 +1,138 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares read throughput against a real SQLCipher database, in WAL mode, when every reader shares
+ * a single connection versus when they each get their own from a {@link ReadConnectionPool}.
+ */
+public final class ReadConnectionPoolBenchmark {
+
+  private static final String TAG      = "ReadConnectionPoolBenchmark";
+  private static final String PASSWORD = "benchmark";
+  private static final int    ROWS     = 20_000;
+  private static final int    QUERIES  = 50;
+
+  private File                                          file;
+  private net.zetetic.database.sqlcipher.SQLiteDatabase writer;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SqlCipherLibraryLoader.load();
+
+    file = context.getDatabasePath("read-connection-pool-benchmark.db");
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+    file.getParentFile().mkdirs();
+
+    writer = net.zetetic.database.sqlcipher.SQLiteDatabase.openDatabase(file.getPath(), PASSWORD, null, net.zetetic.database.sqlcipher.SQLiteDatabase.OPEN_READWRITE | net.zetetic.database.sqlcipher.SQLiteDatabase.CREATE_IF_NECESSARY, null, new SqlCipherDatabaseHook());
+    writer.enableWriteAheadLogging();
+    writer.execSQL("CREATE TABLE message (_id INTEGER PRIMARY KEY, thread_id INTEGER, body TEXT)");
+
+    writer.beginTransaction();
+    try {
+      for (int i = 0; i < ROWS; i++) {
+        writer.execSQL("INSERT INTO message (thread_id, body) VALUES (?, ?)", new Object[] { i % 100, "Message body number " + i + " with some text to scan through" });
+      }
+      writer.setTransactionSuccessful();
+    } finally {
+      writer.endTransaction();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    writer.close();
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+  }
+
+  @Test
+  public void throughput_scalesWithConnections() throws InterruptedException {
+    int cores   = Runtime.getRuntime().availableProcessors();
+    int threads = Math.max(2, Math.min(cores, 4));
+
+    measureQueriesPerSecond(threads, threads);
+
+    double single = measureQueriesPerSecond(1, threads);
+    double pooled = measureQueriesPerSecond(threads, threads);
+
+    Log.i(TAG, String.format(Locale.US, "%d threads, %d cores: %.1f queries/s with 1 connection, %.1f queries/s with %d connections (%.1fx)", threads, cores, single, pooled, threads, pooled / single));
+
+    if (cores >= 4) {
+      assertTrue(pooled > single * 1.5);
+    }
+  }
+
+  private double measureQueriesPerSecond(int connections, int threads) throws InterruptedException {
+    ReadConnectionPool<net.zetetic.database.sqlcipher.SQLiteDatabase> pool = new ReadConnectionPool<>(connections, new ReadConnectionPool.Connector<net.zetetic.database.sqlcipher.SQLiteDatabase>() {
+      @Override
+      public @NonNull net.zetetic.database.sqlcipher.SQLiteDatabase open() {
+        return net.zetetic.database.sqlcipher.SQLiteDatabase.openDatabase(file.getPath(), PASSWORD, null, net.zetetic.database.sqlcipher.SQLiteDatabase.OPEN_READONLY, null, new SqlCipherDatabaseHook());
+      }
+
+      @Override
+      public void close(@NonNull net.zetetic.database.sqlcipher.SQLiteDatabase connection) {
+        connection.close();
+      }
+    });
+
+    CountDownLatch start   = new CountDownLatch(1);
+    List<Thread>   workers = new ArrayList<>(threads);
+
+    for (int i = 0; i < threads; i++) {
+      int threadId = i;
+
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        for (int q = 0; q < QUERIES; q++) {
+          net.zetetic.database.sqlcipher.SQLiteDatabase connection = pool.acquire();
+          try (Cursor cursor = connection.rawQuery("SELECT COUNT(*), SUM(LENGTH(body)) FROM message WHERE thread_id = ? OR body LIKE ?", new String[] { String.valueOf((threadId + q) % 100), "%number " + q + "%" })) {
+            cursor.moveToFirst();
+          } finally {
+            pool.release(connection);
+          }
+        }
+      });
+
+      worker.start();
+      workers.add(worker);
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    Log.i(TAG, connections + " connection(s): " + pool.getStats());
+    pool.close();
+
+    return threads * QUERIES / (elapsedNanos / 1_000_000_000.0);
+  }
+}
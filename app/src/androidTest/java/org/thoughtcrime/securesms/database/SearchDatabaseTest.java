@@ -0,0 +1,250 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs {@link SearchDatabase#queryMessages} against a real SQLCipher database, since the SQLite
+ * used by the unit tests doesn't have FTS5.
+ */
+public final class SearchDatabaseTest {
+
+  private static final String PASSWORD = "test";
+  private static final long   THREAD_1 = 1;
+  private static final long   THREAD_2 = 2;
+
+  private File                                          file;
+  private net.zetetic.database.sqlcipher.SQLiteDatabase db;
+  private SearchDatabase                                searchDatabase;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SqlCipherLibraryLoader.load();
+
+    file = context.getDatabasePath("search-database-test.db");
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+    file.getParentFile().mkdirs();
+
+    db = net.zetetic.database.sqlcipher.SQLiteDatabase.openDatabase(file.getPath(), PASSWORD, null, net.zetetic.database.sqlcipher.SQLiteDatabase.OPEN_READWRITE | net.zetetic.database.sqlcipher.SQLiteDatabase.CREATE_IF_NECESSARY, null, new SqlCipherDatabaseHook());
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    db.execSQL(ThreadDatabase.CREATE_TABLE);
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+    db.execSQL(GroupDatabase.CREATE_TABLE);
+    for (String index : SmsDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+    for (String index : MmsDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+    for (String statement : SearchDatabase.CREATE_TABLE) {
+      db.execSQL(statement);
+    }
+
+    insertThread(THREAD_1);
+    insertThread(THREAD_2);
+
+    searchDatabase = new SearchDatabase(context, new TestOpenHelper(context, db));
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+    net.zetetic.database.sqlcipher.SQLiteDatabase.deleteDatabase(file);
+  }
+
+  @Test
+  public void queryMessages_ordersSmsAndMmsByDateReceivedNewestFirst() {
+    long sms1 = insertSms(THREAD_1, 100, "hello one");
+    long mms1 = insertMms(THREAD_1, 300, "hello two");
+    long sms2 = insertSms(THREAD_2, 200, "hello three");
+    long mms2 = insertMms(THREAD_2, 400, "hello four");
+    insertSms(THREAD_1, 500, "goodbye");
+
+    assertEquals(Arrays.asList(mms(mms2), mms(mms1), sms(sms2), sms(sms1)), readPage("hello", -1, null, 10).keys);
+  }
+
+  @Test
+  public void queryMessages_atEqualDates_ordersMmsFirstThenNewestId() {
+    long sms1 = insertSms(THREAD_1, 100, "hello");
+    long sms2 = insertSms(THREAD_1, 100, "hello");
+    long mms1 = insertMms(THREAD_1, 100, "hello");
+    long mms2 = insertMms(THREAD_1, 100, "hello");
+
+    assertEquals(Arrays.asList(mms(mms2), mms(mms1), sms(sms2), sms(sms1)), readPage("hello", -1, null, 10).keys);
+  }
+
+  @Test
+  public void queryMessages_pagingAcrossEqualDates_returnsEveryMatchOnce() {
+    for (int i = 0; i < 60; i++) {
+      if (i % 2 == 0) {
+        insertSms(i % 3 == 0 ? THREAD_1 : THREAD_2, i / 4, "hello " + i);
+      } else {
+        insertMms(i % 3 == 0 ? THREAD_1 : THREAD_2, i / 4, "hello " + i);
+      }
+    }
+
+    List<String> expected = readPage("hello", -1, null, 100).keys;
+    List<String> paged    = new ArrayList<>();
+    Page         page     = readPage("hello", -1, null, 7);
+
+    while (!page.keys.isEmpty()) {
+      assertFalse(page.keys.size() > 7);
+      paged.addAll(page.keys);
+      page = readPage("hello", -1, page.last, 7);
+    }
+
+    assertEquals(60, expected.size());
+    assertEquals(expected, paged);
+    assertEquals(paged.size(), new HashSet<>(paged).size());
+  }
+
+  @Test
+  public void queryMessages_whenMessagesArriveBetweenPages_continuesWhereThePreviousPageEnded() {
+    long sms1 = insertSms(THREAD_1, 100, "hello");
+    long mms1 = insertMms(THREAD_1, 200, "hello");
+    long sms2 = insertSms(THREAD_1, 300, "hello");
+    long mms2 = insertMms(THREAD_1, 400, "hello");
+
+    Page first = readPage("hello", -1, null, 2);
+
+    insertSms(THREAD_1, 500, "hello");
+    insertMms(THREAD_1, 250, "goodbye");
+
+    Page second = readPage("hello", -1, first.last, 2);
+
+    assertEquals(Arrays.asList(mms(mms2), sms(sms2)), first.keys);
+    assertEquals(Arrays.asList(mms(mms1), sms(sms1)), second.keys);
+  }
+
+  @Test
+  public void queryMessages_withThreadId_pagesOnlyThatThread() {
+    long sms1 = insertSms(THREAD_1, 100, "hello");
+    insertSms(THREAD_2, 150, "hello");
+    long mms1 = insertMms(THREAD_1, 200, "hello");
+    insertMms(THREAD_2, 250, "hello");
+    long sms2 = insertSms(THREAD_1, 300, "hello");
+
+    Page first  = readPage("hello", THREAD_1, null, 2);
+    Page second = readPage("hello", THREAD_1, first.last, 2);
+
+    assertEquals(Arrays.asList(sms(sms2), mms(mms1)), first.keys);
+    assertEquals(Arrays.asList(sms(sms1)), second.keys);
+  }
+
+  @Test
+  public void queryMessages_withBlankQuery_returnsNull() {
+    insertSms(THREAD_1, 100, "hello");
+
+    assertNull(searchDatabase.queryMessages("  ", -1, null, 10));
+  }
+
+  private @NonNull Page readPage(@NonNull String query, long threadId, @Nullable SearchDatabase.MessagePosition after, int limit) {
+    try (Cursor cursor = searchDatabase.queryMessages(query, threadId, after, limit)) {
+      List<String> keys = new ArrayList<>(cursor.getCount());
+
+      while (cursor.moveToNext()) {
+        long id = CursorUtil.requireLong(cursor, SearchDatabase.MESSAGE_ID);
+        keys.add(CursorUtil.requireBoolean(cursor, SearchDatabase.IS_MMS) ? mms(id) : sms(id));
+      }
+
+      return new Page(keys, cursor.moveToLast() ? SearchDatabase.MessagePosition.fromCursor(cursor) : null);
+    }
+  }
+
+  private void insertThread(long threadId) {
+    ContentValues values = new ContentValues();
+    values.put(ThreadDatabase.ID, threadId);
+    values.put(ThreadDatabase.RECIPIENT_ID, threadId);
+
+    db.insert(ThreadDatabase.TABLE_NAME, null, values);
+  }
+
+  private long insertSms(long threadId, long dateReceived, @NonNull String body) {
+    ContentValues values = new ContentValues();
+    values.put(SmsDatabase.THREAD_ID, threadId);
+    values.put(SmsDatabase.DATE_RECEIVED, dateReceived);
+    values.put(SmsDatabase.DATE_SENT, dateReceived);
+    values.put(SmsDatabase.TYPE, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+    values.put(SmsDatabase.BODY, body);
+
+    return db.insert(SmsDatabase.TABLE_NAME, null, values);
+  }
+
+  private long insertMms(long threadId, long dateReceived, @NonNull String body) {
+    ContentValues values = new ContentValues();
+    values.put(MmsDatabase.THREAD_ID, threadId);
+    values.put(MmsDatabase.DATE_RECEIVED, dateReceived);
+    values.put(MmsDatabase.DATE_SENT, dateReceived);
+    values.put(MmsDatabase.MESSAGE_BOX, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+    values.put(MmsDatabase.BODY, body);
+
+    return db.insert(MmsDatabase.TABLE_NAME, null, values);
+  }
+
+  private static @NonNull String sms(long id) {
+    return "sms:" + id;
+  }
+
+  private static @NonNull String mms(long id) {
+    return "mms:" + id;
+  }
+
+  private static final class Page {
+    private final           List<String>                   keys;
+    private final @Nullable SearchDatabase.MessagePosition last;
+
+    private Page(@NonNull List<String> keys, @Nullable SearchDatabase.MessagePosition last) {
+      this.keys = keys;
+      this.last = last;
+    }
+  }
+
+  /**
+   * Runs everything against the test database instead of opening the app's own.
+   */
+  private static final class TestOpenHelper extends SQLCipherOpenHelper {
+
+    private final net.zetetic.database.sqlcipher.SQLiteDatabase db;
+
+    TestOpenHelper(@NonNull Context context, @NonNull net.zetetic.database.sqlcipher.SQLiteDatabase db) {
+      super(context, new DatabaseSecret(new byte[32]));
+      this.db = db;
+    }
+
+    @Override
+    public @NonNull SQLiteDatabase getSignalReadableDatabase() {
+      return new SQLiteDatabase(db, null);
+    }
+
+    @Override
+    public @NonNull SQLiteDatabase getSignalWritableDatabase() {
+      return new SQLiteDatabase(db, null);
+    }
+  }
+}
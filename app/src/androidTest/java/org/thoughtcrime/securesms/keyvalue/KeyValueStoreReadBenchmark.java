@@ -0,0 +1,143 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.KeyValueDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares read throughput of a {@link KeyValueStore} while a writer runs flat out, reading from
+ * the published snapshot versus taking the store's lock for every read the way the getters used to.
+ *
+ * Runs against the app's real key-value database, only touching keys under {@link #PREFIX}, which
+ * are removed again afterwards.
+ */
+public final class KeyValueStoreReadBenchmark {
+
+  private static final String TAG    = "KeyValueStoreReadBenchmark";
+  private static final String PREFIX = "benchmark.KeyValueStoreReadBenchmark.";
+  private static final int    KEYS   = 100;
+  private static final int    READS  = 200_000;
+
+  private ExecutorService executor;
+  private KeyValueStore   store;
+
+  @Before
+  public void setUp() {
+    Application application = (Application) InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+
+    executor = Executors.newSingleThreadExecutor();
+    store    = new KeyValueStore(executor, KeyValueDatabase.getInstance(application));
+
+    KeyValueStore.Writer writer = store.beginWrite();
+    for (int i = 0; i < KEYS; i++) {
+      writer.putLong(PREFIX + i, i);
+    }
+    writer.commit();
+  }
+
+  @After
+  public void tearDown() {
+    KeyValueStore.Writer writer = store.beginWrite();
+    for (int i = 0; i < KEYS; i++) {
+      writer.remove(PREFIX + i);
+    }
+    writer.commit();
+
+    executor.shutdown();
+  }
+
+  @Test
+  public void reads_duringWrites_snapshotBeatsLocking() throws InterruptedException {
+    int cores   = Runtime.getRuntime().availableProcessors();
+    int readers = Math.max(2, Math.min(cores - 1, 4));
+
+    measureReadsPerSecond(readers, false);
+
+    double locked   = measureReadsPerSecond(readers, true);
+    double snapshot = measureReadsPerSecond(readers, false);
+
+    Log.i(TAG, String.format(Locale.US, "%d readers, %d cores, 1 writer: %.0f reads/s locking, %.0f reads/s from the snapshot (%.1fx)", readers, cores, locked, snapshot, snapshot / locked));
+
+    assertTrue(snapshot > locked);
+  }
+
+  private double measureReadsPerSecond(int readers, boolean locked) throws InterruptedException {
+    CountDownLatch start    = new CountDownLatch(1);
+    AtomicBoolean  finished = new AtomicBoolean(false);
+    List<Thread>   workers  = new ArrayList<>(readers);
+
+    Thread writer = new Thread(() -> {
+      try {
+        start.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+
+      for (long i = 0; !finished.get(); i++) {
+        store.beginWrite().putLong(PREFIX + (i % KEYS), i).apply();
+      }
+    });
+    writer.start();
+
+    for (int r = 0; r < readers; r++) {
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        long sum = 0;
+        for (int i = 0; i < READS; i++) {
+          String key = PREFIX + (i % KEYS);
+
+          if (locked) {
+            synchronized (store) {
+              sum += store.getLong(key, 0);
+            }
+          } else {
+            sum += store.getLong(key, 0);
+          }
+        }
+
+        if (sum < 0) {
+          throw new AssertionError();
+        }
+      });
+
+      worker.start();
+      workers.add(worker);
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    finished.set(true);
+    writer.join();
+    store.blockUntilAllWritesFinished();
+
+    return (double) readers * READS / (elapsedNanos / 1_000_000_000.0);
+  }
+}
@@ -31,6 +31,7 @@ import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
 import org.thoughtcrime.securesms.database.PendingRetryReceiptDatabase;
+import org.thoughtcrime.securesms.database.ReactionDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
 import org.thoughtcrime.securesms.database.SenderKeyDatabase;
 import org.thoughtcrime.securesms.database.SenderKeySharedDatabase;
@@ -39,11 +40,13 @@ import org.thoughtcrime.securesms.database.SignedPreKeyDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.database.model.AvatarPickerDatabase;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.keyvalue.KeyValueDataSet;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.profiles.AvatarHelper;
 import org.thoughtcrime.securesms.service.PendingRetryReceiptManager;
+import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.Stopwatch;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
@@ -82,6 +85,8 @@ public class FullBackupExporter extends FullBackupBase {
     SessionDatabase.TABLE_NAME,
     SearchDatabase.SMS_FTS_TABLE_NAME,
     SearchDatabase.MMS_FTS_TABLE_NAME,
+    SearchDatabase.RECIPIENT_FTS_TABLE_NAME,
+    SearchDatabase.GROUP_FTS_TABLE_NAME,
     EmojiSearchDatabase.TABLE_NAME,
     SenderKeyDatabase.TABLE_NAME,
     SenderKeySharedDatabase.TABLE_NAME,
@@ -155,6 +160,8 @@ public class FullBackupExporter extends FullBackupBase {
           count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringSmsMessage, null, count, cancellationSignal);
         } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
           count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count, cancellationSignal);
+        } else if (table.equals(ReactionDatabase.TABLE_NAME)) {
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, new MessageId(CursorUtil.requireLong(cursor, ReactionDatabase.MESSAGE_ID), CursorUtil.requireBoolean(cursor, ReactionDatabase.IS_MMS))), null, count, cancellationSignal);
         } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
           count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount), count, cancellationSignal);
         } else if (table.equals(StickerDatabase.TABLE_NAME)) {
@@ -221,11 +228,13 @@ public class FullBackupExporter extends FullBackupBase {
         String type = cursor.getString(2);
 
         if (sql != null) {
-          boolean isSmsFtsSecretTable   = name != null && !name.equals(SearchDatabase.SMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME);
-          boolean isMmsFtsSecretTable   = name != null && !name.equals(SearchDatabase.MMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME);
-          boolean isEmojiFtsSecretTable = name != null && !name.equals(EmojiSearchDatabase.TABLE_NAME) && name.startsWith(EmojiSearchDatabase.TABLE_NAME);
+          boolean isSmsFtsSecretTable       = name != null && !name.equals(SearchDatabase.SMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME);
+          boolean isMmsFtsSecretTable       = name != null && !name.equals(SearchDatabase.MMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME);
+          boolean isEmojiFtsSecretTable     = name != null && !name.equals(EmojiSearchDatabase.TABLE_NAME) && name.startsWith(EmojiSearchDatabase.TABLE_NAME);
+          boolean isRecipientFtsSecretTable = name != null && !name.equals(SearchDatabase.RECIPIENT_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.RECIPIENT_FTS_TABLE_NAME);
+          boolean isGroupFtsSecretTable     = name != null && !name.equals(SearchDatabase.GROUP_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.GROUP_FTS_TABLE_NAME);
 
-          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable && !isEmojiFtsSecretTable) {
+          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable && !isEmojiFtsSecretTable && !isRecipientFtsSecretTable && !isGroupFtsSecretTable) {
             if ("table".equals(type)) {
               tables.add(name);
             }
@@ -418,6 +427,24 @@ public class FullBackupExporter extends FullBackupBase {
     return cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0;
   }
 
+  private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, @NonNull MessageId messageId) {
+    if (messageId.isMms()) {
+      return isForNonExpiringMessage(db, messageId.getId());
+    }
+
+    String[] columns = new String[] { SmsDatabase.EXPIRES_IN };
+    String   where   = SmsDatabase.ID + " = ?";
+    String[] args    = new String[] { String.valueOf(messageId.getId()) };
+
+    try (Cursor smsCursor = db.query(SmsDatabase.TABLE_NAME, columns, where, args, null, null, null)) {
+      if (smsCursor != null && smsCursor.moveToFirst()) {
+        return smsCursor.getLong(smsCursor.getColumnIndexOrThrow(SmsDatabase.EXPIRES_IN)) == 0;
+      }
+    }
+
+    return false;
+  }
+
   private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long mmsId) {
     String[] columns = new String[] { MmsDatabase.EXPIRES_IN, MmsDatabase.VIEW_ONCE};
     String   where   = MmsDatabase.ID + " = ?";
@@ -135,12 +135,14 @@ public class FullBackupImporter extends FullBackupBase {
   }
 
   private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
-    boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
-    boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
-    boolean isForEmojiSecretTable  = statement.getStatement().contains(EmojiSearchDatabase.TABLE_NAME + "_");
-    boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
-
-    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForEmojiSecretTable || isForSqliteSecretTable) {
+    boolean isForSmsFtsSecretTable       = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
+    boolean isForMmsFtsSecretTable       = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
+    boolean isForEmojiSecretTable        = statement.getStatement().contains(EmojiSearchDatabase.TABLE_NAME + "_");
+    boolean isForRecipientFtsSecretTable = statement.getStatement().contains(SearchDatabase.RECIPIENT_FTS_TABLE_NAME + "_");
+    boolean isForGroupFtsSecretTable     = statement.getStatement().contains(SearchDatabase.GROUP_FTS_TABLE_NAME + "_");
+    boolean isForSqliteSecretTable       = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
+
+    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForEmojiSecretTable || isForRecipientFtsSecretTable || isForGroupFtsSecretTable || isForSqliteSecretTable) {
       Log.i(TAG, "Ignoring import for statement: " + statement.getStatement());
       return;
     }
@@ -1,27 +1,33 @@
 package org.thoughtcrime.securesms.conversation;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.annimon.stream.Stream;
-
 import org.signal.core.util.logging.Log;
-import org.signal.paging.PagedDataSource;
+import org.signal.paging.KeysetPagedDataSource;
+import org.signal.paging.PagedDataSource.CancellationSignal;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.conversation.ConversationData.MessageRequestData;
 import org.thoughtcrime.securesms.conversation.ConversationMessage.ConversationMessageFactory;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MentionDatabase;
 import org.thoughtcrime.securesms.database.MessageDatabase;
+import org.thoughtcrime.securesms.database.MessageRecordCache;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
 import org.thoughtcrime.securesms.database.model.InMemoryMessageRecord;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Mention;
 import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
+import org.thoughtcrime.securesms.database.model.Quote;
+import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.Stopwatch;
 import org.thoughtcrime.securesms.util.Util;
 
@@ -29,15 +35,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.IntSupplier;
 
 /**
- * Core data source for loading an individual conversation.
+ * Core data source for loading an individual conversation. Pages are loaded relative to
+ * neighboring messages where possible, see {@link KeysetPagedDataSource}.
  */
-class ConversationDataSource implements PagedDataSource<MessageId, ConversationMessage> {
+class ConversationDataSource implements KeysetPagedDataSource.Source<MessageId, ConversationMessage, ConversationAnchor> {
 
   private static final String TAG = Log.tag(ConversationDataSource.class);
 
@@ -67,46 +76,96 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
 
   @Override
   public @NonNull List<ConversationMessage> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
-    Stopwatch           stopwatch        = new Stopwatch("load(" + start + ", " + length + "), thread " + threadId);
-    MmsSmsDatabase      db               = DatabaseFactory.getMmsSmsDatabase(context);
-    List<MessageRecord> records          = new ArrayList<>(length);
-    MentionHelper       mentionHelper    = new MentionHelper();
-    AttachmentHelper    attachmentHelper = new AttachmentHelper();
+    MmsSmsDatabase db         = DatabaseFactory.getMmsSmsDatabase(context);
+    long           generation = DatabaseFactory.getMessageRecordCache(context).getGeneration();
+    return load("load(" + start + ", " + length + ")", db.getConversation(threadId, start, length), generation, length, () -> Math.max(0, start - db.getConversationCount(threadId)), cancellationSignal);
+  }
+
+  @Override
+  public @NonNull List<ConversationMessage> loadAfter(@NonNull ConversationAnchor anchor, int skip, int length, @NonNull CancellationSignal cancellationSignal) {
+    MmsSmsDatabase db         = DatabaseFactory.getMmsSmsDatabase(context);
+    long           generation = DatabaseFactory.getMessageRecordCache(context).getGeneration();
+    return load("loadAfter(" + anchor.getId() + ", " + skip + ", " + length + ")", db.getConversationAfter(threadId, anchor, skip, length), generation, length, () -> skip - db.getConversationCountAfter(threadId, anchor, skip), cancellationSignal);
+  }
 
-    try (MmsSmsDatabase.Reader reader = MmsSmsDatabase.readerFor(db.getConversation(threadId, start, length))) {
+  @Override
+  public @NonNull List<ConversationMessage> loadBefore(@NonNull ConversationAnchor anchor, int skip, int length, @NonNull CancellationSignal cancellationSignal) {
+    MmsSmsDatabase db         = DatabaseFactory.getMmsSmsDatabase(context);
+    long           generation = DatabaseFactory.getMessageRecordCache(context).getGeneration();
+    return load("loadBefore(" + anchor.getId() + ", " + skip + ", " + length + ")", db.getConversationBefore(threadId, anchor, skip, length), generation, length, null, cancellationSignal);
+  }
+
+  /**
+   * @param generation      The {@link MessageRecordCache} generation from before the cursor was queried.
+   * @param distancePastEnd Present if the requested range may go past the oldest message in the
+   *                        thread, in which case the in-memory updates that follow it are added
+   *                        once the cursor runs out. If the cursor is empty, this is asked how far
+   *                        past the oldest message the range starts, so that any of the updates
+   *                        that come before the range are left out.
+   */
+  private @NonNull List<ConversationMessage> load(@NonNull String description,
+                                                  @NonNull Cursor cursor,
+                                                  long generation,
+                                                  int length,
+                                                  @Nullable IntSupplier distancePastEnd,
+                                                  @NonNull CancellationSignal cancellationSignal)
+  {
+    Stopwatch                     stopwatch      = new Stopwatch(description + ", thread " + threadId);
+    MessageRecordCache            cache          = DatabaseFactory.getMessageRecordCache(context);
+    List<MessageRecord>           records        = new ArrayList<>(length);
+    Map<MessageId, List<Mention>> cachedMentions = new HashMap<>();
+    MentionHelper                 mentionHelper  = new MentionHelper();
+    PageHydrator                  hydrator       = new PageHydrator().addStage(mentionHelper)
+                                                                     .addStage(new AttachmentHelper())
+                                                                     .addStage(new ReactionHelper())
+                                                                     .addStage(new RecipientHelper());
+
+    try (MmsSmsDatabase.Reader reader = MmsSmsDatabase.readerFor(cursor)) {
       MessageRecord record;
       while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
-        records.add(record);
-        mentionHelper.add(record);
-        attachmentHelper.add(record);
+        MessageId                key    = new MessageId(record.getId(), record.isMms());
+        MessageRecordCache.Entry cached = cache.get(key);
+
+        if (cached != null) {
+          records.add(cached.getRecord());
+          cachedMentions.put(key, cached.getMentions());
+        } else {
+          records.add(record);
+          hydrator.add(record);
+        }
       }
     }
 
-    if (messageRequestData.includeWarningUpdateMessage() && (start + length >= size())) {
-      records.add(new InMemoryMessageRecord.NoGroupsInCommon(threadId, messageRequestData.isGroup()));
-    }
+    if (distancePastEnd != null && records.size() < length && !cancellationSignal.isCanceled()) {
+      List<MessageRecord> inMemory = getInMemoryRecords();
+      int                 from     = records.isEmpty() ? Math.min(distancePastEnd.getAsInt(), inMemory.size()) : 0;
+      int                 to       = Math.min(inMemory.size(), from + length - records.size());
 
-    if (showUniversalExpireTimerUpdate) {
-      records.add(new InMemoryMessageRecord.UniversalExpireTimerUpdate(threadId));
+      records.addAll(inMemory.subList(from, to));
     }
 
     stopwatch.split("messages");
 
-    mentionHelper.fetchMentions(context);
+    records = hydrator.hydrate(context, records, stopwatch, cancellationSignal);
 
-    stopwatch.split("mentions");
+    List<ConversationMessage> messages = new ArrayList<>(records.size());
 
-    attachmentHelper.fetchAttachments(context);
+    for (MessageRecord record : records) {
+      MessageId     key = new MessageId(record.getId(), record.isMms());
+      List<Mention> mentions;
 
-    stopwatch.split("attachments");
-
-    records = attachmentHelper.buildUpdatedModels(context, records);
+      if (cachedMentions.containsKey(key)) {
+        mentions = cachedMentions.get(key);
+      } else {
+        mentions = mentionHelper.getMentions(record.getId());
 
-    stopwatch.split("attachment-models");
+        if (!(record instanceof InMemoryMessageRecord)) {
+          cache.put(key, record, mentions, generation);
+        }
+      }
 
-    List<ConversationMessage> messages = Stream.of(records)
-                                               .map(m -> ConversationMessageFactory.createWithUnresolvedData(context, m, mentionHelper.getMentions(m.getId())))
-                                               .toList();
+      messages.add(ConversationMessageFactory.createWithUnresolvedData(context, record, mentions));
+    }
 
     stopwatch.split("conversion");
     stopwatch.stop(TAG);
@@ -114,11 +173,38 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
     return messages;
   }
 
+  /**
+   * @return The updates that are shown after the oldest message in the thread, in conversation order.
+   */
+  private @NonNull List<MessageRecord> getInMemoryRecords() {
+    List<MessageRecord> records = new ArrayList<>(2);
+
+    if (messageRequestData.includeWarningUpdateMessage()) {
+      records.add(new InMemoryMessageRecord.NoGroupsInCommon(threadId, messageRequestData.isGroup()));
+    }
+
+    if (showUniversalExpireTimerUpdate) {
+      records.add(new InMemoryMessageRecord.UniversalExpireTimerUpdate(threadId));
+    }
+
+    return records;
+  }
+
   @Override
   public @Nullable ConversationMessage load(@NonNull MessageId messageId) {
-    Stopwatch       stopwatch = new Stopwatch("load(" + messageId + "), thread " + threadId);
-    MessageDatabase database  = messageId.isMms() ? DatabaseFactory.getMmsDatabase(context) : DatabaseFactory.getSmsDatabase(context);
-    MessageRecord   record    = database.getMessageRecordOrNull(messageId.getId());
+    Stopwatch                stopwatch  = new Stopwatch("load(" + messageId + "), thread " + threadId);
+    MessageRecordCache       cache      = DatabaseFactory.getMessageRecordCache(context);
+    long                     generation = cache.getGeneration();
+    MessageRecordCache.Entry cached     = cache.get(messageId);
+
+    if (cached != null) {
+      stopwatch.split("cache");
+      stopwatch.stop(TAG);
+      return ConversationMessage.ConversationMessageFactory.createWithUnresolvedData(ApplicationDependencies.getApplication(), cached.getRecord(), cached.getMentions());
+    }
+
+    MessageDatabase database = messageId.isMms() ? DatabaseFactory.getMmsDatabase(context) : DatabaseFactory.getSmsDatabase(context);
+    MessageRecord   record   = database.getMessageRecordOrNull(messageId.getId());
 
     stopwatch.split("message");
 
@@ -142,6 +228,12 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
 
         stopwatch.split("attachments");
 
+        record = record.withReactions(DatabaseFactory.getReactionDatabase(context).getReactions(messageId));
+
+        stopwatch.split("reactions");
+
+        cache.put(messageId, record, mentions, generation);
+
         return ConversationMessage.ConversationMessageFactory.createWithUnresolvedData(ApplicationDependencies.getApplication(), record, mentions);
       } else {
         return null;
@@ -156,18 +248,36 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
     return new MessageId(conversationMessage.getMessageRecord().getId(), conversationMessage.getMessageRecord().isMms());
   }
 
-  private static class MentionHelper {
+  @Override
+  public @Nullable ConversationAnchor getAnchor(@NonNull ConversationMessage conversationMessage) {
+    MessageRecord record = conversationMessage.getMessageRecord();
+
+    if (record instanceof InMemoryMessageRecord) {
+      return null;
+    }
+
+    return ConversationAnchor.forRecord(record);
+  }
+
+  private static class MentionHelper implements PageHydrator.Stage {
 
     private Collection<Long>         messageIds          = new LinkedList<>();
     private Map<Long, List<Mention>> messageIdToMentions = new HashMap<>();
 
-    void add(MessageRecord record) {
+    @Override
+    public @NonNull String getName() {
+      return "mentions";
+    }
+
+    @Override
+    public void add(@NonNull MessageRecord record) {
       if (record.isMms()) {
         messageIds.add(record.getId());
       }
     }
 
-    void fetchMentions(Context context) {
+    @Override
+    public void fetch(@NonNull Context context) {
       messageIdToMentions = DatabaseFactory.getMentionDatabase(context).getMentionsForMessages(messageIds);
     }
 
@@ -176,36 +286,103 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
     }
   }
 
-  private static class AttachmentHelper {
+  private static class AttachmentHelper implements PageHydrator.Stage {
 
     private Collection<Long>                    messageIds             = new LinkedList<>();
     private Map<Long, List<DatabaseAttachment>> messageIdToAttachments = new HashMap<>();
 
-    void add(MessageRecord record) {
+    @Override
+    public @NonNull String getName() {
+      return "attachments";
+    }
+
+    @Override
+    public void add(@NonNull MessageRecord record) {
       if (record.isMms()) {
         messageIds.add(record.getId());
       }
     }
 
-    void fetchAttachments(Context context) {
+    @Override
+    public void fetch(@NonNull Context context) {
       messageIdToAttachments = DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessages(messageIds);
     }
 
-    @NonNull List<MessageRecord> buildUpdatedModels(@NonNull Context context, @NonNull List<MessageRecord> records) {
-      return records.stream()
-                    .map(record -> {
-                      if (record instanceof MediaMmsMessageRecord) {
-                        List<DatabaseAttachment> attachments = messageIdToAttachments.get(record.getId());
+    @Override
+    public @NonNull MessageRecord update(@NonNull Context context, @NonNull MessageRecord record) {
+      if (record instanceof MediaMmsMessageRecord) {
+        List<DatabaseAttachment> attachments = messageIdToAttachments.get(record.getId());
 
-                        if (Util.hasItems(attachments)) {
-                          return ((MediaMmsMessageRecord) record).withAttachments(context, attachments);
-                        }
-                      }
+        if (Util.hasItems(attachments)) {
+          return ((MediaMmsMessageRecord) record).withAttachments(context, attachments);
+        }
+      }
 
-                      return record;
-                    })
-                    .collect(Collectors.toList());
+      return record;
     }
   }
 
+  private static class ReactionHelper implements PageHydrator.Stage {
+
+    private Collection<MessageId>                messageIds           = new LinkedList<>();
+    private Map<MessageId, List<ReactionRecord>> messageIdToReactions = new HashMap<>();
+
+    @Override
+    public @NonNull String getName() {
+      return "reactions";
+    }
+
+    @Override
+    public void add(@NonNull MessageRecord record) {
+      messageIds.add(new MessageId(record.getId(), record.isMms()));
+    }
+
+    @Override
+    public void fetch(@NonNull Context context) {
+      messageIdToReactions = DatabaseFactory.getReactionDatabase(context).getReactionsForMessages(messageIds);
+    }
+
+    @Override
+    public @NonNull MessageRecord update(@NonNull Context context, @NonNull MessageRecord record) {
+      List<ReactionRecord> reactions = messageIdToReactions.get(new MessageId(record.getId(), record.isMms()));
+
+      if (Util.hasItems(reactions)) {
+        return record.withReactions(reactions);
+      }
+
+      return record;
+    }
+  }
+
+  /**
+   * Resolves the senders and quote authors of a page together, rather than leaving each to be
+   * resolved on its own when its item is bound.
+   */
+  private static class RecipientHelper implements PageHydrator.Stage {
+
+    private final Set<RecipientId> recipientIds = new HashSet<>();
+
+    @Override
+    public @NonNull String getName() {
+      return "recipients";
+    }
+
+    @Override
+    public void add(@NonNull MessageRecord record) {
+      recipientIds.add(record.getIndividualRecipient().getId());
+
+      if (record instanceof MmsMessageRecord) {
+        Quote quote = ((MmsMessageRecord) record).getQuote();
+
+        if (quote != null) {
+          recipientIds.add(quote.getAuthor());
+        }
+      }
+    }
+
+    @Override
+    public void fetch(@NonNull Context context) {
+      ApplicationDependencies.getRecipientCache().resolveAll(recipientIds);
+    }
+  }
 }
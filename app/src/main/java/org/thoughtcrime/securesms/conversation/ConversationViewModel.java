@@ -17,6 +17,7 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 import org.signal.core.util.MapUtil;
 import org.signal.core.util.logging.Log;
+import org.signal.paging.KeysetPagedDataSource;
 import org.signal.paging.PagedData;
 import org.signal.paging.PagingConfig;
 import org.signal.paging.PagingController;
@@ -79,8 +80,9 @@ public class ConversationViewModel extends ViewModel {
 
   private final Map<GroupId, Set<Recipient>> sessionMemberCache = new HashMap<>();
 
-  private ConversationIntents.Args args;
-  private int                      jumpToPosition;
+  private ConversationIntents.Args                              args;
+  private int                                                   jumpToPosition;
+  private Pair<Long, PagedData<MessageId, ConversationMessage>> currentPagedData;
 
   private ConversationViewModel() {
     this.context                = ApplicationDependencies.getApplication();
@@ -135,14 +137,17 @@ public class ConversationViewModel extends ViewModel {
       ConversationDataSource dataSource = new ConversationDataSource(context, data.getThreadId(), messageRequestData, data.showUniversalExpireTimerMessage());
       PagingConfig           config     = new PagingConfig.Builder().setPageSize(25)
                                                                     .setBufferPages(3)
+                                                                    .setEvictionWindowPages(20)
                                                                     .setStartIndex(Math.max(startPosition, 0))
                                                                     .build();
 
       Log.d(TAG, "Starting at position: " + startPosition + " || jumpToPosition: " + data.getJumpToPosition() + ", lastSeenPosition: " + data.getLastSeenPosition() + ", lastScrolledPosition: " + data.getLastScrolledPosition());
-      return new Pair<>(data.getThreadId(), PagedData.create(dataSource, config));
+      return new Pair<>(data.getThreadId(), PagedData.create(new KeysetPagedDataSource<>(dataSource), config));
     });
 
     this.messages = Transformations.switchMap(pagedDataForThreadId, pair -> {
+      logPagingStats();
+      currentPagedData = pair;
       pagingController.set(pair.second().getController());
       return pair.second().getData();
     });
@@ -301,12 +306,20 @@ public class ConversationViewModel extends ViewModel {
   @Override
   protected void onCleared() {
     super.onCleared();
+    logPagingStats();
     ApplicationDependencies.getDatabaseObserver().unregisterObserver(conversationObserver);
     ApplicationDependencies.getDatabaseObserver().unregisterObserver(messageUpdateObserver);
     ApplicationDependencies.getDatabaseObserver().unregisterObserver(messageInsertObserver);
     EventBus.getDefault().unregister(this);
   }
 
+  @MainThread
+  private void logPagingStats() {
+    if (currentPagedData != null) {
+      Log.d(TAG, "[logPagingStats] threadId: " + currentPagedData.first() + ", " + currentPagedData.second().getStats());
+    }
+  }
+
   enum Event {
     SHOW_RECAPTCHA
   }
@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.conversation;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.signal.paging.PagedDataSource.CancellationSignal;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.util.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills in the data a page of conversation records needs beyond what's in their rows, using a
+ * series of {@link Stage}s. Each stage is shown every record in the page, then fetches what it
+ * needs for all of them at once, rather than once per record.
+ */
+final class PageHydrator {
+
+  private final List<Stage> stages = new ArrayList<>();
+
+  @NonNull PageHydrator addStage(@NonNull Stage stage) {
+    stages.add(stage);
+    return this;
+  }
+
+  void add(@NonNull MessageRecord record) {
+    for (Stage stage : stages) {
+      stage.add(record);
+    }
+  }
+
+  /**
+   * Runs every stage's fetch, with a stopwatch split for each, then gives each stage the chance to
+   * update the records. Stops early if the load is canceled, in which case the records are returned
+   * as they are, since the page is going to be dropped anyway.
+   */
+  @WorkerThread
+  @NonNull List<MessageRecord> hydrate(@NonNull Context context,
+                                       @NonNull List<MessageRecord> records,
+                                       @NonNull Stopwatch stopwatch,
+                                       @NonNull CancellationSignal cancellationSignal)
+  {
+    for (Stage stage : stages) {
+      if (cancellationSignal.isCanceled()) {
+        return records;
+      }
+
+      stage.fetch(context);
+      stopwatch.split(stage.getName());
+    }
+
+    List<MessageRecord> updated = new ArrayList<>(records.size());
+
+    for (MessageRecord record : records) {
+      for (Stage stage : stages) {
+        record = stage.update(context, record);
+      }
+      updated.add(record);
+    }
+
+    stopwatch.split("models");
+
+    return updated;
+  }
+
+  interface Stage {
+    /**
+     * Used to label the stage's stopwatch split.
+     */
+    @NonNull String getName();
+
+    /**
+     * Called with each record in the page that needs hydrating, before {@link #fetch(Context)}.
+     */
+    void add(@NonNull MessageRecord record);
+
+    /**
+     * Fetches the data for every added record, ideally with one query.
+     */
+    @WorkerThread
+    void fetch(@NonNull Context context);
+
+    /**
+     * @return The record with the fetched data applied, or the same record if there's nothing to
+     *         apply.
+     */
+    default @NonNull MessageRecord update(@NonNull Context context, @NonNull MessageRecord record) {
+      return record;
+    }
+  }
+}
@@ -0,0 +1,416 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed storage for attachment data. Each unique piece of content, identified by the
+ * hash of its plaintext, is encrypted to disk once, and every {@link AttachmentDatabase} row with
+ * that content points at the same file.
+ *
+ * References are counted by triggers on the attachment table, keyed on the file, so that every
+ * insert, update, and delete of an attachment keeps the counts right no matter how it's done.
+ * Quotes are also counted on their own, because they're weak references: once the last non-quote
+ * reference is gone, the data is deleted and the quotes lose it.
+ *
+ * Storing data and pointing a row at it are two separate steps, and in between, the blob may have
+ * no strong references, like when a write is deduplicated onto a blob that only quotes refer to. So
+ * a blob is only deleted once nothing but quotes refer to it and it hasn't been used for
+ * {@link #UNUSED_GRACE_PERIOD}.
+ */
+public class AttachmentBlobDatabase extends Database {
+
+  private static final String TAG = Log.tag(AttachmentBlobDatabase.class);
+
+  public  static final String TABLE_NAME      = "attachment_blob";
+  private static final String ID              = "_id";
+  private static final String HASH            = "hash";
+  private static final String DATA            = "_data";
+  private static final String DATA_RANDOM     = "data_random";
+  private static final String SIZE            = "data_size";
+  private static final String REF_COUNT       = "ref_count";
+  private static final String QUOTE_REF_COUNT = "quote_ref_count";
+  private static final String LAST_USED       = "last_used";
+
+  static final long UNUSED_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(5);
+
+  private static final String UNREFERENCED = REF_COUNT + " <= " + QUOTE_REF_COUNT;
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID              + " INTEGER PRIMARY KEY, " +
+                                                                                  HASH            + " TEXT UNIQUE NOT NULL, " +
+                                                                                  DATA            + " TEXT UNIQUE NOT NULL, " +
+                                                                                  DATA_RANDOM     + " BLOB, " +
+                                                                                  SIZE            + " INTEGER DEFAULT 0, " +
+                                                                                  REF_COUNT       + " INTEGER DEFAULT 0, " +
+                                                                                  QUOTE_REF_COUNT + " INTEGER DEFAULT 0, " +
+                                                                                  LAST_USED       + " INTEGER DEFAULT 0)";
+
+  public static final String[] CREATE_INDEXES = {
+    "CREATE INDEX IF NOT EXISTS attachment_blob_unreferenced_index ON " + TABLE_NAME + " (" + LAST_USED + ") WHERE " + UNREFERENCED
+  };
+
+  private static final String PART       = AttachmentDatabase.TABLE_NAME;
+  private static final String PART_DATA  = AttachmentDatabase.DATA;
+  private static final String PART_QUOTE = AttachmentDatabase.QUOTE;
+
+  public static final String[] CREATE_TRIGGERS = {
+    "CREATE TRIGGER attachment_blob_part_insert AFTER INSERT ON " + PART + " WHEN new." + PART_DATA + " NOT NULL BEGIN " +
+      addReference("new") +
+    "END",
+    "CREATE TRIGGER attachment_blob_part_delete AFTER DELETE ON " + PART + " WHEN old." + PART_DATA + " NOT NULL BEGIN " +
+      removeReference("old") +
+    "END",
+    "CREATE TRIGGER attachment_blob_part_update AFTER UPDATE OF " + PART_DATA + ", " + PART_QUOTE + " ON " + PART + " WHEN old." + PART_DATA + " IS NOT new." + PART_DATA + " OR old." + PART_QUOTE + " IS NOT new." + PART_QUOTE + " BEGIN " +
+      removeReference("old") +
+      addReference("new") +
+    "END"
+  };
+
+  private static String addReference(@NonNull String row) {
+    return "UPDATE " + TABLE_NAME + " SET " + REF_COUNT       + " = " + REF_COUNT       + " + 1, " +
+                                              QUOTE_REF_COUNT + " = " + QUOTE_REF_COUNT + " + ifnull(" + row + "." + PART_QUOTE + ", 0) " +
+           "WHERE " + DATA + " = " + row + "." + PART_DATA + "; ";
+  }
+
+  private static String removeReference(@NonNull String row) {
+    return "UPDATE " + TABLE_NAME + " SET " + REF_COUNT       + " = " + REF_COUNT       + " - 1, " +
+                                              QUOTE_REF_COUNT + " = " + QUOTE_REF_COUNT + " - ifnull(" + row + "." + PART_QUOTE + ", 0) " +
+           "WHERE " + DATA + " = " + row + "." + PART_DATA + "; ";
+  }
+
+  private final AtomicLong deduplicatedWrites     = new AtomicLong();
+  private final AtomicLong deduplicatedWriteBytes = new AtomicLong();
+  private final AtomicLong avoidedCopies          = new AtomicLong();
+  private final AtomicLong avoidedCopyBytes       = new AtomicLong();
+  private final AtomicLong avoidedTransforms      = new AtomicLong();
+  private final AtomicLong collected              = new AtomicLong();
+  private final AtomicLong collectedBytes         = new AtomicLong();
+
+  public AttachmentBlobDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * Adds freshly written data to the store. If the store already has data with the same hash, that
+   * blob is returned instead, and the caller is responsible for deleting its own copy.
+   */
+  @NonNull Blob insertOrGet(@NonNull String hash, @NonNull File file, @Nullable byte[] random, long length) {
+    SQLiteDatabase db  = databaseHelper.getSignalWritableDatabase();
+    long           now = System.currentTimeMillis();
+
+    db.beginTransaction();
+    try {
+      Blob existing = get(db, HASH + " = ?", SqlUtil.buildArgs(hash));
+
+      if (existing != null && existing.getFile().exists()) {
+        touch(db, existing, now);
+        db.setTransactionSuccessful();
+
+        deduplicatedWrites.incrementAndGet();
+        deduplicatedWriteBytes.addAndGet(length);
+
+        return existing;
+      }
+
+      if (existing != null) {
+        Log.w(TAG, "[insertOrGet] File for existing blob is missing. Replacing it. " + existing.getFile());
+        db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(existing.id));
+      }
+
+      ContentValues values = new ContentValues(5);
+      values.put(HASH, hash);
+      values.put(DATA, file.getAbsolutePath());
+      values.put(DATA_RANDOM, random);
+      values.put(SIZE, length);
+      values.put(LAST_USED, now);
+
+      long id = db.insert(TABLE_NAME, null, values);
+
+      db.setTransactionSuccessful();
+
+      return new Blob(id, hash, file, random, length, 0, 0, now);
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * @return The blob stored in the file, if there is one. It's marked as just used, so that the
+   *         caller has time to point a row at it before it could be collected.
+   */
+  @Nullable Blob getForReuse(@NonNull File file) {
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      Blob blob = get(db, DATA + " = ?", SqlUtil.buildArgs(file.getAbsolutePath()));
+
+      if (blob != null) {
+        touch(db, blob, System.currentTimeMillis());
+        avoidedCopies.incrementAndGet();
+        avoidedCopyBytes.addAndGet(blob.getLength());
+      }
+
+      db.setTransactionSuccessful();
+      return blob;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @Nullable Blob getByFile(@NonNull SQLiteDatabase db, @NonNull String data) {
+    return get(db, DATA + " = ?", SqlUtil.buildArgs(data));
+  }
+
+  void delete(@NonNull SQLiteDatabase db, @NonNull Blob blob) {
+    db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(blob.id));
+  }
+
+  /**
+   * Removes every blob that only quotes refer to, and that hasn't been used since the provided time.
+   *
+   * @return The blobs that were removed. Their files still need to be deleted, and the quotes that
+   *         refer to them need to be cleared.
+   */
+  @NonNull List<Blob> deleteUnreferenced(long unusedSince) {
+    SQLiteDatabase db      = databaseHelper.getSignalWritableDatabase();
+    List<Blob>     deleted = new LinkedList<>();
+
+    db.beginTransaction();
+    try {
+      try (Cursor cursor = db.query(TABLE_NAME, null, UNREFERENCED + " AND " + LAST_USED + " < ?", SqlUtil.buildArgs(unusedSince), null, null, null)) {
+        while (cursor.moveToNext()) {
+          deleted.add(readBlob(cursor));
+        }
+      }
+
+      for (Blob blob : deleted) {
+        delete(db, blob);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return deleted;
+  }
+
+  /**
+   * @return The earliest time at which a blob that only quotes refer to can be collected, or -1 if
+   *         there aren't any.
+   */
+  long getNextCollectionTime() {
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, new String[] { "MIN(" + LAST_USED + ")" }, UNREFERENCED, null, null, null, null)) {
+      if (cursor.moveToFirst() && !cursor.isNull(0)) {
+        return cursor.getLong(0) + UNUSED_GRACE_PERIOD;
+      }
+    }
+
+    return -1;
+  }
+
+  @NonNull Set<String> getAllFiles() {
+    Set<String> files = new HashSet<>();
+
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, new String[] { DATA }, null, null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        files.add(CursorUtil.requireString(cursor, DATA));
+      }
+    }
+
+    return files;
+  }
+
+  void deleteAll() {
+    databaseHelper.getSignalWritableDatabase().delete(TABLE_NAME, null, null);
+  }
+
+  /**
+   * Called when an attachment is inserted with an upload and transform that were already done for
+   * an existing attachment with the same data.
+   */
+  void onTransformAvoided() {
+    avoidedTransforms.incrementAndGet();
+  }
+
+  void onCollected(@NonNull Blob blob) {
+    collected.incrementAndGet();
+    collectedBytes.addAndGet(blob.getLength());
+  }
+
+  public @NonNull Stats getStats() {
+    long blobs       = 0;
+    long storedBytes = 0;
+    long savedBytes  = 0;
+
+    String[] projection = new String[] { "COUNT(*)", "SUM(" + SIZE + ")", "SUM(" + SIZE + " * MAX(" + REF_COUNT + " - 1, 0))" };
+
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, projection, null, null, null, null, null)) {
+      if (cursor.moveToFirst()) {
+        blobs       = cursor.getLong(0);
+        storedBytes = cursor.getLong(1);
+        savedBytes  = cursor.getLong(2);
+      }
+    }
+
+    return new Stats(blobs,
+                     storedBytes,
+                     savedBytes,
+                     deduplicatedWrites.get(),
+                     deduplicatedWriteBytes.get(),
+                     avoidedCopies.get(),
+                     avoidedCopyBytes.get(),
+                     avoidedTransforms.get(),
+                     collected.get(),
+                     collectedBytes.get());
+  }
+
+  private static void touch(@NonNull SQLiteDatabase db, @NonNull Blob blob, long now) {
+    ContentValues values = new ContentValues(1);
+    values.put(LAST_USED, now);
+
+    db.update(TABLE_NAME, values, ID_WHERE, SqlUtil.buildArgs(blob.id));
+  }
+
+  private static @Nullable Blob get(@NonNull SQLiteDatabase db, @NonNull String where, @NonNull String[] args) {
+    try (Cursor cursor = db.query(TABLE_NAME, null, where, args, null, null, null, "1")) {
+      return cursor.moveToFirst() ? readBlob(cursor) : null;
+    }
+  }
+
+  private static @NonNull Blob readBlob(@NonNull Cursor cursor) {
+    return new Blob(CursorUtil.requireLong(cursor, ID),
+                    CursorUtil.requireString(cursor, HASH),
+                    new File(CursorUtil.requireString(cursor, DATA)),
+                    CursorUtil.requireBlob(cursor, DATA_RANDOM),
+                    CursorUtil.requireLong(cursor, SIZE),
+                    CursorUtil.requireInt(cursor, REF_COUNT),
+                    CursorUtil.requireInt(cursor, QUOTE_REF_COUNT),
+                    CursorUtil.requireLong(cursor, LAST_USED));
+  }
+
+  static final class Blob {
+    private final long   id;
+    private final String hash;
+    private final File   file;
+    private final byte[] random;
+    private final long   length;
+    private final int    refCount;
+    private final int    quoteRefCount;
+    private final long   lastUsed;
+
+    private Blob(long id, @NonNull String hash, @NonNull File file, @Nullable byte[] random, long length, int refCount, int quoteRefCount, long lastUsed) {
+      this.id            = id;
+      this.hash          = hash;
+      this.file          = file;
+      this.random        = random;
+      this.length        = length;
+      this.refCount      = refCount;
+      this.quoteRefCount = quoteRefCount;
+      this.lastUsed      = lastUsed;
+    }
+
+    @NonNull String getHash() {
+      return hash;
+    }
+
+    @NonNull File getFile() {
+      return file;
+    }
+
+    @Nullable byte[] getRandom() {
+      return random;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    /**
+     * @return True if anything other than a quote refers to this blob.
+     */
+    boolean hasStrongReference() {
+      return refCount > quoteRefCount;
+    }
+
+    /**
+     * @return True if the blob was handed out for reuse recently enough that a row may be about to
+     *         point at it, so it can't be collected yet.
+     */
+    boolean isInGracePeriod(long now) {
+      return lastUsed >= now - UNUSED_GRACE_PERIOD;
+    }
+  }
+
+  public static final class Stats {
+    private final long blobs;
+    private final long storedBytes;
+    private final long savedBytes;
+    private final long deduplicatedWrites;
+    private final long deduplicatedWriteBytes;
+    private final long avoidedCopies;
+    private final long avoidedCopyBytes;
+    private final long avoidedTransforms;
+    private final long collected;
+    private final long collectedBytes;
+
+    private Stats(long blobs,
+                  long storedBytes,
+                  long savedBytes,
+                  long deduplicatedWrites,
+                  long deduplicatedWriteBytes,
+                  long avoidedCopies,
+                  long avoidedCopyBytes,
+                  long avoidedTransforms,
+                  long collected,
+                  long collectedBytes)
+    {
+      this.blobs                  = blobs;
+      this.storedBytes            = storedBytes;
+      this.savedBytes             = savedBytes;
+      this.deduplicatedWrites     = deduplicatedWrites;
+      this.deduplicatedWriteBytes = deduplicatedWriteBytes;
+      this.avoidedCopies          = avoidedCopies;
+      this.avoidedCopyBytes       = avoidedCopyBytes;
+      this.avoidedTransforms      = avoidedTransforms;
+      this.collected              = collected;
+      this.collectedBytes         = collectedBytes;
+    }
+
+    /**
+     * @return How many bytes on disk are saved, compared to every reference having its own copy.
+     */
+    public long getSavedBytes() {
+      return savedBytes;
+    }
+
+    public long getStoredBytes() {
+      return storedBytes;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "blobs: %d, stored: %d bytes, saved: %d bytes, deduplicated writes: %d (%d bytes), avoided copies: %d (%d bytes), avoided transforms: %d, collected: %d (%d bytes)",
+                           blobs, storedBytes, savedBytes, deduplicatedWrites, deduplicatedWriteBytes, avoidedCopies, avoidedCopyBytes, avoidedTransforms, collected, collectedBytes);
+    }
+  }
+}
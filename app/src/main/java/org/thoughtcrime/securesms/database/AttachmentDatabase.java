@@ -48,7 +48,9 @@ import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.databaseprotos.AudioWaveFormData;
+import org.thoughtcrime.securesms.jobs.AttachmentBlobCleanupJob;
 import org.thoughtcrime.securesms.mms.MediaStream;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.PartAuthority;
@@ -133,8 +135,7 @@ public class AttachmentDatabase extends Database {
 
   public static final long PREUPLOAD_MESSAGE_ID = -8675309;
 
-  private static final String PART_ID_WHERE     = ROW_ID + " = ? AND " + UNIQUE_ID + " = ?";
-  private static final String PART_ID_WHERE_NOT = ROW_ID + " != ? AND " + UNIQUE_ID + " != ?";
+  private static final String PART_ID_WHERE = ROW_ID + " = ? AND " + UNIQUE_ID + " = ?";
 
   private static final String[] PROJECTION = new String[] {ROW_ID,
                                                            MMS_ID, CONTENT_TYPE, NAME, CONTENT_DISPOSITION,
@@ -343,30 +344,19 @@ public class AttachmentDatabase extends Database {
     return attachments;
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   public void deleteAttachmentsForMessage(long mmsId) {
     Log.d(TAG, "[deleteAttachmentsForMessage] mmsId: " + mmsId);
 
-    SQLiteDatabase database = databaseHelper.getSignalWritableDatabase();
-    Cursor         cursor   = null;
+    SQLiteDatabase       database = databaseHelper.getSignalWritableDatabase();
+    List<StoredDataInfo> stored   = getStoredDataForMessage(database, mmsId);
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, CONTENT_TYPE, ROW_ID, UNIQUE_ID}, MMS_ID + " = ?",
-                              new String[] {mmsId+""}, null, null, null);
+    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
 
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(CursorUtil.requireString(cursor, DATA),
-                               CursorUtil.requireString(cursor, CONTENT_TYPE),
-                               new AttachmentId(CursorUtil.requireLong(cursor, ROW_ID),
-                                                CursorUtil.requireLong(cursor, UNIQUE_ID)));
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    for (StoredDataInfo info : stored) {
+      deleteAttachmentOnDisk(info.data, info.contentType, info.attachmentId, true);
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
-    notifyAttachmentListeners();
+    notifyAttachmentListeners(mmsId);
   }
 
   /**
@@ -399,23 +389,8 @@ public class AttachmentDatabase extends Database {
   public void deleteAttachmentFilesForViewOnceMessage(long mmsId) {
     Log.d(TAG, "[deleteAttachmentFilesForViewOnceMessage] mmsId: " + mmsId);
 
-    SQLiteDatabase database = databaseHelper.getSignalWritableDatabase();
-    Cursor         cursor   = null;
-
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, CONTENT_TYPE, ROW_ID, UNIQUE_ID}, MMS_ID + " = ?",
-          new String[] {mmsId+""}, null, null, null);
-
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(CursorUtil.requireString(cursor, DATA),
-                               CursorUtil.requireString(cursor, CONTENT_TYPE),
-                               new AttachmentId(CursorUtil.requireLong(cursor, ROW_ID),
-                                                CursorUtil.requireLong(cursor, UNIQUE_ID)));
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
+    SQLiteDatabase       database = databaseHelper.getSignalWritableDatabase();
+    List<StoredDataInfo> stored   = getStoredDataForMessage(database, mmsId);
 
     ContentValues values = new ContentValues();
     values.put(DATA, (String) null);
@@ -431,7 +406,12 @@ public class AttachmentDatabase extends Database {
     values.put(CONTENT_TYPE, MediaUtil.VIEW_ONCE);
 
     database.update(TABLE_NAME, values, MMS_ID + " = ?", new String[] {mmsId + ""});
-    notifyAttachmentListeners();
+
+    for (StoredDataInfo info : stored) {
+      deleteAttachmentOnDisk(info.data, info.contentType, info.attachmentId, true);
+    }
+
+    notifyAttachmentListeners(mmsId);
 
     long threadId = DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId);
     if (threadId > 0) {
@@ -445,7 +425,7 @@ public class AttachmentDatabase extends Database {
     SQLiteDatabase database = databaseHelper.getSignalWritableDatabase();
 
     try (Cursor cursor = database.query(TABLE_NAME,
-                                        new String[]{DATA, CONTENT_TYPE},
+                                        new String[]{DATA, CONTENT_TYPE, MMS_ID},
                                         PART_ID_WHERE,
                                         id.toStrings(),
                                         null,
@@ -458,10 +438,11 @@ public class AttachmentDatabase extends Database {
       }
       String data        = CursorUtil.requireString(cursor, DATA);
       String contentType = CursorUtil.requireString(cursor, CONTENT_TYPE);
+      long   mmsId       = CursorUtil.requireLong(cursor, MMS_ID);
 
       database.delete(TABLE_NAME, PART_ID_WHERE, id.toStrings());
-      deleteAttachmentOnDisk(data, contentType, id);
-      notifyAttachmentListeners();
+      deleteAttachmentOnDisk(data, contentType, id, false);
+      notifyAttachmentListeners(mmsId);
     }
   }
 
@@ -473,6 +454,90 @@ public class AttachmentDatabase extends Database {
     int deletes = db.delete(TABLE_NAME, where, null);
     if (deletes > 0) {
       Log.i(TAG, "Trimmed " + deletes + " abandoned attachments.");
+      AttachmentBlobCleanupJob.enqueue();
+    }
+  }
+
+  /**
+   * Deletes the data that only quotes refer to, once it's gone unused for long enough, and clears
+   * it from those quotes.
+   *
+   * @return The earliest time at which there may be more data to delete, or -1 if there's none.
+   */
+  public long deleteUnreferencedBlobs() {
+    AttachmentBlobDatabase blobDatabase = DatabaseFactory.getAttachmentBlobDatabase(context);
+    SQLiteDatabase         database     = databaseHelper.getSignalWritableDatabase();
+    long                   unusedSince  = System.currentTimeMillis() - AttachmentBlobDatabase.UNUSED_GRACE_PERIOD;
+
+    List<AttachmentBlobDatabase.Blob> deleted;
+    Set<Long>                         mmsIds;
+
+    database.beginTransaction();
+    try {
+      deleted = blobDatabase.deleteUnreferenced(unusedSince);
+      mmsIds  = clearBlobReferences(database, deleted);
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+
+    if (deleted.size() > 0) {
+      deleteBlobFiles(deleted, mmsIds);
+      Log.i(TAG, String.format(Locale.US, "[deleteUnreferencedBlobs] Deleted %d files and cleared them from %d messages.", deleted.size(), mmsIds.size()));
+    }
+
+    return blobDatabase.getNextCollectionTime();
+  }
+
+  /**
+   * Points every attachment that still refers to the blobs, which can only be quotes, at nothing.
+   *
+   * @return The ids of the messages those attachments belong to.
+   */
+  private @NonNull Set<Long> clearBlobReferences(@NonNull SQLiteDatabase database, @NonNull List<AttachmentBlobDatabase.Blob> blobs) {
+    Set<Long> mmsIds = new HashSet<>();
+
+    for (AttachmentBlobDatabase.Blob blob : blobs) {
+      ContentValues values = new ContentValues(3);
+      values.putNull(DATA);
+      values.putNull(DATA_RANDOM);
+      values.putNull(DATA_HASH);
+
+      String[] args = new String[] { blob.getFile().getAbsolutePath() };
+
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] { MMS_ID }, DATA + " = ?", args, null, null, null)) {
+        while (cursor.moveToNext()) {
+          mmsIds.add(CursorUtil.requireLong(cursor, MMS_ID));
+        }
+      }
+
+      database.update(TABLE_NAME, values, DATA + " = ?", args);
+    }
+
+    return mmsIds;
+  }
+
+  /**
+   * Must be called once the blobs have been removed from the store and cleared from the messages.
+   */
+  private void deleteBlobFiles(@NonNull List<AttachmentBlobDatabase.Blob> blobs, @NonNull Set<Long> mmsIds) {
+    AttachmentBlobDatabase blobDatabase = DatabaseFactory.getAttachmentBlobDatabase(context);
+
+    for (AttachmentBlobDatabase.Blob blob : blobs) {
+      if (blob.getFile().delete() || !blob.getFile().exists()) {
+        blobDatabase.onCollected(blob);
+      } else {
+        Log.w(TAG, "[deleteBlobFiles] Failed to delete attachment data. " + blob.getFile());
+      }
+    }
+
+    for (long mmsId : mmsIds) {
+      DatabaseFactory.getMessageRecordCache(context).invalidate(new MessageId(mmsId, true));
+    }
+
+    if (mmsIds.size() > 0) {
+      notifyAttachmentListeners();
     }
   }
 
@@ -495,6 +560,7 @@ public class AttachmentDatabase extends Database {
       }
     }
 
+    filesInDb.addAll(DatabaseFactory.getAttachmentBlobDatabase(context).getAllFiles());
     filesInDb.addAll(DatabaseFactory.getStickerDatabase(context).getAllStickerFiles());
 
     Set<String> onDiskButNotInDatabase = SetUtil.difference(filesOnDisk, filesInDb);
@@ -511,16 +577,35 @@ public class AttachmentDatabase extends Database {
   void deleteAllAttachments() {
     SQLiteDatabase database = databaseHelper.getSignalWritableDatabase();
     database.delete(TABLE_NAME, null, null);
+    DatabaseFactory.getAttachmentBlobDatabase(context).deleteAll();
 
     FileUtils.deleteDirectoryContents(context.getDir(DIRECTORY, Context.MODE_PRIVATE));
 
+    DatabaseFactory.getMessageRecordCache(context).invalidateAll();
     notifyAttachmentListeners();
   }
 
+  /**
+   * Must be called after the attachment's row has been deleted, or its data cleared.
+   */
   private void deleteAttachmentOnDisk(@Nullable String data,
                                       @Nullable String contentType,
-                                      @NonNull AttachmentId attachmentId)
+                                      @NonNull AttachmentId attachmentId,
+                                      boolean deleteReleasedNow)
   {
+    BlobRelease release = releaseBlob(data, attachmentId, deleteReleasedNow);
+
+    if (release == BlobRelease.IN_USE) {
+      return;
+    }
+
+    if (release == BlobRelease.RELEASED) {
+      if (MediaUtil.isImageType(contentType) || MediaUtil.isVideoType(contentType)) {
+        Glide.get(context).clearDiskCache();
+      }
+      return;
+    }
+
     DataUsageResult dataUsage = getAttachmentFileUsages(data, attachmentId);
 
     if (dataUsage.hasStrongReference()) {
@@ -571,6 +656,75 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  /**
+   * Data that's in the blob store is only deleted here if the caller asks for it, like when a
+   * message expires or a view-once message is viewed, so that it doesn't outlive the message. Then
+   * the quotes that refer to it lose it right away. Even so, data that was just handed out for
+   * another attachment is kept through {@link AttachmentBlobDatabase#UNUSED_GRACE_PERIOD}, since
+   * that attachment may be about to point at it. Otherwise, if nothing but quotes refer to it
+   * anymore, it's left to {@link AttachmentBlobCleanupJob}, which deletes it and clears the quotes
+   * together.
+   */
+  private @NonNull BlobRelease releaseBlob(@Nullable String data, @NonNull AttachmentId attachmentId, boolean deleteReleasedNow) {
+    if (data == null) return BlobRelease.NOT_STORED;
+
+    AttachmentBlobDatabase blobDatabase = DatabaseFactory.getAttachmentBlobDatabase(context);
+    SQLiteDatabase         database     = databaseHelper.getSignalWritableDatabase();
+
+    AttachmentBlobDatabase.Blob blob;
+    boolean                     deleteNow;
+    Set<Long>                   mmsIds = Collections.emptySet();
+
+    database.beginTransaction();
+    try {
+      blob      = blobDatabase.getByFile(database, data);
+      deleteNow = blob != null && !blob.hasStrongReference() && deleteReleasedNow && !blob.isInGracePeriod(System.currentTimeMillis());
+
+      if (deleteNow) {
+        blobDatabase.delete(database, blob);
+        mmsIds = clearBlobReferences(database, Collections.singletonList(blob));
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+
+    if (blob == null) {
+      return BlobRelease.NOT_STORED;
+    }
+
+    if (blob.hasStrongReference()) {
+      Log.i(TAG, "[releaseBlob] Attachment data in use. Skipping deletion. " + data + " " + attachmentId);
+      return BlobRelease.IN_USE;
+    }
+
+    if (deleteNow) {
+      Log.i(TAG, "[releaseBlob] No other strong uses of this attachment data. Deleting it now and clearing it from " + mmsIds.size() + " messages. " + data + " " + attachmentId);
+      deleteBlobFiles(Collections.singletonList(blob), mmsIds);
+    } else {
+      Log.i(TAG, "[releaseBlob] No other strong uses of this attachment data. Scheduling deletion. " + data + " " + attachmentId);
+      AttachmentBlobCleanupJob.enqueue();
+    }
+
+    return BlobRelease.RELEASED;
+  }
+
+  private @NonNull List<StoredDataInfo> getStoredDataForMessage(@NonNull SQLiteDatabase database, long mmsId) {
+    List<StoredDataInfo> stored = new LinkedList<>();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, CONTENT_TYPE, ROW_ID, UNIQUE_ID}, MMS_ID + " = ?", new String[] {mmsId+""}, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        stored.add(new StoredDataInfo(CursorUtil.requireString(cursor, DATA),
+                                      CursorUtil.requireString(cursor, CONTENT_TYPE),
+                                      new AttachmentId(CursorUtil.requireLong(cursor, ROW_ID),
+                                                       CursorUtil.requireLong(cursor, UNIQUE_ID))));
+      }
+    }
+
+    return stored;
+  }
+
   private @NonNull DataUsageResult getAttachmentFileUsages(@Nullable String data, @NonNull AttachmentId attachmentId) {
     if (data == null) return DataUsageResult.NOT_IN_USE;
 
@@ -600,7 +754,7 @@ public class AttachmentDatabase extends Database {
     SQLiteDatabase     database     = databaseHelper.getSignalWritableDatabase();
     ContentValues      values       = new ContentValues();
     DataInfo           oldInfo      = getAttachmentDataFileInfo(attachmentId, DATA);
-    DataInfo           dataInfo     = setAttachmentData(inputStream, attachmentId);
+    DataInfo           dataInfo     = setAttachmentData(inputStream);
     File               transferFile = getTransferFile(databaseHelper.getSignalReadableDatabase(), attachmentId);
 
     if (oldInfo != null) {
@@ -623,8 +777,7 @@ public class AttachmentDatabase extends Database {
     values.put(TRANSFORM_PROPERTIES, TransformProperties.forSkipTransform().serialize());
 
     if (database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings()) == 0) {
-      //noinspection ResultOfMethodCallIgnored
-      dataInfo.file.delete();
+      AttachmentBlobCleanupJob.enqueue();
     } else {
       notifyConversationListeners(DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId));
       notifyConversationListListeners();
@@ -805,18 +958,7 @@ public class AttachmentDatabase extends Database {
       throw new MmsException("No attachment data found!");
     }
 
-    File destination = oldDataInfo.file;
-
-    if (onlyModifyThisAttachment) {
-      if (fileReferencedByMoreThanOneAttachment(destination)) {
-        Log.i(TAG, "Creating a new file as this one is used by more than one attachment");
-        destination = newFile();
-      }
-    }
-
-    DataInfo dataInfo = setAttachmentData(destination,
-                                          mediaStream.getStream(),
-                                          databaseAttachment.getAttachmentId());
+    DataInfo dataInfo = setAttachmentData(mediaStream.getStream());
 
     ContentValues contentValues = new ContentValues();
     contentValues.put(SIZE, dataInfo.length);
@@ -827,22 +969,17 @@ public class AttachmentDatabase extends Database {
     contentValues.put(DATA_RANDOM, dataInfo.random);
     contentValues.put(DATA_HASH, dataInfo.hash);
 
-    int updateCount = updateAttachmentAndMatchingHashes(database, databaseAttachment.getAttachmentId(), oldDataInfo.hash, contentValues);
-    Log.i(TAG, "[updateAttachmentData] Updated " + updateCount + " rows.");
-  }
-
-  /**
-   * Returns true if the file referenced by two or more attachments.
-   * Returns false if the file is referenced by zero or one attachments.
-   */
-  private boolean fileReferencedByMoreThanOneAttachment(@NonNull File file) {
-    SQLiteDatabase database  = databaseHelper.getSignalReadableDatabase();
-    String         selection = DATA + " = ?";
-    String[]       args      = new String[]{file.getAbsolutePath()};
+    int updateCount;
 
-    try (Cursor cursor = database.query(TABLE_NAME, null, selection, args, null, null, null, "2")) {
-      return cursor != null && cursor.moveToFirst() && cursor.moveToNext();
+    if (onlyModifyThisAttachment) {
+      updateCount = database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings());
+    } else {
+      updateCount = updateAttachmentAndMatchingHashes(database, databaseAttachment.getAttachmentId(), oldDataInfo.hash, contentValues);
     }
+
+    Log.i(TAG, "[updateAttachmentData] Updated " + updateCount + " rows.");
+
+    AttachmentBlobCleanupJob.enqueue();
   }
 
   public void markAttachmentAsTransformed(@NonNull AttachmentId attachmentId) {
@@ -1045,25 +1182,12 @@ public class AttachmentDatabase extends Database {
 
   }
 
-  private @NonNull DataInfo setAttachmentData(@NonNull Uri uri,
-                                              @Nullable AttachmentId attachmentId)
+  private @NonNull DataInfo setAttachmentData(@NonNull Uri uri)
       throws MmsException
   {
     try {
       InputStream inputStream = PartAuthority.getAttachmentStream(context, uri);
-      return setAttachmentData(inputStream, attachmentId);
-    } catch (IOException e) {
-      throw new MmsException(e);
-    }
-  }
-
-  private @NonNull DataInfo setAttachmentData(@NonNull InputStream in,
-                                              @Nullable AttachmentId attachmentId)
-      throws MmsException
-  {
-    try {
-      File dataFile = newFile();
-      return setAttachmentData(dataFile, in, attachmentId);
+      return setAttachmentData(inputStream);
     } catch (IOException e) {
       throw new MmsException(e);
     }
@@ -1083,89 +1207,60 @@ public class AttachmentDatabase extends Database {
     return PartFileProtector.protect(() -> File.createTempFile("part", ".mms", partsDirectory));
   }
 
-  private @NonNull DataInfo setAttachmentData(@NonNull File destination,
-                                              @NonNull InputStream in,
-                                              @Nullable AttachmentId attachmentId)
+  /**
+   * Encrypts the data to a new file and adds it to the blob store. If the store already has the
+   * same data, our copy is deleted and the existing one is used instead.
+   */
+  private @NonNull DataInfo setAttachmentData(@NonNull InputStream in)
       throws MmsException
   {
     try {
-      File                       tempFile          = newFile();
+      File                       dataFile          = newFile();
       MessageDigest              messageDigest     = MessageDigest.getInstance("SHA-256");
       DigestInputStream          digestInputStream = new DigestInputStream(in, messageDigest);
-      Pair<byte[], OutputStream> out               = ModernEncryptingPartOutputStream.createFor(attachmentSecret, tempFile, false);
+      Pair<byte[], OutputStream> out               = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
       long                       length            = StreamUtil.copy(digestInputStream, out.second);
       String                     hash              = Base64.encodeBytes(digestInputStream.getMessageDigest().digest());
 
-      if (!tempFile.renameTo(destination)) {
-        Log.w(TAG, "Couldn't rename " + tempFile.getPath() + " to " + destination.getPath());
-        tempFile.delete();
-        throw new IllegalStateException("Couldn't rename " + tempFile.getPath() + " to " + destination.getPath());
-      }
+      AttachmentBlobDatabase.Blob blob = DatabaseFactory.getAttachmentBlobDatabase(context).insertOrGet(hash, dataFile, out.first, length);
 
-      SQLiteDatabase     database       = databaseHelper.getSignalWritableDatabase();
-      Optional<DataInfo> sharedDataInfo = findDuplicateDataFileInfo(database, hash, attachmentId);
-      if (sharedDataInfo.isPresent()) {
-        Log.i(TAG, "[setAttachmentData] Duplicate data file found! " + sharedDataInfo.get().file.getAbsolutePath());
-        if (!destination.equals(sharedDataInfo.get().file) && destination.delete()) {
-          Log.i(TAG, "[setAttachmentData] Deleted original file. " + destination);
+      if (!blob.getFile().equals(dataFile)) {
+        Log.i(TAG, "[setAttachmentData] Duplicate data file found! " + blob.getFile().getAbsolutePath());
+        if (dataFile.delete()) {
+          Log.i(TAG, "[setAttachmentData] Deleted original file. " + dataFile);
         }
-        return sharedDataInfo.get();
       } else {
-        Log.i(TAG, "[setAttachmentData] No matching attachment data found. " + destination.getAbsolutePath());
+        Log.i(TAG, "[setAttachmentData] No matching attachment data found. " + dataFile.getAbsolutePath());
       }
 
-      return new DataInfo(destination, length, out.first, hash);
+      return new DataInfo(blob.getFile(), blob.getLength(), blob.getRandom(), hash);
     } catch (IOException | NoSuchAlgorithmException e) {
       throw new MmsException(e);
     }
   }
 
-  private static @NonNull Optional<DataInfo> findDuplicateDataFileInfo(@NonNull SQLiteDatabase database,
-                                                                       @NonNull String hash,
-                                                                       @Nullable AttachmentId excludedAttachmentId)
-  {
+  /**
+   * If the uri points at another attachment, there's no need to decrypt and encrypt its data again,
+   * since the new attachment can refer to the same blob.
+   */
+  private @Nullable DataInfo getReusableDataInfo(@NonNull Uri uri) {
+    if (!PartAuthority.isAttachmentUri(uri)) {
+      return null;
+    }
 
-    Pair<String, String[]> selectorArgs = buildSharedFileSelectorArgs(hash, excludedAttachmentId);
-    try (Cursor cursor = database.query(TABLE_NAME,
-                                        new String[]{DATA, DATA_RANDOM, SIZE},
-                                        selectorArgs.first,
-                                        selectorArgs.second,
-                                        null,
-                                        null,
-                                        null,
-                                        "1"))
-    {
-      if (cursor == null || !cursor.moveToFirst()) return Optional.absent();
-
-      if (cursor.getCount() > 0) {
-        DataInfo dataInfo = new DataInfo(new File(CursorUtil.requireString(cursor, DATA)),
-                                         CursorUtil.requireLong(cursor, SIZE),
-                                         CursorUtil.requireBlob(cursor, DATA_RANDOM),
-                                         hash);
-        return Optional.of(dataInfo);
-      } else {
-        return Optional.absent();
-      }
+    DataInfo source = getAttachmentDataFileInfo(PartAuthority.requireAttachmentId(uri), DATA);
+
+    if (source == null) {
+      return null;
     }
-  }
 
-  private static Pair<String, String[]> buildSharedFileSelectorArgs(@NonNull String newHash,
-                                                                    @Nullable AttachmentId attachmentId)
-  {
-    final String   selector;
-    final String[] selection;
+    AttachmentBlobDatabase.Blob blob = DatabaseFactory.getAttachmentBlobDatabase(context).getForReuse(source.file);
 
-    if (attachmentId == null) {
-      selector  = DATA_HASH + " = ?";
-      selection = new String[]{newHash};
-    } else {
-      selector  = PART_ID_WHERE_NOT + " AND " + DATA_HASH + " = ?";
-      selection = new String[]{Long.toString(attachmentId.getRowId()),
-                               Long.toString(attachmentId.getUniqueId()),
-                               newHash};
+    if (blob == null) {
+      return null;
     }
 
-    return Pair.create(selector, selection);
+    return new DataInfo(blob.getFile(), blob.getLength(), blob.getRandom(), blob.getHash());
   }
 
   public List<DatabaseAttachment> getAttachments(@NonNull Cursor cursor) {
@@ -1276,8 +1371,14 @@ public class AttachmentDatabase extends Database {
       long           uniqueId        = System.currentTimeMillis();
 
       if (attachment.getUri() != null) {
-        dataInfo = setAttachmentData(attachment.getUri(), null);
-        Log.d(TAG, "Wrote part to file: " + dataInfo.file.getAbsolutePath());
+        dataInfo = getReusableDataInfo(attachment.getUri());
+
+        if (dataInfo != null) {
+          Log.d(TAG, "Reusing data of an existing attachment: " + dataInfo.file.getAbsolutePath());
+        } else {
+          dataInfo = setAttachmentData(attachment.getUri());
+          Log.d(TAG, "Wrote part to file: " + dataInfo.file.getAbsolutePath());
+        }
       }
 
       Attachment template = attachment;
@@ -1297,6 +1398,10 @@ public class AttachmentDatabase extends Database {
                                   template.getDigest() != null                                    &&
                                   !attachment.getTransformProperties().isVideoEdited();
 
+      if (template != attachment && template.getTransformProperties().shouldSkipTransform() && !attachment.getTransformProperties().isVideoEdited()) {
+        DatabaseFactory.getAttachmentBlobDatabase(context).onTransformAvoided();
+      }
+
       ContentValues contentValues = new ContentValues();
       contentValues.put(MMS_ID, mmsId);
       contentValues.put(CONTENT_TYPE, template.getContentType());
@@ -1416,6 +1521,22 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  private static final class StoredDataInfo {
+    private final String       data;
+    private final String       contentType;
+    private final AttachmentId attachmentId;
+
+    private StoredDataInfo(@Nullable String data, @Nullable String contentType, @NonNull AttachmentId attachmentId) {
+      this.data         = data;
+      this.contentType  = contentType;
+      this.attachmentId = attachmentId;
+    }
+  }
+
+  private enum BlobRelease {
+    NOT_STORED, IN_USE, RELEASED
+  }
+
   private static final class DataUsageResult {
     private final boolean            hasStrongReference;
     private final List<AttachmentId> removableWeakReferences;
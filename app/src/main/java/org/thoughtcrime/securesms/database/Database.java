@@ -23,6 +23,7 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
 import java.util.Set;
@@ -107,6 +108,15 @@ public abstract class Database {
     context.getContentResolver().notifyChange(DatabaseContentProviders.Attachment.CONTENT_URI, null);
   }
 
+  /**
+   * Like {@link #notifyAttachmentListeners()}, but also drops the cached record of the message
+   * whose attachments changed.
+   */
+  protected void notifyAttachmentListeners(long mmsId) {
+    DatabaseFactory.getMessageRecordCache(context).invalidate(new MessageId(mmsId, true));
+    notifyAttachmentListeners();
+  }
+
   public void reset(SQLCipherOpenHelper databaseHelper) {
     this.databaseHelper = databaseHelper;
   }
@@ -70,12 +70,15 @@ public class DatabaseFactory {
   private final UnknownStorageIdDatabase    storageIdDatabase;
   private final RemappedRecordsDatabase     remappedRecordsDatabase;
   private final MentionDatabase             mentionDatabase;
+  private final ReactionDatabase            reactionDatabase;
   private final PaymentDatabase             paymentDatabase;
   private final ChatColorsDatabase          chatColorsDatabase;
   private final EmojiSearchDatabase         emojiSearchDatabase;
   private final MessageSendLogDatabase      messageSendLogDatabase;
   private final AvatarPickerDatabase        avatarPickerDatabase;
   private final GroupCallRingDatabase       groupCallRingDatabase;
+  private final AttachmentBlobDatabase      attachmentBlobDatabase;
+  private final MessageRecordCache          messageRecordCache;
 
   public static DatabaseFactory getInstance(Context context) {
     if (instance == null) {
@@ -190,6 +193,10 @@ public class DatabaseFactory {
     return getInstance(context).mentionDatabase;
   }
 
+  public static ReactionDatabase getReactionDatabase(Context context) {
+    return getInstance(context).reactionDatabase;
+  }
+
   public static PaymentDatabase getPaymentDatabase(Context context) {
     return getInstance(context).paymentDatabase;
   }
@@ -214,6 +221,14 @@ public class DatabaseFactory {
     return getInstance(context).groupCallRingDatabase;
   }
 
+  public static AttachmentBlobDatabase getAttachmentBlobDatabase(Context context) {
+    return getInstance(context).attachmentBlobDatabase;
+  }
+
+  public static MessageRecordCache getMessageRecordCache(Context context) {
+    return getInstance(context).messageRecordCache;
+  }
+
   public static net.zetetic.database.sqlcipher.SQLiteDatabase getBackupDatabase(Context context) {
     return getInstance(context).databaseHelper.getRawReadableDatabase();
   }
@@ -225,11 +240,13 @@ public class DatabaseFactory {
       getInstance(context).sms.deleteAbandonedMessages();
       getInstance(context).mms.deleteAbandonedMessages();
       getInstance(context).mms.trimEntriesForExpiredMessages();
+      getInstance(context).searchDatabase.rebuildRecipientIndexes();
       getInstance(context).getRawDatabase().execSQL("DROP TABLE IF EXISTS key_value");
       getInstance(context).getRawDatabase().execSQL("DROP TABLE IF EXISTS megaphone");
       getInstance(context).getRawDatabase().execSQL("DROP TABLE IF EXISTS job_spec");
       getInstance(context).getRawDatabase().execSQL("DROP TABLE IF EXISTS constraint_spec");
       getInstance(context).getRawDatabase().execSQL("DROP TABLE IF EXISTS dependency_spec");
+      getInstance(context).messageRecordCache.invalidateAll();
     }
   }
 
@@ -237,6 +254,14 @@ public class DatabaseFactory {
     return getInstance(context).databaseHelper.getSignalWritableDatabase().inTransaction();
   }
 
+  public static @NonNull StatementCache.Stats getStatementCacheStats(Context context) {
+    return getInstance(context).databaseHelper.getSignalWritableDatabase().getStatementCacheStats();
+  }
+
+  public static @NonNull ReadConnectionPool.Stats getReadConnectionStats(Context context) {
+    return getInstance(context).databaseHelper.getReadConnectionStats();
+  }
+
   private DatabaseFactory(@NonNull Context context) {
     SqlCipherLibraryLoader.load();
 
@@ -268,12 +293,15 @@ public class DatabaseFactory {
     this.storageIdDatabase           = new UnknownStorageIdDatabase(context, databaseHelper);
     this.remappedRecordsDatabase     = new RemappedRecordsDatabase(context, databaseHelper);
     this.mentionDatabase             = new MentionDatabase(context, databaseHelper);
+    this.reactionDatabase            = new ReactionDatabase(context, databaseHelper);
     this.paymentDatabase             = new PaymentDatabase(context, databaseHelper);
     this.chatColorsDatabase          = new ChatColorsDatabase(context, databaseHelper);
     this.emojiSearchDatabase         = new EmojiSearchDatabase(context, databaseHelper);
     this.messageSendLogDatabase      = new MessageSendLogDatabase(context, databaseHelper);
     this.avatarPickerDatabase        = new AvatarPickerDatabase(context, databaseHelper);
     this.groupCallRingDatabase       = new GroupCallRingDatabase(context, databaseHelper);
+    this.attachmentBlobDatabase      = new AttachmentBlobDatabase(context, databaseHelper);
+    this.messageRecordCache          = new MessageRecordCache(databaseHelper);
   }
 
   public void onApplicationLevelUpgrade(@NonNull Context context, @NonNull MasterSecret masterSecret,
@@ -308,6 +336,10 @@ public class DatabaseFactory {
     return databaseHelper.getRawWritableDatabase();
   }
 
+  public @NonNull org.thoughtcrime.securesms.database.SQLiteDatabase getSignalWritableDatabase() {
+    return databaseHelper.getSignalWritableDatabase();
+  }
+
   public boolean hasTable(String table) {
     return SqlUtil.tableExists(databaseHelper.getRawReadableDatabase(), table);
   }
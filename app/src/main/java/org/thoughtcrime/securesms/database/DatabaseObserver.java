@@ -1,6 +1,8 @@
 package org.thoughtcrime.securesms.database;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 
@@ -19,11 +21,18 @@ import java.util.concurrent.Executor;
  * Allows listening to database changes to varying degrees of specificity.
  *
  * A replacement for the observer system in {@link Database}. We should move to this over time.
+ *
+ * Conversation, conversation list and message notifications are coalesced: repeats of the same
+ * notification within a frame are only sent once, and sets of thread ids are merged. See
+ * {@link PendingNotifications}.
  */
 public final class DatabaseObserver {
 
+  private static final long FRAME_MILLIS = 16;
+
   private final Application application;
   private final Executor    executor;
+  private final Handler     handler;
 
   private final Set<Observer>                   conversationListObservers;
   private final Map<Long, Set<Observer>>        conversationObservers;
@@ -35,9 +44,14 @@ public final class DatabaseObserver {
   private final Set<MessageObserver>            messageUpdateObservers;
   private final Map<Long, Set<MessageObserver>> messageInsertObservers;
 
+  private PendingNotifications pendingNotifications;
+  private long                 emittedCount;
+  private long                 coalescedCount;
+
   public DatabaseObserver(Application application) {
     this.application                  = application;
     this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
+    this.handler                      = new Handler(SignalExecutors.getAndStartHandlerThread("signal-DatabaseObserver").getLooper());
     this.conversationListObservers    = new HashSet<>();
     this.conversationObservers        = new HashMap<>();
     this.verboseConversationObservers = new HashMap<>();
@@ -121,55 +135,45 @@ public final class DatabaseObserver {
   }
 
   public void notifyConversationListeners(Set<Long> threadIds) {
-    executor.execute(() -> {
-      for (long threadId : threadIds) {
-        notifyMapped(conversationObservers, threadId);
-        notifyMapped(verboseConversationObservers, threadId);
-      }
+    getMessageRecordCache().invalidateThreads(threadIds);
 
+    synchronized (this) {
+      PendingNotifications pending = getPendingNotifications();
       for (long threadId : threadIds) {
-        application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-        application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+        pending.addConversation(threadId);
       }
-    });
+    }
   }
 
   public void notifyConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(conversationObservers, threadId);
-      notifyMapped(verboseConversationObservers, threadId);
+    getMessageRecordCache().invalidateThread(threadId);
 
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
-    });
+    synchronized (this) {
+      getPendingNotifications().addConversation(threadId);
+    }
   }
 
   public void notifyVerboseConversationListeners(Set<Long> threadIds) {
-    executor.execute(() -> {
-      for (long threadId : threadIds) {
-        notifyMapped(verboseConversationObservers, threadId);
-      }
+    getMessageRecordCache().invalidateThreads(threadIds);
 
+    synchronized (this) {
+      PendingNotifications pending = getPendingNotifications();
       for (long threadId : threadIds) {
-        application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+        pending.addVerboseConversation(threadId);
       }
-    });
+    }
   }
 
   public void notifyVerboseConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(verboseConversationObservers, threadId);
+    getMessageRecordCache().invalidateThread(threadId);
 
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
-    });
+    synchronized (this) {
+      getPendingNotifications().addVerboseConversation(threadId);
+    }
   }
 
-  public void notifyConversationListListeners() {
-    executor.execute(() -> {
-      for (Observer listener : conversationListObservers) {
-        listener.onChanged();
-      }
-    });
+  public synchronized void notifyConversationListListeners() {
+    getPendingNotifications().addConversationList();
   }
 
   public void notifyPaymentListeners(@NonNull UUID paymentId) {
@@ -201,19 +205,112 @@ public final class DatabaseObserver {
   }
 
   public void notifyMessageUpdateObservers(@NonNull MessageId messageId) {
-    executor.execute(() -> {
-      messageUpdateObservers.stream().forEach(l -> l.onMessageChanged(messageId));
-    });
+    getMessageRecordCache().invalidate(messageId);
+
+    synchronized (this) {
+      getPendingNotifications().addMessageUpdate(messageId);
+    }
   }
 
   public void notifyMessageInsertObservers(long threadId, @NonNull MessageId messageId) {
-    executor.execute(() -> {
-      Set<MessageObserver> listeners = messageInsertObservers.get(threadId);
+    getMessageRecordCache().invalidate(messageId);
+
+    synchronized (this) {
+      getPendingNotifications().addMessageInsert(threadId, messageId);
+    }
+  }
+
+  /**
+   * @return How many conversation, conversation list and message notifications were actually sent,
+   *         and how many were merged into others instead.
+   */
+  public synchronized @NonNull String getNotificationStats() {
+    long total = emittedCount + coalescedCount;
+    return "emitted: " + emittedCount + ", coalesced: " + coalescedCount + ", coalesce rate: " + (total > 0 ? (coalescedCount * 100 / total) : 0) + "%";
+  }
+
+  public synchronized long getEmittedCount() {
+    return emittedCount;
+  }
+
+  public synchronized long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /**
+   * Conversation, conversation list and message notifications aren't sent right away. They're
+   * collected until the next frame boundary, so that a burst of writes, like draining a backlog of
+   * messages, makes observers reload once per frame rather than once per write.
+   */
+  private @NonNull PendingNotifications getPendingNotifications() {
+    if (pendingNotifications == null) {
+      pendingNotifications = new PendingNotifications();
+
+      long now = SystemClock.uptimeMillis();
+      handler.postAtTime(() -> executor.execute(this::sendPendingNotifications), now - (now % FRAME_MILLIS) + FRAME_MILLIS);
+    }
+
+    return pendingNotifications;
+  }
+
+  private void sendPendingNotifications() {
+    PendingNotifications pending;
+
+    synchronized (this) {
+      pending              = pendingNotifications;
+      pendingNotifications = null;
+
+      emittedCount   += pending.getRequestedCount() - pending.getCoalescedCount();
+      coalescedCount += pending.getCoalescedCount();
+    }
+
+    for (long threadId : pending.getConversations()) {
+      notifyMapped(conversationObservers, threadId);
+      notifyMapped(verboseConversationObservers, threadId);
+    }
+
+    for (long threadId : pending.getVerboseConversations()) {
+      notifyMapped(verboseConversationObservers, threadId);
+    }
+
+    if (pending.hasConversationList()) {
+      notifySet(conversationListObservers);
+    }
+
+    for (MessageId messageId : pending.getMessageUpdates()) {
+      for (MessageObserver listener : messageUpdateObservers) {
+        listener.onMessageChanged(messageId);
+      }
+    }
+
+    for (Map.Entry<Long, Set<MessageId>> inserts : pending.getMessageInserts().entrySet()) {
+      Set<MessageObserver> listeners = messageInsertObservers.get(inserts.getKey());
 
       if (listeners != null) {
-        listeners.stream().forEach(l -> l.onMessageChanged(messageId));
+        for (MessageId messageId : inserts.getValue()) {
+          for (MessageObserver listener : listeners) {
+            listener.onMessageChanged(messageId);
+          }
+        }
       }
-    });
+    }
+
+    for (long threadId : pending.getConversations()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    }
+
+    for (long threadId : pending.getVerboseConversations()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    }
+  }
+
+  /**
+   * Cached records are dropped here rather than on the executor, so that nobody can read a stale
+   * record after having been told about a change.
+   */
+  private @NonNull MessageRecordCache getMessageRecordCache() {
+    return DatabaseFactory.getMessageRecordCache(application);
   }
 
   private <K, V> void registerMapped(@NonNull Map<K, Set<V>> map, @NonNull K key, @NonNull V listener) {
@@ -33,6 +33,7 @@ import org.thoughtcrime.securesms.groups.GroupMigrationMembershipChange;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.FtsUtil;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.Util;
@@ -63,10 +64,10 @@ public final class GroupDatabase extends Database {
   private static final String TAG = Log.tag(GroupDatabase.class);
 
           static final String TABLE_NAME            = "groups";
-  private static final String ID                    = "_id";
+          static final String ID                    = "_id";
           static final String GROUP_ID              = "group_id";
           static final String RECIPIENT_ID          = "recipient_id";
-  private static final String TITLE                 = "title";
+          static final String TITLE                 = "title";
           static final String MEMBERS               = "members";
   private static final String AVATAR_ID             = "avatar_id";
   private static final String AVATAR_KEY            = "avatar_key";
@@ -109,11 +110,27 @@ public final class GroupDatabase extends Database {
                                                                                   UNMIGRATED_V1_MEMBERS + " TEXT DEFAULT NULL, " +
                                                                                   DISTRIBUTION_ID       + " TEXT DEFAULT NULL);";
 
+  /**
+   * One row per (group, member), kept in step with {@link #MEMBERS} so that the groups a recipient
+   * is in can be found with an index lookup rather than a LIKE over every group's member list. Rows
+   * follow their group's {@link #GROUP_ID} through a V1 to V2 migration via ON UPDATE CASCADE.
+   */
+          static final String MEMBERSHIP_TABLE_NAME   = "group_membership";
+  private static final String MEMBERSHIP_ID           = "_id";
+  private static final String MEMBERSHIP_GROUP_ID     = "group_id";
+  private static final String MEMBERSHIP_RECIPIENT_ID = "recipient_id";
+
+  public static final String CREATE_MEMBERSHIP_TABLE = "CREATE TABLE " + MEMBERSHIP_TABLE_NAME + " (" + MEMBERSHIP_ID           + " INTEGER PRIMARY KEY, " +
+                                                                                                       MEMBERSHIP_GROUP_ID     + " TEXT NOT NULL REFERENCES " + TABLE_NAME + " (" + GROUP_ID + ") ON DELETE CASCADE ON UPDATE CASCADE, " +
+                                                                                                       MEMBERSHIP_RECIPIENT_ID + " INTEGER NOT NULL REFERENCES " + RecipientDatabase.TABLE_NAME + " (" + RecipientDatabase.ID + ") ON DELETE CASCADE, " +
+                                                                                                       "UNIQUE(" + MEMBERSHIP_GROUP_ID + ", " + MEMBERSHIP_RECIPIENT_ID + ") ON CONFLICT IGNORE)";
+
   public static final String[] CREATE_INDEXS = {
       "CREATE UNIQUE INDEX IF NOT EXISTS group_id_index ON " + TABLE_NAME + " (" + GROUP_ID + ");",
       "CREATE UNIQUE INDEX IF NOT EXISTS group_recipient_id_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
       "CREATE UNIQUE INDEX IF NOT EXISTS expected_v2_id_index ON " + TABLE_NAME + " (" + EXPECTED_V2_ID + ");",
-      "CREATE UNIQUE INDEX IF NOT EXISTS group_distribution_id_index ON " + TABLE_NAME + "(" + DISTRIBUTION_ID + ")"
+      "CREATE UNIQUE INDEX IF NOT EXISTS group_distribution_id_index ON " + TABLE_NAME + "(" + DISTRIBUTION_ID + ")",
+      "CREATE INDEX IF NOT EXISTS group_membership_recipient_id_index ON " + MEMBERSHIP_TABLE_NAME + " (" + MEMBERSHIP_RECIPIENT_ID + ")"
 };
 
 private static final String[] GROUP_PROJECTION = {
@@ -259,16 +276,34 @@ private static final String[] GROUP_PROJECTION = {
     return noMetadata && noMembers;
   }
 
+  /**
+   * Finds groups with titles that have words starting with each word in the constraint, best matches
+   * first. An empty constraint matches every group with a title.
+   */
   public Reader getGroupsFilteredByTitle(String constraint, boolean includeInactive, boolean excludeV1, boolean excludeMms) {
+    String   table   = TABLE_NAME;
+    String   fts     = FtsUtil.createPrefixMatchString(constraint);
+    String   orderBy = TITLE + " COLLATE NOCASE ASC";
     String   query;
     String[] queryArgs;
 
     if (includeInactive) {
-      query     = TITLE + " LIKE ? AND (" + ACTIVE + " = ? OR " + RECIPIENT_ID + " IN (SELECT " + ThreadDatabase.RECIPIENT_ID + " FROM " + ThreadDatabase.TABLE_NAME + "))";
-      queryArgs = new String[]{"%" + constraint + "%", "1"};
+      query     = "(" + ACTIVE + " = ? OR " + RECIPIENT_ID + " IN (SELECT " + ThreadDatabase.RECIPIENT_ID + " FROM " + ThreadDatabase.TABLE_NAME + "))";
+      queryArgs = new String[]{"1"};
     } else {
-      query     = TITLE + " LIKE ? AND " + ACTIVE + " = ?";
-      queryArgs = new String[]{"%" + constraint + "%", "1"};
+      query     = ACTIVE + " = ?";
+      queryArgs = new String[]{"1"};
+    }
+
+    if (!fts.isEmpty()) {
+      table     = TABLE_NAME + " INNER JOIN (SELECT " + SearchDatabase.ID + " AS fts_id, rank AS fts_rank " +
+                                            "FROM " + SearchDatabase.GROUP_FTS_TABLE_NAME + " " +
+                                            "WHERE " + SearchDatabase.GROUP_FTS_TABLE_NAME + " MATCH ?) ON " + ID + " = fts_id";
+      queryArgs = SqlUtil.buildArgs(fts, "1");
+      orderBy   = "fts_rank, " + orderBy;
+    } else {
+      query    += " AND " + TITLE + " LIKE ?";
+      queryArgs = SqlUtil.appendArg(queryArgs, "%" + constraint + "%");
     }
 
     if (excludeV1) {
@@ -279,7 +314,7 @@ private static final String[] GROUP_PROJECTION = {
       query += " AND " + MMS + " = 0";
     }
 
-    Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, null, query, queryArgs, null, null, TITLE + " COLLATE NOCASE ASC");
+    Cursor cursor = databaseHelper.getSignalReadableDatabase().query(table, null, query, queryArgs, null, null, orderBy);
 
     return new Reader(cursor);
   }
@@ -357,8 +392,8 @@ private static final String[] GROUP_PROJECTION = {
   public @NonNull List<GroupRecord> getGroupsContainingMember(@NonNull RecipientId recipientId, boolean pushOnly, boolean includeInactive) {
     SQLiteDatabase database   = databaseHelper.getSignalReadableDatabase();
     String         table      = TABLE_NAME + " INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + TABLE_NAME + "." + RECIPIENT_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID;
-    String         query      = MEMBERS + " LIKE ?";
-    String[]       args       = SqlUtil.buildArgs("%" + recipientId.serialize() + "%");
+    String         query      = TABLE_NAME + "." + GROUP_ID + " IN (SELECT " + MEMBERSHIP_GROUP_ID + " FROM " + MEMBERSHIP_TABLE_NAME + " WHERE " + MEMBERSHIP_RECIPIENT_ID + " = ?)";
+    String[]       args       = SqlUtil.buildArgs(recipientId);
     String         orderBy    = ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.DATE + " DESC";
 
     if (pushOnly) {
@@ -375,11 +410,7 @@ private static final String[] GROUP_PROJECTION = {
 
     try (Cursor cursor = database.query(table, null, query, args, null, null, orderBy)) {
       while (cursor != null && cursor.moveToNext()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-
-        if (RecipientId.serializedListContains(serializedMembers, recipientId)) {
-          groups.add(new Reader(cursor).getCurrent());
-        }
+        groups.add(new Reader(cursor).getCurrent());
       }
     }
 
@@ -575,7 +606,19 @@ private static final String[] GROUP_PROJECTION = {
       }
     }
 
-    databaseHelper.getSignalWritableDatabase().insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      if (db.insert(TABLE_NAME, null, contentValues) != -1) {
+        replaceMembers(db, groupId, groupMembers);
+      } else {
+        Log.w(TAG, "Failed to insert group " + groupId + ", leaving the memberships of any existing group alone.");
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     if (groupState != null && groupState.hasDisappearingMessagesTimer()) {
       recipientDatabase.setExpireMessages(groupRecipientId, groupState.getDisappearingMessagesTimer().getDuration());
@@ -722,9 +765,16 @@ private static final String[] GROUP_PROJECTION = {
       }
     }
 
-    databaseHelper.getSignalWritableDatabase().update(TABLE_NAME, contentValues,
-                                                GROUP_ID + " = ?",
-                                                new String[]{ groupId.toString() });
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      db.update(TABLE_NAME, contentValues, GROUP_ID + " = ?", new String[]{ groupId.toString() });
+      replaceMembers(db, groupId, groupMembers);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     if (decryptedGroup.hasDisappearingMessagesTimer()) {
       recipientDatabase.setExpireMessages(groupRecipientId, decryptedGroup.getDisappearingMessagesTimer().getDuration());
@@ -782,22 +832,38 @@ private static final String[] GROUP_PROJECTION = {
     contents.put(MEMBERS, RecipientId.toSerializedList(members));
     contents.put(ACTIVE, 1);
 
-    databaseHelper.getSignalWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId.toString()});
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      db.update(TABLE_NAME, contents, GROUP_ID + " = ?", new String[] {groupId.toString()});
+      replaceMembers(db, groupId, members);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
   }
 
   public void remove(@NonNull GroupId groupId, RecipientId source) {
-    List<RecipientId> currentMembers = getCurrentMembers(groupId);
-    currentMembers.remove(source);
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
 
-    ContentValues contents = new ContentValues();
-    contents.put(MEMBERS, RecipientId.toSerializedList(currentMembers));
+    db.beginTransaction();
+    try {
+      List<RecipientId> currentMembers = getCurrentMembers(groupId);
+      currentMembers.remove(source);
 
-    databaseHelper.getSignalWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId.toString()});
+      ContentValues contents = new ContentValues();
+      contents.put(MEMBERS, RecipientId.toSerializedList(currentMembers));
+
+      db.update(TABLE_NAME, contents, GROUP_ID + " = ?", new String[] {groupId.toString()});
+      db.delete(MEMBERSHIP_TABLE_NAME, MEMBERSHIP_GROUP_ID + " = ? AND " + MEMBERSHIP_RECIPIENT_ID + " = ?", SqlUtil.buildArgs(groupId, source));
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
@@ -811,26 +877,56 @@ private static final String[] GROUP_PROJECTION = {
   }
 
   private List<RecipientId> getCurrentMembers(@NonNull GroupId groupId) {
-    Cursor cursor = null;
-
-    try {
-      cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, new String[] { MEMBERS},
-                                                          GROUP_ID + " = ?",
-                                                                new String[] {groupId.toString()},
-                                                                null, null, null);
+    SQLiteDatabase    db      = databaseHelper.getSignalReadableDatabase();
+    String[]          columns = new String[] { MEMBERSHIP_RECIPIENT_ID };
+    String            query   = MEMBERSHIP_GROUP_ID + " = ?";
+    String[]          args    = SqlUtil.buildArgs(groupId);
+    List<RecipientId> members = new LinkedList<>();
 
-      if (cursor != null && cursor.moveToFirst()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-        return RecipientId.fromSerializedList(serializedMembers);
+    try (Cursor cursor = db.query(MEMBERSHIP_TABLE_NAME, columns, query, args, null, null, MEMBERSHIP_RECIPIENT_ID)) {
+      while (cursor.moveToNext()) {
+        members.add(RecipientId.from(CursorUtil.requireLong(cursor, MEMBERSHIP_RECIPIENT_ID)));
       }
+    }
 
-      return new LinkedList<>();
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    return members;
+  }
+
+  /**
+   * Rewrites the membership rows for a group to match the given members. Must be called alongside
+   * every write to the group's {@link #MEMBERS} column, in the same transaction. A member that can't
+   * be inserted (e.g. a recipient that doesn't exist) throws, so that the whole write is rolled back
+   * rather than leaving the two out of sync.
+   */
+  void replaceMembers(@NonNull SQLiteDatabase db, @NonNull GroupId groupId, @Nullable Collection<RecipientId> members) {
+    db.delete(MEMBERSHIP_TABLE_NAME, MEMBERSHIP_GROUP_ID + " = ?", SqlUtil.buildArgs(groupId));
+
+    if (members == null) {
+      return;
+    }
+
+    for (RecipientId member : members) {
+      ContentValues values = new ContentValues(2);
+      values.put(MEMBERSHIP_GROUP_ID, groupId.toString());
+      values.put(MEMBERSHIP_RECIPIENT_ID, member.toLong());
+
+      db.insertOrThrow(MEMBERSHIP_TABLE_NAME, null, values);
     }
   }
 
+  /**
+   * Moves every membership of one recipient over to another, e.g. when the two are merged. Must be
+   * done before the old recipient is deleted, since that would cascade to its memberships. Groups
+   * that already contain the new recipient just lose the old one.
+   */
+  void remapMember(@NonNull SQLiteDatabase db, @NonNull RecipientId fromId, @NonNull RecipientId toId) {
+    ContentValues values = new ContentValues(1);
+    values.put(MEMBERSHIP_RECIPIENT_ID, toId.toLong());
+
+    db.updateWithOnConflict(MEMBERSHIP_TABLE_NAME, values, MEMBERSHIP_RECIPIENT_ID + " = ?", SqlUtil.buildArgs(fromId), SQLiteDatabase.CONFLICT_IGNORE);
+    db.delete(MEMBERSHIP_TABLE_NAME, MEMBERSHIP_RECIPIENT_ID + " = ?", SqlUtil.buildArgs(fromId));
+  }
+
   public boolean isActive(@NonNull GroupId groupId) {
     Optional<GroupRecord> record = getGroup(groupId);
     return record.isPresent() && record.get().isActive();
@@ -846,17 +942,11 @@ private static final String[] GROUP_PROJECTION = {
   @WorkerThread
   public boolean isCurrentMember(@NonNull GroupId.Push groupId, @NonNull RecipientId recipientId) {
     SQLiteDatabase database = databaseHelper.getSignalReadableDatabase();
+    String         query    = MEMBERSHIP_GROUP_ID + " = ? AND " + MEMBERSHIP_RECIPIENT_ID + " = ?";
+    String[]       args     = SqlUtil.buildArgs(groupId, recipientId);
 
-    try (Cursor cursor = database.query(TABLE_NAME, new String[] {MEMBERS},
-                                        GROUP_ID + " = ?", new String[] {groupId.toString()},
-                                        null, null, null))
-    {
-      if (cursor.moveToNext()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-        return RecipientId.serializedListContains(serializedMembers, recipientId);
-      } else {
-        return false;
-      }
+    try (Cursor cursor = database.query(MEMBERSHIP_TABLE_NAME, new String[] { MEMBERSHIP_ID }, query, args, null, null, null, "1")) {
+      return cursor.moveToFirst();
     }
   }
 
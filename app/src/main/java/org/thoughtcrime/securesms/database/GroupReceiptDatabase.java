@@ -44,6 +44,9 @@ public class GroupReceiptDatabase extends Database {
       "CREATE INDEX IF NOT EXISTS group_receipt_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
   };
 
+  private static final String UPDATE_STATUS = "UPDATE " + TABLE_NAME + " SET " + STATUS + " = ?, " + TIMESTAMP + " = ? " +
+                                              "WHERE " + MMS_ID + " = ? AND " + RECIPIENT_ID + " = ? AND " + STATUS + " < ?";
+
   public GroupReceiptDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -68,13 +71,15 @@ public class GroupReceiptDatabase extends Database {
   }
 
   public void update(@NonNull RecipientId recipientId, long mmsId, int status, long timestamp) {
-    SQLiteDatabase db     = databaseHelper.getSignalWritableDatabase();
-    ContentValues  values = new ContentValues(2);
-    values.put(STATUS, status);
-    values.put(TIMESTAMP, timestamp);
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
 
-    db.update(TABLE_NAME, values, MMS_ID + " = ? AND " + RECIPIENT_ID + " = ? AND " + STATUS + " < ?",
-              new String[] {String.valueOf(mmsId), recipientId.serialize(), String.valueOf(status)});
+    db.executeUpdateDelete(UPDATE_STATUS, statement -> {
+      statement.bindLong(1, status);
+      statement.bindLong(2, timestamp);
+      statement.bindLong(3, mmsId);
+      statement.bindLong(4, recipientId.toLong());
+      statement.bindLong(5, status);
+    });
   }
 
   public void setUnidentified(Collection<Pair<RecipientId, Boolean>> results, long mmsId) {
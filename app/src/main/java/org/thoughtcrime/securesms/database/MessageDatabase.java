@@ -8,9 +8,7 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.annimon.stream.Stream;
 import com.google.android.mms.pdu_alt.NotificationInd;
-import com.google.protobuf.InvalidProtocolBufferException;
 
 import net.zetetic.database.sqlcipher.SQLiteStatement;
 
@@ -24,7 +22,6 @@ import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
-import org.thoughtcrime.securesms.database.model.databaseprotos.ReactionList;
 import org.thoughtcrime.securesms.groups.GroupMigrationMembershipChange;
 import org.thoughtcrime.securesms.insights.InsightsConstants;
 import org.thoughtcrime.securesms.mms.IncomingMediaMessage;
@@ -47,7 +44,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -63,6 +60,9 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   protected static final String   THREAD_ID_WHERE      = THREAD_ID + " = ?";
   protected static final String[] THREAD_ID_PROJECTION = new String[] { THREAD_ID };
 
+  /** When a message's timer runs out, for messages whose timer has started. Indexed as an expression. */
+  protected static final String EXPIRES_AT = EXPIRE_STARTED + " + " + EXPIRES_IN;
+
   public MessageDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -83,7 +83,7 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract boolean hasMeaningfulMessage(long threadId);
   public abstract Optional<MmsNotificationInfo> getNotification(long messageId);
 
-  public abstract Cursor getExpirationStartedMessages();
+  public abstract @NonNull List<ExpirationInfo> getExpirationStartedMessages();
   public abstract SmsMessageRecord getSmsMessage(long messageId) throws NoSuchMessageException;
   public abstract Reader getMessages(Collection<Long> messageIds);
   public abstract Cursor getMessageCursor(long messageId);
@@ -171,7 +171,55 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
 
   public abstract boolean deleteMessage(long messageId);
   abstract void deleteThread(long threadId);
-  abstract int deleteMessagesInThreadBeforeDate(long threadId, long date);
+  /**
+   * Reads every message whose timer has started, soonest to expire first, through the expiration
+   * index. Only the ids and timers are read, not the messages themselves.
+   */
+  protected @NonNull List<ExpirationInfo> readExpirationStartedMessages(boolean mms) {
+    SQLiteDatabase       db         = databaseHelper.getSignalReadableDatabase();
+    String[]             projection = new String[] { ID, EXPIRES_IN, EXPIRE_STARTED };
+    String               where      = EXPIRE_STARTED + " > 0";
+    List<ExpirationInfo> messages   = new ArrayList<>();
+
+    try (Cursor cursor = db.query(getTableName(), projection, where, null, null, null, EXPIRES_AT)) {
+      while (cursor.moveToNext()) {
+        messages.add(new ExpirationInfo(CursorUtil.requireLong(cursor, ID),
+                                        CursorUtil.requireLong(cursor, EXPIRES_IN),
+                                        CursorUtil.requireLong(cursor, EXPIRE_STARTED),
+                                        mms));
+      }
+    }
+
+    return messages;
+  }
+
+  /**
+   * Deletes the messages without updating their threads or notifying anyone, for callers that
+   * delete many messages at once and want to do both once per thread instead.
+   *
+   * @return The ids of the threads the messages were in.
+   */
+  @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    SQLiteDatabase db        = databaseHelper.getSignalWritableDatabase();
+    SqlUtil.Query  query     = SqlUtil.buildCollectionQuery(ID, messageIds);
+    Set<Long>      threadIds = new HashSet<>();
+
+    try (Cursor cursor = db.query(true, getTableName(), THREAD_ID_PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        threadIds.add(CursorUtil.requireLong(cursor, THREAD_ID));
+      }
+    }
+
+    db.delete(getTableName(), query.getWhere(), query.getWhereArgs());
+
+    return threadIds;
+  }
+
+  /**
+   * Deletes at most {@code limit} messages, so that a long trim can be split across short
+   * transactions.
+   */
+  abstract int deleteMessagesInThreadBeforeDate(long threadId, long date, int limit);
   abstract void deleteThreads(@NonNull Set<Long> threadIds);
   abstract void deleteAllThreads();
   abstract void deleteAbandonedMessages();
@@ -186,6 +234,14 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
 
   public abstract void ensureMigration();
 
+  /**
+   * Drops a message from the {@link MessageRecordCache} after a write that doesn't notify any
+   * observers (and so doesn't invalidate it), so that the next load reads the new row.
+   */
+  protected void invalidateCachedRecord(@NonNull MessageId messageId) {
+    DatabaseFactory.getMessageRecordCache(context).invalidate(messageId);
+  }
+
   final @NonNull String getOutgoingTypeClause() {
     List<String> segments = new ArrayList<>(Types.OUTGOING_MESSAGE_TYPES.length);
     for (long outgoingMessageType : Types.OUTGOING_MESSAGE_TYPES) {
@@ -316,19 +372,8 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     db.beginTransaction();
 
     try {
-      ReactionList          reactions   = getReactions(db, messageId).or(ReactionList.getDefaultInstance());
-      ReactionList.Reaction newReaction = ReactionList.Reaction.newBuilder()
-                                                               .setEmoji(reaction.getEmoji())
-                                                               .setAuthor(reaction.getAuthor().toLong())
-                                                               .setSentTime(reaction.getDateSent())
-                                                               .setReceivedTime(reaction.getDateReceived())
-                                                               .build();
-
-      ReactionList updatedList = pruneByAuthor(reactions, reaction.getAuthor()).toBuilder()
-                                                                               .addReactions(newReaction)
-                                                                               .build();
-
-      setReactions(db, messageId, updatedList);
+      DatabaseFactory.getReactionDatabase(context).addReaction(db, getMessageId(messageId), reaction);
+      setReactionsUnread(db, messageId, true);
 
       db.setTransactionSuccessful();
     } catch (NoSuchMessageException e) {
@@ -341,15 +386,15 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   }
 
   public void deleteReaction(long messageId, @NonNull RecipientId author) {
-    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+    SQLiteDatabase   db                = databaseHelper.getSignalWritableDatabase();
+    ReactionDatabase reactionDatabase  = DatabaseFactory.getReactionDatabase(context);
+    MessageId        reactionMessageId = getMessageId(messageId);
 
     db.beginTransaction();
 
     try {
-      ReactionList reactions   = getReactions(db, messageId).or(ReactionList.getDefaultInstance());
-      ReactionList updatedList = pruneByAuthor(reactions, author);
-
-      setReactions(db, messageId, updatedList);
+      reactionDatabase.deleteReaction(db, reactionMessageId, author);
+      setReactionsUnread(db, messageId, reactionDatabase.hasReactions(db, reactionMessageId));
 
       db.setTransactionSuccessful();
     } catch (NoSuchMessageException e) {
@@ -362,19 +407,7 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   }
 
   public boolean hasReaction(long messageId, @NonNull ReactionRecord reactionRecord) {
-    SQLiteDatabase db = databaseHelper.getSignalReadableDatabase();
-
-    ReactionList reactions = getReactions(db, messageId).or(ReactionList.getDefaultInstance());
-
-    for (ReactionList.Reaction reaction : reactions.getReactionsList()) {
-      if (reactionRecord.getAuthor().toLong() == reaction.getAuthor() &&
-          reactionRecord.getEmoji().equals(reaction.getEmoji()))
-      {
-        return true;
-      }
-    }
-
-    return false;
+    return DatabaseFactory.getReactionDatabase(context).hasReaction(getMessageId(messageId), reactionRecord);
   }
 
   public void setNotifiedTimestamp(long timestamp, @NonNull List<Long> ids) {
@@ -430,28 +463,6 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     return data;
   }
 
-  protected static List<ReactionRecord> parseReactions(@NonNull Cursor cursor) {
-    byte[] raw = cursor.getBlob(cursor.getColumnIndexOrThrow(REACTIONS));
-
-    if (raw != null) {
-      try {
-        return Stream.of(ReactionList.parseFrom(raw).getReactionsList())
-                     .map(r -> {
-                       return new ReactionRecord(r.getEmoji(),
-                                                 RecipientId.from(r.getAuthor()),
-                                                 r.getSentTime(),
-                                                 r.getReceivedTime());
-                     })
-                     .toList();
-      } catch (InvalidProtocolBufferException e) {
-        Log.w(TAG, "[parseReactions] Failed to parse reaction list!", e);
-        return Collections.emptyList();
-      }
-    } else {
-      return Collections.emptyList();
-    }
-  }
-
   protected <D extends Document<I>, I> void removeFromDocument(long messageId, String column, I object, Class<D> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getSignalWritableDatabase();
     database.beginTransaction();
@@ -547,43 +558,26 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     }
   }
 
-  private static @NonNull ReactionList pruneByAuthor(@NonNull ReactionList reactionList, @NonNull RecipientId recipientId) {
-    List<ReactionList.Reaction> pruned = Stream.of(reactionList.getReactionsList())
-                                               .filterNot(r -> r.getAuthor() == recipientId.toLong())
-                                               .toList();
-
-    return reactionList.toBuilder()
-                       .clearReactions()
-                       .addAllReactions(pruned)
-                       .build();
+  private @NonNull MessageId getMessageId(long messageId) {
+    return new MessageId(messageId, this instanceof MmsDatabase);
   }
 
-  private @NonNull Optional<ReactionList> getReactions(SQLiteDatabase db, long messageId) {
-    String[] projection = new String[]{ REACTIONS };
-    String   query      = ID + " = ?";
-    String[] args       = new String[]{String.valueOf(messageId)};
-
-    try (Cursor cursor = db.query(getTableName(), projection, query, args, null, null, null)) {
-      if (cursor != null && cursor.moveToFirst()) {
-        byte[] raw = cursor.getBlob(cursor.getColumnIndexOrThrow(REACTIONS));
+  /**
+   * Only the message's unread state lives on its row; the reactions themselves are in
+   * {@link ReactionDatabase}, so changing one doesn't rewrite the message.
+   */
+  private void setReactionsUnread(@NonNull SQLiteDatabase db, long messageId, boolean hasReactions) throws NoSuchMessageException {
+    ContentValues values = new ContentValues();
+    boolean       isOutgoing;
 
-        if (raw != null) {
-          return Optional.of(ReactionList.parseFrom(raw));
-        }
+    try (Cursor cursor = db.query(getTableName(), new String[] { getTypeField() }, ID + " = ?", SqlUtil.buildArgs(messageId), null, null, null)) {
+      if (!cursor.moveToFirst()) {
+        throw new NoSuchMessageException("No message for ID: " + messageId);
       }
-    } catch (InvalidProtocolBufferException e) {
-      Log.w(TAG, "[getRecipients] Failed to parse reaction list!", e);
-    }
 
-    return Optional.absent();
-  }
-
-  private void setReactions(@NonNull SQLiteDatabase db, long messageId, @NonNull ReactionList reactionList) throws NoSuchMessageException {
-    ContentValues values       = new ContentValues();
-    boolean       isOutgoing   = getMessageRecord(messageId).isOutgoing();
-    boolean       hasReactions = reactionList.getReactionsCount() != 0;
+      isOutgoing = Types.isOutgoingMessageType(CursorUtil.requireLong(cursor, getTypeField()));
+    }
 
-    values.put(REACTIONS, reactionList.getReactionsList().isEmpty() ? null : reactionList.toByteArray());
     values.put(REACTIONS_UNREAD, hasReactions ? 1 : 0);
 
     if (isOutgoing && hasReactions) {
@@ -0,0 +1,267 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.Mention;
+import org.thoughtcrime.securesms.database.model.MessageId;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of fully hydrated {@link MessageRecord}s (attachments, mentions and reactions included),
+ * shared by everything that displays individual messages, so that the same message isn't re-read
+ * and re-inflated by each of them.
+ *
+ * Entries are dropped by {@link DatabaseObserver} as part of sending out its notifications, which
+ * happens synchronously, before any observer hears about the change. Because a reader may load a
+ * record just before a write and put it just after, every entry is put against the generation that
+ * was current when its load started, and is only accepted if neither its message nor its thread
+ * was invalidated since. Invalidations elsewhere don't affect it, so a busy conversation doesn't
+ * keep every other one from being cached.
+ *
+ * Notifications are sometimes sent before the write's transaction commits, in which case a reader
+ * could still see and cache the old row. When that transaction was started through
+ * {@link SQLiteDatabase}, the invalidation is repeated once it ends.
+ */
+public final class MessageRecordCache {
+
+  private static final int MAX_SIZE        = 500;
+  private static final int MAX_GENERATIONS = 1000;
+
+  private final SQLCipherOpenHelper              databaseHelper;
+  private final Map<MessageId, Entry>            entries;
+  private final Map<Long, Long>                  threadGenerations;
+  private final Map<MessageId, Long>             messageGenerations;
+  private final ThreadLocal<PendingInvalidation> pendingInvalidations;
+
+  private long generation;
+  private long minimumGeneration;
+  private long hits;
+  private long misses;
+
+  MessageRecordCache(@NonNull SQLCipherOpenHelper databaseHelper) {
+    this.databaseHelper       = databaseHelper;
+    this.entries              = new LRUCache<>(MAX_SIZE);
+    this.threadGenerations    = new GenerationMap<>();
+    this.messageGenerations   = new GenerationMap<>();
+    this.pendingInvalidations = new ThreadLocal<>();
+  }
+
+  /**
+   * Must be called before starting to read anything that will later be passed to
+   * {@link #put(MessageId, MessageRecord, List, long)}.
+   */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  public synchronized @Nullable Entry get(@NonNull MessageId messageId) {
+    Entry entry = entries.get(messageId);
+
+    if (entry != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+
+    return entry;
+  }
+
+  /**
+   * @param record     A record with its attachments already attached.
+   * @param mentions   The mentions for the record, as they would be passed to
+   *                   {@link org.thoughtcrime.securesms.conversation.ConversationMessage.ConversationMessageFactory#createWithUnresolvedData}.
+   * @param generation The result of {@link #getGeneration()} from before the record was read.
+   */
+  public synchronized void put(@NonNull MessageId messageId, @NonNull MessageRecord record, @Nullable List<Mention> mentions, long generation) {
+    if (minimumGeneration > generation                                  ||
+        isNewer(messageGenerations.get(messageId), generation)          ||
+        isNewer(threadGenerations.get(record.getThreadId()), generation))
+    {
+      return;
+    }
+
+    entries.put(messageId, new Entry(record, mentions));
+  }
+
+  public void invalidate(@NonNull MessageId messageId) {
+    synchronized (this) {
+      invalidateMessage(messageId);
+    }
+
+    PendingInvalidation pending = getPendingInvalidation();
+    if (pending != null) {
+      pending.messageIds.add(messageId);
+    }
+  }
+
+  public void invalidateThread(long threadId) {
+    synchronized (this) {
+      invalidateThreadIds(Collections.singleton(threadId));
+    }
+
+    PendingInvalidation pending = getPendingInvalidation();
+    if (pending != null) {
+      pending.threadIds.add(threadId);
+    }
+  }
+
+  public void invalidateThreads(@NonNull Collection<Long> threadIds) {
+    synchronized (this) {
+      invalidateThreadIds(threadIds);
+    }
+
+    PendingInvalidation pending = getPendingInvalidation();
+    if (pending != null) {
+      pending.threadIds.addAll(threadIds);
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (this) {
+      invalidateEverything();
+    }
+
+    PendingInvalidation pending = getPendingInvalidation();
+    if (pending != null) {
+      pending.all = true;
+    }
+  }
+
+  public synchronized @NonNull String getStats() {
+    long total = hits + misses;
+    return "size: " + entries.size() + ", hits: " + hits + ", misses: " + misses + ", hit rate: " + (total > 0 ? (hits * 100 / total) : 0) + "%";
+  }
+
+  private void invalidateMessage(@NonNull MessageId messageId) {
+    generation++;
+    messageGenerations.remove(messageId);
+    messageGenerations.put(messageId, generation);
+    entries.remove(messageId);
+  }
+
+  private void invalidateThreadIds(@NonNull Collection<Long> threadIds) {
+    generation++;
+
+    for (long threadId : threadIds) {
+      threadGenerations.remove(threadId);
+      threadGenerations.put(threadId, generation);
+    }
+
+    Iterator<Entry> iterator = entries.values().iterator();
+
+    while (iterator.hasNext()) {
+      if (threadIds.contains(iterator.next().record.getThreadId())) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private void invalidateEverything() {
+    generation++;
+    minimumGeneration = generation;
+    threadGenerations.clear();
+    messageGenerations.clear();
+    entries.clear();
+  }
+
+  private static boolean isNewer(@Nullable Long invalidatedGeneration, long generation) {
+    return invalidatedGeneration != null && invalidatedGeneration > generation;
+  }
+
+  /**
+   * @return The invalidations to repeat when the current thread's transaction ends, or null if it
+   *         isn't in one.
+   */
+  private @Nullable PendingInvalidation getPendingInvalidation() {
+    PendingInvalidation pending = pendingInvalidations.get();
+
+    if (pending == null) {
+      pending = new PendingInvalidation();
+
+      if (!databaseHelper.getSignalWritableDatabase().addTransactionHook(pending)) {
+        return null;
+      }
+
+      pendingInvalidations.set(pending);
+    }
+
+    return pending;
+  }
+
+  public static final class Entry {
+    private final MessageRecord record;
+    private final List<Mention> mentions;
+
+    private Entry(@NonNull MessageRecord record, @Nullable List<Mention> mentions) {
+      this.record   = record;
+      this.mentions = mentions;
+    }
+
+    public @NonNull MessageRecord getRecord() {
+      return record;
+    }
+
+    public @Nullable List<Mention> getMentions() {
+      return mentions;
+    }
+  }
+
+  private final class PendingInvalidation implements SQLiteDatabase.TransactionHook {
+    private final Set<MessageId> messageIds = new HashSet<>();
+    private final Set<Long>      threadIds  = new HashSet<>();
+
+    private boolean all;
+
+    @Override
+    public void beforeCommit() {
+    }
+
+    @Override
+    public void onTransactionEnded(boolean committed) {
+      pendingInvalidations.remove();
+
+      synchronized (MessageRecordCache.this) {
+        if (all) {
+          invalidateEverything();
+          return;
+        }
+
+        for (MessageId messageId : messageIds) {
+          invalidateMessage(messageId);
+        }
+
+        if (!threadIds.isEmpty()) {
+          invalidateThreadIds(threadIds);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remembers when each thread or message was last invalidated. Only the most recent ones are kept,
+   * and anything loaded before the oldest one forgotten is treated as possibly invalidated.
+   */
+  private final class GenerationMap<K> extends LinkedHashMap<K, Long> {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+      if (size() > MAX_GENERATIONS) {
+        minimumGeneration = Math.max(minimumGeneration, eldest.getValue());
+        return true;
+      }
+
+      return false;
+    }
+  }
+}
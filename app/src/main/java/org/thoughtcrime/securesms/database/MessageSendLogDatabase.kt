@@ -1,6 +1,5 @@
 package org.thoughtcrime.securesms.database
 
-import android.content.ContentValues
 import android.content.Context
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.database.model.MessageId
@@ -74,6 +73,8 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: SQLC
       )
     """
 
+    const val INSERT = "INSERT INTO $TABLE_NAME ($DATE_SENT, $CONTENT, $CONTENT_HINT) VALUES (?, ?, ?)"
+
     /** Created for [deleteEntriesForRecipient] */
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX msl_payload_date_sent_index ON $TABLE_NAME ($DATE_SENT)",
@@ -118,6 +119,8 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: SQLC
       )
     """
 
+    const val INSERT = "INSERT INTO $TABLE_NAME ($PAYLOAD_ID, $RECIPIENT_ID, $DEVICE) VALUES (?, ?, ?)"
+
     /** Created for [deleteEntriesForRecipient] */
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX msl_recipient_recipient_index ON $TABLE_NAME ($RECIPIENT_ID, $DEVICE, $PAYLOAD_ID)",
@@ -142,6 +145,8 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: SQLC
       )
     """
 
+    const val INSERT = "INSERT INTO $TABLE_NAME ($PAYLOAD_ID, $MESSAGE_ID, $IS_MMS) VALUES (?, ?, ?)"
+
     /** Created for [PayloadTable.CREATE_TRIGGERS] and [deleteAllRelatedToMessage] */
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX msl_message_message_index ON $TABLE_NAME ($MESSAGE_ID, $IS_MMS, $PAYLOAD_ID)"
@@ -203,13 +208,7 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: SQLC
       db.beginTransaction()
       try {
         sendMessageResult.success.devices.forEach { device ->
-          val recipientValues = ContentValues().apply {
-            put(RecipientTable.PAYLOAD_ID, payloadId)
-            put(RecipientTable.RECIPIENT_ID, recipientId.serialize())
-            put(RecipientTable.DEVICE, device)
-          }
-
-          db.insert(RecipientTable.TABLE_NAME, null, recipientValues)
+          db.executeInsert(RecipientTable.INSERT, payloadId, recipientId.toLong(), device)
         }
         db.setTransactionSuccessful()
       } finally {
@@ -223,37 +222,17 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: SQLC
 
     db.beginTransaction()
     try {
-      val payloadValues = ContentValues().apply {
-        put(PayloadTable.DATE_SENT, dateSent)
-        put(PayloadTable.CONTENT, content.toByteArray())
-        put(PayloadTable.CONTENT_HINT, contentHint.type)
-      }
-
-      val payloadId: Long = db.insert(PayloadTable.TABLE_NAME, null, payloadValues)
+      val payloadId: Long = db.executeInsert(PayloadTable.INSERT, dateSent, content.toByteArray(), contentHint.type)
 
-      val recipientValues: MutableList<ContentValues> = mutableListOf()
       recipients.forEach { recipientDevice ->
         recipientDevice.devices.forEach { device ->
-          recipientValues += ContentValues().apply {
-            put(RecipientTable.PAYLOAD_ID, payloadId)
-            put(RecipientTable.RECIPIENT_ID, recipientDevice.recipientId.serialize())
-            put(RecipientTable.DEVICE, device)
-          }
+          db.executeInsert(RecipientTable.INSERT, payloadId, recipientDevice.recipientId.toLong(), device)
         }
       }
-      SqlUtil.buildBulkInsert(RecipientTable.TABLE_NAME, arrayOf(RecipientTable.PAYLOAD_ID, RecipientTable.RECIPIENT_ID, RecipientTable.DEVICE), recipientValues)
-        .forEach { query -> db.execSQL(query.where, query.whereArgs) }
 
-      val messageValues: MutableList<ContentValues> = mutableListOf()
       messageIds.forEach { messageId ->
-        messageValues += ContentValues().apply {
-          put(MessageTable.PAYLOAD_ID, payloadId)
-          put(MessageTable.MESSAGE_ID, messageId.id)
-          put(MessageTable.IS_MMS, if (messageId.mms) 1 else 0)
-        }
+        db.executeInsert(MessageTable.INSERT, payloadId, messageId.id, if (messageId.mms) 1 else 0)
       }
-      SqlUtil.buildBulkInsert(MessageTable.TABLE_NAME, arrayOf(MessageTable.PAYLOAD_ID, MessageTable.MESSAGE_ID, MessageTable.IS_MMS), messageValues)
-        .forEach { query -> db.execSQL(query.where, query.whereArgs) }
 
       db.setTransactionSuccessful()
       return payloadId
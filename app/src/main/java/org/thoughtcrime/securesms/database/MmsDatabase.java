@@ -51,7 +51,6 @@ import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.NotificationMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Quote;
-import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.databaseprotos.BodyRangeList;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -179,7 +178,8 @@ public class MmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ", " + RECIPIENT_ID + ", " + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
-    "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
+    "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");",
+    "CREATE INDEX IF NOT EXISTS mms_expires_at_index ON " + TABLE_NAME + " (" + EXPIRES_AT + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MMS_PROJECTION = new String[] {
@@ -193,7 +193,7 @@ public class MmsDatabase extends MessageDatabase {
       BODY, PART_COUNT, RECIPIENT_ID, ADDRESS_DEVICE_ID,
       DELIVERY_RECEIPT_COUNT, READ_RECEIPT_COUNT, MISMATCHED_IDENTITIES, NETWORK_FAILURE, SUBSCRIPTION_ID,
       EXPIRES_IN, EXPIRE_STARTED, NOTIFIED, QUOTE_ID, QUOTE_AUTHOR, QUOTE_BODY, QUOTE_ATTACHMENT, QUOTE_MISSING, QUOTE_MENTIONS,
-      SHARED_CONTACTS, LINK_PREVIEWS, UNIDENTIFIED, VIEW_ONCE, REACTIONS, REACTIONS_UNREAD, REACTIONS_LAST_SEEN,
+      SHARED_CONTACTS, LINK_PREVIEWS, UNIDENTIFIED, VIEW_ONCE, REACTIONS_UNREAD, REACTIONS_LAST_SEEN,
       REMOTE_DELETED, MENTIONS_SELF, NOTIFIED_TIMESTAMP, VIEWED_RECEIPT_COUNT, RECEIPT_TIMESTAMP,
       "json_group_array(json_object(" +
       "'" + AttachmentDatabase.ROW_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + ", " +
@@ -264,9 +264,8 @@ public class MmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public Cursor getExpirationStartedMessages() {
-    String where = EXPIRE_STARTED + " > 0";
-    return rawQuery(where, null);
+  public @NonNull List<ExpirationInfo> getExpirationStartedMessages() {
+    return readExpirationStartedMessages(true);
   }
 
   @Override
@@ -641,11 +640,11 @@ public class MmsDatabase extends MessageDatabase {
             long    savedTimestamp   = CursorUtil.requireLong(cursor, RECEIPT_TIMESTAMP);
             long    updatedTimestamp = isFirstIncrement ? Math.max(savedTimestamp, timestamp) : savedTimestamp;
 
-            database.execSQL("UPDATE " + TABLE_NAME + " SET " +
-                             columnName + " = " + columnName + " + 1, " +
-                             RECEIPT_TIMESTAMP + " = ? WHERE " +
-                             ID + " = ?",
-                             SqlUtil.buildArgs(updatedTimestamp, id));
+            database.executeUpdateDelete("UPDATE " + TABLE_NAME + " SET " +
+                                         columnName + " = " + columnName + " + 1, " +
+                                         RECEIPT_TIMESTAMP + " = ? WHERE " +
+                                         ID + " = ?",
+                                         updatedTimestamp, id);
 
             DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
 
@@ -769,6 +768,8 @@ public class MmsDatabase extends MessageDatabase {
     } finally {
       db.endTransaction();
     }
+
+    invalidateCachedRecord(new MessageId(id, true));
   }
 
   @Override
@@ -853,11 +854,11 @@ public class MmsDatabase extends MessageDatabase {
       values.putNull(QUOTE_ID);
       values.putNull(LINK_PREVIEWS);
       values.putNull(SHARED_CONTACTS);
-      values.putNull(REACTIONS);
       db.update(TABLE_NAME, values, ID_WHERE, new String[] { String.valueOf(messageId) });
 
       DatabaseFactory.getAttachmentDatabase(context).deleteAttachmentsForMessage(messageId);
       DatabaseFactory.getMentionDatabase(context).deleteMentionsForMessage(messageId);
+      DatabaseFactory.getReactionDatabase(context).deleteReactions(db, new MessageId(messageId, true));
       DatabaseFactory.getMessageLogDatabase(context).deleteAllRelatedToMessage(messageId, true);
 
       threadId = getThreadIdForMessage(messageId);
@@ -891,6 +892,8 @@ public class MmsDatabase extends MessageDatabase {
 
     SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(messageId)});
+
+    invalidateCachedRecord(new MessageId(messageId, true));
   }
 
   @Override
@@ -941,6 +944,8 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
 
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
+
+    invalidateCachedRecord(new MessageId(id, true));
   }
 
   @Override
@@ -973,6 +978,8 @@ public class MmsDatabase extends MessageDatabase {
       cursor = database.query(TABLE_NAME, new String[] {ID, RECIPIENT_ID, DATE_SENT, MESSAGE_BOX, EXPIRES_IN, EXPIRE_STARTED, THREAD_ID }, where, arguments, null, null, null);
 
       while(cursor != null && cursor.moveToNext()) {
+        invalidateCachedRecord(new MessageId(CursorUtil.requireLong(cursor, ID), true));
+
         if (Types.isSecureType(CursorUtil.requireLong(cursor, MESSAGE_BOX))) {
           long           threadId       = CursorUtil.requireLong(cursor, THREAD_ID);
           RecipientId    recipientId    = RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID));
@@ -1360,7 +1367,7 @@ public class MmsDatabase extends MessageDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, new MessageId(messageId, true), contentValues.getAsLong(DATE_RECEIVED), true);
     }
 
     notifyConversationListeners(threadId);
@@ -1621,9 +1628,11 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(PART_COUNT, allAttachments.size());
     contentValues.put(MENTIONS_SELF, mentionsSelf ? 1 : 0);
 
+    long messageId = -1;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       mentionDatabase.insert(threadId, messageId, mentions);
 
@@ -1668,7 +1677,12 @@ public class MmsDatabase extends MessageDatabase {
 
       if (updateThread) {
         DatabaseFactory.getThreadDatabase(context).setLastScrolled(contentValuesThreadId, 0);
-        DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+
+        if (messageId != -1) {
+          DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, new MessageId(messageId, true), contentValues.getAsLong(DATE_RECEIVED), true);
+        } else {
+          DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+        }
       }
     }
   }
@@ -1691,13 +1705,28 @@ public class MmsDatabase extends MessageDatabase {
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
 
     DatabaseFactory.getThreadDatabase(context).setLastScrolled(threadId, 0);
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, new MessageId(messageId, true));
     notifyConversationListeners(threadId);
     notifyStickerListeners();
     notifyStickerPackListeners();
     return threadDeleted;
   }
 
+  @Override
+  @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+
+    for (long messageId : messageIds) {
+      attachmentDatabase.deleteAttachmentsForMessage(messageId);
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+      mentionDatabase.deleteMentionsForMessage(messageId);
+    }
+
+    return super.deleteMessagesWithoutThreadUpdate(messageIds);
+  }
+
   @Override
   public void deleteThread(long threadId) {
     Log.d(TAG, "deleteThread(" + threadId + ")");
@@ -1818,11 +1847,11 @@ public class MmsDatabase extends MessageDatabase {
   }
 
   @Override
-  int deleteMessagesInThreadBeforeDate(long threadId, long date) {
+  int deleteMessagesInThreadBeforeDate(long threadId, long date, int limit) {
     SQLiteDatabase db    = databaseHelper.getSignalWritableDatabase();
-    String         where = THREAD_ID + " = ? AND " + DATE_RECEIVED + " < " + date;
+    String         where = ID + " IN (SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + THREAD_ID + " = ? AND " + DATE_RECEIVED + " < ? LIMIT " + limit + ")";
 
-    return db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId));
+    return db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId, date));
   }
 
   @Override
@@ -2096,7 +2125,6 @@ public class MmsDatabase extends MessageDatabase {
       boolean              unidentified         = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.UNIDENTIFIED)) == 1;
       boolean              isViewOnce           = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE))   == 1;
       boolean              remoteDelete         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.REMOTE_DELETED))   == 1;
-      List<ReactionRecord> reactions            = parseReactions(cursor);
       boolean              mentionsSelf         = CursorUtil.requireBoolean(cursor, MENTIONS_SELF);
       long                 notifiedTimestamp    = CursorUtil.requireLong(cursor, NOTIFIED_TIMESTAMP);
       int                  viewedReceiptCount   = cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.VIEWED_RECEIPT_COUNT));
@@ -2121,11 +2149,12 @@ public class MmsDatabase extends MessageDatabase {
       SlideDeck                 slideDeck          = buildSlideDeck(context, Stream.of(attachments).filterNot(contactAttachments::contains).filterNot(previewAttachments::contains).toList());
       Quote                     quote              = getQuote(cursor);
 
+      // Reactions aren't part of the row, see ReactionDatabase.
       return new MediaMmsMessageRecord(id, recipient, recipient,
                                        addressDeviceId, dateSent, dateReceived, dateServer, deliveryReceiptCount,
                                        threadId, body, slideDeck, partCount, box, mismatches,
                                        networkFailures, subscriptionId, expiresIn, expireStarted,
-                                       isViewOnce, readReceiptCount, quote, contacts, previews, unidentified, reactions,
+                                       isViewOnce, readReceiptCount, quote, contacts, previews, unidentified, Collections.emptyList(),
                                        remoteDelete, mentionsSelf, notifiedTimestamp, viewedReceiptCount, receiptTimestamp);
     }
 
@@ -18,6 +18,7 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -31,6 +32,8 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MessageDatabase.ThreadUpdate;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.notifications.v2.MessageNotifierV2;
 import org.thoughtcrime.securesms.recipients.Recipient;
@@ -59,6 +62,8 @@ public class MmsSmsDatabase extends Database {
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
 
+  private static final String CONVERSATION_ORDER = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + MmsSmsColumns.ID + " DESC, " + TRANSPORT + " DESC";
+
   private static final String[] PROJECTION = {MmsSmsColumns.ID,
                                               MmsSmsColumns.UNIQUE_ROW_ID,
                                               SmsDatabase.BODY,
@@ -74,7 +79,6 @@ public class MmsSmsDatabase extends Database {
                                               MmsDatabase.MESSAGE_BOX,
                                               SmsDatabase.STATUS,
                                               MmsSmsColumns.UNIDENTIFIED,
-                                              MmsSmsColumns.REACTIONS,
                                               MmsDatabase.PART_COUNT,
                                               MmsDatabase.CONTENT_LOCATION,
                                               MmsDatabase.TRANSACTION_ID,
@@ -101,7 +105,6 @@ public class MmsSmsDatabase extends Database {
                                               MmsDatabase.LINK_PREVIEWS,
                                               MmsDatabase.VIEW_ONCE,
                                               MmsSmsColumns.READ,
-                                              MmsSmsColumns.REACTIONS,
                                               MmsSmsColumns.REACTIONS_UNREAD,
                                               MmsSmsColumns.REACTIONS_LAST_SEEN,
                                               MmsSmsColumns.REMOTE_DELETED,
@@ -197,10 +200,9 @@ public class MmsSmsDatabase extends Database {
 
   public Cursor getConversation(long threadId, long offset, long limit) {
     SQLiteDatabase db        = databaseHelper.getSignalReadableDatabase();
-    String         order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
     String         selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
     String         limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
-    String         query     = buildQuery(PROJECTION, selection, order, limitStr, false);
+    String         query     = buildQuery(PROJECTION, selection, CONVERSATION_ORDER, limitStr, false);
 
     Cursor cursor = db.rawQuery(query, null);
     setNotifyConversationListeners(cursor, threadId);
@@ -212,6 +214,128 @@ public class MmsSmsDatabase extends Database {
     return getConversation(threadId, 0, 0);
   }
 
+  /**
+   * Keyset alternative to {@link #getConversation(long, long, long)}. Returns up to {@code limit}
+   * messages that come after (i.e. are older than) the anchor, having skipped the first
+   * {@code skip} of them. The cost depends on {@code skip + limit} rather than on how far into the
+   * conversation the anchor is.
+   */
+  public @NonNull Cursor getConversationAfter(long threadId, @NonNull ConversationAnchor anchor, long skip, long limit) {
+    return getConversationRelativeTo(threadId, anchor, true, skip, limit);
+  }
+
+  /**
+   * Keyset alternative to {@link #getConversation(long, long, long)}. Returns up to {@code limit}
+   * messages that come before (i.e. are newer than) the anchor, ending {@code skip} messages before
+   * it. Results are in conversation order, same as {@link #getConversationAfter}.
+   */
+  public @NonNull Cursor getConversationBefore(long threadId, @NonNull ConversationAnchor anchor, long skip, long limit) {
+    return getConversationRelativeTo(threadId, anchor, false, skip, limit);
+  }
+
+  /**
+   * @return The number of messages that come after (i.e. are older than) the anchor, counting no
+   *         further than {@code limit}.
+   */
+  public int getConversationCountAfter(long threadId, @NonNull ConversationAnchor anchor, long limit) {
+    return getConversationAnchors(threadId, anchor, true, limit).size();
+  }
+
+  /**
+   * First finds the bounds of the page using only the (thread_id, date_received) indexes, which
+   * also hold the row id, and then fetches the full rows that fall between those bounds.
+   */
+  private @NonNull Cursor getConversationRelativeTo(long threadId, @NonNull ConversationAnchor anchor, boolean after, long skip, long limit) {
+    List<ConversationAnchor> anchors = getConversationAnchors(threadId, anchor, after, skip + limit);
+
+    if (anchors.size() <= skip) {
+      return new MatrixCursor(new String[] { TRANSPORT }, 0);
+    }
+
+    ConversationAnchor nearest  = anchors.get((int) skip);
+    ConversationAnchor farthest = anchors.get(anchors.size() - 1);
+    ConversationAnchor newest   = after ? nearest : farthest;
+    ConversationAnchor oldest   = after ? farthest : nearest;
+
+    String selection      = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " +
+                            MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " >= " + oldest.getDateReceived() + " AND " +
+                            MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " <= " + newest.getDateReceived();
+    String outerSelection = compareToConversationOrderKey(oldest, ">") + " AND " +
+                            compareToConversationOrderKey(newest, "<");
+
+    String query  = buildQuery(PROJECTION, selection, CONVERSATION_ORDER, null, false, outerSelection);
+    Cursor cursor = databaseHelper.getSignalReadableDatabase().rawQuery(query, null);
+    setNotifyConversationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * @return Up to {@code limit} anchors for the messages adjacent to the provided anchor, nearest first.
+   */
+  private @NonNull List<ConversationAnchor> getConversationAnchors(long threadId, @NonNull ConversationAnchor anchor, boolean after, long limit) {
+    String direction = after ? " DESC" : " ASC";
+    String smsQuery  = buildAnchorSubQuery(SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, false, threadId, anchor, after, limit);
+    String mmsQuery  = buildAnchorSubQuery(MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, true, threadId, anchor, after, limit);
+    String query     = "SELECT * FROM (" + smsQuery + ") UNION ALL SELECT * FROM (" + mmsQuery + ")" +
+                       " ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + direction + ", " + MmsSmsColumns.ID + direction + ", " + TRANSPORT + direction +
+                       " LIMIT " + limit;
+
+    List<ConversationAnchor> anchors = new ArrayList<>();
+
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().rawQuery(query, null)) {
+      while (cursor.moveToNext()) {
+        anchors.add(new ConversationAnchor(CursorUtil.requireLong(cursor, MmsSmsColumns.NORMALIZED_DATE_RECEIVED),
+                                           CursorUtil.requireLong(cursor, MmsSmsColumns.ID),
+                                           MMS_TRANSPORT.equals(CursorUtil.requireString(cursor, TRANSPORT))));
+      }
+    }
+
+    return anchors;
+  }
+
+  /**
+   * Messages are ordered by (date_received, _id, transport) descending, and an 'sms' transport
+   * sorts after an 'mms' one. Within a single table the transport is fixed, so the comparison
+   * against the anchor's id only needs to include equality when crossing tables.
+   */
+  private static @NonNull String buildAnchorSubQuery(@NonNull String table,
+                                                     @NonNull String dateColumn,
+                                                     boolean isMms,
+                                                     long threadId,
+                                                     @NonNull ConversationAnchor anchor,
+                                                     boolean after,
+                                                     long limit)
+  {
+    String  transport = isMms ? MMS_TRANSPORT : SMS_TRANSPORT;
+    String  dateOp    = after ? "<" : ">";
+    boolean inclusive = after ? isMms && !anchor.isMms() : !isMms && anchor.isMms();
+    String  idOp      = dateOp + (inclusive ? "=" : "");
+    String  direction = after ? " DESC" : " ASC";
+
+    return "SELECT " + dateColumn + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " + MmsSmsColumns.ID + ", '" + transport + "' AS " + TRANSPORT +
+           " FROM " + table +
+           " WHERE " + MmsSmsColumns.THREAD_ID + " = " + threadId +
+           " AND " + dateColumn + " " + dateOp + "= " + anchor.getDateReceived() +
+           " AND (" + dateColumn + " " + dateOp + " " + anchor.getDateReceived() + " OR " + MmsSmsColumns.ID + " " + idOp + " " + anchor.getId() + ")" +
+           " ORDER BY " + dateColumn + direction + ", " + MmsSmsColumns.ID + direction +
+           " LIMIT " + limit;
+  }
+
+  /**
+   * @param op "<" or ">". The resulting clause is true for messages whose (date_received, _id, transport)
+   *           is on that side of the anchor's, or is the anchor itself. Spelled out rather than
+   *           compared as row values, which need SQLite 3.15.
+   */
+  private static @NonNull String compareToConversationOrderKey(@NonNull ConversationAnchor anchor, @NonNull String op) {
+    String date      = MmsSmsColumns.NORMALIZED_DATE_RECEIVED;
+    String id        = MmsSmsColumns.ID;
+    String transport = "'" + (anchor.isMms() ? MMS_TRANSPORT : SMS_TRANSPORT) + "'";
+
+    return "(" + date + " " + op + " " + anchor.getDateReceived() + " OR (" + date + " = " + anchor.getDateReceived() + " AND " +
+           "(" + id + " " + op + " " + anchor.getId() + " OR (" + id + " = " + anchor.getId() + " AND " + TRANSPORT + " " + op + "= " + transport + "))))";
+  }
+
   public Cursor getIdentityConflictMessagesForThread(long threadId) {
     String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
     String selection       = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsSmsColumns.MISMATCHED_IDENTITIES + " IS NOT NULL";
@@ -381,6 +505,33 @@ public class MmsSmsDatabase extends Database {
            DatabaseFactory.getMmsDatabase(context).hasMeaningfulMessage(threadId);
   }
 
+  /**
+   * @return True if a message of this type would be counted by {@link #hasMeaningfulMessage(long)}.
+   */
+  static boolean isMeaningfulType(long type, boolean mms) {
+    if (mms) {
+      return true;
+    }
+
+    return (type & SmsDatabase.IGNORABLE_TYPESMASK_WHEN_COUNTING) == 0 &&
+           type != SmsDatabase.Types.PROFILE_CHANGE_TYPE &&
+           type != SmsDatabase.Types.CHANGE_NUMBER_TYPE &&
+           (type & GROUP_V2_LEAVE_BITS) != GROUP_V2_LEAVE_BITS;
+  }
+
+  /**
+   * @return True if a message of this type could be picked by {@link #getConversationSnippet(long)}.
+   */
+  static boolean isSnippetType(long type, boolean mms) {
+    if ((type & GROUP_V2_LEAVE_BITS) == GROUP_V2_LEAVE_BITS) {
+      return false;
+    }
+
+    return mms || (type != SmsDatabase.Types.PROFILE_CHANGE_TYPE &&
+                   type != SmsDatabase.Types.GV1_MIGRATION_TYPE  &&
+                   type != SmsDatabase.Types.CHANGE_NUMBER_TYPE);
+  }
+
   public long getThreadForMessageId(long messageId) {
     long id = DatabaseFactory.getSmsDatabase(context).getThreadIdForMessage(messageId);
 
@@ -433,7 +584,7 @@ public class MmsSmsDatabase extends Database {
       threadUpdates = incrementReceiptCountInternal(syncMessageId, timestamp, receiptType);
 
       for (ThreadUpdate threadUpdate : threadUpdates) {
-        threadDatabase.update(threadUpdate.getThreadId(), false);
+        threadDatabase.scheduleUpdate(threadUpdate.getThreadId(), false);
       }
 
       db.setTransactionSuccessful();
@@ -476,7 +627,7 @@ public class MmsSmsDatabase extends Database {
       }
 
       for (ThreadUpdate update : threadUpdates) {
-        threadDatabase.update(update.getThreadId(), false);
+        threadDatabase.scheduleUpdate(update.getThreadId(), false);
       }
 
       db.setTransactionSuccessful();
@@ -598,13 +749,95 @@ public class MmsSmsDatabase extends Database {
     DatabaseFactory.getMmsDatabase(context).setNotifiedTimestamp(timestamp, mmsIds);
   }
 
-  public int deleteMessagesInThreadBeforeDate(long threadId, long trimBeforeDate) {
-    Log.d(TAG, "deleteMessagesInThreadBeforeData(" + threadId + ", " + trimBeforeDate + ")");
-    int deletes = DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
-    deletes += DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
+  /**
+   * @return The received date of the thread's {@code length}th newest message, found with a seek
+   *         over the (thread_id, date_received) indexes rather than by reading the conversation,
+   *         or {@link ThreadDatabase#NO_TRIM_BEFORE_DATE_SET} if the thread isn't that long.
+   */
+  public long getTrimCutoffDate(long threadId, int length) {
+    if (length <= 0) {
+      return ThreadDatabase.NO_TRIM_BEFORE_DATE_SET;
+    }
+
+    String query = "SELECT " + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? " +
+                   "UNION ALL " +
+                   "SELECT " + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? " +
+                   "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
+                   "LIMIT 1 OFFSET " + (length - 1);
+
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().rawQuery(query, SqlUtil.buildArgs(threadId, threadId))) {
+      if (cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return ThreadDatabase.NO_TRIM_BEFORE_DATE_SET;
+  }
+
+  /**
+   * Deletes at most {@code limit} messages received before the date, SMS first.
+   */
+  public int deleteMessagesInThreadBeforeDate(long threadId, long trimBeforeDate, int limit) {
+    int deletes = DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate, limit);
+
+    if (deletes < limit) {
+      deletes += DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate, limit - deletes);
+    }
+
     return deletes;
   }
 
+  /**
+   * Deletes the messages in a single transaction. Each affected thread is updated once, and
+   * listeners are notified once per thread, rather than once per message.
+   */
+  public void deleteMessages(@NonNull Collection<MessageId> messageIds) {
+    if (messageIds.isEmpty()) {
+      return;
+    }
+
+    SQLiteDatabase db             = databaseHelper.getSignalWritableDatabase();
+    ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    List<Long>     smsIds         = new ArrayList<>();
+    List<Long>     mmsIds         = new ArrayList<>();
+    Set<Long>      threadIds      = new HashSet<>();
+
+    for (MessageId messageId : messageIds) {
+      if (messageId.isMms()) {
+        mmsIds.add(messageId.getId());
+      } else {
+        smsIds.add(messageId.getId());
+      }
+    }
+
+    db.beginTransaction();
+    try {
+      if (!smsIds.isEmpty()) {
+        threadIds.addAll(DatabaseFactory.getSmsDatabase(context).deleteMessagesWithoutThreadUpdate(smsIds));
+      }
+
+      if (!mmsIds.isEmpty()) {
+        threadIds.addAll(DatabaseFactory.getMmsDatabase(context).deleteMessagesWithoutThreadUpdate(mmsIds));
+      }
+
+      for (long threadId : threadIds) {
+        threadDatabase.setLastScrolled(threadId, 0);
+        threadDatabase.update(threadId, false);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    notifyConversationListeners(threadIds);
+
+    if (!mmsIds.isEmpty()) {
+      notifyStickerListeners();
+      notifyStickerPackListeners();
+    }
+  }
+
   public void deleteAbandonedMessages() {
     Log.d(TAG, "deleteAbandonedMessages()");
     DatabaseFactory.getSmsDatabase(context).deleteAbandonedMessages();
@@ -622,6 +855,14 @@ public class MmsSmsDatabase extends Database {
   }
 
   private static @NonNull String buildQuery(String[] projection, String selection, String order, String limit, boolean includeAttachments) {
+    return buildQuery(projection, selection, order, limit, includeAttachments, null);
+  }
+
+  /**
+   * @param outerSelection Applied to the combined results of both tables, where columns are no longer ambiguous.
+   *                       When present, the outer query is also sorted by {@code order}.
+   */
+  private static @NonNull String buildQuery(String[] projection, String selection, String order, String limit, boolean includeAttachments, @Nullable String outerSelection) {
     String attachmentJsonJoin;
     if (includeAttachments) {
       attachmentJsonJoin = "json_group_array(json_object(" + "'" + AttachmentDatabase.ROW_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + ", " +
@@ -681,7 +922,6 @@ public class MmsSmsDatabase extends Database {
                               MmsDatabase.SHARED_CONTACTS,
                               MmsDatabase.LINK_PREVIEWS,
                               MmsDatabase.VIEW_ONCE,
-                              MmsDatabase.REACTIONS,
                               MmsSmsColumns.REACTIONS_UNREAD,
                               MmsSmsColumns.REACTIONS_LAST_SEEN,
                               MmsSmsColumns.DATE_SERVER,
@@ -715,7 +955,6 @@ public class MmsSmsDatabase extends Database {
                               MmsDatabase.SHARED_CONTACTS,
                               MmsDatabase.LINK_PREVIEWS,
                               MmsDatabase.VIEW_ONCE,
-                              MmsDatabase.REACTIONS,
                               MmsSmsColumns.REACTIONS_UNREAD,
                               MmsSmsColumns.REACTIONS_LAST_SEEN,
                               MmsSmsColumns.DATE_SERVER,
@@ -778,7 +1017,6 @@ public class MmsSmsDatabase extends Database {
     mmsColumnsPresent.add(MmsDatabase.SHARED_CONTACTS);
     mmsColumnsPresent.add(MmsDatabase.LINK_PREVIEWS);
     mmsColumnsPresent.add(MmsDatabase.VIEW_ONCE);
-    mmsColumnsPresent.add(MmsDatabase.REACTIONS);
     mmsColumnsPresent.add(MmsDatabase.REACTIONS_UNREAD);
     mmsColumnsPresent.add(MmsDatabase.REACTIONS_LAST_SEEN);
     mmsColumnsPresent.add(MmsDatabase.REMOTE_DELETED);
@@ -808,7 +1046,6 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(SmsDatabase.DATE_SERVER);
     smsColumnsPresent.add(SmsDatabase.STATUS);
     smsColumnsPresent.add(SmsDatabase.UNIDENTIFIED);
-    smsColumnsPresent.add(SmsDatabase.REACTIONS);
     smsColumnsPresent.add(SmsDatabase.REACTIONS_UNREAD);
     smsColumnsPresent.add(SmsDatabase.REACTIONS_LAST_SEEN);
     smsColumnsPresent.add(MmsDatabase.REMOTE_DELETED);
@@ -826,7 +1063,11 @@ public class MmsSmsDatabase extends Database {
     SQLiteQueryBuilder outerQueryBuilder = new SQLiteQueryBuilder();
     outerQueryBuilder.setTables("(" + unionQuery + ")");
 
-    return outerQueryBuilder.buildQuery(projection, null, null, null, null, null, null);
+    if (outerSelection != null) {
+      return outerQueryBuilder.buildQuery(projection, outerSelection, null, null, null, order, null);
+    } else {
+      return outerQueryBuilder.buildQuery(projection, null, null, null, null, null, null);
+    }
   }
 
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
@@ -0,0 +1,122 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.model.MessageId;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The notifications {@link DatabaseObserver} has been asked to send since it last sent any, merged
+ * so that each one is only sent once per batch. A verbose conversation notification is dropped if
+ * the same thread is getting a full one, since that notifies the verbose observers too.
+ *
+ * Not thread safe.
+ */
+final class PendingNotifications {
+
+  private final Set<Long>                 conversations        = new LinkedHashSet<>();
+  private final Set<Long>                 verboseConversations = new LinkedHashSet<>();
+  private final Set<MessageId>            messageUpdates       = new LinkedHashSet<>();
+  private final Map<Long, Set<MessageId>> messageInserts       = new LinkedHashMap<>();
+
+  private boolean conversationList;
+  private int     requested;
+  private int     coalesced;
+
+  void addConversation(long threadId) {
+    requested++;
+
+    if (!conversations.add(threadId)) {
+      coalesced++;
+    } else if (verboseConversations.remove(threadId)) {
+      coalesced++;
+    }
+  }
+
+  void addVerboseConversation(long threadId) {
+    requested++;
+
+    if (conversations.contains(threadId) || !verboseConversations.add(threadId)) {
+      coalesced++;
+    }
+  }
+
+  void addConversationList() {
+    requested++;
+
+    if (conversationList) {
+      coalesced++;
+    }
+
+    conversationList = true;
+  }
+
+  void addMessageUpdate(@NonNull MessageId messageId) {
+    requested++;
+
+    if (!messageUpdates.add(messageId)) {
+      coalesced++;
+    }
+  }
+
+  void addMessageInsert(long threadId, @NonNull MessageId messageId) {
+    requested++;
+
+    Set<MessageId> inserts = messageInserts.get(threadId);
+
+    if (inserts == null) {
+      inserts = new LinkedHashSet<>();
+      messageInserts.put(threadId, inserts);
+    }
+
+    if (!inserts.add(messageId)) {
+      coalesced++;
+    }
+  }
+
+  /**
+   * Threads whose conversation observers, and verbose conversation observers, should be notified.
+   */
+  @NonNull Set<Long> getConversations() {
+    return Collections.unmodifiableSet(conversations);
+  }
+
+  /**
+   * Threads whose verbose conversation observers alone should be notified.
+   */
+  @NonNull Set<Long> getVerboseConversations() {
+    return Collections.unmodifiableSet(verboseConversations);
+  }
+
+  boolean hasConversationList() {
+    return conversationList;
+  }
+
+  @NonNull Set<MessageId> getMessageUpdates() {
+    return Collections.unmodifiableSet(messageUpdates);
+  }
+
+  @NonNull Map<Long, Set<MessageId>> getMessageInserts() {
+    return Collections.unmodifiableMap(messageInserts);
+  }
+
+  /**
+   * @return How many notifications were asked for.
+   */
+  int getRequestedCount() {
+    return requested;
+  }
+
+  /**
+   * @return How many of the requested notifications were merged into another, or superseded by
+   *         one, rather than being sent on their own.
+   */
+  int getCoalescedCount() {
+    return coalesced;
+  }
+}
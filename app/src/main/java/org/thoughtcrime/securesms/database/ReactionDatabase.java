@@ -0,0 +1,199 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
+import org.thoughtcrime.securesms.database.model.ReactionRecord;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores reactions to messages, one row per (message, author). Previously reactions were kept as a
+ * serialized list on the message row itself, so every reaction rewrote the whole list (and fired
+ * the message's search triggers).
+ *
+ * Rows are removed along with their message by triggers, so message deletion doesn't need to know
+ * about them.
+ */
+public class ReactionDatabase extends Database {
+
+  public static final String TABLE_NAME = "reaction";
+
+  private static final String ID            = "_id";
+  public  static final String MESSAGE_ID    = "message_id";
+  public  static final String IS_MMS        = "is_mms";
+  private static final String AUTHOR_ID     = "author_id";
+  private static final String EMOJI         = "emoji";
+  private static final String DATE_SENT     = "date_sent";
+  private static final String DATE_RECEIVED = "date_received";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID            + " INTEGER PRIMARY KEY, " +
+                                                                                  MESSAGE_ID    + " INTEGER NOT NULL, " +
+                                                                                  IS_MMS        + " INTEGER NOT NULL, " +
+                                                                                  AUTHOR_ID     + " INTEGER NOT NULL REFERENCES " + RecipientDatabase.TABLE_NAME + " (" + RecipientDatabase.ID + ") ON DELETE CASCADE, " +
+                                                                                  EMOJI         + " TEXT NOT NULL, " +
+                                                                                  DATE_SENT     + " INTEGER NOT NULL, " +
+                                                                                  DATE_RECEIVED + " INTEGER NOT NULL, " +
+                                                                                  "UNIQUE(" + MESSAGE_ID + ", " + IS_MMS + ", " + AUTHOR_ID + ") ON CONFLICT REPLACE)";
+
+  /** The UNIQUE constraint doubles as the (message_id, is_mms) lookup index. This one is for recipient deletion. */
+  public static final String[] CREATE_INDEXES = new String[] {
+    "CREATE INDEX IF NOT EXISTS reaction_author_id_index ON " + TABLE_NAME + " (" + AUTHOR_ID + ")"
+  };
+
+  public static final String[] CREATE_TRIGGERS = new String[] {
+    "CREATE TRIGGER reactions_sms_delete AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + MESSAGE_ID + " = old." + SmsDatabase.ID + " AND " + IS_MMS + " = 0; END",
+    "CREATE TRIGGER reactions_mms_delete AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + MESSAGE_ID + " = old." + MmsDatabase.ID + " AND " + IS_MMS + " = 1; END"
+  };
+
+  public ReactionDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  public @NonNull List<ReactionRecord> getReactions(@NonNull MessageId messageId) {
+    SQLiteDatabase       db        = databaseHelper.getSignalReadableDatabase();
+    String               query     = MESSAGE_ID + " = ? AND " + IS_MMS + " = ?";
+    String[]             args      = SqlUtil.buildArgs(messageId.getId(), messageId.isMms() ? 1 : 0);
+    List<ReactionRecord> reactions = new ArrayList<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, null, query, args, null, null, null)) {
+      while (cursor.moveToNext()) {
+        reactions.add(readReaction(cursor));
+      }
+    }
+
+    return reactions;
+  }
+
+  /**
+   * Reads the reactions for a whole set of messages with a single query. Messages without any
+   * reactions are left out of the result.
+   */
+  public @NonNull Map<MessageId, List<ReactionRecord>> getReactionsForMessages(@NonNull Collection<MessageId> messageIds) {
+    Map<MessageId, List<ReactionRecord>> reactions = new HashMap<>();
+
+    if (messageIds.isEmpty()) {
+      return reactions;
+    }
+
+    List<Long> smsIds = new LinkedList<>();
+    List<Long> mmsIds = new LinkedList<>();
+
+    for (MessageId messageId : messageIds) {
+      if (messageId.isMms()) {
+        mmsIds.add(messageId.getId());
+      } else {
+        smsIds.add(messageId.getId());
+      }
+    }
+
+    SQLiteDatabase db    = databaseHelper.getSignalReadableDatabase();
+    String         query = "(" + IS_MMS + " = 0 AND " + MESSAGE_ID + " IN (" + TextUtils.join(",", smsIds) + ")) OR " +
+                           "(" + IS_MMS + " = 1 AND " + MESSAGE_ID + " IN (" + TextUtils.join(",", mmsIds) + "))";
+
+    try (Cursor cursor = db.query(TABLE_NAME, null, query, null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        MessageId            messageId        = new MessageId(CursorUtil.requireLong(cursor, MESSAGE_ID), CursorUtil.requireBoolean(cursor, IS_MMS));
+        List<ReactionRecord> messageReactions = reactions.get(messageId);
+
+        if (messageReactions == null) {
+          messageReactions = new ArrayList<>();
+          reactions.put(messageId, messageReactions);
+        }
+
+        messageReactions.add(readReaction(cursor));
+      }
+    }
+
+    return reactions;
+  }
+
+  public boolean hasReaction(@NonNull MessageId messageId, @NonNull ReactionRecord reaction) {
+    SQLiteDatabase db    = databaseHelper.getSignalReadableDatabase();
+    String         query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ? AND " + AUTHOR_ID + " = ? AND " + EMOJI + " = ?";
+    String[]       args  = SqlUtil.buildArgs(messageId.getId(), messageId.isMms() ? 1 : 0, reaction.getAuthor(), reaction.getEmoji());
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID }, query, args, null, null, null, "1")) {
+      return cursor.moveToFirst();
+    }
+  }
+
+  /**
+   * Replaces the author's existing reaction to the message, if any. Callers are expected to update
+   * the message's own reaction state in the same transaction.
+   */
+  void addReaction(@NonNull SQLiteDatabase db, @NonNull MessageId messageId, @NonNull ReactionRecord reaction) {
+    ContentValues values = new ContentValues(6);
+    values.put(MESSAGE_ID, messageId.getId());
+    values.put(IS_MMS, messageId.isMms() ? 1 : 0);
+    values.put(AUTHOR_ID, reaction.getAuthor().toLong());
+    values.put(EMOJI, reaction.getEmoji());
+    values.put(DATE_SENT, reaction.getDateSent());
+    values.put(DATE_RECEIVED, reaction.getDateReceived());
+
+    db.insert(TABLE_NAME, null, values);
+  }
+
+  void deleteReaction(@NonNull SQLiteDatabase db, @NonNull MessageId messageId, @NonNull RecipientId author) {
+    String   query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ? AND " + AUTHOR_ID + " = ?";
+    String[] args  = SqlUtil.buildArgs(messageId.getId(), messageId.isMms() ? 1 : 0, author);
+
+    db.delete(TABLE_NAME, query, args);
+  }
+
+  void deleteReactions(@NonNull SQLiteDatabase db, @NonNull MessageId messageId) {
+    String   query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ?";
+    String[] args  = SqlUtil.buildArgs(messageId.getId(), messageId.isMms() ? 1 : 0);
+
+    db.delete(TABLE_NAME, query, args);
+  }
+
+  /**
+   * Moves every reaction by one recipient over to another, e.g. when the two are merged. Must be done
+   * before the old recipient is deleted, since that would cascade to its reactions. Where both have
+   * reacted to the same message, the most recently received reaction is kept.
+   */
+  void remapAuthor(@NonNull SQLiteDatabase db, @NonNull RecipientId fromId, @NonNull RecipientId toId) {
+    String duplicate = AUTHOR_ID + " = ? AND EXISTS (SELECT 1 FROM " + TABLE_NAME + " AS other WHERE other." + MESSAGE_ID    + " = " + TABLE_NAME + "." + MESSAGE_ID    + " AND " +
+                                                                                                    "other." + IS_MMS        + " = " + TABLE_NAME + "." + IS_MMS        + " AND " +
+                                                                                                    "other." + AUTHOR_ID     + " = ? AND " +
+                                                                                                    "other." + DATE_RECEIVED + " >= " + TABLE_NAME + "." + DATE_RECEIVED + ")";
+
+    db.delete(TABLE_NAME, duplicate, SqlUtil.buildArgs(fromId, toId));
+
+    ContentValues values = new ContentValues(1);
+    values.put(AUTHOR_ID, toId.toLong());
+
+    db.update(TABLE_NAME, values, AUTHOR_ID + " = ?", SqlUtil.buildArgs(fromId));
+  }
+
+  boolean hasReactions(@NonNull SQLiteDatabase db, @NonNull MessageId messageId) {
+    String   query = MESSAGE_ID + " = ? AND " + IS_MMS + " = ?";
+    String[] args  = SqlUtil.buildArgs(messageId.getId(), messageId.isMms() ? 1 : 0);
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID }, query, args, null, null, null, "1")) {
+      return cursor.moveToFirst();
+    }
+  }
+
+  private static @NonNull ReactionRecord readReaction(@NonNull Cursor cursor) {
+    return new ReactionRecord(CursorUtil.requireString(cursor, EMOJI),
+                              RecipientId.from(CursorUtil.requireLong(cursor, AUTHOR_ID)),
+                              CursorUtil.requireLong(cursor, DATE_SENT),
+                              CursorUtil.requireLong(cursor, DATE_RECEIVED));
+  }
+}
@@ -0,0 +1,203 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed number of connections that are only used for reading, so that reads from different
+ * threads don't have to wait on each other, or on the writer. With write-ahead logging enabled,
+ * each reader sees the database as of the last commit when its query started.
+ *
+ * Connections are opened lazily, up to the pool's size. A caller that finds them all in use waits
+ * for one to be released, and that wait is counted in {@link #getStats()}.
+ */
+public final class ReadConnectionPool<C> {
+
+  private static final String TAG = Log.tag(ReadConnectionPool.class);
+
+  private static final long SLOW_WAIT_MS = 500;
+
+  private final int          size;
+  private final Connector<C> connector;
+  private final Deque<C>     idle;
+
+  private boolean closed;
+  private int     opened;
+  private long    acquisitions;
+  private long    waits;
+  private long    totalWaitNanos;
+  private long    maxWaitNanos;
+
+  public ReadConnectionPool(int size, @NonNull Connector<C> connector) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Requested: " + size);
+    }
+
+    this.size      = size;
+    this.connector = connector;
+    this.idle      = new ArrayDeque<>(size);
+  }
+
+  /**
+   * @return A connection that belongs to the caller until it's handed back with
+   *         {@link #release(Object)}. Blocks if every connection is in use.
+   */
+  public @NonNull C acquire() {
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("Pool is closed!");
+      }
+
+      acquisitions++;
+
+      if (idle.isEmpty() && opened >= size) {
+        awaitConnection();
+      }
+
+      C connection = idle.pollFirst();
+
+      if (connection != null) {
+        return connection;
+      }
+
+      opened++;
+    }
+
+    try {
+      return connector.open();
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        opened--;
+        notify();
+      }
+      throw e;
+    }
+  }
+
+  public void release(@NonNull C connection) {
+    synchronized (this) {
+      if (!closed) {
+        idle.addFirst(connection);
+        notify();
+        return;
+      }
+    }
+
+    connector.close(connection);
+  }
+
+  /**
+   * Closes every idle connection. Connections that are in use are closed when they're released.
+   */
+  public void close() {
+    List<C> toClose;
+
+    synchronized (this) {
+      closed  = true;
+      toClose = new ArrayList<>(idle);
+
+      idle.clear();
+      notifyAll();
+    }
+
+    for (C connection : toClose) {
+      connector.close(connection);
+    }
+  }
+
+  public synchronized @NonNull Stats getStats() {
+    return new Stats(size, opened, acquisitions, waits, totalWaitNanos, maxWaitNanos);
+  }
+
+  /**
+   * Waits until a connection is released, or until one fails to open, which frees up a slot.
+   */
+  private void awaitConnection() {
+    long    start       = System.nanoTime();
+    boolean interrupted = false;
+
+    try {
+      while (idle.isEmpty() && opened >= size) {
+        if (closed) {
+          throw new IllegalStateException("Pool was closed while waiting!");
+        }
+
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    long waited = System.nanoTime() - start;
+
+    waits++;
+    totalWaitNanos += waited;
+    maxWaitNanos    = Math.max(maxWaitNanos, waited);
+
+    if (TimeUnit.NANOSECONDS.toMillis(waited) > SLOW_WAIT_MS) {
+      Log.w(TAG, "Waited " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms for a read connection.");
+    }
+  }
+
+  public interface Connector<C> {
+    @NonNull C open();
+    void close(@NonNull C connection);
+  }
+
+  public static final class Stats {
+    private final int  size;
+    private final int  open;
+    private final long acquisitions;
+    private final long waits;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    private Stats(int size, int open, long acquisitions, long waits, long totalWaitNanos, long maxWaitNanos) {
+      this.size           = size;
+      this.open           = open;
+      this.acquisitions   = acquisitions;
+      this.waits          = waits;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos   = maxWaitNanos;
+    }
+
+    public int getOpenCount() {
+      return open;
+    }
+
+    public long getAcquisitions() {
+      return acquisitions;
+    }
+
+    public long getWaits() {
+      return waits;
+    }
+
+    public long getTotalWaitMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+    }
+
+    public long getMaxWaitMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "open: %d/%d, acquisitions: %d, waits: %d, total wait: %d ms, max wait: %d ms", open, size, acquisitions, waits, getTotalWaitMillis(), getMaxWaitMillis());
+    }
+  }
+}
@@ -57,6 +57,7 @@ import org.thoughtcrime.securesms.storage.StorageSyncModels;
 import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.Bitmask;
 import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.FtsUtil;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.IdentityUtil;
 import org.thoughtcrime.securesms.util.SqlUtil;
@@ -97,6 +98,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
 public class RecipientDatabase extends Database {
 
@@ -105,7 +107,7 @@ public class RecipientDatabase extends Database {
           static final String TABLE_NAME                = "recipient";
   public  static final String ID                        = "_id";
   private static final String UUID                      = "uuid";
-  private static final String USERNAME                  = "username";
+          static final String USERNAME                  = "username";
   public  static final String PHONE                     = "phone";
   public  static final String EMAIL                     = "email";
           static final String GROUP_ID                  = "group_id";
@@ -141,7 +143,7 @@ public class RecipientDatabase extends Database {
   private static final String STORAGE_SERVICE_ID        = "storage_service_key";
   private static final String PROFILE_GIVEN_NAME        = "signal_profile_name";
   private static final String PROFILE_FAMILY_NAME       = "profile_family_name";
-  private static final String PROFILE_JOINED_NAME       = "profile_joined_name";
+          static final String PROFILE_JOINED_NAME       = "profile_joined_name";
   private static final String MENTION_SETTING           = "mention_setting";
   private static final String STORAGE_PROTO             = "storage_proto";
   private static final String LAST_SESSION_RESET        = "last_session_reset";
@@ -744,6 +746,28 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Reads the settings of many recipients with one query. Unlike {@link #getRecipientSettings(RecipientId)},
+   * missing recipients are simply left out.
+   */
+  public @NonNull List<RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    SQLiteDatabase          database = databaseHelper.getSignalReadableDatabase();
+    SqlUtil.Query           query    = SqlUtil.buildCollectionQuery(ID, Stream.of(ids).map(RecipientId::serialize).toList());
+    List<RecipientSettings> settings = new ArrayList<>(ids.size());
+
+    try (Cursor cursor = database.query(TABLE_NAME, RECIPIENT_PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        settings.add(getRecipientSettings(context, cursor));
+      }
+    }
+
+    return settings;
+  }
+
   public @Nullable RecipientSettings getRecipientSettingsForSync(@NonNull RecipientId id) {
     String   query = TABLE_NAME + "." + ID + " = ?";
     String[] args  = new String[]{id.serialize()};
@@ -2365,8 +2389,6 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor querySignalContacts(@NonNull String query, boolean includeSelf) {
-    query = buildCaseInsensitiveGlobPattern(query);
-
     ContactSearchSelection searchSelection = new ContactSearchSelection.Builder().withRegistered(true)
                                                                                  .withGroups(false)
                                                                                  .excludeId(includeSelf ? null : Recipient.self().getId())
@@ -2394,8 +2416,6 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor queryNonSignalContacts(@NonNull String query) {
-    query = buildCaseInsensitiveGlobPattern(query);
-
     ContactSearchSelection searchSelection = new ContactSearchSelection.Builder().withNonRegistered(true)
                                                                                  .withGroups(false)
                                                                                  .withSearchQuery(query)
@@ -2421,8 +2441,6 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor queryNonGroupContacts(@NonNull String query, boolean includeSelf) {
-    query = buildCaseInsensitiveGlobPattern(query);
-
     ContactSearchSelection searchSelection = new ContactSearchSelection.Builder().withRegistered(true)
                                                                                  .withNonRegistered(true)
                                                                                  .withGroups(false)
@@ -2437,19 +2455,29 @@ public class RecipientDatabase extends Database {
     return databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, orderBy);
   }
 
+  /**
+   * Searches all unblocked recipients, best matches first.
+   */
   public @Nullable Cursor queryAllContacts(@NonNull String query) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SQLiteDatabase db  = databaseHelper.getSignalReadableDatabase();
+    String         fts = FtsUtil.createPrefixMatchString(query);
 
-    String   selection = BLOCKED + " = ? AND " +
-                         "(" +
-                           SORT_NAME + " GLOB ? OR " +
-                           USERNAME  + " GLOB ? OR " +
-                           PHONE     + " GLOB ? OR " +
-                           EMAIL     + " GLOB ?" +
-                         ")";
-    String[] args      = SqlUtil.buildArgs("0", query, query, query, query);
+    if (fts.isEmpty()) {
+      SqlUtil.Query search = ContactSearchSelection.buildSearchQuery(query);
+      return db.query(TABLE_NAME, SEARCH_PROJECTION, BLOCKED + " = 0 AND " + search.getWhere(), search.getWhereArgs(), null, null, null);
+    }
+
+    SqlUtil.Query search    = ContactSearchSelection.buildJoinedSearchQuery(query);
+    String        selection = BLOCKED + " = 0 AND " + search.getWhere();
+    String        table     = TABLE_NAME + " LEFT JOIN (SELECT " + SearchDatabase.ID + " AS fts_id, " + SearchDatabase.RECIPIENT_RANK + " AS " + ContactSearchSelection.FTS_RANK + " " +
+                                                       "FROM " + SearchDatabase.RECIPIENT_FTS_TABLE_NAME + " " +
+                                                       "WHERE " + SearchDatabase.RECIPIENT_FTS_TABLE_NAME + " MATCH ?) ON " + ID + " = fts_id";
+    List<String>  args      = new ArrayList<>();
+
+    args.add(fts);
+    args.addAll(Arrays.asList(search.getWhereArgs()));
 
-    return databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, null);
+    return db.query(table, SEARCH_PROJECTION, selection, args.toArray(new String[0]), null, null, "COALESCE(" + ContactSearchSelection.FTS_RANK + ", 0)");
   }
 
   public @NonNull List<Recipient> queryRecipientsForMentions(@NonNull String query) {
@@ -2940,6 +2968,15 @@ public class RecipientDatabase extends Database {
     RecipientSettings uuidSettings = getRecipientSettings(byUuid);
     RecipientSettings e164Settings = getRecipientSettings(byE164);
 
+    // Reactions (before the recipient is deleted, which would cascade to them)
+    DatabaseFactory.getReactionDatabase(context).remapAuthor(db, byE164, byUuid);
+
+    // Group memberships (likewise, but the groups are found through them, so look those up first)
+    GroupDatabase                   groupDatabase = DatabaseFactory.getGroupDatabase(context);
+    List<GroupDatabase.GroupRecord> groups        = groupDatabase.getGroupsContainingMember(byE164, false, true);
+
+    groupDatabase.remapMember(db, byE164, byUuid);
+
     // Recipient
     Log.w(TAG, "Deleting recipient " + byE164, true);
     db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(byE164));
@@ -2986,8 +3023,7 @@ public class RecipientDatabase extends Database {
     db.update(GroupReceiptDatabase.TABLE_NAME, groupReceiptValues, GroupReceiptDatabase.RECIPIENT_ID + " = ?", SqlUtil.buildArgs(byE164));
 
     // Groups
-    GroupDatabase groupDatabase = DatabaseFactory.getGroupDatabase(context);
-    for (GroupDatabase.GroupRecord group : groupDatabase.getGroupsContainingMember(byE164, false, true)) {
+    for (GroupDatabase.GroupRecord group : groups) {
       LinkedHashSet<RecipientId> newMembers = new LinkedHashSet<>(group.getMembers());
       newMembers.remove(byE164);
       newMembers.add(byUuid);
@@ -2995,6 +3031,7 @@ public class RecipientDatabase extends Database {
       ContentValues groupValues = new ContentValues();
       groupValues.put(GroupDatabase.MEMBERS, RecipientId.toSerializedList(newMembers));
       db.update(GroupDatabase.TABLE_NAME, groupValues, GroupDatabase.RECIPIENT_ID + " = ?", SqlUtil.buildArgs(group.getRecipientId()));
+      groupDatabase.replaceMembers(db, group.getId(), newMembers);
 
       if (group.isV2Group()) {
         groupDatabase.removeUnmigratedV1Members(group.getId().requireV2(), Collections.singletonList(byE164));
@@ -3659,22 +3696,18 @@ public class RecipientDatabase extends Database {
                                              SYSTEM_CONTACT_URI + " NOT NULL AND " +
                                              "(" + PHONE + " NOT NULL OR " + EMAIL + " NOT NULL)";
 
-    static final String QUERY_NON_SIGNAL_CONTACT = NON_SIGNAL_CONTACT +
-                                                   " AND (" +
-                                                   PHONE + " GLOB ? OR " +
-                                                   EMAIL + " GLOB ? OR " +
-                                                   SYSTEM_JOINED_NAME + " GLOB ?" +
-                                                   ")";
-
     static final String SIGNAL_CONTACT = REGISTERED + " = ? AND " +
                                          "(" + nullIfEmpty(SYSTEM_JOINED_NAME) + " NOT NULL OR " + PROFILE_SHARING + " = ?) AND " +
                                          "(" + SORT_NAME + " NOT NULL OR " + USERNAME + " NOT NULL)";
 
-    static final String QUERY_SIGNAL_CONTACT = SIGNAL_CONTACT + " AND (" +
-                                               PHONE + " GLOB ? OR " +
-                                               SORT_NAME + " GLOB ? OR " +
-                                               USERNAME + " GLOB ?" +
-                                               ")";
+    static final String QUERY_MATCH = ID + " IN (SELECT " + SearchDatabase.ID + " FROM " + SearchDatabase.RECIPIENT_FTS_TABLE_NAME + " WHERE " + SearchDatabase.RECIPIENT_FTS_TABLE_NAME + " MATCH ?)";
+    static final String QUERY_PHONE = PHONE + " GLOB ?";
+
+    /** The rank of a recipient's FTS match, when the matches have been joined to the query. */
+    static final String FTS_RANK           = "fts_rank";
+    static final String QUERY_JOINED_MATCH = FTS_RANK + " IS NOT NULL";
+
+    private static final Pattern PHONE_QUERY = Pattern.compile("[0-9+()\\-.\\s]*[0-9][0-9+()\\-.\\s]*");
 
     private final String   where;
     private final String[] args;
@@ -3692,6 +3725,50 @@ public class RecipientDatabase extends Database {
       return args;
     }
 
+    /**
+     * Matches recipients with a name, username, number or email that has words starting with each
+     * of the words in the query, using {@link SearchDatabase#RECIPIENT_FTS_TABLE_NAME}. The index
+     * can only do prefixes, so a query that looks like part of a phone number also matches numbers
+     * with those digits anywhere in them.
+     */
+    static @NonNull SqlUtil.Query buildSearchQuery(@NonNull String query) {
+      return buildSearchQuery(query, false);
+    }
+
+    /**
+     * Like {@link #buildSearchQuery(String)}, but for a query that has already LEFT JOINed the FTS
+     * matches, with their rank as {@link #FTS_RANK}, so that the MATCH isn't run a second time.
+     */
+    static @NonNull SqlUtil.Query buildJoinedSearchQuery(@NonNull String query) {
+      return buildSearchQuery(query, true);
+    }
+
+    private static @NonNull SqlUtil.Query buildSearchQuery(@NonNull String query, boolean joined) {
+      String       fts     = FtsUtil.createPrefixMatchString(query);
+      List<String> clauses = new ArrayList<>(2);
+      List<Object> args    = new ArrayList<>(2);
+
+      if (!fts.isEmpty()) {
+        if (joined) {
+          clauses.add(QUERY_JOINED_MATCH);
+        } else {
+          clauses.add(QUERY_MATCH);
+          args.add(fts);
+        }
+      }
+
+      if (PHONE_QUERY.matcher(query).matches()) {
+        clauses.add(QUERY_PHONE);
+        args.add("*" + query.replaceAll("[^0-9]", "") + "*");
+      }
+
+      if (clauses.isEmpty()) {
+        return SqlUtil.buildQuery("0");
+      }
+
+      return SqlUtil.buildQuery("(" + Util.join(clauses, " OR ") + ")", args.toArray());
+    }
+
     @VisibleForTesting
     static final class Builder {
 
@@ -3733,6 +3810,7 @@ public class RecipientDatabase extends Database {
 
         StringBuilder stringBuilder = new StringBuilder("(");
         List<Object>  args          = new LinkedList<>();
+        SqlUtil.Query search        = Util.isEmpty(searchQuery) ? null : buildSearchQuery(searchQuery);
 
         if (includeRegistered) {
           stringBuilder.append("(");
@@ -3740,13 +3818,11 @@ public class RecipientDatabase extends Database {
           args.add(RegisteredState.REGISTERED.id);
           args.add(1);
 
-          if (Util.isEmpty(searchQuery)) {
-            stringBuilder.append(SIGNAL_CONTACT);
-          } else {
-            stringBuilder.append(QUERY_SIGNAL_CONTACT);
-            args.add(searchQuery);
-            args.add(searchQuery);
-            args.add(searchQuery);
+          stringBuilder.append(SIGNAL_CONTACT);
+
+          if (search != null) {
+            stringBuilder.append(" AND ").append(search.getWhere());
+            args.addAll(Arrays.asList(search.getWhereArgs()));
           }
 
           stringBuilder.append(")");
@@ -3760,13 +3836,11 @@ public class RecipientDatabase extends Database {
           stringBuilder.append("(");
           args.add(RegisteredState.REGISTERED.id);
 
-          if (Util.isEmpty(searchQuery)) {
-            stringBuilder.append(NON_SIGNAL_CONTACT);
-          } else {
-            stringBuilder.append(QUERY_NON_SIGNAL_CONTACT);
-            args.add(searchQuery);
-            args.add(searchQuery);
-            args.add(searchQuery);
+          stringBuilder.append(NON_SIGNAL_CONTACT);
+
+          if (search != null) {
+            stringBuilder.append(" AND ").append(search.getWhere());
+            args.addAll(Arrays.asList(search.getWhereArgs()));
           }
 
           stringBuilder.append(")");
@@ -3,14 +3,23 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.text.TextUtils;
 
 import net.zetetic.database.SQLException;
+import net.zetetic.database.sqlcipher.SQLiteQueryBuilder;
 import net.zetetic.database.sqlcipher.SQLiteStatement;
 import net.zetetic.database.sqlcipher.SQLiteTransactionListener;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import org.signal.core.util.tracing.Tracer;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -33,13 +42,43 @@ public class SQLiteDatabase {
   private static final String KEY_THREAD = "thread";
   private static final String NAME_LOCK  = "LOCK";
 
+  /**
+   * Transactions belong to a thread, but wrappers are created on every call, so the state of the
+   * transactions started through any wrapper lives here, keyed by the underlying database.
+   */
+  private static final ThreadLocal<Map<net.zetetic.database.sqlcipher.SQLiteDatabase, TransactionState>> TRANSACTIONS = new ThreadLocal<Map<net.zetetic.database.sqlcipher.SQLiteDatabase, TransactionState>>() {
+    @Override
+    protected Map<net.zetetic.database.sqlcipher.SQLiteDatabase, TransactionState> initialValue() {
+      return new IdentityHashMap<>();
+    }
+  };
 
   private final net.zetetic.database.sqlcipher.SQLiteDatabase wrapped;
   private final Tracer                                        tracer;
+  private final SlowQueryLog                                  slowQueryLog;
+  private final SlowQueryLog.QueryRunner                      explainRunner;
+
+  private final StatementCache<net.zetetic.database.sqlcipher.SQLiteDatabase, SQLiteStatement> statementCache;
+  private final ReadConnectionPool<net.zetetic.database.sqlcipher.SQLiteDatabase>              readConnections;
 
-  public SQLiteDatabase(net.zetetic.database.sqlcipher.SQLiteDatabase wrapped) {
-    this.wrapped = wrapped;
-    this.tracer  = Tracer.getInstance();
+  public SQLiteDatabase(net.zetetic.database.sqlcipher.SQLiteDatabase wrapped, StatementCache<net.zetetic.database.sqlcipher.SQLiteDatabase, SQLiteStatement> statementCache) {
+    this(wrapped, statementCache, null);
+  }
+
+  /**
+   * @param readConnections If present, queries are run on these connections rather than on the
+   *                        wrapped database, except inside of a transaction.
+   */
+  public SQLiteDatabase(net.zetetic.database.sqlcipher.SQLiteDatabase wrapped,
+                        StatementCache<net.zetetic.database.sqlcipher.SQLiteDatabase, SQLiteStatement> statementCache,
+                        @Nullable ReadConnectionPool<net.zetetic.database.sqlcipher.SQLiteDatabase> readConnections)
+  {
+    this.wrapped         = wrapped;
+    this.statementCache  = statementCache;
+    this.tracer          = Tracer.getInstance();
+    this.slowQueryLog    = SlowQueryLog.getInstance();
+    this.explainRunner   = (sql, args) -> wrapped.rawQuery(sql, args);
+    this.readConnections = readConnections;
   }
 
   private void traceLockStart() {
@@ -56,25 +95,34 @@ public class SQLiteDatabase {
     tracer.end(methodName);
   }
 
-  private void traceSql(String methodName, String query, boolean locked, Runnable returnable) {
+  private void traceSql(String methodName, String query, boolean locked, Runnable returnable, SlowQueryLog.Describer describer) {
     if (locked) {
       traceLockStart();
     }
 
     tracer.start(methodName, KEY_QUERY, query);
+    long start = System.nanoTime();
     returnable.run();
+    long duration = System.nanoTime() - start;
     tracer.end(methodName);
 
     if (locked) {
       traceLockEnd();
     }
+
+    slowQueryLog.onStatementComplete(explainRunner, duration, describer);
   }
 
-  private <E> E traceSql(String methodName, String query, boolean locked, Returnable<E> returnable) {
-    return traceSql(methodName, null, query, locked, returnable);
+  private <E> E traceSql(String methodName, String query, boolean locked, Returnable<E> returnable, SlowQueryLog.Describer describer) {
+    return traceSql(methodName, null, query, locked, returnable, describer);
   }
 
-  private <E> E traceSql(String methodName, String table, String query, boolean locked, Returnable<E> returnable) {
+  /**
+   * Only times running the statement. Cursors are filled lazily, so for a query that's usually just
+   * preparing it, unless the returnable reads the cursor itself, like {@link #traceQuery} does on
+   * pooled connections.
+   */
+  private <E> E traceSql(String methodName, String table, String query, boolean locked, Returnable<E> returnable, SlowQueryLog.Describer describer) {
     if (locked) {
       traceLockStart();
     }
@@ -88,16 +136,87 @@ public class SQLiteDatabase {
     }
 
     tracer.start(methodName, params);
-    E result = returnable.run();
+    long start  = System.nanoTime();
+    E    result = returnable.run();
+    long duration = System.nanoTime() - start;
     tracer.end(methodName);
 
     if (locked) {
       traceLockEnd();
     }
 
+    slowQueryLog.onStatementComplete(explainRunner, duration, describer);
+
     return result;
   }
 
+  /**
+   * Runs a query on a read connection when one is available. A thread that's in a transaction has
+   * to keep using the wrapped database, since that's the only connection that can see the
+   * transaction's uncommitted changes.
+   *
+   * The first window is filled here, while the connection is still held, and the connection is
+   * handed back right after. If the cursor needs to fill another window later, it goes back to
+   * that same connection, which is still safe, it may just have to wait its turn.
+   */
+  private Cursor traceQuery(String methodName, String table, String query, QueryFunction function, SlowQueryLog.Describer describer) {
+    if (readConnections == null || wrapped.inTransaction()) {
+      return traceSql(methodName, table, query, false, () -> function.run(wrapped), describer);
+    }
+
+    net.zetetic.database.sqlcipher.SQLiteDatabase reader = readConnections.acquire();
+
+    try {
+      return traceSql(methodName, table, query, false, () -> fillFirstWindow(function.run(reader)), describer);
+    } finally {
+      readConnections.release(reader);
+    }
+  }
+
+  private static Cursor fillFirstWindow(Cursor cursor) {
+    if (cursor != null) {
+      cursor.getCount();
+    }
+    return cursor;
+  }
+
+  private static @NonNull SlowQueryLog.Description describeQuery(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
+    return new SlowQueryLog.Description(SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection, groupBy, having, orderBy, limit), selectionArgs);
+  }
+
+  private static @NonNull SlowQueryLog.Description describeInsert(String verb, String table, ContentValues values) {
+    List<String> columns = new ArrayList<>(values.keySet());
+    Object[]     args    = new Object[columns.size()];
+
+    for (int i = 0; i < columns.size(); i++) {
+      args[i] = values.get(columns.get(i));
+    }
+
+    return new SlowQueryLog.Description(verb + " INTO " + table + " (" + TextUtils.join(", ", columns) + ") VALUES (" + TextUtils.join(", ", Collections.nCopies(columns.size(), "?")) + ")", args);
+  }
+
+  private static @NonNull SlowQueryLog.Description describeUpdate(String table, ContentValues values, String whereClause, String[] whereArgs) {
+    List<String> columns = new ArrayList<>(values.keySet());
+    int          whereCount = whereArgs != null ? whereArgs.length : 0;
+    Object[]     args       = new Object[columns.size() + whereCount];
+    List<String> setters    = new ArrayList<>(columns.size());
+
+    for (int i = 0; i < columns.size(); i++) {
+      setters.add(columns.get(i) + " = ?");
+      args[i] = values.get(columns.get(i));
+    }
+
+    if (whereArgs != null) {
+      System.arraycopy(whereArgs, 0, args, columns.size(), whereCount);
+    }
+
+    return new SlowQueryLog.Description("UPDATE " + table + " SET " + TextUtils.join(", ", setters) + (TextUtils.isEmpty(whereClause) ? "" : " WHERE " + whereClause), args);
+  }
+
+  private static @NonNull SlowQueryLog.Description describeDelete(String table, String whereClause, String[] whereArgs) {
+    return new SlowQueryLog.Description("DELETE FROM " + table + (TextUtils.isEmpty(whereClause) ? "" : " WHERE " + whereClause), whereArgs);
+  }
+
   public net.zetetic.database.sqlcipher.SQLiteDatabase getSqlCipherDatabase() {
     return wrapped;
   }
@@ -106,6 +225,112 @@ public class SQLiteDatabase {
     E run();
   }
 
+  private interface QueryFunction {
+    Cursor run(net.zetetic.database.sqlcipher.SQLiteDatabase database);
+  }
+
+  /**
+   * Registers a hook against the outermost transaction that was started through this wrapper on
+   * the current thread. {@link TransactionHook#beforeCommit()} is run inside that transaction, just
+   * before it is marked successful, so anything it writes is committed along with the rest of it.
+   *
+   * @return False if no such transaction is open, in which case the hook was not registered and the
+   *         caller should do its work immediately.
+   */
+  public boolean addTransactionHook(@NonNull TransactionHook hook) {
+    TransactionState state = TRANSACTIONS.get().get(wrapped);
+
+    if (state == null) {
+      return false;
+    }
+
+    state.hooks.add(hook);
+    return true;
+  }
+
+  /**
+   * Transaction bookkeeping for {@link #addTransactionHook(TransactionHook)}. Subclasses that replace
+   * the transaction methods below must call these themselves for hooks to run.
+   */
+  protected void onTransactionStarted() {
+    Map<net.zetetic.database.sqlcipher.SQLiteDatabase, TransactionState> transactions = TRANSACTIONS.get();
+    TransactionState                                                      state        = transactions.get(wrapped);
+
+    if (state == null) {
+      state = new TransactionState(System.nanoTime());
+      transactions.put(wrapped, state);
+    }
+
+    state.depth++;
+    state.successful = false;
+  }
+
+  protected void onTransactionMarkedSuccessful() {
+    TransactionState state = TRANSACTIONS.get().get(wrapped);
+
+    if (state == null) {
+      return;
+    }
+
+    if (state.depth == 1) {
+      for (int i = 0; i < state.hooks.size(); i++) {
+        state.hooks.get(i).beforeCommit();
+      }
+    }
+
+    state.successful = true;
+  }
+
+  protected void onTransactionEnded(boolean ended) {
+    Map<net.zetetic.database.sqlcipher.SQLiteDatabase, TransactionState> transactions = TRANSACTIONS.get();
+    TransactionState                                                      state        = transactions.get(wrapped);
+
+    if (state == null) {
+      return;
+    }
+
+    if (!state.successful || !ended) {
+      state.failed = true;
+    }
+
+    state.successful = false;
+    state.depth--;
+
+    if (state.depth == 0) {
+      transactions.remove(wrapped);
+      slowQueryLog.onTransactionComplete(System.nanoTime() - state.startNanos);
+
+      for (TransactionHook hook : state.hooks) {
+        hook.onTransactionEnded(!state.failed);
+      }
+    }
+  }
+
+  public interface TransactionHook {
+    /**
+     * Called inside the transaction, right before it is marked successful.
+     */
+    void beforeCommit();
+
+    /**
+     * Called after the transaction has ended, whether it was committed or rolled back.
+     */
+    void onTransactionEnded(boolean committed);
+  }
+
+  private static final class TransactionState {
+    private final List<TransactionHook> hooks = new ArrayList<>();
+    private final long                  startNanos;
+
+    private int     depth;
+    private boolean successful;
+    private boolean failed;
+
+    private TransactionState(long startNanos) {
+      this.startNanos = startNanos;
+    }
+  }
+
 
   // =======================================================
   // Traced
@@ -114,91 +339,193 @@ public class SQLiteDatabase {
   public void beginTransaction() {
     traceLockStart();
     trace("beginTransaction()", wrapped::beginTransaction);
+    onTransactionStarted();
   }
 
   public void endTransaction() {
-    trace("endTransaction()", wrapped::endTransaction);
+    boolean ended = false;
+    try {
+      trace("endTransaction()", wrapped::endTransaction);
+      ended = true;
+    } finally {
+      onTransactionEnded(ended);
+    }
     traceLockEnd();
   }
 
   public void setTransactionSuccessful() {
+    onTransactionMarkedSuccessful();
     trace("setTransactionSuccessful()", wrapped::setTransactionSuccessful);
   }
 
   public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("query(9)", table, selection, false, () -> wrapped.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceQuery("query(9)", table, selection, db -> db.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit), () -> describeQuery(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
   }
 
   public Cursor queryWithFactory(net.zetetic.database.sqlcipher.SQLiteDatabase.CursorFactory cursorFactory, boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("queryWithFactory()", table, selection, false, () -> wrapped.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceQuery("queryWithFactory()", table, selection, db -> db.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit), () -> describeQuery(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy) {
-    return traceSql("query(7)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy));
+    return traceQuery("query(7)", table, selection, db -> db.query(table, columns, selection, selectionArgs, groupBy, having, orderBy), () -> describeQuery(false, table, columns, selection, selectionArgs, groupBy, having, orderBy, null));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("query(8)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceQuery("query(8)", table, selection, db -> db.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit), () -> describeQuery(false, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs) {
-    return traceSql("rawQuery(2a)", sql, false, () -> wrapped.rawQuery(sql, selectionArgs));
+    return traceQuery("rawQuery(2a)", null, sql, db -> db.rawQuery(sql, selectionArgs), () -> new SlowQueryLog.Description(sql, selectionArgs));
   }
 
   public Cursor rawQuery(String sql, Object[] args) {
-    return traceSql("rawQuery(2b)", sql, false,() -> wrapped.rawQuery(sql, args));
+    return traceQuery("rawQuery(2b)", null, sql, db -> db.rawQuery(sql, args), () -> new SlowQueryLog.Description(sql, args));
   }
 
   public Cursor rawQueryWithFactory(net.zetetic.database.sqlcipher.SQLiteDatabase.CursorFactory cursorFactory, String sql, String[] selectionArgs, String editTable) {
-    return traceSql("rawQueryWithFactory()", sql, false, () -> wrapped.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable));
+    return traceQuery("rawQueryWithFactory()", null, sql, db -> db.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable), () -> new SlowQueryLog.Description(sql, selectionArgs));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs, int initialRead, int maxRead) {
-    return traceSql("rawQuery(4)", sql, false, () -> rawQuery(sql, selectionArgs, initialRead, maxRead));
+    return traceSql("rawQuery(4)", sql, false, () -> rawQuery(sql, selectionArgs, initialRead, maxRead), () -> new SlowQueryLog.Description(sql, selectionArgs));
   }
 
   public long insert(String table, String nullColumnHack, ContentValues values) {
-    return traceSql("insert()", table, null, true, () -> wrapped.insert(table, nullColumnHack, values));
+    return traceSql("insert()", table, null, true, () -> wrapped.insert(table, nullColumnHack, values), () -> describeInsert("INSERT", table, values));
   }
 
   public long insertOrThrow(String table, String nullColumnHack, ContentValues values) throws SQLException {
-    return traceSql("insertOrThrow()", table, null, true, () -> wrapped.insertOrThrow(table, nullColumnHack, values));
+    return traceSql("insertOrThrow()", table, null, true, () -> wrapped.insertOrThrow(table, nullColumnHack, values), () -> describeInsert("INSERT", table, values));
   }
 
   public long replace(String table, String nullColumnHack, ContentValues initialValues) {
-    return traceSql("replace()", table, null, true,() -> wrapped.replace(table, nullColumnHack, initialValues));
+    return traceSql("replace()", table, null, true,() -> wrapped.replace(table, nullColumnHack, initialValues), () -> describeInsert("REPLACE", table, initialValues));
   }
 
   public long replaceOrThrow(String table, String nullColumnHack, ContentValues initialValues) throws SQLException {
-    return traceSql("replaceOrThrow()", table, null, true, () -> wrapped.replaceOrThrow(table, nullColumnHack, initialValues));
+    return traceSql("replaceOrThrow()", table, null, true, () -> wrapped.replaceOrThrow(table, nullColumnHack, initialValues), () -> describeInsert("REPLACE", table, initialValues));
   }
 
   public long insertWithOnConflict(String table, String nullColumnHack, ContentValues initialValues, int conflictAlgorithm) {
-    return traceSql("insertWithOnConflict()", table, null, true, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm));
+    return traceSql("insertWithOnConflict()", table, null, true, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm), () -> describeInsert("INSERT", table, initialValues));
   }
 
   public int delete(String table, String whereClause, String[] whereArgs) {
-    return traceSql("delete()", table, whereClause, true, () -> wrapped.delete(table, whereClause, whereArgs));
+    return traceSql("delete()", table, whereClause, true, () -> wrapped.delete(table, whereClause, whereArgs), () -> describeDelete(table, whereClause, whereArgs));
   }
 
   public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
-    return traceSql("update()", table, whereClause, true, () -> wrapped.update(table, values, whereClause, whereArgs));
+    return traceSql("update()", table, whereClause, true, () -> wrapped.update(table, values, whereClause, whereArgs), () -> describeUpdate(table, values, whereClause, whereArgs));
   }
 
   public int updateWithOnConflict(String table, ContentValues values, String whereClause, String[] whereArgs, int conflictAlgorithm) {
-    return traceSql("updateWithOnConflict()", table, whereClause, true, () -> wrapped.updateWithOnConflict(table, values, whereClause, whereArgs, conflictAlgorithm));
+    return traceSql("updateWithOnConflict()", table, whereClause, true, () -> wrapped.updateWithOnConflict(table, values, whereClause, whereArgs, conflictAlgorithm), () -> describeUpdate(table, values, whereClause, whereArgs));
   }
 
   public void execSQL(String sql) throws SQLException {
-    traceSql("execSQL(1)", sql, true, () -> wrapped.execSQL(sql));
+    traceSql("execSQL(1)", sql, true, () -> wrapped.execSQL(sql), () -> new SlowQueryLog.Description(sql, null));
   }
 
   public void rawExecSQL(String sql) {
-    traceSql("rawExecSQL()", sql, true, () -> wrapped.rawExecSQL(sql));
+    traceSql("rawExecSQL()", sql, true, () -> wrapped.rawExecSQL(sql), () -> new SlowQueryLog.Description(sql, null));
   }
 
   public void execSQL(String sql, Object[] bindArgs) throws SQLException {
-    traceSql("execSQL(2)", sql, true, () -> wrapped.execSQL(sql, bindArgs));
+    traceSql("execSQL(2)", sql, true, () -> wrapped.execSQL(sql, bindArgs), () -> new SlowQueryLog.Description(sql, bindArgs));
+  }
+
+  /**
+   * Runs an INSERT using a cached compiled statement. Meant for hot paths, where the SQL is a
+   * constant and only the arguments change from call to call.
+   *
+   * @return The row ID of the inserted row, or -1 on failure.
+   */
+  public long executeInsert(@NonNull String sql, @NonNull Binder binder) {
+    return executeInsert(sql, binder, null);
+  }
+
+  /**
+   * Like {@link #executeInsert(String, Binder)}, binding each argument by its type.
+   */
+  public long executeInsert(@NonNull String sql, Object... args) {
+    return executeInsert(sql, statement -> bindAll(statement, args), args);
+  }
+
+  private long executeInsert(@NonNull String sql, @NonNull Binder binder, Object[] args) {
+    return traceSql("executeInsert()", sql, true, () -> withCachedStatement(sql, binder, SQLiteStatement::executeInsert), () -> new SlowQueryLog.Description(sql, args));
+  }
+
+  /**
+   * Runs an UPDATE or DELETE using a cached compiled statement.
+   *
+   * @return The number of rows affected.
+   */
+  public int executeUpdateDelete(@NonNull String sql, @NonNull Binder binder) {
+    return executeUpdateDelete(sql, binder, null);
+  }
+
+  /**
+   * Like {@link #executeUpdateDelete(String, Binder)}, binding each argument by its type.
+   */
+  public int executeUpdateDelete(@NonNull String sql, Object... args) {
+    return executeUpdateDelete(sql, statement -> bindAll(statement, args), args);
+  }
+
+  private int executeUpdateDelete(@NonNull String sql, @NonNull Binder binder, Object[] args) {
+    return traceSql("executeUpdateDelete()", sql, true, () -> withCachedStatement(sql, binder, SQLiteStatement::executeUpdateDelete), () -> new SlowQueryLog.Description(sql, args));
+  }
+
+  public @NonNull StatementCache.Stats getStatementCacheStats() {
+    return statementCache.getStats();
+  }
+
+  private <E> E withCachedStatement(@NonNull String sql, @NonNull Binder binder, @NonNull StatementFunction<E> function) {
+    SQLiteStatement statement = statementCache.acquire(wrapped, sql);
+
+    try {
+      binder.bind(statement);
+      return function.apply(statement);
+    } finally {
+      statementCache.release(wrapped, sql, statement);
+    }
+  }
+
+  /**
+   * Binds arguments in order, starting at index 1. Supports the same types as {@link ContentValues}.
+   */
+  public static void bindAll(@NonNull SQLiteStatement statement, Object... args) {
+    for (int i = 0; i < args.length; i++) {
+      Object arg   = args[i];
+      int    index = i + 1;
+
+      if (arg == null) {
+        statement.bindNull(index);
+      } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+        statement.bindLong(index, ((Number) arg).longValue());
+      } else if (arg instanceof Boolean) {
+        statement.bindLong(index, (Boolean) arg ? 1 : 0);
+      } else if (arg instanceof Double || arg instanceof Float) {
+        statement.bindDouble(index, ((Number) arg).doubleValue());
+      } else if (arg instanceof byte[]) {
+        statement.bindBlob(index, (byte[]) arg);
+      } else if (arg instanceof String) {
+        statement.bindString(index, (String) arg);
+      } else {
+        throw new IllegalArgumentException("Unsupported type for argument " + index + ": " + arg.getClass());
+      }
+    }
+  }
+
+  /**
+   * Binds arguments to a statement using its typed bind methods, so hot paths can avoid boxing.
+   * Indexes start at 1.
+   */
+  public interface Binder {
+    void bind(@NonNull SQLiteStatement statement);
+  }
+
+  private interface StatementFunction<E> {
+    E apply(@NonNull SQLiteStatement statement);
   }
 
 
@@ -224,14 +551,17 @@ public class SQLiteDatabase {
 
   public void beginTransactionWithListener(SQLiteTransactionListener transactionListener) {
     wrapped.beginTransactionWithListener(transactionListener);
+    onTransactionStarted();
   }
 
   public void beginTransactionNonExclusive() {
     wrapped.beginTransactionNonExclusive();
+    onTransactionStarted();
   }
 
   public void beginTransactionWithListenerNonExclusive(SQLiteTransactionListener transactionListener) {
     wrapped.beginTransactionWithListenerNonExclusive(transactionListener);
+    onTransactionStarted();
   }
 
   public boolean inTransaction() {
@@ -5,18 +5,25 @@ import android.database.Cursor;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Contains all databases necessary for full-text search (FTS).
  */
 public class SearchDatabase extends Database {
 
-  public static final String SMS_FTS_TABLE_NAME = "sms_fts";
-  public static final String MMS_FTS_TABLE_NAME = "mms_fts";
+  public static final String SMS_FTS_TABLE_NAME       = "sms_fts";
+  public static final String MMS_FTS_TABLE_NAME       = "mms_fts";
+  public static final String RECIPIENT_FTS_TABLE_NAME = "recipient_fts";
+  public static final String GROUP_FTS_TABLE_NAME     = "group_fts";
 
   public static final String ID                     = "rowid";
   public static final String BODY                   = MmsSmsColumns.BODY;
@@ -26,9 +33,20 @@ public class SearchDatabase extends Database {
   public static final String MESSAGE_RECIPIENT      = "message_recipient";
   public static final String IS_MMS                 = "is_mms";
   public static final String MESSAGE_ID             = "message_id";
+  public static final String SORT_KEY               = "sort_key";
 
   public static final String SNIPPET_WRAP = "...";
 
+  private static final String PAGE       = "page";
+  private static final String PAGE_ORDER = SORT_KEY + " DESC, " + IS_MMS + " DESC, " + MESSAGE_ID + " DESC";
+
+  /** The recipient index's column weights for bm25(), favoring names over usernames over contact details. Lower ranks first. */
+  static final String RECIPIENT_RANK = "bm25(" + RECIPIENT_FTS_TABLE_NAME + ", 10.0, 10.0, 5.0, 1.0, 1.0)";
+
+  private static final String RECIPIENT_FTS_COLUMNS = RecipientDatabase.SYSTEM_JOINED_NAME + ", " + RecipientDatabase.PROFILE_JOINED_NAME + ", " + RecipientDatabase.USERNAME + ", " + RecipientDatabase.PHONE + ", " + RecipientDatabase.EMAIL;
+  private static final String RECIPIENT_FTS_OLD     = "old." + RecipientDatabase.SYSTEM_JOINED_NAME + ", old." + RecipientDatabase.PROFILE_JOINED_NAME + ", old." + RecipientDatabase.USERNAME + ", old." + RecipientDatabase.PHONE + ", old." + RecipientDatabase.EMAIL;
+  private static final String RECIPIENT_FTS_NEW     = "new." + RecipientDatabase.SYSTEM_JOINED_NAME + ", new." + RecipientDatabase.PROFILE_JOINED_NAME + ", new." + RecipientDatabase.USERNAME + ", new." + RecipientDatabase.PHONE + ", new." + RecipientDatabase.EMAIL;
+
   public static final String[] CREATE_TABLE = {
       "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
 
@@ -38,7 +56,7 @@ public class SearchDatabase extends Database {
       "CREATE TRIGGER sms_ad AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
           "END;\n",
-      "CREATE TRIGGER sms_au AFTER UPDATE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER sms_au AFTER UPDATE OF " + SmsDatabase.BODY + ", " + SmsDatabase.THREAD_ID + " ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES(new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
           "END;",
@@ -52,79 +70,65 @@ public class SearchDatabase extends Database {
       "CREATE TRIGGER mms_ad AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
           "END;\n",
-      "CREATE TRIGGER mms_au AFTER UPDATE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER mms_au AFTER UPDATE OF " + MmsDatabase.BODY + ", " + MmsDatabase.THREAD_ID + " ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
+          "END;",
+
+
+      "CREATE VIRTUAL TABLE " + RECIPIENT_FTS_TABLE_NAME + " USING fts5(" + RECIPIENT_FTS_COLUMNS + ", content=" + RecipientDatabase.TABLE_NAME + ", content_rowid=" + RecipientDatabase.ID + ", tokenize='unicode61 remove_diacritics 2');",
+
+      "CREATE TRIGGER recipient_ai AFTER INSERT ON " + RecipientDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + RECIPIENT_FTS_TABLE_NAME + "(" + ID + ", " + RECIPIENT_FTS_COLUMNS + ") VALUES (new." + RecipientDatabase.ID + ", " + RECIPIENT_FTS_NEW + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER recipient_ad AFTER DELETE ON " + RecipientDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + RECIPIENT_FTS_TABLE_NAME + "(" + RECIPIENT_FTS_TABLE_NAME + ", " + ID + ", " + RECIPIENT_FTS_COLUMNS + ") VALUES('delete', old." + RecipientDatabase.ID + ", " + RECIPIENT_FTS_OLD + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER recipient_au AFTER UPDATE OF " + RECIPIENT_FTS_COLUMNS + " ON " + RecipientDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + RECIPIENT_FTS_TABLE_NAME + "(" + RECIPIENT_FTS_TABLE_NAME + ", " + ID + ", " + RECIPIENT_FTS_COLUMNS + ") VALUES('delete', old." + RecipientDatabase.ID + ", " + RECIPIENT_FTS_OLD + ");\n" +
+          "  INSERT INTO " + RECIPIENT_FTS_TABLE_NAME + "(" + ID + ", " + RECIPIENT_FTS_COLUMNS + ") VALUES (new." + RecipientDatabase.ID + ", " + RECIPIENT_FTS_NEW + ");\n" +
+          "END;",
+
+
+      "CREATE VIRTUAL TABLE " + GROUP_FTS_TABLE_NAME + " USING fts5(" + GroupDatabase.TITLE + ", content=" + GroupDatabase.TABLE_NAME + ", content_rowid=" + GroupDatabase.ID + ", tokenize='unicode61 remove_diacritics 2');",
+
+      "CREATE TRIGGER groups_ai AFTER INSERT ON " + GroupDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + GROUP_FTS_TABLE_NAME + "(" + ID + ", " + GroupDatabase.TITLE + ") VALUES (new." + GroupDatabase.ID + ", new." + GroupDatabase.TITLE + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER groups_ad AFTER DELETE ON " + GroupDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + GROUP_FTS_TABLE_NAME + "(" + GROUP_FTS_TABLE_NAME + ", " + ID + ", " + GroupDatabase.TITLE + ") VALUES('delete', old." + GroupDatabase.ID + ", old." + GroupDatabase.TITLE + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER groups_au AFTER UPDATE OF " + GroupDatabase.TITLE + " ON " + GroupDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + GROUP_FTS_TABLE_NAME + "(" + GROUP_FTS_TABLE_NAME + ", " + ID + ", " + GroupDatabase.TITLE + ") VALUES('delete', old." + GroupDatabase.ID + ", old." + GroupDatabase.TITLE + ");\n" +
+          "  INSERT INTO " + GROUP_FTS_TABLE_NAME + "(" + ID + ", " + GroupDatabase.TITLE + ") VALUES (new." + GroupDatabase.ID + ", new." + GroupDatabase.TITLE + ");\n" +
           "END;"
   };
 
-  private static final String MESSAGES_QUERY =
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        SMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-        SMS_FTS_TABLE_NAME + "." + BODY + ", " +
-        SMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-        "0 AS " + IS_MMS + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-        MMS_FTS_TABLE_NAME + "." + BODY + ", " +
-        MMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-        "1 AS " + IS_MMS + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-      "LIMIT 500";
-
-  private static final String MESSAGES_FOR_THREAD_QUERY =
-      "SELECT " +
-          ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-          MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-          "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
-          SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-          SMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-          SMS_FTS_TABLE_NAME + "." + BODY + ", " +
-          SMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-          "0 AS " + IS_MMS + " " +
-        "FROM " + SmsDatabase.TABLE_NAME + " " +
-        "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? AND " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? " +
-        "UNION ALL " +
-        "SELECT " +
-          ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-          MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-          "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
-          MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-          MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-          MMS_FTS_TABLE_NAME + "." + BODY + ", " +
-          MMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-          "1 AS " + IS_MMS + " " +
-        "FROM " + MmsDatabase.TABLE_NAME + " " +
-        "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? AND " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? " +
-        "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-        "LIMIT 500";
-
   public SearchDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
-  public Cursor queryMessages(@NonNull String query) {
+  /**
+   * Reads one page of messages matching the query, across both the SMS and MMS indexes, most
+   * recently received first.
+   *
+   * The page is picked by its position alone, and the snippets, bodies and recipients are only
+   * read for the rows in it, so a broad query doesn't pay for every match before the first page
+   * can be shown. Pages are keyset-paginated: pass the {@link MessagePosition} of the last row of
+   * the previous page to get the next one. The position is the received date, type and id of that
+   * row, so messages arriving or being deleted between pages neither shift nor repeat later pages.
+   *
+   * Each table only sorts the matches past that position and keeps the first page's worth, so no
+   * page sorts more than twice its size, however deep it is. The full text match itself still
+   * reads the whole index entry for the query on every page, so a page costs roughly as much as the
+   * number of messages that match, though not as much as the number of pages before it.
+   *
+   * @param threadId Limits the results to a single thread, or -1 for all threads.
+   * @param after    The position of the last row of the previous page, or null for the first page.
+   * @return A cursor ordered by received date, newest first, or null if there is nothing to search
+   *         for.
+   */
+  public @Nullable Cursor queryMessages(@NonNull String query, long threadId, @Nullable MessagePosition after, int limit) {
     SQLiteDatabase db                  = databaseHelper.getSignalReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
@@ -132,21 +136,104 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    return db.rawQuery(MESSAGES_QUERY, new String[] { fullTextSearchQuery, fullTextSearchQuery });
+    List<Object> args = new ArrayList<>(17);
+
+    StringBuilder sql = new StringBuilder();
+    sql.append("WITH ").append(PAGE).append(" AS (")
+       .append("SELECT * FROM (")
+       .append(pageKeysQuery(SmsDatabase.TABLE_NAME, SMS_FTS_TABLE_NAME, SmsDatabase.DATE_RECEIVED, false, threadId, fullTextSearchQuery, after, limit, args))
+       .append(") UNION ALL SELECT * FROM (")
+       .append(pageKeysQuery(MmsDatabase.TABLE_NAME, MMS_FTS_TABLE_NAME, MmsDatabase.DATE_RECEIVED, true, threadId, fullTextSearchQuery, after, limit, args))
+       .append(") ORDER BY " + PAGE_ORDER + " LIMIT ?)");
+    args.add(limit);
+
+    sql.append(" ")
+       .append(pageRowsQuery(SmsDatabase.TABLE_NAME, SMS_FTS_TABLE_NAME, SmsDatabase.DATE_RECEIVED, false, fullTextSearchQuery, args))
+       .append(" UNION ALL ")
+       .append(pageRowsQuery(MmsDatabase.TABLE_NAME, MMS_FTS_TABLE_NAME, MmsDatabase.DATE_RECEIVED, true, fullTextSearchQuery, args))
+       .append(" ORDER BY " + PAGE_ORDER);
+
+    return db.rawQuery(sql.toString(), args.toArray());
   }
 
-  public Cursor queryMessages(@NonNull String query, long threadId) {
-    SQLiteDatabase db                  = databaseHelper.getSignalReadableDatabase();
-    String         fullTextSearchQuery = createFullTextSearchQuery(query);
+  /**
+   * The received date, type and id of the first {@code limit} matches in one of the message tables
+   * that come after {@code after}. Nothing that's expensive to compute per row, like snippets,
+   * belongs in here, since it's run for every match past the position.
+   */
+  private static @NonNull String pageKeysQuery(@NonNull String table,
+                                               @NonNull String ftsTable,
+                                               @NonNull String dateReceived,
+                                               boolean isMms,
+                                               long threadId,
+                                               @NonNull String fullTextSearchQuery,
+                                               @Nullable MessagePosition after,
+                                               int limit,
+                                               @NonNull List<Object> args)
+  {
+    String date = table + "." + dateReceived;
+    String id   = table + "." + MmsSmsColumns.ID;
 
-    if (TextUtils.isEmpty(fullTextSearchQuery)) {
-      return null;
+    String query = "SELECT " +
+                     date + " AS " + SORT_KEY + ", " +
+                     (isMms ? 1 : 0) + " AS " + IS_MMS + ", " +
+                     id + " AS " + MESSAGE_ID + " " +
+                   "FROM " + table + " " +
+                   "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " = " + table + "." + MmsSmsColumns.THREAD_ID + " " +
+                   "WHERE " + id + " IN (SELECT " + ID + " FROM " + ftsTable + " WHERE " + ftsTable + " MATCH ?)";
+    args.add(fullTextSearchQuery);
+
+    if (threadId != -1) {
+      query += " AND " + table + "." + MmsSmsColumns.THREAD_ID + " = ?";
+      args.add(threadId);
+    }
+
+    if (after != null) {
+      query += " AND " + afterPosition(date, id, isMms, after, args);
     }
 
-    return db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { fullTextSearchQuery,
-                                                                 String.valueOf(threadId),
-                                                                 fullTextSearchQuery,
-                                                                 String.valueOf(threadId) });
+    query += " ORDER BY " + date + " DESC, " + id + " DESC LIMIT ?";
+    args.add(limit);
+
+    return query;
+  }
+
+  /**
+   * Whether a row of one of the message tables comes after the position in {@link #PAGE_ORDER}.
+   * Every row of a table has the same type, so the comparison against the position's type is
+   * settled here rather than in SQL.
+   */
+  private static @NonNull String afterPosition(@NonNull String date, @NonNull String id, boolean isMms, @NonNull MessagePosition after, @NonNull List<Object> args) {
+    if (isMms == after.isMms) {
+      args.add(after.dateReceived);
+      args.add(after.dateReceived);
+      args.add(after.messageId);
+      return "(" + date + " < ? OR (" + date + " = ? AND " + id + " < ?))";
+    } else if (isMms) {
+      args.add(after.dateReceived);
+      return date + " < ?";
+    } else {
+      args.add(after.dateReceived);
+      return date + " <= ?";
+    }
+  }
+
+  /**
+   * Rebuilds the recipient and group search indexes from their tables. Only needed when the indexes
+   * were created for tables that already had rows in them, since the triggers keep them up to date
+   * from then on.
+   */
+  public void rebuildRecipientIndexes() {
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      db.execSQL("INSERT INTO " + RECIPIENT_FTS_TABLE_NAME + "(" + RECIPIENT_FTS_TABLE_NAME + ") VALUES('rebuild')");
+      db.execSQL("INSERT INTO " + GROUP_FTS_TABLE_NAME + "(" + GROUP_FTS_TABLE_NAME + ") VALUES('rebuild')");
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   private static String createFullTextSearchQuery(@NonNull String query) {
@@ -161,5 +248,29 @@ public class SearchDatabase extends Database {
   private static String fullTextSearchEscape(String s) {
     return "\"" + s.replace("\"", "\"\"") + "\"";
   }
-}
 
+  /**
+   * Where a page of {@link #queryMessages(String, long, MessagePosition, int)} ended.
+   */
+  public static final class MessagePosition {
+    private final long    dateReceived;
+    private final boolean isMms;
+    private final long    messageId;
+
+    private MessagePosition(long dateReceived, boolean isMms, long messageId) {
+      this.dateReceived = dateReceived;
+      this.isMms        = isMms;
+      this.messageId    = messageId;
+    }
+
+    /**
+     * @param cursor A cursor from {@link #queryMessages(String, long, MessagePosition, int)}, moved
+     *               to the last row of its page.
+     */
+    public static @NonNull MessagePosition fromCursor(@NonNull Cursor cursor) {
+      return new MessagePosition(CursorUtil.requireLong(cursor, SORT_KEY),
+                                 CursorUtil.requireBoolean(cursor, IS_MMS),
+                                 CursorUtil.requireLong(cursor, MESSAGE_ID));
+    }
+  }
+}
@@ -0,0 +1,491 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of statements and transactions that took longer than a threshold, so we can see
+ * which queries are slow in the field.
+ *
+ * The first time a given statement is seen to be slow, its query plan is captured with
+ * EXPLAIN QUERY PLAN. That's done on a background thread, so the caller that was already slow
+ * doesn't also pay for the EXPLAIN, and it isn't run inside whatever transaction the caller holds.
+ * Statements are grouped with their literals stripped, and only the shape of
+ * their arguments (count and type) is kept, never the values.
+ */
+public final class SlowQueryLog {
+
+  private static final String TAG = Log.tag(SlowQueryLog.class);
+
+  static final long SLOW_STATEMENT_NANOS   = TimeUnit.MILLISECONDS.toNanos(30);
+  static final long SLOW_TRANSACTION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final int MAX_STATEMENTS   = 100;
+  private static final int MAX_TRANSACTIONS = 50;
+  private static final int MAX_LISTED_ARGS  = 8;
+
+  private static final Pattern STRING_LITERAL  = Pattern.compile("'(?:[^']|'')*'");
+  private static final Pattern NUMBER_LITERAL  = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+  private static final Pattern WHITESPACE      = Pattern.compile("\\s+");
+  private static final Pattern EXPLAINABLE     = Pattern.compile("^\\s*(SELECT|WITH|UPDATE|DELETE|INSERT|REPLACE)\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final List<String> PENDING_PLAN = Collections.singletonList("(pending)");
+
+  private static final SlowQueryLog INSTANCE = new SlowQueryLog(SignalExecutors.newCachedSingleThreadExecutor("signal-SlowQueryLog"));
+
+  private final Executor explainExecutor;
+
+  private final Map<String, SlowStatement>   statements   = new LruMap<>(MAX_STATEMENTS);
+  private final Map<String, SlowTransaction> transactions = new LruMap<>(MAX_TRANSACTIONS);
+
+  private long slowStatementCount;
+  private long slowTransactionCount;
+  private long fullScanCount;
+
+  public static @NonNull SlowQueryLog getInstance() {
+    return INSTANCE;
+  }
+
+  SlowQueryLog(@NonNull Executor explainExecutor) {
+    this.explainExecutor = explainExecutor;
+  }
+
+  /**
+   * Called after every statement run through {@link SQLiteDatabase}. Does nothing unless the
+   * statement was slow, in which case the description is built and, the first time, its query plan
+   * is captured in the background using the provided database.
+   */
+  void onStatementComplete(@NonNull QueryRunner db, long durationNanos, @Nullable Describer describer) {
+    if (durationNanos < SLOW_STATEMENT_NANOS || describer == null) {
+      return;
+    }
+
+    Description description = describer.describe();
+    String      key         = normalize(description.sql);
+    String      shape       = getArgumentShape(description.args);
+
+    synchronized (this) {
+      slowStatementCount++;
+
+      SlowStatement existing = statements.get(key);
+
+      if (existing != null) {
+        existing.onSlowExecution(durationNanos, shape);
+
+        if (existing.fullScan) {
+          fullScanCount++;
+        }
+        return;
+      }
+
+      SlowStatement statement = new SlowStatement(key, PENDING_PLAN);
+      statement.onSlowExecution(durationNanos, shape);
+      statements.put(key, statement);
+    }
+
+    Log.w(TAG, String.format(Locale.US, "Slow statement (%d ms): %s", TimeUnit.NANOSECONDS.toMillis(durationNanos), key));
+
+    explainExecutor.execute(() -> {
+      List<String> plan = explain(db, description);
+
+      synchronized (this) {
+        SlowStatement statement = statements.get(key);
+
+        if (statement == null) {
+          return;
+        }
+
+        statement.setPlan(plan);
+
+        if (statement.fullScan) {
+          fullScanCount += statement.count;
+          Log.w(TAG, "Slow statement uses a full scan: " + key);
+        }
+      }
+    });
+  }
+
+  /**
+   * Called when an outermost transaction ends. If it was slow, it's attributed to whoever started
+   * it, which is found by walking up the stack.
+   */
+  void onTransactionComplete(long durationNanos) {
+    if (durationNanos < SLOW_TRANSACTION_NANOS) {
+      return;
+    }
+
+    String caller = getCaller();
+
+    synchronized (this) {
+      slowTransactionCount++;
+
+      SlowTransaction transaction = transactions.get(caller);
+
+      if (transaction == null) {
+        transaction = new SlowTransaction(caller);
+        transactions.put(caller, transaction);
+      }
+
+      transaction.onSlowExecution(durationNanos);
+    }
+  }
+
+  public synchronized @NonNull Snapshot getSnapshot() {
+    List<SlowStatement> statementList = new ArrayList<>(statements.size());
+    for (SlowStatement statement : statements.values()) {
+      statementList.add(statement.copy());
+    }
+
+    List<SlowTransaction> transactionList = new ArrayList<>(transactions.size());
+    for (SlowTransaction transaction : transactions.values()) {
+      transactionList.add(transaction.copy());
+    }
+
+    Collections.sort(statementList, (a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+    Collections.sort(transactionList, (a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+
+    return new Snapshot(slowStatementCount, slowTransactionCount, fullScanCount, statementList, transactionList);
+  }
+
+  static @NonNull String normalize(@NonNull String sql) {
+    String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+    normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+    return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+  }
+
+  static @NonNull String getArgumentShape(@Nullable Object[] args) {
+    if (args == null) {
+      return "(unknown)";
+    }
+
+    if (args.length == 0) {
+      return "()";
+    }
+
+    if (args.length > MAX_LISTED_ARGS) {
+      Map<String, Integer> counts = new LinkedHashMap<>();
+      for (Object arg : args) {
+        String type  = getArgumentType(arg);
+        Integer count = counts.get(type);
+        counts.put(type, count == null ? 1 : count + 1);
+      }
+
+      StringBuilder builder = new StringBuilder("(").append(args.length).append(" args:");
+      for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+        builder.append(' ').append(entry.getValue()).append('x').append(entry.getKey());
+      }
+      return builder.append(')').toString();
+    }
+
+    StringBuilder builder = new StringBuilder("(");
+    for (int i = 0; i < args.length; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(getArgumentType(args[i]));
+    }
+    return builder.append(')').toString();
+  }
+
+  private static @NonNull String getArgumentType(@Nullable Object arg) {
+    if (arg == null) {
+      return "null";
+    } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte || arg instanceof Boolean) {
+      return "int";
+    } else if (arg instanceof Double || arg instanceof Float) {
+      return "real";
+    } else if (arg instanceof byte[]) {
+      return "blob";
+    } else if (arg instanceof String && isInteger((String) arg)) {
+      return "int-text";
+    } else {
+      return "text";
+    }
+  }
+
+  private static boolean isInteger(@NonNull String value) {
+    if (value.isEmpty() || value.length() > 19) {
+      return false;
+    }
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (!(Character.isDigit(c) || (i == 0 && c == '-' && value.length() > 1))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * A step of a query plan is a full-table scan if it reads a table without using any index. Scans
+   * of subqueries and constant rows don't count.
+   */
+  static boolean isFullScan(@NonNull String planDetail) {
+    String detail = planDetail.trim().toUpperCase(Locale.US);
+
+    return detail.startsWith("SCAN ")              &&
+           !detail.startsWith("SCAN CONSTANT ROW") &&
+           !detail.startsWith("SCAN SUBQUERY")     &&
+           !detail.contains(" USING ");
+  }
+
+  private static @NonNull List<String> explain(@NonNull QueryRunner db, @NonNull Description description) {
+    if (!EXPLAINABLE.matcher(description.sql).find()) {
+      return Collections.singletonList("(not explainable)");
+    }
+
+    List<String> plan = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + description.sql, description.args != null ? description.args : new Object[0])) {
+      int detailIndex = cursor.getColumnIndex("detail");
+
+      while (cursor.moveToNext()) {
+        plan.add(cursor.getString(detailIndex >= 0 ? detailIndex : cursor.getColumnCount() - 1));
+      }
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to capture query plan.", e);
+      return Collections.singletonList("(plan unavailable: " + e.getClass().getSimpleName() + ")");
+    }
+
+    return plan;
+  }
+
+  private static @NonNull String getCaller() {
+    StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+
+    for (StackTraceElement element : stack) {
+      String className = element.getClassName();
+
+      if (!className.startsWith("java.")                         &&
+          !className.startsWith("dalvik.")                       &&
+          !className.equals(Thread.class.getName())              &&
+          !className.equals(SlowQueryLog.class.getName())        &&
+          !className.equals(SQLiteDatabase.class.getName())      &&
+          !className.startsWith(SQLiteDatabase.class.getName() + "$"))
+      {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        return simpleName + "." + element.getMethodName() + ":" + element.getLineNumber();
+      }
+    }
+
+    return "unknown";
+  }
+
+  /**
+   * Runs a raw query against the database a slow statement ran on, to capture its query plan.
+   */
+  interface QueryRunner {
+    @NonNull Cursor rawQuery(@NonNull String sql, @NonNull Object[] args);
+  }
+
+  /**
+   * Builds a {@link Description} of a statement. Only called for slow statements, so that the
+   * common case doesn't pay for building SQL strings.
+   */
+  interface Describer {
+    @NonNull Description describe();
+  }
+
+  static final class Description {
+    private final String   sql;
+    private final Object[] args;
+
+    Description(@NonNull String sql, @Nullable Object[] args) {
+      this.sql  = sql;
+      this.args = args;
+    }
+  }
+
+  public static final class SlowStatement {
+    private final String sql;
+
+    private List<String> plan;
+    private boolean      fullScan;
+    private int          count;
+    private long   totalNanos;
+    private long   maxNanos;
+    private String lastArgumentShape;
+
+    private SlowStatement(@NonNull String sql, @NonNull List<String> plan) {
+      this.sql = sql;
+      setPlan(plan);
+    }
+
+    private void setPlan(@NonNull List<String> plan) {
+      boolean fullScan = false;
+      for (String step : plan) {
+        fullScan |= SlowQueryLog.isFullScan(step);
+      }
+
+      this.plan     = plan;
+      this.fullScan = fullScan;
+    }
+
+    private void onSlowExecution(long durationNanos, @NonNull String argumentShape) {
+      count++;
+      totalNanos       += durationNanos;
+      maxNanos          = Math.max(maxNanos, durationNanos);
+      lastArgumentShape = argumentShape;
+    }
+
+    private @NonNull SlowStatement copy() {
+      SlowStatement copy = new SlowStatement(sql, plan);
+      copy.count             = count;
+      copy.totalNanos        = totalNanos;
+      copy.maxNanos          = maxNanos;
+      copy.lastArgumentShape = lastArgumentShape;
+      return copy;
+    }
+
+    public @NonNull String getSql() {
+      return sql;
+    }
+
+    public @NonNull List<String> getPlan() {
+      return plan;
+    }
+
+    public boolean isFullScan() {
+      return fullScan;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getTotalMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    public long getMaxMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    public @NonNull String getLastArgumentShape() {
+      return lastArgumentShape;
+    }
+  }
+
+  public static final class SlowTransaction {
+    private final String caller;
+
+    private int  count;
+    private long totalNanos;
+    private long maxNanos;
+
+    private SlowTransaction(@NonNull String caller) {
+      this.caller = caller;
+    }
+
+    private void onSlowExecution(long durationNanos) {
+      count++;
+      totalNanos += durationNanos;
+      maxNanos    = Math.max(maxNanos, durationNanos);
+    }
+
+    private @NonNull SlowTransaction copy() {
+      SlowTransaction copy = new SlowTransaction(caller);
+      copy.count      = count;
+      copy.totalNanos = totalNanos;
+      copy.maxNanos   = maxNanos;
+      return copy;
+    }
+
+    public @NonNull String getCaller() {
+      return caller;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getTotalMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    public long getMaxMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+  }
+
+  public static final class Snapshot {
+    private final long                  slowStatementCount;
+    private final long                  slowTransactionCount;
+    private final long                  fullScanCount;
+    private final List<SlowStatement>   statements;
+    private final List<SlowTransaction> transactions;
+
+    private Snapshot(long slowStatementCount,
+                     long slowTransactionCount,
+                     long fullScanCount,
+                     @NonNull List<SlowStatement> statements,
+                     @NonNull List<SlowTransaction> transactions)
+    {
+      this.slowStatementCount   = slowStatementCount;
+      this.slowTransactionCount = slowTransactionCount;
+      this.fullScanCount        = fullScanCount;
+      this.statements           = statements;
+      this.transactions         = transactions;
+    }
+
+    public long getSlowStatementCount() {
+      return slowStatementCount;
+    }
+
+    public long getSlowTransactionCount() {
+      return slowTransactionCount;
+    }
+
+    /**
+     * @return How many slow statement executions used a query plan with a full-table scan.
+     */
+    public long getFullScanCount() {
+      return fullScanCount;
+    }
+
+    /**
+     * @return Distinct slow statements, most total time first.
+     */
+    public @NonNull List<SlowStatement> getStatements() {
+      return statements;
+    }
+
+    /**
+     * @return Slow transactions grouped by caller, most total time first.
+     */
+    public @NonNull List<SlowTransaction> getTransactions() {
+      return transactions;
+    }
+  }
+
+  private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+    private final int maxSize;
+
+    private LruMap(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
@@ -39,7 +39,6 @@ import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.GroupCallUpdateDetailsUtil;
 import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
-import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.databaseprotos.GroupCallUpdateDetails;
 import org.thoughtcrime.securesms.database.model.databaseprotos.ProfileChangeDetails;
@@ -138,7 +137,8 @@ public class SmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ", " + RECIPIENT_ID + ", " + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
-    "CREATE INDEX IF NOT EXISTS sms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
+    "CREATE INDEX IF NOT EXISTS sms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");",
+    "CREATE INDEX IF NOT EXISTS sms_expires_at_index ON " + TABLE_NAME + " (" + EXPIRES_AT + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MESSAGE_PROJECTION = new String[] {
@@ -149,7 +149,7 @@ public class SmsDatabase extends MessageDatabase {
       PROTOCOL, READ, STATUS, TYPE,
       REPLY_PATH_PRESENT, SUBJECT, BODY, SERVICE_CENTER, DELIVERY_RECEIPT_COUNT,
       MISMATCHED_IDENTITIES, SUBSCRIPTION_ID, EXPIRES_IN, EXPIRE_STARTED,
-      NOTIFIED, READ_RECEIPT_COUNT, UNIDENTIFIED, REACTIONS, REACTIONS_UNREAD, REACTIONS_LAST_SEEN,
+      NOTIFIED, READ_RECEIPT_COUNT, UNIDENTIFIED, REACTIONS_UNREAD, REACTIONS_LAST_SEEN,
       REMOTE_DELETED, NOTIFIED_TIMESTAMP, RECEIPT_TIMESTAMP
   };
 
@@ -391,9 +391,10 @@ public class SmsDatabase extends MessageDatabase {
       ContentValues values = new ContentValues();
       values.put(REMOTE_DELETED, 1);
       values.putNull(BODY);
-      values.putNull(REACTIONS);
       db.update(TABLE_NAME, values, ID_WHERE, new String[] { String.valueOf(id) });
 
+      DatabaseFactory.getReactionDatabase(context).deleteReactions(db, new MessageId(id, false));
+
       threadId = getThreadIdForMessage(id);
 
       DatabaseFactory.getThreadDatabase(context).update(threadId, false);
@@ -413,6 +414,8 @@ public class SmsDatabase extends MessageDatabase {
 
     SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
+
+    invalidateCachedRecord(new MessageId(id, false));
   }
 
   @Override
@@ -482,6 +485,8 @@ public class SmsDatabase extends MessageDatabase {
     contentValues.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
 
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
+
+    invalidateCachedRecord(new MessageId(id, false));
   }
 
   @Override
@@ -510,11 +515,11 @@ public class SmsDatabase extends MessageDatabase {
             long    savedTimestamp   = CursorUtil.requireLong(cursor, RECEIPT_TIMESTAMP);
             long    updatedTimestamp = isFirstIncrement ? Math.max(savedTimestamp, timestamp) : savedTimestamp;
 
-            database.execSQL("UPDATE " + TABLE_NAME +
-                             " SET " + columnName + " = " + columnName + " + 1, " +
-                             RECEIPT_TIMESTAMP + " = ? WHERE " +
-                             ID + " = ?",
-                             SqlUtil.buildArgs(updatedTimestamp, id));
+            database.executeUpdateDelete("UPDATE " + TABLE_NAME +
+                                         " SET " + columnName + " = " + columnName + " + 1, " +
+                                         RECEIPT_TIMESTAMP + " = ? WHERE " +
+                                         ID + " = ?",
+                                         updatedTimestamp, id);
 
             threadUpdates.add(new ThreadUpdate(threadId, !isFirstIncrement));
           }
@@ -608,6 +613,8 @@ public class SmsDatabase extends MessageDatabase {
       cursor = database.query(TABLE_NAME, new String[] {ID, RECIPIENT_ID, DATE_SENT, TYPE, EXPIRES_IN, EXPIRE_STARTED, THREAD_ID}, where, arguments, null, null, null);
 
       while (cursor != null && cursor.moveToNext()) {
+        invalidateCachedRecord(new MessageId(CursorUtil.requireLong(cursor, ID), false));
+
         if (Types.isSecureType(CursorUtil.requireLong(cursor, TYPE))) {
           long           threadId       = CursorUtil.requireLong(cursor, THREAD_ID);
           RecipientId    recipientId    = RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID));
@@ -1174,7 +1181,7 @@ public class SmsDatabase extends MessageDatabase {
       }
 
       if (!silent) {
-        DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+        DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, new MessageId(messageId, false), message.getReceivedTimestampMillis(), true);
       }
 
       if (message.getSubscriptionId() != -1) {
@@ -1303,10 +1310,8 @@ public class SmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public Cursor getExpirationStartedMessages() {
-    String         where = EXPIRE_STARTED + " > 0";
-    SQLiteDatabase db    = databaseHelper.getSignalReadableDatabase();
-    return db.query(TABLE_NAME, MESSAGE_PROJECTION, where, null, null, null, null);
+  public @NonNull List<ExpirationInfo> getExpirationStartedMessages() {
+    return readExpirationStartedMessages(false);
   }
 
   @Override
@@ -1351,7 +1356,7 @@ public class SmsDatabase extends MessageDatabase {
       db.delete(TABLE_NAME, ID_WHERE, new String[] { messageId + "" });
 
       DatabaseFactory.getThreadDatabase(context).setLastScrolled(threadId, 0);
-      threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false, true);
+      threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, new MessageId(messageId, false));
 
       db.setTransactionSuccessful();
     } finally {
@@ -1400,11 +1405,11 @@ public class SmsDatabase extends MessageDatabase {
   }
 
   @Override
-  int deleteMessagesInThreadBeforeDate(long threadId, long date) {
+  int deleteMessagesInThreadBeforeDate(long threadId, long date, int limit) {
     SQLiteDatabase db    = databaseHelper.getSignalWritableDatabase();
-    String         where = THREAD_ID + " = ? AND " + DATE_RECEIVED + " < " + date;
+    String         where = ID + " IN (SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + THREAD_ID + " = ? AND " + DATE_RECEIVED + " < ? LIMIT " + limit + ")";
 
-    return db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId));
+    return db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId, date));
   }
 
   @Override
@@ -1696,7 +1701,6 @@ public class SmsDatabase extends MessageDatabase {
       String               body                 = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
       boolean              unidentified         = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.UNIDENTIFIED)) == 1;
       boolean              remoteDelete         = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.REMOTE_DELETED)) == 1;
-      List<ReactionRecord> reactions            = parseReactions(cursor);
       long                 notifiedTimestamp    = CursorUtil.requireLong(cursor, NOTIFIED_TIMESTAMP);
       long                 receiptTimestamp     = CursorUtil.requireLong(cursor, RECEIPT_TIMESTAMP);
 
@@ -1707,13 +1711,14 @@ public class SmsDatabase extends MessageDatabase {
       List<IdentityKeyMismatch> mismatches = getMismatches(mismatchDocument);
       Recipient                 recipient  = Recipient.live(RecipientId.from(recipientId)).get();
 
+      // Reactions aren't part of the row, see ReactionDatabase.
       return new SmsMessageRecord(messageId, body, recipient,
                                   recipient,
                                   addressDeviceId,
                                   dateSent, dateReceived, dateServer, deliveryReceiptCount, type,
                                   threadId, status, mismatches, subscriptionId,
                                   expiresIn, expireStarted,
-                                  readReceiptCount, unidentified, reactions, remoteDelete,
+                                  readReceiptCount, unidentified, Collections.emptyList(), remoteDelete,
                                   notifiedTimestamp, receiptTimestamp);
     }
 
@@ -0,0 +1,168 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An LRU of compiled statements for a single database, keyed by their SQL.
+ *
+ * A statement holds its bindings, so it can't be shared between threads while in use. Rather than
+ * locking, a statement is removed from the cache while it is checked out and put back when it is
+ * released. A second thread asking for the same SQL in the meantime compiles its own copy, and
+ * whichever copy is released last is closed if the cache already has one.
+ *
+ * Each statement remembers the connection it was compiled on, and is only handed out again for
+ * that connection. One compiled on a connection that has since been replaced is closed instead of
+ * being run against a connection it doesn't belong to.
+ */
+public final class StatementCache<D, S> {
+
+  private final int                                maxSize;
+  private final Compiler<D, S>                     compiler;
+  private final LinkedHashMap<String, Entry<D, S>> statements;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  public StatementCache(int maxSize, @NonNull Compiler<D, S> compiler) {
+    this.maxSize    = maxSize;
+    this.compiler   = compiler;
+    this.statements = new LinkedHashMap<String, Entry<D, S>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<D, S>> eldest) {
+        if (size() > StatementCache.this.maxSize) {
+          compiler.close(eldest.getValue().statement);
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return A statement for the SQL on the given connection, either from the cache or newly
+   *         compiled. It must be handed back with {@link #release(Object, String, Object)}.
+   */
+  @NonNull S acquire(@NonNull D database, @NonNull String sql) {
+    Entry<D, S> entry;
+
+    synchronized (this) {
+      entry = statements.remove(sql);
+
+      if (entry != null && entry.database == database) {
+        hits++;
+        return entry.statement;
+      }
+
+      misses++;
+
+      if (entry != null) {
+        evictions++;
+      }
+    }
+
+    if (entry != null) {
+      compiler.close(entry.statement);
+    }
+
+    return compiler.compile(database, sql);
+  }
+
+  void release(@NonNull D database, @NonNull String sql, @NonNull S statement) {
+    compiler.clearBindings(statement);
+
+    S toClose = null;
+
+    synchronized (this) {
+      if (statements.containsKey(sql)) {
+        toClose = statement;
+      } else {
+        statements.put(sql, new Entry<>(database, statement));
+      }
+    }
+
+    if (toClose != null) {
+      compiler.close(toClose);
+    }
+  }
+
+  /**
+   * Closes every cached statement, e.g. before the schema changes underneath them.
+   */
+  public void clear() {
+    synchronized (this) {
+      Iterator<Entry<D, S>> iterator = statements.values().iterator();
+
+      while (iterator.hasNext()) {
+        compiler.close(iterator.next().statement);
+        iterator.remove();
+      }
+    }
+  }
+
+  public synchronized @NonNull Stats getStats() {
+    return new Stats(hits, misses, evictions, statements.size());
+  }
+
+  public interface Compiler<D, S> {
+    @NonNull S compile(@NonNull D database, @NonNull String sql);
+    void clearBindings(@NonNull S statement);
+    void close(@NonNull S statement);
+  }
+
+  private static final class Entry<D, S> {
+    private final D database;
+    private final S statement;
+
+    private Entry(@NonNull D database, @NonNull S statement) {
+      this.database  = database;
+      this.statement = statement;
+    }
+  }
+
+  public static final class Stats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int  size;
+
+    private Stats(long hits, long misses, long evictions, int size) {
+      this.hits      = hits;
+      this.misses    = misses;
+      this.evictions = evictions;
+      this.size      = size;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public float getHitRate() {
+      long total = hits + misses;
+      return total > 0 ? (float) hits / total : 0;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "hits: %d, misses: %d, evictions: %d, size: %d, hit rate: %.1f%%", hits, misses, evictions, size, getHitRate() * 100);
+    }
+  }
+}
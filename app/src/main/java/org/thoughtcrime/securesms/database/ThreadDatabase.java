@@ -25,6 +25,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
@@ -38,11 +39,13 @@ import org.thoughtcrime.securesms.database.MessageDatabase.MarkedMessageInfo;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.groups.BadGroupIdException;
 import org.thoughtcrime.securesms.groups.GroupId;
+import org.thoughtcrime.securesms.jobs.AbandonedRowCleanupJob;
 import org.thoughtcrime.securesms.mms.Slide;
 import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.mms.StickerSlide;
@@ -54,7 +57,9 @@ import org.thoughtcrime.securesms.storage.StorageSyncHelper;
 import org.thoughtcrime.securesms.util.ConversationUtil;
 import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.JsonUtils;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.SqlUtil;
+import org.thoughtcrime.securesms.util.Stopwatch;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -71,12 +76,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThreadDatabase extends Database {
 
@@ -85,6 +92,8 @@ public class ThreadDatabase extends Database {
   public static final long NO_TRIM_BEFORE_DATE_SET   = 0;
   public static final int  NO_TRIM_MESSAGE_COUNT_SET = Integer.MAX_VALUE;
 
+  private static final int TRIM_CHUNK_SIZE = 500;
+
   public  static final String TABLE_NAME             = "thread";
   public  static final String ID                     = "_id";
   public  static final String DATE                   = "date";
@@ -156,6 +165,12 @@ public class ThreadDatabase extends Database {
 
   private static final String[] RECIPIENT_ID_PROJECTION = new String[] { RECIPIENT_ID };
 
+  private static final int SUMMARY_CACHE_SIZE = 500;
+
+  private final LRUCache<Long, ThreadSummary> summaries             = new LRUCache<>(SUMMARY_CACHE_SIZE);
+  private final ThreadLocal<PendingUpdates>   pendingUpdates        = new ThreadLocal<>();
+  private final AtomicLong                    avoidedRecomputations = new AtomicLong();
+
   public ThreadDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -216,13 +231,17 @@ public class ThreadDatabase extends Database {
     db.update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
 
     if (unarchive) {
-      ContentValues archiveValues = new ContentValues();
-      archiveValues.put(ARCHIVED, 0);
+      unarchiveIfArchived(threadId);
+    }
+  }
 
-      SqlUtil.Query query = SqlUtil.buildTrueUpdateQuery(ID_WHERE, SqlUtil.buildArgs(threadId), archiveValues);
-      if (db.update(TABLE_NAME, archiveValues, query.getWhere(), query.getWhereArgs()) > 0) {
-        StorageSyncHelper.scheduleSyncForDataChange();
-      }
+  private void unarchiveIfArchived(long threadId) {
+    ContentValues archiveValues = new ContentValues();
+    archiveValues.put(ARCHIVED, 0);
+
+    SqlUtil.Query query = SqlUtil.buildTrueUpdateQuery(ID_WHERE, SqlUtil.buildArgs(threadId), archiveValues);
+    if (databaseHelper.getSignalWritableDatabase().update(TABLE_NAME, archiveValues, query.getWhere(), query.getWhereArgs()) > 0) {
+      StorageSyncHelper.scheduleSyncForDataChange();
     }
   }
 
@@ -251,39 +270,22 @@ public class ThreadDatabase extends Database {
       return;
     }
 
-    SQLiteDatabase       db                   = databaseHelper.getSignalWritableDatabase();
-    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
-    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
-    MmsSmsDatabase       mmsSmsDatabase       = DatabaseFactory.getMmsSmsDatabase(context);
-    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
-    int                  deletes              = 0;
+    Stopwatch stopwatch = new Stopwatch("trim-all");
+    int       deletes   = 0;
 
     try (Cursor cursor = databaseHelper.getSignalReadableDatabase().query(TABLE_NAME, new String[] { ID }, null, null, null, null, null)) {
       while (cursor != null && cursor.moveToNext()) {
-        trimThreadInternal(CursorUtil.requireLong(cursor, ID), length, trimBeforeDate);
+        deletes += trimThreadInternal(CursorUtil.requireLong(cursor, ID), length, trimBeforeDate);
       }
     }
 
-    db.beginTransaction();
-
-    try {
-      mmsSmsDatabase.deleteAbandonedMessages();
-      attachmentDatabase.trimAllAbandonedAttachments();
-      groupReceiptDatabase.deleteAbandonedRows();
-      mentionDatabase.deleteAbandonedMentions();
-      deletes = attachmentDatabase.deleteAbandonedAttachmentFiles();
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
+    stopwatch.split("messages");
 
     if (deletes > 0) {
-      Log.i(TAG, "Trim all threads caused " + deletes + " attachments to be deleted.");
+      AbandonedRowCleanupJob.enqueue();
     }
 
-    notifyAttachmentListeners();
-    notifyStickerListeners();
-    notifyStickerPackListeners();
+    stopwatch.stop(TAG);
   }
 
   public void trimThread(long threadId, int length, long trimBeforeDate) {
@@ -291,64 +293,118 @@ public class ThreadDatabase extends Database {
       return;
     }
 
+    Stopwatch stopwatch = new Stopwatch("trim-thread");
+    int       deletes   = trimThreadInternal(threadId, length, trimBeforeDate);
+
+    stopwatch.split("messages");
+
+    if (deletes > 0) {
+      AbandonedRowCleanupJob.enqueue();
+    }
+
+    stopwatch.stop(TAG);
+  }
+
+  /**
+   * Deletes the thread's messages in chunks of {@link #TRIM_CHUNK_SIZE}, each in its own
+   * transaction, so that other writers get a turn between them instead of waiting on the whole
+   * trim. The rows that pointed at the deleted messages are left for
+   * {@link #deleteAbandonedRowsAndFiles()}, which runs in a job afterwards.
+   *
+   * @return The number of messages deleted.
+   */
+  private int trimThreadInternal(long threadId, int length, long trimBeforeDate) {
+    if (length == NO_TRIM_MESSAGE_COUNT_SET && trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
+      return 0;
+    }
+
+    SQLiteDatabase db             = databaseHelper.getSignalWritableDatabase();
+    MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+
+    if (length != NO_TRIM_MESSAGE_COUNT_SET) {
+      trimBeforeDate = Math.max(trimBeforeDate, mmsSmsDatabase.getTrimCutoffDate(threadId, length));
+    }
+
+    if (trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
+      return 0;
+    }
+
+    Log.i(TAG, "Trimming thread: " + threadId + " before: " + trimBeforeDate);
+
+    long start   = System.currentTimeMillis();
+    int  deletes = 0;
+    int  chunks  = 0;
+    int  chunkDeletes;
+
+    do {
+      db.beginTransaction();
+      try {
+        chunkDeletes = mmsSmsDatabase.deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate, TRIM_CHUNK_SIZE);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+
+      deletes += chunkDeletes;
+      chunks++;
+
+      if (chunkDeletes > 0) {
+        Log.d(TAG, "Trimming thread: " + threadId + " deleted " + deletes + " messages so far in " + chunks + " chunks");
+      }
+    } while (chunkDeletes == TRIM_CHUNK_SIZE);
+
+    if (deletes > 0) {
+      Log.i(TAG, "Trimming deleted " + deletes + " messages thread: " + threadId + " in " + chunks + " chunks, " + (System.currentTimeMillis() - start) + " ms");
+      setLastScrolled(threadId, 0);
+      update(threadId, false);
+      notifyConversationListeners(threadId);
+    } else {
+      Log.i(TAG, "Trimming deleted no messages thread: " + threadId);
+    }
+
+    return deletes;
+  }
+
+  /**
+   * Deletes what was left pointing at messages that no longer exist. The rows go in one
+   * transaction of their own, after the messages are gone; the attachment files are found and
+   * deleted outside of any transaction, since that means listing the attachment directory.
+   */
+  public void deleteAbandonedRowsAndFiles() {
+    Stopwatch            stopwatch            = new Stopwatch("abandoned");
     SQLiteDatabase       db                   = databaseHelper.getSignalWritableDatabase();
     AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
     GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
     MmsSmsDatabase       mmsSmsDatabase       = DatabaseFactory.getMmsSmsDatabase(context);
     MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
-    int                  deletes              = 0;
 
     db.beginTransaction();
 
     try {
-      trimThreadInternal(threadId, length, trimBeforeDate);
       mmsSmsDatabase.deleteAbandonedMessages();
       attachmentDatabase.trimAllAbandonedAttachments();
       groupReceiptDatabase.deleteAbandonedRows();
       mentionDatabase.deleteAbandonedMentions();
-      deletes = attachmentDatabase.deleteAbandonedAttachmentFiles();
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
 
+    stopwatch.split("abandoned-rows");
+
+    int deletes = attachmentDatabase.deleteAbandonedAttachmentFiles();
+
+    stopwatch.split("abandoned-files");
+
     if (deletes > 0) {
-      Log.i(TAG, "Trim thread " + threadId + " caused " + deletes + " attachments to be deleted.");
+      Log.i(TAG, "Trimming caused " + deletes + " attachments to be deleted.");
     }
 
     notifyAttachmentListeners();
     notifyStickerListeners();
     notifyStickerPackListeners();
-  }
-
-  private void trimThreadInternal(long threadId, int length, long trimBeforeDate) {
-    if (length == NO_TRIM_MESSAGE_COUNT_SET && trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
-      return;
-    }
-
-    if (length != NO_TRIM_MESSAGE_COUNT_SET) {
-      try (Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId)) {
-        if (cursor != null && length > 0 && cursor.getCount() > length) {
-          cursor.moveToPosition(length - 1);
-          trimBeforeDate = Math.max(trimBeforeDate, cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)));
-        }
-      }
-    }
-
-    if (trimBeforeDate != NO_TRIM_BEFORE_DATE_SET) {
-      Log.i(TAG, "Trimming thread: " + threadId + " before: " + trimBeforeDate);
 
-      int deletes = DatabaseFactory.getMmsSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
-
-      if (deletes > 0) {
-        Log.i(TAG, "Trimming deleted " + deletes + " messages thread: " + threadId);
-        setLastScrolled(threadId, 0);
-        update(threadId, false);
-        notifyConversationListeners(threadId);
-      } else {
-        Log.i(TAG, "Trimming deleted no messages thread: " + threadId);
-      }
-    }
+    stopwatch.stop(TAG);
   }
 
   public List<MarkedMessageInfo> setAllThreadsRead() {
@@ -943,6 +999,8 @@ public class ThreadDatabase extends Database {
       db.endTransaction();
     }
 
+    forgetSummary(threadId);
+
     notifyConversationListListeners();
     notifyConversationListeners(threadId);
     ConversationUtil.clearShortcuts(context, Collections.singleton(recipientIdForThreadId));
@@ -974,6 +1032,8 @@ public class ThreadDatabase extends Database {
       db.endTransaction();
     }
 
+    forgetSummaries(selectedConversations);
+
     notifyConversationListListeners();
     notifyConversationListeners(selectedConversations);
     ConversationUtil.clearShortcuts(context, recipientIdsForThreadIds);
@@ -996,6 +1056,8 @@ public class ThreadDatabase extends Database {
       db.endTransaction();
     }
 
+    forgetAllSummaries();
+
     notifyConversationListListeners();
     ConversationUtil.clearAllShortcuts(context);
   }
@@ -1247,29 +1309,196 @@ public class ThreadDatabase extends Database {
     return update(threadId, unarchive, allowDeletion, true);
   }
 
+  /**
+   * Like {@link #update(long, boolean)}, for callers that don't need to know whether the thread was
+   * deleted as a result. If a transaction is open, the update is deferred until just before it
+   * commits, and any other updates to the same thread in the meantime are folded into it.
+   */
+  public void scheduleUpdate(long threadId, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      requirePendingUpdate(threadId).schedule(unarchive);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Updates a thread after a message has been inserted into it. As long as we know the thread's
+   * current snippet, a message older than it doesn't change the summary at all, and a newer one
+   * simply becomes the new snippet, so neither has to be searched for. Deferred in the same way as
+   * {@link #scheduleUpdate(long, boolean)}.
+   */
+  public void updateForInsert(long threadId, @NonNull MessageId messageId, long dateReceived, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      requirePendingUpdate(threadId).insert(messageId, dateReceived, unarchive);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Updates a thread after a message has been deleted from it. Unless it was the thread's snippet
+   * (or we don't know what the snippet is), the summary is unaffected and nothing is recomputed.
+   *
+   * @return True if the thread was deleted because it no longer has any meaningful messages.
+   */
+  public boolean updateForDelete(long threadId, @NonNull MessageId messageId) {
+    ThreadSummary summary = getSummary(threadId);
+
+    if (summary != null && summary.meaningful && !summary.snippetId.equals(messageId)) {
+      avoidedRecomputations.incrementAndGet();
+      return false;
+    }
+
+    return update(threadId, false);
+  }
+
+  /**
+   * @return The number of times a full recomputation of a thread's summary was skipped, either
+   *         because the change could be applied incrementally or because it was coalesced with
+   *         another update to the same thread.
+   */
+  public long getAvoidedRecomputationCount() {
+    return avoidedRecomputations.get();
+  }
+
   private boolean update(long threadId, boolean unarchive, boolean allowDeletion, boolean notifyListeners) {
-    MmsSmsDatabase mmsSmsDatabase     = DatabaseFactory.getMmsSmsDatabase(context);
-    boolean        meaningfulMessages = mmsSmsDatabase.hasMeaningfulMessage(threadId);
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+    boolean        emptied;
+
+    db.beginTransaction();
+    try {
+      emptied = updateInternal(threadId, unarchive, allowDeletion);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (!emptied && notifyListeners) {
+      notifyConversationListListeners();
+    }
 
-    if (!meaningfulMessages) {
+    return emptied;
+  }
+
+  /**
+   * Recomputes a thread's summary from scratch. Run inside a transaction so that what we remember
+   * about the thread can't be interleaved with another writer's changes.
+   */
+  private boolean updateInternal(long threadId, boolean unarchive, boolean allowDeletion) {
+    MessageRecord record = getSnippetRecord(threadId);
+
+    if (record == null) {
+      forgetSummary(threadId);
       if (allowDeletion) {
         deleteConversation(threadId);
       }
       return true;
     }
 
+    writeSummary(threadId, record, unarchive);
+
+    return false;
+  }
+
+  /**
+   * @return The message that should be shown as the thread's snippet, or null if the thread has no
+   *         meaningful messages.
+   */
+  @VisibleForTesting
+  @Nullable MessageRecord getSnippetRecord(long threadId) {
+    MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+
+    if (!mmsSmsDatabase.hasMeaningfulMessage(threadId)) {
+      return null;
+    }
+
+    try {
+      return mmsSmsDatabase.getConversationSnippet(threadId);
+    } catch (NoSuchMessageException e) {
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  @NonNull MessageRecord getInsertedRecord(@NonNull MessageId messageId) throws NoSuchMessageException {
+    return messageId.isMms() ? DatabaseFactory.getMmsDatabase(context).getMessageRecord(messageId.getId())
+                             : DatabaseFactory.getSmsDatabase(context).getMessageRecord(messageId.getId());
+  }
+
+  /**
+   * @param onlyInsert Whether this was the only message inserted into the thread since its last
+   *                   update. If not, and it can't be the snippet, one of the others might be.
+   */
+  private void updateForInsertInternal(long threadId, @NonNull MessageId messageId, long dateReceived, boolean onlyInsert, boolean unarchive) {
+    ThreadSummary summary = getSummary(threadId);
+
+    if (summary == null) {
+      updateInternal(threadId, unarchive, true);
+      return;
+    }
+
+    if (dateReceived < summary.dateReceived) {
+      avoidedRecomputations.incrementAndGet();
+      if (unarchive) {
+        unarchiveIfArchived(threadId);
+      }
+      return;
+    }
+
     MessageRecord record;
     try {
-      record = mmsSmsDatabase.getConversationSnippet(threadId);
+      record = getInsertedRecord(messageId);
     } catch (NoSuchMessageException e) {
-      if (allowDeletion) {
-        deleteConversation(threadId);
+      Log.w(TAG, "Inserted message is gone, recomputing thread " + threadId);
+      updateInternal(threadId, unarchive, true);
+      return;
+    }
+
+    if (MmsSmsDatabase.isSnippetType(record.getType(), record.isMms())) {
+      avoidedRecomputations.incrementAndGet();
+      writeSummary(threadId, record, unarchive);
+    } else if (onlyInsert) {
+      avoidedRecomputations.incrementAndGet();
+      if (unarchive) {
+        unarchiveIfArchived(threadId);
       }
-      return true;
+    } else {
+      updateInternal(threadId, unarchive, true);
+    }
+  }
+
+  /**
+   * Writes the thread row for a thread whose snippet is the provided record and remembers it for
+   * future incremental updates. Only valid if the thread has meaningful messages.
+   */
+  private void writeSummary(long threadId, @NonNull MessageRecord record, boolean unarchive) {
+    writeSnippet(threadId, record, unarchive);
+
+    PendingUpdates pending = getPendingUpdates();
+    if (pending != null) {
+      pending.touched.add(threadId);
     }
 
+    synchronized (summaries) {
+      summaries.put(threadId, new ThreadSummary(new MessageId(record.getId(), record.isMms()),
+                                                record.getDateReceived(),
+                                                MmsSmsDatabase.isMeaningfulType(record.getType(), record.isMms())));
+    }
+  }
+
+  @VisibleForTesting
+  void writeSnippet(long threadId, @NonNull MessageRecord record, boolean unarchive) {
     updateThread(threadId,
-                 meaningfulMessages,
+                 true,
                  ThreadBodyUtil.getFormattedBodyFor(context, record),
                  getAttachmentUriFor(record),
                  getContentTypeFor(record),
@@ -1281,12 +1510,150 @@ public class ThreadDatabase extends Database {
                  unarchive,
                  record.getExpiresIn(),
                  record.getReadReceiptCount());
+  }
 
-    if (notifyListeners) {
-      notifyConversationListListeners();
+  private @Nullable ThreadSummary getSummary(long threadId) {
+    synchronized (summaries) {
+      return summaries.get(threadId);
     }
+  }
 
-    return false;
+  private void forgetSummary(long threadId) {
+    synchronized (summaries) {
+      summaries.remove(threadId);
+    }
+  }
+
+  private void forgetSummaries(@NonNull Collection<Long> threadIds) {
+    synchronized (summaries) {
+      for (long threadId : threadIds) {
+        summaries.remove(threadId);
+      }
+    }
+  }
+
+  private void forgetAllSummaries() {
+    synchronized (summaries) {
+      summaries.clear();
+    }
+  }
+
+  /**
+   * @return The updates that are waiting for the current transaction to commit, or null if there is
+   *         no transaction to wait for.
+   */
+  private @Nullable PendingUpdates getPendingUpdates() {
+    PendingUpdates pending = pendingUpdates.get();
+
+    if (pending == null) {
+      pending = new PendingUpdates();
+
+      if (!databaseHelper.getSignalWritableDatabase().addTransactionHook(pending)) {
+        return null;
+      }
+
+      pendingUpdates.set(pending);
+    }
+
+    return pending;
+  }
+
+  private @NonNull PendingUpdate requirePendingUpdate(long threadId) {
+    PendingUpdates pending = Objects.requireNonNull(getPendingUpdates());
+    PendingUpdate  update  = pending.updates.get(threadId);
+
+    if (update == null) {
+      update = new PendingUpdate();
+      pending.updates.put(threadId, update);
+    } else {
+      avoidedRecomputations.incrementAndGet();
+    }
+
+    return update;
+  }
+
+  private final class PendingUpdates implements SQLiteDatabase.TransactionHook {
+    private final Map<Long, PendingUpdate> updates = new LinkedHashMap<>();
+    private final Set<Long>                touched = new HashSet<>();
+
+    private boolean flushed;
+
+    @Override
+    public void beforeCommit() {
+      while (!updates.isEmpty()) {
+        Map<Long, PendingUpdate> batch = new LinkedHashMap<>(updates);
+        updates.clear();
+
+        for (Map.Entry<Long, PendingUpdate> entry : batch.entrySet()) {
+          long          threadId = entry.getKey();
+          PendingUpdate update   = entry.getValue();
+
+          touched.add(threadId);
+
+          if (!update.full && update.insertedId != null) {
+            updateForInsertInternal(threadId, update.insertedId, update.insertedDateReceived, update.insertCount == 1, update.unarchive);
+          } else {
+            updateInternal(threadId, update.unarchive, true);
+          }
+        }
+
+        flushed = true;
+      }
+    }
+
+    @Override
+    public void onTransactionEnded(boolean committed) {
+      if (pendingUpdates.get() == this) {
+        pendingUpdates.remove();
+      }
+
+      if (!committed) {
+        forgetSummaries(touched);
+        forgetSummaries(updates.keySet());
+      } else if (flushed) {
+        notifyConversationListListeners();
+      }
+    }
+  }
+
+  /**
+   * Everything that has happened to a thread since its last update. Inserts can only be applied
+   * incrementally if nothing else has happened, in which case only the newest one matters.
+   */
+  private static final class PendingUpdate {
+    private boolean   unarchive;
+    private boolean   full;
+    private MessageId insertedId;
+    private long      insertedDateReceived;
+    private int       insertCount;
+
+    void schedule(boolean unarchive) {
+      this.unarchive |= unarchive;
+      this.full       = true;
+    }
+
+    void insert(@NonNull MessageId messageId, long dateReceived, boolean unarchive) {
+      this.unarchive |= unarchive;
+
+      if (insertedId == null || dateReceived >= insertedDateReceived) {
+        insertedId           = messageId;
+        insertedDateReceived = dateReceived;
+      }
+
+      insertCount++;
+    }
+  }
+
+  private static final class ThreadSummary {
+    private final MessageId snippetId;
+    private final long      dateReceived;
+    private final boolean   meaningful;
+
+    private ThreadSummary(@NonNull MessageId snippetId, long dateReceived, boolean meaningful) {
+      this.snippetId    = snippetId;
+      this.dateReceived = dateReceived;
+      this.meaningful   = meaningful;
+    }
   }
 
   public void updateSnippetTypeSilently(long threadId) {
@@ -1358,6 +1725,9 @@ public class ThreadDatabase extends Database {
 
       db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(secondary.getThreadId()));
 
+      forgetSummary(primary.getThreadId());
+      forgetSummary(secondary.getThreadId());
+
       if (primary.getExpiresIn() != secondary.getExpiresIn()) {
         ContentValues values = new ContentValues();
         if (primary.getExpiresIn() == 0) {
@@ -20,7 +20,9 @@ import com.google.protobuf.InvalidProtocolBufferException;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
 
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.color.MaterialColor;
 import org.thoughtcrime.securesms.contacts.avatars.ContactColorsLegacy;
@@ -29,6 +31,7 @@ import org.thoughtcrime.securesms.conversation.colors.ChatColors;
 import org.thoughtcrime.securesms.conversation.colors.ChatColorsMapper;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.database.AttachmentBlobDatabase;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.ChatColorsDatabase;
 import org.thoughtcrime.securesms.database.DraftDatabase;
@@ -44,6 +47,8 @@ import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
 import org.thoughtcrime.securesms.database.PaymentDatabase;
 import org.thoughtcrime.securesms.database.PendingRetryReceiptDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.ReactionDatabase;
+import org.thoughtcrime.securesms.database.ReadConnectionPool;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RemappedRecordsDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
@@ -55,6 +60,7 @@ import org.thoughtcrime.securesms.database.SignedPreKeyDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.SqlCipherDatabaseHook;
 import org.thoughtcrime.securesms.database.SqlCipherErrorHandler;
+import org.thoughtcrime.securesms.database.StatementCache;
 import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.UnknownStorageIdDatabase;
@@ -216,22 +222,66 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   private static final int GROUP_CALL_RING_TABLE            = 115;
   private static final int CLEANUP_SESSION_MIGRATION        = 116;
   private static final int RECEIPT_TIMESTAMP                = 117;
+  private static final int REACTION_TABLE                   = 118;
+  private static final int GROUP_MEMBERSHIP_TABLE           = 119;
+  private static final int RECIPIENT_SEARCH_INDEX           = 120;
+  private static final int EXPIRATION_INDEX                 = 121;
+  private static final int ATTACHMENT_BLOBS                 = 122;
 
-  private static final int    DATABASE_VERSION = 117;
+  private static final int    DATABASE_VERSION = 122;
   private static final String DATABASE_NAME    = "signal.db";
 
-  private final Context context;
+  /** The largest per-connection statement cache the framework allows. The default of 25 is easily exceeded. */
+  private static final int MAX_SQL_CACHE_SIZE   = 100;
+  private static final int STATEMENT_CACHE_SIZE = 64;
+
+  /** Enough that the UI, notifications, and jobs can all read at once, without a connection per thread. */
+  private static final int READ_CONNECTIONS = SignalExecutors.getIdealThreadCount();
+
+  private final Context                            context;
+  private final DatabaseSecret                     databaseSecret;
+  private final StatementCache<SQLiteDatabase, SQLiteStatement> statementCache;
+  private final ReadConnectionPool<SQLiteDatabase>              readConnections;
 
   public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret) {
     super(context, DATABASE_NAME, databaseSecret.asString(), null, DATABASE_VERSION, 0, new SqlCipherErrorHandler(DATABASE_NAME), new SqlCipherDatabaseHook());
 
-    this.context = context.getApplicationContext();
+    this.context         = context.getApplicationContext();
+    this.databaseSecret  = databaseSecret;
+    this.statementCache  = new StatementCache<>(STATEMENT_CACHE_SIZE, new StatementCache.Compiler<SQLiteDatabase, SQLiteStatement>() {
+      @Override
+      public @NonNull SQLiteStatement compile(@NonNull SQLiteDatabase database, @NonNull String sql) {
+        return database.compileStatement(sql);
+      }
+
+      @Override
+      public void clearBindings(@NonNull SQLiteStatement statement) {
+        statement.clearBindings();
+      }
+
+      @Override
+      public void close(@NonNull SQLiteStatement statement) {
+        statement.close();
+      }
+    });
+    this.readConnections = new ReadConnectionPool<>(READ_CONNECTIONS, new ReadConnectionPool.Connector<SQLiteDatabase>() {
+      @Override
+      public @NonNull SQLiteDatabase open() {
+        return openReadConnection();
+      }
+
+      @Override
+      public void close(@NonNull SQLiteDatabase connection) {
+        connection.close();
+      }
+    });
   }
 
   @Override
   public void onOpen(SQLiteDatabase db) {
     db.enableWriteAheadLogging();
     db.setForeignKeyConstraintsEnabled(true);
+    db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
   }
 
   @Override
@@ -245,6 +295,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(PushDatabase.CREATE_TABLE);
     db.execSQL(GroupDatabase.CREATE_TABLE);
     db.execSQL(RecipientDatabase.CREATE_TABLE);
+    db.execSQL(GroupDatabase.CREATE_MEMBERSHIP_TABLE);
     db.execSQL(GroupReceiptDatabase.CREATE_TABLE);
     db.execSQL(OneTimePreKeyDatabase.CREATE_TABLE);
     db.execSQL(SignedPreKeyDatabase.CREATE_TABLE);
@@ -255,11 +306,13 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(StickerDatabase.CREATE_TABLE);
     db.execSQL(UnknownStorageIdDatabase.CREATE_TABLE);
     db.execSQL(MentionDatabase.CREATE_TABLE);
+    db.execSQL(ReactionDatabase.CREATE_TABLE);
     db.execSQL(PaymentDatabase.CREATE_TABLE);
     db.execSQL(ChatColorsDatabase.CREATE_TABLE);
     db.execSQL(EmojiSearchDatabase.CREATE_TABLE);
     db.execSQL(AvatarPickerDatabase.CREATE_TABLE);
     db.execSQL(GroupCallRingDatabase.CREATE_TABLE);
+    db.execSQL(AttachmentBlobDatabase.CREATE_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
     executeStatements(db, RemappedRecordsDatabase.CREATE_TABLE);
     executeStatements(db, MessageSendLogDatabase.CREATE_TABLE);
@@ -275,11 +328,15 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     executeStatements(db, StickerDatabase.CREATE_INDEXES);
     executeStatements(db, UnknownStorageIdDatabase.CREATE_INDEXES);
     executeStatements(db, MentionDatabase.CREATE_INDEXES);
+    executeStatements(db, ReactionDatabase.CREATE_INDEXES);
     executeStatements(db, PaymentDatabase.CREATE_INDEXES);
     executeStatements(db, MessageSendLogDatabase.CREATE_INDEXES);
     executeStatements(db, GroupCallRingDatabase.CREATE_INDEXES);
+    executeStatements(db, AttachmentBlobDatabase.CREATE_INDEXES);
 
     executeStatements(db, MessageSendLogDatabase.CREATE_TRIGGERS);
+    executeStatements(db, ReactionDatabase.CREATE_TRIGGERS);
+    executeStatements(db, AttachmentBlobDatabase.CREATE_TRIGGERS);
 
     if (context.getDatabasePath(ClassicOpenHelper.NAME).exists()) {
       ClassicOpenHelper                      legacyHelper = new ClassicOpenHelper(context);
@@ -2043,6 +2100,173 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
         db.execSQL("ALTER TABLE mms ADD COLUMN receipt_timestamp INTEGER DEFAULT -1");
       }
 
+      if (oldVersion < REACTION_TABLE) {
+        db.execSQL("CREATE TABLE reaction (_id INTEGER PRIMARY KEY, " +
+                                          "message_id INTEGER NOT NULL, " +
+                                          "is_mms INTEGER NOT NULL, " +
+                                          "author_id INTEGER NOT NULL REFERENCES recipient (_id) ON DELETE CASCADE, " +
+                                          "emoji TEXT NOT NULL, " +
+                                          "date_sent INTEGER NOT NULL, " +
+                                          "date_received INTEGER NOT NULL, " +
+                                          "UNIQUE(message_id, is_mms, author_id) ON CONFLICT REPLACE)");
+
+        db.execSQL("CREATE INDEX reaction_author_id_index ON reaction (author_id)");
+
+        int smsCount = migrateReactions(db, "sms", false);
+        int mmsCount = migrateReactions(db, "mms", true);
+        Log.i(TAG, "Migrated " + smsCount + " sms and " + mmsCount + " mms reactions.");
+
+        int orphanCount = db.delete("reaction", "author_id NOT IN (SELECT _id FROM recipient)", null);
+        Log.i(TAG, "Dropped " + orphanCount + " reactions from unknown recipients.");
+
+        db.execSQL("CREATE TRIGGER reactions_sms_delete AFTER DELETE ON sms BEGIN DELETE FROM reaction WHERE message_id = old._id AND is_mms = 0; END");
+        db.execSQL("CREATE TRIGGER reactions_mms_delete AFTER DELETE ON mms BEGIN DELETE FROM reaction WHERE message_id = old._id AND is_mms = 1; END");
+
+        db.execSQL("DROP TRIGGER sms_au");
+        db.execSQL("CREATE TRIGGER sms_au AFTER UPDATE OF body, thread_id ON sms BEGIN\n" +
+                   "  INSERT INTO sms_fts(sms_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                   "  INSERT INTO sms_fts(rowid, body, thread_id) VALUES(new._id, new.body, new.thread_id);\n" +
+                   "END;");
+
+        db.execSQL("DROP TRIGGER mms_au");
+        db.execSQL("CREATE TRIGGER mms_au AFTER UPDATE OF body, thread_id ON mms BEGIN\n" +
+                   "  INSERT INTO mms_fts(mms_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                   "  INSERT INTO mms_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                   "END;");
+
+        db.execSQL("UPDATE sms SET reactions = NULL WHERE reactions NOT NULL");
+        db.execSQL("UPDATE mms SET reactions = NULL WHERE reactions NOT NULL");
+      }
+
+      if (oldVersion < GROUP_MEMBERSHIP_TABLE) {
+        db.execSQL("CREATE TABLE group_membership (_id INTEGER PRIMARY KEY, " +
+                                                  "group_id TEXT NOT NULL REFERENCES groups (group_id) ON DELETE CASCADE ON UPDATE CASCADE, " +
+                                                  "recipient_id INTEGER NOT NULL REFERENCES recipient (_id) ON DELETE CASCADE, " +
+                                                  "UNIQUE(group_id, recipient_id) ON CONFLICT IGNORE)");
+
+        db.execSQL("CREATE INDEX group_membership_recipient_id_index ON group_membership (recipient_id)");
+
+        int count = 0;
+
+        try (Cursor cursor = db.query("groups", new String[] { "group_id", "members" }, "group_id NOT NULL AND members NOT NULL", null, null, null, null)) {
+          while (cursor.moveToNext()) {
+            String groupId = cursor.getString(cursor.getColumnIndexOrThrow("group_id"));
+            String members = cursor.getString(cursor.getColumnIndexOrThrow("members"));
+
+            for (String member : members.split(",")) {
+              if (TextUtils.isEmpty(member)) {
+                continue;
+              }
+
+              try {
+                ContentValues values = new ContentValues();
+                values.put("group_id", groupId);
+                values.put("recipient_id", Long.parseLong(member));
+
+                db.insert("group_membership", null, values);
+                count++;
+              } catch (NumberFormatException e) {
+                Log.w(TAG, "Bad member in group " + groupId, e);
+              }
+            }
+          }
+        }
+
+        int orphanCount = db.delete("group_membership", "recipient_id NOT IN (SELECT _id FROM recipient)", null);
+        Log.i(TAG, "Migrated " + count + " group memberships. Dropped " + orphanCount + " for unknown recipients.");
+      }
+
+      if (oldVersion < RECIPIENT_SEARCH_INDEX) {
+        db.execSQL("CREATE VIRTUAL TABLE recipient_fts USING fts5(system_display_name, profile_joined_name, username, phone, email, content=recipient, content_rowid=_id, tokenize='unicode61 remove_diacritics 2')");
+
+        db.execSQL("CREATE TRIGGER recipient_ai AFTER INSERT ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts(rowid, system_display_name, profile_joined_name, username, phone, email) VALUES (new._id, new.system_display_name, new.profile_joined_name, new.username, new.phone, new.email);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_ad AFTER DELETE ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts(recipient_fts, rowid, system_display_name, profile_joined_name, username, phone, email) VALUES('delete', old._id, old.system_display_name, old.profile_joined_name, old.username, old.phone, old.email);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_au AFTER UPDATE OF system_display_name, profile_joined_name, username, phone, email ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts(recipient_fts, rowid, system_display_name, profile_joined_name, username, phone, email) VALUES('delete', old._id, old.system_display_name, old.profile_joined_name, old.username, old.phone, old.email);\n" +
+                   "  INSERT INTO recipient_fts(rowid, system_display_name, profile_joined_name, username, phone, email) VALUES (new._id, new.system_display_name, new.profile_joined_name, new.username, new.phone, new.email);\n" +
+                   "END;");
+
+        db.execSQL("CREATE VIRTUAL TABLE group_fts USING fts5(title, content=groups, content_rowid=_id, tokenize='unicode61 remove_diacritics 2')");
+
+        db.execSQL("CREATE TRIGGER groups_ai AFTER INSERT ON groups BEGIN\n" +
+                   "  INSERT INTO group_fts(rowid, title) VALUES (new._id, new.title);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER groups_ad AFTER DELETE ON groups BEGIN\n" +
+                   "  INSERT INTO group_fts(group_fts, rowid, title) VALUES('delete', old._id, old.title);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER groups_au AFTER UPDATE OF title ON groups BEGIN\n" +
+                   "  INSERT INTO group_fts(group_fts, rowid, title) VALUES('delete', old._id, old.title);\n" +
+                   "  INSERT INTO group_fts(rowid, title) VALUES (new._id, new.title);\n" +
+                   "END;");
+
+        // Index the existing rows before anything can update them, since deleting a row that was never indexed from an external content index corrupts it
+        db.execSQL("INSERT INTO recipient_fts(recipient_fts) VALUES('rebuild')");
+        db.execSQL("INSERT INTO group_fts(group_fts) VALUES('rebuild')");
+      }
+
+      if (oldVersion < EXPIRATION_INDEX) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS sms_expires_at_index ON sms (expire_started + expires_in) WHERE expire_started > 0");
+        db.execSQL("CREATE INDEX IF NOT EXISTS mms_expires_at_index ON mms (expire_started + expires_in) WHERE expire_started > 0");
+      }
+
+      if (oldVersion < ATTACHMENT_BLOBS) {
+        long start = System.currentTimeMillis();
+
+        db.execSQL("CREATE TABLE attachment_blob (_id INTEGER PRIMARY KEY, hash TEXT UNIQUE NOT NULL, _data TEXT UNIQUE NOT NULL, data_random BLOB, data_size INTEGER DEFAULT 0, ref_count INTEGER DEFAULT 0, quote_ref_count INTEGER DEFAULT 0, last_used INTEGER DEFAULT 0)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS attachment_blob_unreferenced_index ON attachment_blob (last_used) WHERE ref_count <= quote_ref_count");
+
+        // One blob per hash, using the file of the oldest attachment that has it and whose file still exists.
+        // Hashes without any such file get no blob, and their attachments are left as they are.
+        Set<String> blobHashes = new HashSet<>();
+
+        try (Cursor cursor = db.query("part", new String[] { "data_hash", "_data", "data_random", "data_size" }, "_data NOT NULL AND data_hash NOT NULL", null, null, null, "_id ASC")) {
+          while (cursor.moveToNext()) {
+            String hash = cursor.getString(cursor.getColumnIndexOrThrow("data_hash"));
+            String data = cursor.getString(cursor.getColumnIndexOrThrow("_data"));
+
+            if (blobHashes.contains(hash) || !new File(data).exists()) {
+              continue;
+            }
+
+            ContentValues values = new ContentValues(5);
+            values.put("hash", hash);
+            values.put("_data", data);
+            values.put("data_random", cursor.getBlob(cursor.getColumnIndexOrThrow("data_random")));
+            values.put("data_size", cursor.getLong(cursor.getColumnIndexOrThrow("data_size")));
+            values.put("last_used", start);
+
+            if (db.insertWithOnConflict("attachment_blob", null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+              blobHashes.add(hash);
+            }
+          }
+        }
+
+        // Point every copy at that file. The files no longer referenced are deleted by AttachmentCleanupMigrationJob.
+        db.execSQL("UPDATE part SET _data       = (SELECT attachment_blob._data FROM attachment_blob WHERE attachment_blob.hash = part.data_hash), " +
+                                   "data_random = (SELECT attachment_blob.data_random FROM attachment_blob WHERE attachment_blob.hash = part.data_hash) " +
+                   "WHERE _data NOT NULL AND data_hash IN (SELECT hash FROM attachment_blob)");
+
+        db.execSQL("UPDATE attachment_blob SET ref_count       = (SELECT COUNT(*) FROM part WHERE part._data = attachment_blob._data), " +
+                                              "quote_ref_count = (SELECT COUNT(*) FROM part WHERE part._data = attachment_blob._data AND part.quote = 1)");
+
+        db.execSQL("CREATE TRIGGER attachment_blob_part_insert AFTER INSERT ON part WHEN new._data NOT NULL BEGIN " +
+                     "UPDATE attachment_blob SET ref_count = ref_count + 1, quote_ref_count = quote_ref_count + ifnull(new.quote, 0) WHERE _data = new._data; " +
+                   "END");
+        db.execSQL("CREATE TRIGGER attachment_blob_part_delete AFTER DELETE ON part WHEN old._data NOT NULL BEGIN " +
+                     "UPDATE attachment_blob SET ref_count = ref_count - 1, quote_ref_count = quote_ref_count - ifnull(old.quote, 0) WHERE _data = old._data; " +
+                   "END");
+        db.execSQL("CREATE TRIGGER attachment_blob_part_update AFTER UPDATE OF _data, quote ON part WHEN old._data IS NOT new._data OR old.quote IS NOT new.quote BEGIN " +
+                     "UPDATE attachment_blob SET ref_count = ref_count - 1, quote_ref_count = quote_ref_count - ifnull(old.quote, 0) WHERE _data = old._data; " +
+                     "UPDATE attachment_blob SET ref_count = ref_count + 1, quote_ref_count = quote_ref_count + ifnull(new.quote, 0) WHERE _data = new._data; " +
+                   "END");
+
+        Log.i(TAG, "Moved attachment data into the blob store in " + (System.currentTimeMillis() - start) + " ms.");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -2074,11 +2298,11 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   }
 
   public org.thoughtcrime.securesms.database.SQLiteDatabase getSignalReadableDatabase() {
-    return new org.thoughtcrime.securesms.database.SQLiteDatabase(super.getReadableDatabase());
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(super.getReadableDatabase(), statementCache, readConnections);
   }
 
   public org.thoughtcrime.securesms.database.SQLiteDatabase getSignalWritableDatabase() {
-    return new org.thoughtcrime.securesms.database.SQLiteDatabase(super.getWritableDatabase());
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(super.getWritableDatabase(), statementCache);
   }
 
   @Override
@@ -2086,6 +2310,31 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     return super.getWritableDatabase();
   }
 
+  public @NonNull ReadConnectionPool.Stats getReadConnectionStats() {
+    return readConnections.getStats();
+  }
+
+  @Override
+  public synchronized void close() {
+    statementCache.clear();
+    readConnections.close();
+    super.close();
+  }
+
+  /**
+   * Opens a separate, read-only connection to the database, keyed and configured the same way as
+   * the main one. The main connection is opened first, so that any creation or upgrade is done, and
+   * the database is already in WAL mode, before anything reads from it.
+   */
+  private @NonNull SQLiteDatabase openReadConnection() {
+    String path = super.getWritableDatabase().getPath();
+
+    SQLiteDatabase db = SQLiteDatabase.openDatabase(path, databaseSecret.asString(), null, SQLiteDatabase.OPEN_READONLY, new SqlCipherErrorHandler(DATABASE_NAME), new SqlCipherDatabaseHook());
+    db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
+
+    return db;
+  }
+
   public void markCurrent(SQLiteDatabase db) {
     db.setVersion(DATABASE_VERSION);
   }
@@ -2098,6 +2347,41 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     return context.getDatabasePath(DATABASE_NAME);
   }
 
+  /**
+   * Copies the serialized reaction lists out of a message table and into the reaction table.
+   *
+   * @return The number of reactions copied.
+   */
+  private static int migrateReactions(@NonNull SQLiteDatabase db, @NonNull String table, boolean isMms) {
+    int count = 0;
+
+    try (Cursor cursor = db.query(table, new String[] { "_id", "reactions" }, "reactions NOT NULL", null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        long   messageId = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+        byte[] reactions = cursor.getBlob(cursor.getColumnIndexOrThrow("reactions"));
+
+        try {
+          for (ReactionList.Reaction reaction : ReactionList.parseFrom(reactions).getReactionsList()) {
+            ContentValues values = new ContentValues();
+            values.put("message_id", messageId);
+            values.put("is_mms", isMms ? 1 : 0);
+            values.put("author_id", reaction.getAuthor());
+            values.put("emoji", reaction.getEmoji());
+            values.put("date_sent", reaction.getSentTime());
+            values.put("date_received", reaction.getReceivedTime());
+
+            db.insert("reaction", null, values);
+            count++;
+          }
+        } catch (InvalidProtocolBufferException e) {
+          Log.w(TAG, "Failed to parse reactions for " + table + " " + messageId, e);
+        }
+      }
+    }
+
+    return count;
+  }
+
   private void executeStatements(SQLiteDatabase db, String[] statements) {
     for (String statement : statements)
       db.execSQL(statement);
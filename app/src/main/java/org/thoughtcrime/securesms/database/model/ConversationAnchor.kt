@@ -0,0 +1,18 @@
+package org.thoughtcrime.securesms.database.model
+
+/**
+ * The position of a message in a conversation, expressed as the values that the conversation is
+ * sorted by. Used to request a page of a conversation relative to a message rather than by offset.
+ */
+data class ConversationAnchor(
+  val dateReceived: Long,
+  val id: Long,
+  @get:JvmName("isMms") val mms: Boolean
+) {
+  companion object {
+    @JvmStatic
+    fun forRecord(record: MessageRecord): ConversationAnchor {
+      return ConversationAnchor(record.dateReceived, record.id, record.isMms)
+    }
+  }
+}
@@ -573,10 +573,22 @@ public abstract class MessageRecord extends DisplayRecord {
     return remoteDelete;
   }
 
+  /**
+   * Reactions are stored apart from the message, so records read straight from a message table
+   * have none until they're filled in with {@link #withReactions(List)}.
+   */
   public @NonNull List<ReactionRecord> getReactions() {
     return reactions;
   }
 
+  /**
+   * @return A copy of this record with the given reactions, or this record if it's a type that
+   *         can't be reacted to.
+   */
+  public @NonNull MessageRecord withReactions(@NonNull List<ReactionRecord> reactions) {
+    return this;
+  }
+
   public boolean hasSelfMention() {
     return false;
   }
@@ -63,6 +63,15 @@ public class SmsMessageRecord extends MessageRecord {
     return type;
   }
 
+  @Override
+  public @NonNull SmsMessageRecord withReactions(@NonNull List<ReactionRecord> reactions) {
+    return new SmsMessageRecord(getId(), getBody(), getRecipient(), getIndividualRecipient(), getRecipientDeviceId(),
+                                getDateSent(), getDateReceived(), getServerTimestamp(), getDeliveryReceiptCount(),
+                                getType(), getThreadId(), getDeliveryStatus(), getIdentityKeyMismatches(),
+                                getSubscriptionId(), getExpiresIn(), getExpireStarted(), getReadReceiptCount(),
+                                isUnidentified(), reactions, isRemoteDelete(), getNotifiedTimestamp(), getReceiptTimestamp());
+  }
+
   @Override
   public SpannableString getDisplayBody(@NonNull Context context) {
     if (SmsDatabase.Types.isChatSessionRefresh(type)) {
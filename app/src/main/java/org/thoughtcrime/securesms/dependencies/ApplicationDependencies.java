@@ -26,6 +26,7 @@ import org.thoughtcrime.securesms.messages.IncomingMessageProcessor;
 import org.thoughtcrime.securesms.net.StandardUserAgentInterceptor;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
 import org.thoughtcrime.securesms.payments.Payments;
+import org.thoughtcrime.securesms.profiles.ProfileFetcher;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
 import org.thoughtcrime.securesms.revealable.ViewOnceMessageManager;
@@ -46,6 +47,10 @@ import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.SignalWebSocket;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
+import org.whispersystems.signalservice.internal.push.http.ConnectionMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import okhttp3.OkHttpClient;
 
@@ -100,6 +105,7 @@ public class ApplicationDependencies {
   private static volatile TextSecurePreKeyStore        preKeyStore;
   private static volatile SignalSenderKeyStore         senderKeyStore;
   private static volatile GiphyMp4Cache                giphyMp4Cache;
+  private static volatile ProfileFetcher               profileFetcher;
 
   @MainThread
   public static void init(@NonNull Application application, @NonNull Provider provider) {
@@ -204,6 +210,30 @@ public class ApplicationDependencies {
     }
   }
 
+  /**
+   * @return Connection reuse counters for each network client that has been created so far. Never
+   *         creates a client just to report on it.
+   */
+  public static @NonNull Map<String, ConnectionMetrics.Snapshot> getConnectionMetrics() {
+    Map<String, ConnectionMetrics.Snapshot> metrics = new LinkedHashMap<>();
+
+    synchronized (LOCK) {
+      if (accountManager != null) {
+        metrics.put("account", accountManager.getConnectionMetrics());
+      }
+
+      if (messageSender != null) {
+        metrics.put("sender", messageSender.getConnectionMetrics());
+      }
+
+      if (messageReceiver != null) {
+        metrics.put("receiver", messageReceiver.getConnectionMetrics());
+      }
+    }
+
+    return metrics;
+  }
+
   public static void resetSignalServiceMessageReceiver() {
     synchronized (LOCK) {
       messageReceiver = null;
@@ -564,6 +594,17 @@ public class ApplicationDependencies {
     return giphyMp4Cache;
   }
 
+  public static @NonNull ProfileFetcher getProfileFetcher() {
+    if (profileFetcher == null) {
+      synchronized (LOCK) {
+        if (profileFetcher == null) {
+          profileFetcher = provider.provideProfileFetcher();
+        }
+      }
+    }
+    return profileFetcher;
+  }
+
   public interface Provider {
     @NonNull GroupsV2Operations provideGroupsV2Operations();
     @NonNull SignalServiceAccountManager provideSignalServiceAccountManager();
@@ -597,5 +638,6 @@ public class ApplicationDependencies {
     @NonNull TextSecurePreKeyStore providePreKeyStore();
     @NonNull SignalSenderKeyStore provideSenderKeyStore();
     @NonNull GiphyMp4Cache provideGiphyMp4Cache();
+    @NonNull ProfileFetcher provideProfileFetcher();
   }
 }
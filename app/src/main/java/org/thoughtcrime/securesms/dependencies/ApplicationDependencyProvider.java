@@ -42,6 +42,7 @@ import org.thoughtcrime.securesms.notifications.MessageNotifier;
 import org.thoughtcrime.securesms.notifications.OptimizedMessageNotifier;
 import org.thoughtcrime.securesms.payments.MobileCoinConfig;
 import org.thoughtcrime.securesms.payments.Payments;
+import org.thoughtcrime.securesms.profiles.ProfileFetcher;
 import org.thoughtcrime.securesms.push.SecurityEventListener;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
@@ -57,8 +58,10 @@ import org.thoughtcrime.securesms.util.ByteUnit;
 import org.thoughtcrime.securesms.util.EarlyMessageCache;
 import org.thoughtcrime.securesms.util.FeatureFlags;
 import org.thoughtcrime.securesms.util.FrameRateTracker;
+import org.thoughtcrime.securesms.util.ProfileUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.video.exo.GiphyMp4Cache;
+import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceAccountManager;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
@@ -66,6 +69,7 @@ import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.SignalWebSocket;
 import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
+import org.whispersystems.signalservice.api.services.ProfileService;
 import org.whispersystems.signalservice.api.util.CredentialsProvider;
 import org.whispersystems.signalservice.api.util.SleepTimer;
 import org.whispersystems.signalservice.api.util.UptimeSleepTimer;
@@ -120,11 +124,13 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
 
   @Override
   public @NonNull SignalServiceMessageReceiver provideSignalServiceMessageReceiver() {
-    return new SignalServiceMessageReceiver(provideSignalServiceNetworkAccess().getConfiguration(context),
-                                            new DynamicCredentialsProvider(context),
-                                            BuildConfig.SIGNAL_AGENT,
-                                            provideClientZkOperations().getProfileOperations(),
-                                            FeatureFlags.okHttpAutomaticRetry());
+    SignalServiceMessageReceiver receiver = new SignalServiceMessageReceiver(provideSignalServiceNetworkAccess().getConfiguration(context),
+                                                                             new DynamicCredentialsProvider(context),
+                                                                             BuildConfig.SIGNAL_AGENT,
+                                                                             provideClientZkOperations().getProfileOperations(),
+                                                                             FeatureFlags.okHttpAutomaticRetry());
+    receiver.setRequestHedgingEnabled(FeatureFlags.requestHedging());
+    return receiver;
   }
 
   @Override
@@ -289,6 +295,17 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
     return new GiphyMp4Cache(ByteUnit.MEGABYTES.toBytes(16));
   }
 
+  @Override
+  public @NonNull ProfileFetcher provideProfileFetcher() {
+    return new ProfileFetcher((recipient, requestType) -> {
+      ProfileService profileService = new ProfileService(ApplicationDependencies.getGroupsV2Operations().getProfileOperations(),
+                                                         ApplicationDependencies.getSignalServiceMessageReceiver(),
+                                                         ApplicationDependencies.getSignalWebSocket());
+
+      return ProfileUtil.retrieveProfile(context, recipient, requestType, profileService).map(Pair::second);
+    });
+  }
+
   private @NonNull WebSocketFactory provideWebSocketFactory(@NonNull SignalWebSocketHealthMonitor healthMonitor) {
     return new WebSocketFactory() {
       @Override
@@ -0,0 +1,64 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the rows and attachment files left pointing at messages that were trimmed. Done as a job
+ * so the trim itself returns as soon as the messages are gone, and back-to-back trims share one
+ * pass over the attachment directory.
+ */
+public final class AbandonedRowCleanupJob extends Job {
+
+  public static final String KEY = "AbandonedRowCleanupJob";
+
+  public static void enqueue() {
+    ApplicationDependencies.getJobManager().add(new AbandonedRowCleanupJob());
+  }
+
+  private AbandonedRowCleanupJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstancesForQueue(2)
+                           .setMaxAttempts(3)
+                           .setLifespan(TimeUnit.DAYS.toMillis(1))
+                           .build());
+  }
+
+  private AbandonedRowCleanupJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  public @NonNull Result run() {
+    DatabaseFactory.getThreadDatabase(context).deleteAbandonedRowsAndFiles();
+    return Result.success();
+  }
+
+  @Override
+  public void onFailure() {
+  }
+
+  public static final class Factory implements Job.Factory<AbandonedRowCleanupJob> {
+    @Override
+    public @NonNull AbandonedRowCleanupJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new AbandonedRowCleanupJob(parameters);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.AttachmentBlobDatabase;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the data of attachments that nothing refers to anymore. Data that lost its last
+ * reference only recently is left alone for a little while (see {@link AttachmentBlobDatabase}),
+ * so the job keeps rescheduling itself until there's nothing left to collect.
+ */
+public final class AttachmentBlobCleanupJob extends Job {
+
+  public static final String KEY = "AttachmentBlobCleanupJob";
+
+  private static final String TAG = Log.tag(AttachmentBlobCleanupJob.class);
+
+  public static void enqueue() {
+    ApplicationDependencies.getJobManager().add(new AttachmentBlobCleanupJob());
+  }
+
+  private AttachmentBlobCleanupJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstancesForQueue(2)
+                           .setMaxAttempts(Parameters.UNLIMITED)
+                           .setLifespan(TimeUnit.DAYS.toMillis(1))
+                           .build());
+  }
+
+  private AttachmentBlobCleanupJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  public @NonNull Result run() {
+    long nextCollectionTime = DatabaseFactory.getAttachmentDatabase(context).deleteUnreferencedBlobs();
+
+    if (nextCollectionTime > 0) {
+      long delay = Math.max(nextCollectionTime - System.currentTimeMillis(), TimeUnit.SECONDS.toMillis(1));
+
+      Log.i(TAG, "Some data isn't ready to be collected yet. Trying again in " + delay + " ms.");
+      return Result.retry(delay);
+    }
+
+    return Result.success();
+  }
+
+  @Override
+  public void onFailure() {
+    Log.w(TAG, "Gave up on collecting attachment data. It'll be collected the next time this job runs.");
+  }
+
+  public static final class Factory implements Job.Factory<AttachmentBlobCleanupJob> {
+    @Override
+    public @NonNull AttachmentBlobCleanupJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new AttachmentBlobCleanupJob(parameters);
+    }
+  }
+}
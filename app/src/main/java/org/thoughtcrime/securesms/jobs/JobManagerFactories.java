@@ -70,6 +70,8 @@ public final class JobManagerFactories {
 
   public static Map<String, Job.Factory> getJobFactories(@NonNull Application application) {
     return new HashMap<String, Job.Factory>() {{
+      put(AbandonedRowCleanupJob.KEY,                new AbandonedRowCleanupJob.Factory());
+      put(AttachmentBlobCleanupJob.KEY,              new AttachmentBlobCleanupJob.Factory());
       put(AttachmentCopyJob.KEY,                     new AttachmentCopyJob.Factory());
       put(AttachmentDownloadJob.KEY,                 new AttachmentDownloadJob.Factory());
       put(AttachmentUploadJob.KEY,                   new AttachmentUploadJob.Factory());
@@ -209,6 +211,7 @@ public final class JobManagerFactories {
       put("RefreshUnidentifiedDeliveryAbilityJob",   new FailingJob.Factory());
       put("Argon2TestJob",                           new FailingJob.Factory());
       put("Argon2TestMigrationJob",                  new PassingMigrationJob.Factory());
+      put("RecipientSearchIndexMigrationJob",        new PassingMigrationJob.Factory());
       put("StorageKeyRotationMigrationJob",          new PassingMigrationJob.Factory());
       put("StorageSyncJob",                          new StorageSyncJob.Factory());
       put("WakeGroupV2Job",                          new FailingJob.Factory());
@@ -20,6 +20,7 @@ import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.UnidentifiedAccessMode;
+import org.thoughtcrime.securesms.database.SQLiteDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -47,7 +48,6 @@ import org.whispersystems.signalservice.api.crypto.ProfileCipher;
 import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
 import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
 import org.whispersystems.signalservice.api.services.ProfileService;
-import org.whispersystems.signalservice.internal.ServiceResponse;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -60,7 +60,6 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
-import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 
 /**
@@ -74,6 +73,8 @@ public class RetrieveProfileJob extends BaseJob {
 
   private static final String KEY_RECIPIENTS = "recipients";
 
+  private static final int PROCESS_BATCH_SIZE = 50;
+
   private final Set<RecipientId> recipientIds;
 
   /**
@@ -250,40 +251,39 @@ public class RetrieveProfileJob extends BaseJob {
     List<Recipient> recipients = Recipient.resolvedList(recipientIds);
     stopwatch.split("resolve-ensure");
 
-    ProfileService profileService = new ProfileService(ApplicationDependencies.getGroupsV2Operations().getProfileOperations(),
-                                                       ApplicationDependencies.getSignalServiceMessageReceiver(),
-                                                       ApplicationDependencies.getSignalWebSocket());
-
-    List<Observable<Pair<Recipient, ServiceResponse<ProfileAndCredential>>>> requests = Stream.of(recipients)
-                                                                                              .filter(Recipient::hasServiceIdentifier)
-                                                                                              .map(r -> ProfileUtil.retrieveProfile(context, r, getRequestType(r), profileService).toObservable())
-                                                                                              .toList();
+    List<Recipient> fetchable = Stream.of(recipients).filter(Recipient::hasServiceIdentifier).toList();
     stopwatch.split("requests");
 
-    OperationState operationState = Observable.mergeDelayError(requests)
-                                              .observeOn(Schedulers.io(), true)
-                                              .scan(new OperationState(), (state, pair) -> {
-                                                Recipient                               recipient = pair.first();
-                                                ProfileService.ProfileResponseProcessor processor = new ProfileService.ProfileResponseProcessor(pair.second());
-                                                if (processor.hasResult()) {
-                                                  state.profiles.add(processor.getResult(recipient));
-                                                  process(recipient, processor.getResult());
-                                                } else if (processor.notFound()) {
-                                                  Log.w(TAG, "Failed to find a profile for " + recipient.getId());
-                                                  if (recipient.isRegistered()) {
-                                                    state.unregistered.add(recipient.getId());
-                                                  }
-                                                } else if (processor.genericIoError()) {
-                                                  state.retries.add(recipient.getId());
-                                                } else {
-                                                  Log.w(TAG, "Failed to retrieve profile for " + recipient.getId());
-                                                }
-                                                return state;
-                                              })
-                                              .lastOrError()
-                                              .blockingGet();
-
-    stopwatch.split("network-process");
+    OperationState operationState = ApplicationDependencies.getProfileFetcher()
+                                                           .retrieve(fetchable)
+                                                           .observeOn(Schedulers.io(), true)
+                                                           .scan(new OperationState(), (state, pair) -> {
+                                                             Recipient                               recipient = pair.first();
+                                                             ProfileService.ProfileResponseProcessor processor = new ProfileService.ProfileResponseProcessor(pair.second());
+                                                             if (processor.hasResult()) {
+                                                               state.profiles.add(processor.getResult(recipient));
+                                                             } else if (processor.notFound()) {
+                                                               Log.w(TAG, "Failed to find a profile for " + recipient.getId());
+                                                               if (recipient.isRegistered()) {
+                                                                 state.unregistered.add(recipient.getId());
+                                                               }
+                                                             } else if (processor.genericIoError()) {
+                                                               state.retries.add(recipient.getId());
+                                                             } else {
+                                                               Log.w(TAG, "Failed to retrieve profile for " + recipient.getId());
+                                                             }
+                                                             return state;
+                                                           })
+                                                           .lastOrError()
+                                                           .blockingGet();
+
+    stopwatch.split("network");
+
+    for (List<Pair<Recipient, ProfileAndCredential>> batch : Util.chunk(operationState.profiles, PROCESS_BATCH_SIZE)) {
+      processBatch(batch);
+    }
+
+    stopwatch.split("write-profiles");
 
     Set<RecipientId> success = SetUtil.difference(recipientIds, operationState.retries);
     recipientDatabase.markProfilesFetched(success, System.currentTimeMillis());
@@ -322,6 +322,29 @@ public class RetrieveProfileJob extends BaseJob {
   @Override
   public void onFailure() {}
 
+  /**
+   * Writes a batch of profiles in a single transaction, rather than a transaction per column per
+   * recipient. Identity keys are saved afterwards, outside of the transaction, as the identity
+   * store takes its own lock.
+   */
+  private void processBatch(@NonNull List<Pair<Recipient, ProfileAndCredential>> batch) {
+    SQLiteDatabase db = DatabaseFactory.getInstance(context).getSignalWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      for (Pair<Recipient, ProfileAndCredential> pair : batch) {
+        process(pair.first(), pair.second());
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    for (Pair<Recipient, ProfileAndCredential> pair : batch) {
+      setIdentityKey(pair.first(), pair.second().getProfile().getIdentityKey());
+    }
+  }
+
   private void process(Recipient recipient, ProfileAndCredential profileAndCredential) {
     SignalServiceProfile profile             = profileAndCredential.getProfile();
     ProfileKey           recipientProfileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
@@ -331,7 +354,6 @@ public class RetrieveProfileJob extends BaseJob {
     setProfileAvatar(recipient, profile.getAvatar());
     clearUsername(recipient);
     setProfileCapabilities(recipient, profile.getCapabilities());
-    setIdentityKey(recipient, profile.getIdentityKey());
     setUnidentifiedAccessMode(recipient, profile.getUnidentifiedAccess(), profile.isUnrestrictedUnidentifiedAccess());
 
     if (recipientProfileKey != null) {
@@ -350,12 +372,6 @@ public class RetrieveProfileJob extends BaseJob {
     recipientDatabase.setProfileKeyCredential(recipient.getId(), recipientProfileKey, credential);
   }
 
-  private static SignalServiceProfile.RequestType getRequestType(@NonNull Recipient recipient) {
-    return !recipient.hasProfileKeyCredential()
-           ? SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
-           : SignalServiceProfile.RequestType.PROFILE;
-  }
-
   private void setIdentityKey(Recipient recipient, String identityKeyValue) {
     try {
       if (TextUtils.isEmpty(identityKeyValue)) {
@@ -27,9 +27,11 @@ import java.util.concurrent.ExecutorService;
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
  *
- * Writes are enqueued on a separate executor, but writes are finished up in
- * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
- * or the system killing us unexpectedly (i.e. a force-stop).
+ * Reads never lock: the cache is an immutable snapshot, published through a volatile field, that
+ * writers replace with an updated copy. Writes are merged into a pending batch that is persisted
+ * on a separate executor, so a burst of writes becomes a single database transaction. Writes are
+ * finished up in {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a
+ * native crash or the system killing us unexpectedly (i.e. a force-stop).
  */
 public final class KeyValueStore implements KeyValueReader {
 
@@ -38,60 +40,62 @@ public final class KeyValueStore implements KeyValueReader {
   private final ExecutorService  executor;
   private final KeyValueDatabase database;
 
-  private KeyValueDataSet dataSet;
+  /** Never modified once published. */
+  private volatile KeyValueDataSet dataSet;
+
+  private KeyValueDataSet pendingWrites;
+  private Set<String>     pendingRemoves;
 
   public KeyValueStore(@NonNull Application application) {
-    this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore");
-    this.database = KeyValueDatabase.getInstance(application);
+    this(SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore"), KeyValueDatabase.getInstance(application));
+  }
+
+  @VisibleForTesting
+  KeyValueStore(@NonNull ExecutorService executor, @NonNull KeyValueDatabase database) {
+    this.executor = executor;
+    this.database = database;
   }
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return getDataSet().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return getDataSet().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return getDataSet().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return getDataSet().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return getDataSet().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return getDataSet().getString(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean containsKey(@NonNull String key) {
-    initializeIfNecessary();
-    return dataSet.containsKey(key);
+  public boolean containsKey(@NonNull String key) {
+    return getDataSet().containsKey(key);
   }
 
   /**
@@ -109,20 +113,15 @@ public final class KeyValueStore implements KeyValueReader {
    *         efficient to use the various get* methods instead.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return getDataSet();
   }
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
     executor.execute(latch::countDown);
@@ -140,22 +139,65 @@ public final class KeyValueStore implements KeyValueReader {
    */
   @VisibleForTesting
   synchronized void resetCache() {
-    dataSet = null;
-    initializeIfNecessary();
+    dataSet = database.getDataSet();
   }
 
+  /**
+   * Publishes a copy of the current data set with the write applied, and adds the write to the
+   * pending batch, scheduling a flush if there isn't one scheduled already.
+   */
   private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
-    initializeIfNecessary();
+    KeyValueDataSet updated = new KeyValueDataSet();
+    updated.putAll(getDataSet());
+    updated.putAll(newDataSet);
+    updated.removeAll(removes);
+
+    dataSet = updated;
+
+    boolean flushScheduled = pendingWrites != null;
+
+    if (!flushScheduled) {
+      pendingWrites  = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+    }
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+    pendingRemoves.removeAll(newDataSet.getValues().keySet());
+    pendingRemoves.addAll(removes);
+    pendingWrites.removeAll(removes);
+    pendingWrites.putAll(newDataSet);
 
-    executor.execute(() -> database.writeDataSet(newDataSet, removes));
+    if (!flushScheduled) {
+      executor.execute(this::flush);
+    }
+  }
+
+  private void flush() {
+    KeyValueDataSet writes;
+    Set<String>     removes;
+
+    synchronized (this) {
+      writes         = pendingWrites;
+      removes        = pendingRemoves;
+      pendingWrites  = null;
+      pendingRemoves = null;
+    }
+
+    database.writeDataSet(writes, removes);
   }
 
-  private void initializeIfNecessary() {
-    if (dataSet != null) return;
-    this.dataSet = database.getDataSet();
+  private @NonNull KeyValueDataSet getDataSet() {
+    KeyValueDataSet current = dataSet;
+
+    if (current != null) {
+      return current;
+    }
+
+    synchronized (this) {
+      if (dataSet == null) {
+        dataSet = database.getDataSet();
+      }
+      return dataSet;
+    }
   }
 
   class Writer {
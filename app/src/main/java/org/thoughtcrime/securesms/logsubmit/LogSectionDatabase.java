@@ -0,0 +1,60 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.SlowQueryLog;
+import org.thoughtcrime.securesms.database.SlowQueryLog.SlowStatement;
+import org.thoughtcrime.securesms.database.SlowQueryLog.SlowTransaction;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+
+final class LogSectionDatabase implements LogSection {
+  @Override
+  public @NonNull String getTitle() {
+    return "DATABASE";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    SlowQueryLog.Snapshot snapshot = SlowQueryLog.getInstance().getSnapshot();
+
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Slow statements    : ").append(snapshot.getSlowStatementCount()).append('\n')
+           .append("Slow transactions  : ").append(snapshot.getSlowTransactionCount()).append('\n')
+           .append("Full-scan plans    : ").append(snapshot.getFullScanCount()).append('\n')
+           .append("Statement cache    : ").append(DatabaseFactory.getStatementCacheStats(context)).append('\n')
+           .append("Read connections   : ").append(DatabaseFactory.getReadConnectionStats(context)).append('\n')
+           .append("Record cache       : ").append(DatabaseFactory.getMessageRecordCache(context).getStats()).append('\n')
+           .append("Avoided recomputes : ").append(DatabaseFactory.getThreadDatabase(context).getAvoidedRecomputationCount()).append('\n')
+           .append("Notifications      : ").append(ApplicationDependencies.getDatabaseObserver().getNotificationStats()).append('\n')
+           .append("Attachment blobs   : ").append(DatabaseFactory.getAttachmentBlobDatabase(context).getStats()).append("\n\n");
+
+    for (SlowStatement statement : snapshot.getStatements()) {
+      builder.append(statement.getSql()).append('\n')
+             .append("  ").append("count: ").append(statement.getCount()).append('\n')
+             .append("  ").append("total: ").append(statement.getTotalMillis()).append(" ms").append('\n')
+             .append("  ").append("max: ").append(statement.getMaxMillis()).append(" ms").append('\n')
+             .append("  ").append("args: ").append(statement.getLastArgumentShape()).append('\n')
+             .append("  ").append("full scan: ").append(statement.isFullScan()).append('\n')
+             .append("  ").append("plan:").append('\n');
+
+      for (String step : statement.getPlan()) {
+        builder.append("    ").append(step).append('\n');
+      }
+      builder.append('\n');
+    }
+
+    for (SlowTransaction transaction : snapshot.getTransactions()) {
+      builder.append("Transaction from ").append(transaction.getCaller()).append('\n')
+             .append("  ").append("count: ").append(transaction.getCount()).append('\n')
+             .append("  ").append("total: ").append(transaction.getTotalMillis()).append(" ms").append('\n')
+             .append("  ").append("max: ").append(transaction.getMaxMillis()).append(" ms").append('\n')
+             .append('\n');
+    }
+
+    return builder;
+  }
+}
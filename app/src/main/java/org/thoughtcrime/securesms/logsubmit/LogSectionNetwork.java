@@ -0,0 +1,35 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.whispersystems.signalservice.internal.push.http.ConnectionMetrics;
+
+import java.util.Map;
+
+public class LogSectionNetwork implements LogSection {
+
+  @Override
+  public @NonNull String getTitle() {
+    return "NETWORK";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    Map<String, ConnectionMetrics.Snapshot> metrics = ApplicationDependencies.getConnectionMetrics();
+
+    if (metrics.isEmpty()) {
+      return "No network clients created yet.";
+    }
+
+    StringBuilder builder = new StringBuilder();
+
+    for (Map.Entry<String, ConnectionMetrics.Snapshot> entry : metrics.entrySet()) {
+      builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+
+    return builder;
+  }
+}
@@ -10,11 +10,12 @@ import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
+import org.signal.paging.ListChanges;
 import org.signal.paging.PagingController;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.components.ListenableHorizontalScrollView;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -28,15 +29,15 @@ public class SubmitDebugLogAdapter extends RecyclerView.Adapter<SubmitDebugLogAd
   private final ScrollManager    scrollManager;
   private final Listener         listener;
   private final PagingController pagingController;
-  private final List<LogLine>    lines;
 
-  private boolean editing;
+  private List<LogLine> lines;
+  private boolean       editing;
 
   public SubmitDebugLogAdapter(@NonNull Listener listener, @NonNull PagingController pagingController) {
     this.listener         = listener;
     this.pagingController = pagingController;
     this.scrollManager    = new ScrollManager();
-    this.lines            = new ArrayList<>();
+    this.lines            = Collections.emptyList();
 
     setHasStableIds(true);
   }
@@ -57,10 +58,36 @@ public class SubmitDebugLogAdapter extends RecyclerView.Adapter<SubmitDebugLogAd
     return lines.get(position);
   }
 
+  /**
+   * Lists from paging aren't modified once they're emitted, so they can be kept as-is. When one
+   * carries the changes from the list that's currently shown, only those are notified.
+   */
   public void submitList(@NonNull List<LogLine> list) {
-    this.lines.clear();
-    this.lines.addAll(list);
-    notifyDataSetChanged();
+    ListChanges   changes  = ListChanges.of(list);
+    List<LogLine> previous = this.lines;
+
+    this.lines = list;
+
+    if (changes != null && changes.appliesTo(previous)) {
+      changes.dispatchTo(new ListChanges.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+          notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+          notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+          notifyItemRangeChanged(position, count);
+        }
+      });
+    } else {
+      notifyDataSetChanged();
+    }
   }
 
   @Override
@@ -75,6 +75,8 @@ public class SubmitDebugLogRepository {
     add(new LogSectionConstraints());
     add(new LogSectionCapabilities());
     add(new LogSectionLocalMetrics());
+    add(new LogSectionNetwork());
+    add(new LogSectionDatabase());
     add(new LogSectionFeatureFlags());
     add(new LogSectionPin());
     if (Build.VERSION.SDK_INT >= 28) {
@@ -9,12 +9,15 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import org.signal.core.util.concurrent.SignalExecutors;
+import org.thoughtcrime.securesms.conversation.ConversationMessage;
 import org.thoughtcrime.securesms.conversation.ConversationMessage.ConversationMessageFactory;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
+import org.thoughtcrime.securesms.database.MessageRecordCache;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.NetworkFailure;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.recipients.Recipient;
@@ -87,7 +90,17 @@ final class MessageDetailsRepository {
       }
     }
 
-    return new MessageDetails(ConversationMessageFactory.createWithUnresolvedData(context, messageRecord), recipients);
+    return new MessageDetails(getConversationMessage(messageRecord), recipients);
+  }
+
+  private @NonNull ConversationMessage getConversationMessage(@NonNull MessageRecord messageRecord) {
+    MessageRecordCache.Entry cached = DatabaseFactory.getMessageRecordCache(context).get(new MessageId(messageRecord.getId(), messageRecord.isMms()));
+
+    if (cached != null) {
+      return ConversationMessageFactory.createWithUnresolvedData(context, messageRecord, cached.getMentions());
+    } else {
+      return ConversationMessageFactory.createWithUnresolvedData(context, messageRecord);
+    }
   }
 
   private @Nullable NetworkFailure getNetworkFailure(MessageRecord messageRecord, Recipient recipient) {
@@ -88,9 +88,11 @@ public class ApplicationMigrations {
     static final int CHANGE_NUMBER_SYNC            = 44;
     static final int CHANGE_NUMBER_CAPABILITY      = 45;
     static final int CHANGE_NUMBER_CAPABILITY_2    = 46;
+    static final int RECIPIENT_SEARCH_INDEX        = 47;
+    static final int ATTACHMENT_CLEANUP_3          = 48;
   }
 
-  public static final int CURRENT_VERSION = 46;
+  public static final int CURRENT_VERSION = 48;
 
   /**
    * This *must* be called after the {@link JobManager} has been instantiated, but *before* the call
@@ -384,6 +386,10 @@ public class ApplicationMigrations {
       jobs.put(Version.CHANGE_NUMBER_CAPABILITY_2, new AttributesMigrationJob());
     }
 
+    if (lastSeenVersion < Version.ATTACHMENT_CLEANUP_3) {
+      jobs.put(Version.ATTACHMENT_CLEANUP_3, new AttachmentCleanupMigrationJob());
+    }
+
     return jobs;
   }
 
@@ -4,9 +4,12 @@ import android.content.Context
 import androidx.annotation.WorkerThread
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.database.DatabaseFactory
+import org.thoughtcrime.securesms.database.MessageRecordCache
 import org.thoughtcrime.securesms.database.MmsSmsColumns
 import org.thoughtcrime.securesms.database.MmsSmsDatabase
+import org.thoughtcrime.securesms.database.ReactionDatabase
 import org.thoughtcrime.securesms.database.RecipientDatabase
+import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.database.model.ReactionRecord
 import org.thoughtcrime.securesms.recipients.Recipient
@@ -23,6 +26,8 @@ object NotificationStateProvider {
   @WorkerThread
   fun constructNotificationState(context: Context, stickyThreads: Map<Long, MessageNotifierV2.StickyThread>): NotificationStateV2 {
     val messages: MutableList<NotificationMessage> = mutableListOf()
+    val messageRecordCache: MessageRecordCache = DatabaseFactory.getMessageRecordCache(context)
+    val reactionDatabase: ReactionDatabase = DatabaseFactory.getReactionDatabase(context)
 
     DatabaseFactory.getMmsSmsDatabase(context).getMessagesForNotificationState(stickyThreads.values).use { unreadMessages ->
       if (unreadMessages.count == 0) {
@@ -34,13 +39,23 @@ object NotificationStateProvider {
         while (record != null) {
           val threadRecipient: Recipient? = DatabaseFactory.getThreadDatabase(context).getRecipientForThreadId(record.threadId)
           if (threadRecipient != null) {
+            val messageId = MessageId(record.id, record.isMms)
+            val hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MmsSmsColumns.REACTIONS_UNREAD) == 1
+
+            // The cursor doesn't include reactions, so a cached record only saves a query when we need them
+            val messageRecord: MessageRecord = if (hasUnreadReactions) {
+              messageRecordCache.get(messageId)?.record ?: record.withReactions(reactionDatabase.getReactions(messageId))
+            } else {
+              record
+            }
+
             messages += NotificationMessage(
-              messageRecord = record,
+              messageRecord = messageRecord,
               threadRecipient = threadRecipient,
               threadId = record.threadId,
               stickyThread = stickyThreads.containsKey(record.threadId),
               isUnreadMessage = CursorUtil.requireInt(unreadMessages, MmsSmsColumns.READ) == 0,
-              hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MmsSmsColumns.REACTIONS_UNREAD) == 1,
+              hasUnreadReactions = hasUnreadReactions,
               lastReactionRead = CursorUtil.requireLong(unreadMessages, MmsSmsColumns.REACTIONS_LAST_SEEN)
             )
           }
@@ -0,0 +1,191 @@
+package org.thoughtcrime.securesms.profiles;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.whispersystems.libsignal.util.Pair;
+import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
+import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Front door for profile retrieval. Requests for a recipient whose profile is already being
+ * fetched are attached to the in-flight request rather than issuing a new one, and successful
+ * results are remembered for a short time so that the different code paths that want a fresh
+ * profile (opening a conversation, group updates, storage sync, etc.) don't each hit the network.
+ *
+ * Cached results are keyed on the recipient's profile key, so a key change always results in a
+ * new fetch.
+ */
+public final class ProfileFetcher {
+
+  private static final String TAG = Log.tag(ProfileFetcher.class);
+
+  private static final long CACHE_DURATION  = TimeUnit.SECONDS.toMillis(30);
+  private static final int  CACHE_SIZE      = 1000;
+  private static final int  MAX_CONCURRENCY = 16;
+
+  private final Network                              network;
+  private final long                                 cacheDuration;
+  private final Map<RecipientId, InFlight>           inFlight = new HashMap<>();
+  private final LRUCache<RecipientId, CachedProfile> cache    = new LRUCache<>(CACHE_SIZE);
+
+  public ProfileFetcher(@NonNull Network network) {
+    this(network, CACHE_DURATION);
+  }
+
+  @VisibleForTesting
+  ProfileFetcher(@NonNull Network network, long cacheDuration) {
+    this.network       = network;
+    this.cacheDuration = cacheDuration;
+  }
+
+  /**
+   * Retrieves the profiles of all of the provided recipients, keeping at most
+   * {@link #MAX_CONCURRENCY} requests outstanding at a time. Results are emitted in the order
+   * they complete.
+   */
+  public @NonNull Observable<Pair<Recipient, ServiceResponse<ProfileAndCredential>>> retrieve(@NonNull List<Recipient> recipients) {
+    return Observable.fromIterable(recipients)
+                     .flatMap(r -> retrieve(r, getRequestType(r)).toObservable(), true, MAX_CONCURRENCY);
+  }
+
+  /**
+   * Retrieves the profile of a single recipient, either from the cache, by joining a request that
+   * is already in flight, or by making a new request.
+   */
+  public @NonNull Single<Pair<Recipient, ServiceResponse<ProfileAndCredential>>> retrieve(@NonNull Recipient recipient,
+                                                                                          @NonNull SignalServiceProfile.RequestType requestType)
+  {
+    return Single.defer(() -> getOrFetch(recipient, requestType)).map(response -> new Pair<>(recipient, response));
+  }
+
+  /**
+   * Forgets any cached profile for the recipient, e.g. after we know it has changed.
+   */
+  public synchronized void invalidate(@NonNull RecipientId recipientId) {
+    cache.remove(recipientId);
+  }
+
+  public synchronized void clear() {
+    cache.clear();
+  }
+
+  public static @NonNull SignalServiceProfile.RequestType getRequestType(@NonNull Recipient recipient) {
+    return !recipient.hasProfileKeyCredential()
+           ? SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
+           : SignalServiceProfile.RequestType.PROFILE;
+  }
+
+  private synchronized @NonNull Single<ServiceResponse<ProfileAndCredential>> getOrFetch(@NonNull Recipient recipient,
+                                                                                         @NonNull SignalServiceProfile.RequestType requestType)
+  {
+    RecipientId   recipientId = recipient.getId();
+    byte[]        profileKey  = recipient.getProfileKey();
+    CachedProfile cached      = cache.get(recipientId);
+
+    if (cached != null) {
+      if (cached.isValidFor(profileKey, requestType, System.currentTimeMillis() - cacheDuration)) {
+        return Single.just(ServiceResponse.forResult(cached.profileAndCredential, 200, null));
+      } else {
+        cache.remove(recipientId);
+      }
+    }
+
+    InFlight existing = inFlight.get(recipientId);
+
+    if (existing != null && existing.satisfies(profileKey, requestType)) {
+      return existing.request;
+    }
+
+    InFlight request = new InFlight(profileKey, requestType);
+
+    request.request = network.fetch(recipient, requestType)
+                             .doOnSuccess(response -> onFetchComplete(recipientId, request, response))
+                             .doOnError(t -> onFetchComplete(recipientId, request, null))
+                             .cache();
+
+    inFlight.put(recipientId, request);
+
+    return request.request;
+  }
+
+  private synchronized void onFetchComplete(@NonNull RecipientId recipientId,
+                                            @NonNull InFlight request,
+                                            @Nullable ServiceResponse<ProfileAndCredential> response)
+  {
+    if (inFlight.get(recipientId) == request) {
+      inFlight.remove(recipientId);
+    }
+
+    if (response != null && response.getResult().isPresent()) {
+      cache.put(recipientId, new CachedProfile(request.profileKey, request.requestType, response.getResult().get(), System.currentTimeMillis()));
+    } else if (response != null) {
+      Log.d(TAG, "Not caching unsuccessful response for " + recipientId);
+    }
+  }
+
+  /**
+   * A {@link SignalServiceProfile.RequestType#PROFILE_AND_CREDENTIAL} result contains everything
+   * that a {@link SignalServiceProfile.RequestType#PROFILE} request would.
+   */
+  private static boolean covers(@NonNull SignalServiceProfile.RequestType available, @NonNull SignalServiceProfile.RequestType requested) {
+    return available == requested || available == SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL;
+  }
+
+  public interface Network {
+    @NonNull Single<ServiceResponse<ProfileAndCredential>> fetch(@NonNull Recipient recipient, @NonNull SignalServiceProfile.RequestType requestType);
+  }
+
+  private static final class InFlight {
+    private final byte[]                           profileKey;
+    private final SignalServiceProfile.RequestType requestType;
+
+    private Single<ServiceResponse<ProfileAndCredential>> request;
+
+    private InFlight(@Nullable byte[] profileKey, @NonNull SignalServiceProfile.RequestType requestType) {
+      this.profileKey  = profileKey;
+      this.requestType = requestType;
+    }
+
+    boolean satisfies(@Nullable byte[] profileKey, @NonNull SignalServiceProfile.RequestType requestType) {
+      return Arrays.equals(this.profileKey, profileKey) && covers(this.requestType, requestType);
+    }
+  }
+
+  private static final class CachedProfile {
+    private final byte[]                           profileKey;
+    private final SignalServiceProfile.RequestType requestType;
+    private final ProfileAndCredential             profileAndCredential;
+    private final long                             timestamp;
+
+    private CachedProfile(@Nullable byte[] profileKey,
+                          @NonNull SignalServiceProfile.RequestType requestType,
+                          @NonNull ProfileAndCredential profileAndCredential,
+                          long timestamp)
+    {
+      this.profileKey           = profileKey;
+      this.requestType          = requestType;
+      this.profileAndCredential = profileAndCredential;
+      this.timestamp            = timestamp;
+    }
+
+    boolean isValidFor(@Nullable byte[] profileKey, @NonNull SignalServiceProfile.RequestType requestType, long oldestTimestamp) {
+      return timestamp >= oldestTimestamp && Arrays.equals(this.profileKey, profileKey) && covers(this.requestType, requestType);
+    }
+  }
+}
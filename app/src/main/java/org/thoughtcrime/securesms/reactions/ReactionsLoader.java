@@ -18,6 +18,7 @@ import org.thoughtcrime.securesms.components.emoji.EmojiUtil;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.AbstractCursorLoader;
@@ -57,7 +58,7 @@ public class ReactionsLoader implements ReactionsViewModel.Repository, LoaderMan
       if (record == null) {
         internalLiveData.postValue(Collections.emptyList());
       } else {
-        internalLiveData.postValue(Stream.of(record.getReactions())
+        internalLiveData.postValue(Stream.of(DatabaseFactory.getReactionDatabase(appContext).getReactions(new MessageId(messageId, isMms)))
                                          .map(reactionRecord -> new ReactionDetails(Recipient.resolved(reactionRecord.getAuthor()),
                                                                                     EmojiUtil.getCanonicalRepresentation(reactionRecord.getEmoji()),
                                                                                     reactionRecord.getEmoji(),
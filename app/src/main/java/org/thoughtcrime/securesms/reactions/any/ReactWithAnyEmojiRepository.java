@@ -17,6 +17,7 @@ import org.thoughtcrime.securesms.components.emoji.RecentEmojiPageModel;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase;
 import org.thoughtcrime.securesms.database.NoSuchMessageException;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.emoji.EmojiCategory;
@@ -73,7 +74,7 @@ final class ReactWithAnyEmojiRepository {
       try {
         MessageDatabase db              = isMms ? DatabaseFactory.getMmsDatabase(context) : DatabaseFactory.getSmsDatabase(context);
         MessageRecord     messageRecord = db.getMessageRecord(messageId);
-        ReactionRecord    oldRecord     = Stream.of(messageRecord.getReactions())
+        ReactionRecord    oldRecord     = Stream.of(DatabaseFactory.getReactionDatabase(context).getReactions(new MessageId(messageId, isMms)))
                                                 .filter(record -> record.getAuthor().equals(Recipient.self().getId()))
                                                 .findFirst()
                                                 .orElse(null);
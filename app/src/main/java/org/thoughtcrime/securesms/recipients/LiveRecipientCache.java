@@ -6,6 +6,7 @@ import android.database.Cursor;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
@@ -14,6 +15,7 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientException;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
@@ -152,6 +154,42 @@ public final class LiveRecipientCache {
     });
   }
 
+  /**
+   * Resolves whichever of the provided recipients aren't resolved yet with a single query, for
+   * callers about to display many of them at once. Groups are left to resolve individually, since
+   * they need their members as well.
+   */
+  @WorkerThread
+  public void resolveAll(@NonNull Collection<RecipientId> ids) {
+    List<RecipientId> unresolved = new ArrayList<>(ids.size());
+
+    synchronized (recipients) {
+      for (RecipientId id : ids) {
+        LiveRecipient live = recipients.get(id);
+
+        if (!id.isUnknown() && (live == null || live.get().isResolving())) {
+          unresolved.add(id);
+        }
+      }
+    }
+
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    List<Recipient> resolved = new ArrayList<>(unresolved.size());
+
+    for (RecipientSettings settings : recipientDatabase.getRecipientSettings(unresolved)) {
+      if (settings.getGroupId() == null) {
+        Recipient recipient = new Recipient(settings.getId(), RecipientDetails.forIndividual(context, settings), true);
+        RecipientIdCache.INSTANCE.put(recipient);
+        resolved.add(recipient);
+      }
+    }
+
+    addToCache(resolved);
+  }
+
   @NonNull Recipient getSelf() {
     RecipientId selfId;
 
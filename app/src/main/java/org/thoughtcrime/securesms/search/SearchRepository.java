@@ -56,6 +56,9 @@ public class SearchRepository {
 
   private static final String TAG = Log.tag(SearchRepository.class);
 
+  private static final int MESSAGE_PAGE_SIZE   = 50;
+  private static final int MAX_MESSAGE_RESULTS = 500;
+
   private final Context           context;
   private final SearchDatabase    searchDatabase;
   private final ContactRepository contactRepository;
@@ -67,6 +70,8 @@ public class SearchRepository {
   private final LatestPrioritizedSerialExecutor searchExecutor;
   private final Executor                        serialExecutor;
 
+  private long latestMessageQueryId;
+
   public SearchRepository() {
     this.context           = ApplicationDependencies.getApplication().getApplicationContext();
     this.searchDatabase    = DatabaseFactory.getSearchDatabase(context);
@@ -101,19 +106,14 @@ public class SearchRepository {
     });
   }
 
-  public void queryMessages(@NonNull String query, @NonNull Consumer<MessageSearchResult> callback) {
-    searchExecutor.execute(0, () -> {
-      long   start      = System.currentTimeMillis();
-      String cleanQuery = FtsUtil.sanitize(query);
-
-      List<MessageResult> messages        = queryMessages(cleanQuery);
-      List<MessageResult> mentionMessages = queryMentions(sanitizeQueryAsTokens(query));
-      List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages);
-
-      Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
-
-      callback.accept(new MessageSearchResult(combined, query));
-    });
+  /**
+   * Delivers the results a page at a time, each time with every result found so far, so that the
+   * first page can be shown without waiting on the rest. Each page is its own task on the search
+   * executor, so the thread and contact searches for the next keystroke don't wait behind the
+   * whole query, and starting another message query drops this one before its next page.
+   */
+  public synchronized void queryMessages(@NonNull String query, @NonNull Consumer<MessageSearchResult> callback) {
+    searchExecutor.execute(0, new MessageQuery(++latestMessageQueryId, query, callback));
   }
 
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
@@ -124,7 +124,7 @@ public class SearchRepository {
 
     serialExecutor.execute(() -> {
       long                startTime       = System.currentTimeMillis();
-      List<MessageResult> messages        = queryMessages(FtsUtil.sanitize(query), threadId);
+      List<MessageResult> messages        = queryMessagePage(FtsUtil.sanitize(query), threadId, null, MAX_MESSAGE_RESULTS).results;
       List<MessageResult> mentionMessages = queryMentions(sanitizeQueryAsTokens(query), threadId);
 
       Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
@@ -183,16 +183,37 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
+  private synchronized boolean isLatestMessageQuery(@NonNull MessageQuery messageQuery) {
+    return messageQuery.id == latestMessageQueryId;
+  }
+
+  private synchronized void queueNextMessagePage(@NonNull MessageQuery messageQuery) {
+    if (messageQuery.id == latestMessageQueryId) {
+      searchExecutor.execute(0, messageQuery);
+    }
+  }
+
+  private @NonNull MessagePage queryMessagePage(@NonNull String query, long threadId, @Nullable SearchDatabase.MessagePosition after, int limit) {
     if (Util.isEmpty(query)) {
-      return Collections.emptyList();
+      return MessagePage.EMPTY;
     }
 
-    List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      results = readToList(cursor, new MessageModelBuilder());
+    try (Cursor cursor = searchDatabase.queryMessages(query, threadId, after, limit)) {
+      if (cursor == null) {
+        return MessagePage.EMPTY;
+      }
+
+      List<MessageResult> results = readToList(cursor, new MessageModelBuilder());
+
+      if (!cursor.moveToLast()) {
+        return MessagePage.EMPTY;
+      }
+
+      return new MessagePage(results, SearchDatabase.MessagePosition.fromCursor(cursor), cursor.getCount() >= limit);
     }
+  }
 
+  private @NonNull List<MessageResult> updateMentionDisplayNames(@NonNull List<MessageResult> results) {
     List<Long> messageIds = new LinkedList<>();
     for (MessageResult result : results) {
       if (result.isMms()) {
@@ -259,12 +280,6 @@ public class SearchRepository {
     return bodySnippet;
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query, long threadId) {
-    try (Cursor cursor = searchDatabase.queryMessages(query, threadId)) {
-      return readToList(cursor, new MessageModelBuilder());
-    }
-  }
-
   private @NonNull List<MessageResult> queryMentions(@NonNull List<String> cleanQueries) {
     Set<RecipientId> recipientIds = new HashSet<>();
     for (String cleanQuery : cleanQueries) {
@@ -438,6 +453,101 @@ public class SearchRepository {
     }
   }
 
+  private static final class MessagePage {
+    private static final MessagePage EMPTY = new MessagePage(Collections.emptyList(), null, false);
+
+    private final           List<MessageResult>            results;
+    private final @Nullable SearchDatabase.MessagePosition last;
+    private final           boolean                        hasMore;
+
+    private MessagePage(@NonNull List<MessageResult> results, @Nullable SearchDatabase.MessagePosition last, boolean hasMore) {
+      this.results = results;
+      this.last    = last;
+      this.hasMore = hasMore;
+    }
+  }
+
+  /**
+   * A message query, run one page per execution until it has all of its results, or until a newer
+   * query replaces it.
+   */
+  private final class MessageQuery implements Runnable {
+    private final long                          id;
+    private final String                        query;
+    private final Consumer<MessageSearchResult> callback;
+    private final long                          startTime;
+    private final List<MessageResult>           messages;
+
+    private String                         cleanQuery;
+    private List<MessageResult>            mentionMessages;
+    private SearchDatabase.MessagePosition position;
+    private int                            pageCount;
+
+    private MessageQuery(long id, @NonNull String query, @NonNull Consumer<MessageSearchResult> callback) {
+      this.id        = id;
+      this.query     = query;
+      this.callback  = callback;
+      this.startTime = System.currentTimeMillis();
+      this.messages  = new ArrayList<>();
+    }
+
+    @Override
+    public void run() {
+      if (!isLatestMessageQuery(this)) {
+        Log.d(TAG, "[messages] Dropping stale query after " + pageCount + " pages");
+        return;
+      }
+
+      long pageStart = System.currentTimeMillis();
+
+      if (cleanQuery == null) {
+        cleanQuery      = FtsUtil.sanitize(query);
+        mentionMessages = queryMentions(sanitizeQueryAsTokens(query));
+      }
+
+      MessagePage page = queryMessagePage(cleanQuery, -1, position, MESSAGE_PAGE_SIZE);
+
+      messages.addAll(updateMentionDisplayNames(page.results));
+      position = page.last;
+      pageCount++;
+
+      boolean complete = !page.hasMore || messages.size() >= MAX_MESSAGE_RESULTS;
+
+      Log.d(TAG, "[messages] Page " + pageCount + " (" + page.results.size() + " results) took " + (System.currentTimeMillis() - pageStart) + " ms, " + (System.currentTimeMillis() - startTime) + " ms since the search started");
+
+      callback.accept(new MessageSearchResult(mergeMessagesAndMentions(messages, getMentionsSoFar(complete)), query));
+
+      if (!complete) {
+        queueNextMessagePage(this);
+      }
+    }
+
+    /**
+     * Only the mentions that belong among the messages found so far, so that later pages never
+     * need to insert anything above what's already been shown.
+     */
+    private @NonNull List<MessageResult> getMentionsSoFar(boolean complete) {
+      if (complete) {
+        return mentionMessages;
+      }
+
+      if (messages.isEmpty()) {
+        return Collections.emptyList();
+      }
+
+      long                oldest = messages.get(messages.size() - 1).getReceivedTimestampMs();
+      List<MessageResult> newer  = new ArrayList<>();
+
+      for (MessageResult mention : mentionMessages) {
+        if (mention.getReceivedTimestampMs() >= oldest) {
+          newer.add(mention);
+        }
+      }
+
+      return newer;
+    }
+  }
+
   public interface Callback<E> {
     void onResult(@NonNull E result);
   }
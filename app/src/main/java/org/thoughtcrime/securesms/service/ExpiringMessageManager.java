@@ -5,11 +5,13 @@ import android.content.Context;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase;
-import org.thoughtcrime.securesms.database.MmsDatabase;
-import org.thoughtcrime.securesms.database.SmsDatabase;
-import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.model.MessageId;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -18,17 +20,22 @@ public class ExpiringMessageManager {
 
   private static final String TAG = Log.tag(ExpiringMessageManager.class);
 
+  private static final long BATCH_WINDOW_MILLIS = 1000;
+  private static final int  MAX_BATCH_SIZE      = 500;
+
   private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
   private final Executor                          executor                  = Executors.newSingleThreadExecutor();
 
   private final MessageDatabase smsDatabase;
   private final MessageDatabase mmsDatabase;
+  private final MmsSmsDatabase  mmsSmsDatabase;
   private final Context         context;
 
   public ExpiringMessageManager(Context context) {
-    this.context     = context.getApplicationContext();
-    this.smsDatabase = DatabaseFactory.getSmsDatabase(context);
-    this.mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+    this.context        = context.getApplicationContext();
+    this.smsDatabase    = DatabaseFactory.getSmsDatabase(context);
+    this.mmsDatabase    = DatabaseFactory.getMmsDatabase(context);
+    this.mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
 
     executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
@@ -55,47 +62,53 @@ public class ExpiringMessageManager {
 
   private class LoadTask implements Runnable {
     public void run() {
-      SmsDatabase.Reader smsReader = SmsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = MmsDatabase.readerFor(mmsDatabase.getExpirationStartedMessages());
-
-      MessageRecord messageRecord;
-
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
+      List<MessageDatabase.ExpirationInfo> expiring = new ArrayList<>(smsDatabase.getExpirationStartedMessages());
+      expiring.addAll(mmsDatabase.getExpirationStartedMessages());
 
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+      synchronized (expiringMessageReferences) {
+        for (MessageDatabase.ExpirationInfo info : expiring) {
+          expiringMessageReferences.add(new ExpiringMessageReference(info.getId(), info.isMms(), info.getExpireStarted() + info.getExpiresIn()));
+        }
+        expiringMessageReferences.notifyAll();
       }
-
-      smsReader.close();
-      mmsReader.close();
     }
   }
 
+  /**
+   * Waits for the next message to expire, then deletes it together with everything else due within
+   * {@link #BATCH_WINDOW_MILLIS}, in a single transaction. Messages that expire together, like a
+   * burst read under a short timer, are deleted slightly early rather than one at a time.
+   */
   @SuppressWarnings("InfiniteLoopStatement")
   private class ProcessTask implements Runnable {
     public void run() {
       while (true) {
-        ExpiringMessageReference expiredMessage = null;
+        List<MessageId> expiredMessages = new ArrayList<>();
 
         synchronized (expiringMessageReferences) {
           try {
             while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
 
             ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
+            long                     now           = System.currentTimeMillis();
+            long                     waitTime      = nextReference.expiresAtMillis - now;
 
             if (waitTime > 0) {
               ExpirationListener.setAlarm(context, waitTime);
               expiringMessageReferences.wait(waitTime);
             } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
+              Iterator<ExpiringMessageReference> iterator = expiringMessageReferences.iterator();
+
+              while (iterator.hasNext() && expiredMessages.size() < MAX_BATCH_SIZE) {
+                ExpiringMessageReference reference = iterator.next();
+
+                if (reference.expiresAtMillis > now + BATCH_WINDOW_MILLIS) {
+                  break;
+                }
+
+                expiredMessages.add(new MessageId(reference.id, reference.mms));
+                iterator.remove();
+              }
             }
 
           } catch (InterruptedException e) {
@@ -103,9 +116,12 @@ public class ExpiringMessageManager {
           }
         }
 
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.deleteMessage(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
+        if (!expiredMessages.isEmpty()) {
+          long start = System.currentTimeMillis();
+
+          mmsSmsDatabase.deleteMessages(expiredMessages);
+
+          Log.i(TAG, "Deleted " + expiredMessages.size() + " expired messages in " + (System.currentTimeMillis() - start) + " ms");
         }
       }
     }
@@ -83,6 +83,7 @@ public final class FeatureFlags {
   private static final String MAX_GROUP_CALL_RING_SIZE          = "global.calling.maxGroupCallRingSize";
   private static final String GROUP_CALL_RINGING                = "android.calling.groupCallRinging";
   private static final String CHANGE_NUMBER_ENABLED             = "android.changeNumber";
+  private static final String REQUEST_HEDGING                   = "android.requestHedging";
 
   /**
    * We will only store remote values for flags in this set. If you want a flag to be controllable
@@ -118,7 +119,8 @@ public final class FeatureFlags {
       RETRY_RECEIPTS,
       SUGGEST_SMS_BLACKLIST,
       MAX_GROUP_CALL_RING_SIZE,
-      GROUP_CALL_RINGING
+      GROUP_CALL_RINGING,
+      REQUEST_HEDGING
   );
 
   @VisibleForTesting
@@ -338,6 +340,11 @@ public final class FeatureFlags {
     return getBoolean(OKHTTP_AUTOMATIC_RETRY, true);
   }
 
+  /** Whether or not to re-issue slow profile, attachment and sticker downloads to a second endpoint */
+  public static boolean requestHedging() {
+    return getBoolean(REQUEST_HEDGING, false);
+  }
+
   /** The minimum memory class required for rendering animated stickers in the keyboard and such */
   public static int animatedStickerMinimumMemoryClass() {
     return getInteger(ANIMATED_STICKER_MIN_MEMORY, 193);
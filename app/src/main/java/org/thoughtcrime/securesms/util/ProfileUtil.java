@@ -61,11 +61,7 @@ public final class ProfileUtil {
                                                                   @NonNull SignalServiceProfile.RequestType requestType)
       throws IOException
   {
-    ProfileService profileService = new ProfileService(ApplicationDependencies.getGroupsV2Operations().getProfileOperations(),
-                                                       ApplicationDependencies.getSignalServiceMessageReceiver(),
-                                                       ApplicationDependencies.getSignalWebSocket());
-
-    Pair<Recipient, ServiceResponse<ProfileAndCredential>> response = retrieveProfile(context, recipient, requestType, profileService).blockingGet();
+    Pair<Recipient, ServiceResponse<ProfileAndCredential>> response = ApplicationDependencies.getProfileFetcher().retrieve(recipient, requestType).blockingGet();
     return new ProfileService.ProfileResponseProcessor(response.second()).getResultOrThrow();
   }
 
@@ -242,6 +238,7 @@ public final class ProfileUtil {
                                                                                     avatar).orNull();
 
     DatabaseFactory.getRecipientDatabase(context).setProfileAvatar(Recipient.self().getId(), avatarPath);
+    ApplicationDependencies.getProfileFetcher().invalidate(Recipient.self().getId());
   }
 
   private static @Nullable SignalServiceProtos.PaymentAddress getSelfPaymentsAddressProtobuf() {
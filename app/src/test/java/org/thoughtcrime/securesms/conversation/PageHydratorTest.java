@@ -0,0 +1,183 @@
+package org.thoughtcrime.securesms.conversation;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.util.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PageHydratorTest {
+
+  private Context             context;
+  private Stopwatch           stopwatch;
+  private List<String>        events;
+  private List<MessageRecord> records;
+
+  @Before
+  public void setUp() {
+    context   = mock(Context.class);
+    stopwatch = mock(Stopwatch.class);
+    events    = new ArrayList<>();
+    records   = Arrays.asList(record(1), record(2), record(3));
+  }
+
+  @Test
+  public void hydrate_runsEachStageInOrderAfterEveryRecordIsAdded() {
+    PageHydrator hydrator = new PageHydrator().addStage(new FakeStage("first"))
+                                              .addStage(new FakeStage("second"));
+
+    for (MessageRecord record : records) {
+      hydrator.add(record);
+    }
+
+    hydrator.hydrate(context, records, stopwatch, () -> false);
+
+    assertEquals(Arrays.asList("first.add:1", "second.add:1",
+                               "first.add:2", "second.add:2",
+                               "first.add:3", "second.add:3",
+                               "first.fetch", "second.fetch",
+                               "first.update:1", "second.update:1",
+                               "first.update:2", "second.update:2",
+                               "first.update:3", "second.update:3"),
+                 events);
+
+    InOrder inOrder = inOrder(stopwatch);
+    inOrder.verify(stopwatch).split("first");
+    inOrder.verify(stopwatch).split("second");
+    inOrder.verify(stopwatch).split("models");
+  }
+
+  @Test
+  public void hydrate_whenCanceledBetweenStages_skipsRemainingStagesAndUpdates() {
+    boolean[]    canceled = { false };
+    PageHydrator hydrator = new PageHydrator().addStage(new FakeStage("first") {
+                                                @Override
+                                                public void fetch(@NonNull Context context) {
+                                                  super.fetch(context);
+                                                  canceled[0] = true;
+                                                }
+                                              })
+                                              .addStage(new FakeStage("second"));
+
+    List<MessageRecord> result = hydrator.hydrate(context, records, stopwatch, () -> canceled[0]);
+
+    assertSame(records, result);
+    assertEquals(Collections.singletonList("first.fetch"), events);
+  }
+
+  @Test
+  public void hydrate_whenCanceledBeforeStart_fetchesNothing() {
+    PageHydrator hydrator = new PageHydrator().addStage(new FakeStage("first"));
+
+    List<MessageRecord> result = hydrator.hydrate(context, records, stopwatch, () -> true);
+
+    assertSame(records, result);
+    assertEquals(Collections.emptyList(), events);
+  }
+
+  @Test
+  public void hydrate_appliesEveryStagesUpdateToEveryRecord() {
+    Map<MessageRecord, MessageRecord> firstUpdates  = new HashMap<>();
+    Map<MessageRecord, MessageRecord> secondUpdates = new HashMap<>();
+    List<MessageRecord>               expected      = new ArrayList<>();
+
+    for (MessageRecord record : records) {
+      MessageRecord afterFirst  = record(record.getId() + 10);
+      MessageRecord afterSecond = record(record.getId() + 20);
+
+      firstUpdates.put(record, afterFirst);
+      secondUpdates.put(afterFirst, afterSecond);
+      expected.add(afterSecond);
+    }
+
+    PageHydrator hydrator = new PageHydrator().addStage(new FakeStage("first", firstUpdates))
+                                              .addStage(new FakeStage("second", secondUpdates));
+
+    assertEquals(expected, hydrator.hydrate(context, records, stopwatch, () -> false));
+    assertEquals(Arrays.asList("first.fetch", "second.fetch",
+                               "first.update:1", "second.update:11",
+                               "first.update:2", "second.update:12",
+                               "first.update:3", "second.update:13"),
+                 events);
+  }
+
+  @Test
+  public void hydrate_withStageThatDoesNotUpdate_keepsRecords() {
+    PageHydrator hydrator = new PageHydrator().addStage(new PageHydrator.Stage() {
+      @Override
+      public @NonNull String getName() {
+        return "noop";
+      }
+
+      @Override
+      public void add(@NonNull MessageRecord record) {
+      }
+
+      @Override
+      public void fetch(@NonNull Context context) {
+      }
+    });
+
+    assertEquals(records, hydrator.hydrate(context, records, stopwatch, () -> false));
+  }
+
+  private static @NonNull MessageRecord record(long id) {
+    MessageRecord record = mock(MessageRecord.class);
+    when(record.getId()).thenReturn(id);
+    return record;
+  }
+
+  private class FakeStage implements PageHydrator.Stage {
+    private final String                            name;
+    private final Map<MessageRecord, MessageRecord> updates;
+
+    FakeStage(@NonNull String name) {
+      this(name, Collections.emptyMap());
+    }
+
+    FakeStage(@NonNull String name, @NonNull Map<MessageRecord, MessageRecord> updates) {
+      this.name    = name;
+      this.updates = updates;
+    }
+
+    @Override
+    public @NonNull String getName() {
+      return name;
+    }
+
+    @Override
+    public void add(@NonNull MessageRecord record) {
+      events.add(name + ".add:" + record.getId());
+    }
+
+    @Override
+    public void fetch(@NonNull Context context) {
+      events.add(name + ".fetch");
+    }
+
+    @Override
+    public @NonNull MessageRecord update(@NonNull Context context, @NonNull MessageRecord record) {
+      events.add(name + ".update:" + record.getId());
+
+      MessageRecord updated = updates.get(record);
+      return updated != null ? updated : record;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package org.thoughtcrime.securesms.database
+
+import android.app.Application
+import android.content.ContentValues
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.testing.ProxySQLCipherOpenHelper
+import org.thoughtcrime.securesms.testing.TestDatabaseUtil
+import java.io.File
+import android.database.sqlite.SQLiteDatabase as AndroidSQLiteDatabase
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class AttachmentBlobDatabaseTest {
+
+  @get:Rule
+  val folder = TemporaryFolder()
+
+  private lateinit var db: AndroidSQLiteDatabase
+  private lateinit var sqlCipher: ProxySQLCipherOpenHelper
+  private lateinit var blobDatabase: AttachmentBlobDatabase
+
+  @Before
+  fun setup() {
+    sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(AttachmentDatabase.CREATE_TABLE)
+      execSQL(AttachmentBlobDatabase.CREATE_TABLE)
+      AttachmentBlobDatabase.CREATE_INDEXES.forEach { execSQL(it) }
+      AttachmentBlobDatabase.CREATE_TRIGGERS.forEach { execSQL(it) }
+    }
+
+    db = sqlCipher.writableDatabase
+    blobDatabase = AttachmentBlobDatabase(ApplicationProvider.getApplicationContext(), sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `insertOrGet returns the existing blob for the same hash`() {
+    val first = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+    val second = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+
+    assertEquals(first.file, second.file)
+    assertEquals(100L, blobDatabase.stats.storedBytes)
+  }
+
+  @Test
+  fun `insertOrGet replaces a blob whose file is missing`() {
+    val first = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+    first.file.delete()
+
+    val replacement = newFile()
+    val second = blobDatabase.insertOrGet("hash", replacement, null, 100)
+
+    assertEquals(replacement, second.file)
+  }
+
+  @Test
+  fun `inserting attachments counts references`() {
+    val blob = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+
+    insertPart(blob.file, quote = false)
+    insertPart(blob.file, quote = false)
+    insertPart(blob.file, quote = true)
+
+    assertEquals(3 to 1, getRefCounts(blob.file))
+    assertEquals(200L, blobDatabase.stats.savedBytes)
+  }
+
+  @Test
+  fun `deleting attachments releases references`() {
+    val blob = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+    val strong = insertPart(blob.file, quote = false)
+    val quote = insertPart(blob.file, quote = true)
+
+    db.delete(AttachmentDatabase.TABLE_NAME, "_id = ?", arrayOf(strong.toString()))
+    assertEquals(1 to 1, getRefCounts(blob.file))
+
+    db.delete(AttachmentDatabase.TABLE_NAME, "_id = ?", arrayOf(quote.toString()))
+    assertEquals(0 to 0, getRefCounts(blob.file))
+  }
+
+  @Test
+  fun `pointing an attachment at new data moves its reference`() {
+    val oldBlob = blobDatabase.insertOrGet("old", newFile(), null, 100)
+    val newBlob = blobDatabase.insertOrGet("new", newFile(), null, 100)
+    val id = insertPart(oldBlob.file, quote = true)
+
+    db.update(AttachmentDatabase.TABLE_NAME, ContentValues().apply { put(AttachmentDatabase.DATA, newBlob.file.absolutePath) }, "_id = ?", arrayOf(id.toString()))
+
+    assertEquals(0 to 0, getRefCounts(oldBlob.file))
+    assertEquals(1 to 1, getRefCounts(newBlob.file))
+  }
+
+  @Test
+  fun `clearing an attachment's data releases its reference`() {
+    val blob = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+    val id = insertPart(blob.file, quote = false)
+
+    db.update(AttachmentDatabase.TABLE_NAME, ContentValues().apply { putNull(AttachmentDatabase.DATA) }, "_id = ?", arrayOf(id.toString()))
+
+    assertEquals(0 to 0, getRefCounts(blob.file))
+  }
+
+  @Test
+  fun `deleteUnreferenced keeps recently used blobs`() {
+    val blob = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+
+    assertTrue(blobDatabase.deleteUnreferenced(System.currentTimeMillis() - AttachmentBlobDatabase.UNUSED_GRACE_PERIOD).isEmpty())
+    assertTrue(blobDatabase.nextCollectionTime > System.currentTimeMillis())
+
+    val deleted = blobDatabase.deleteUnreferenced(System.currentTimeMillis() + 1)
+
+    assertEquals(listOf(blob.file), deleted.map { it.file })
+    assertEquals(-1L, blobDatabase.nextCollectionTime)
+  }
+
+  @Test
+  fun `deleteUnreferenced collects blobs that only quotes refer to once they go unused`() {
+    val quoted = blobDatabase.insertOrGet("quoted", newFile(), null, 100)
+    val used = blobDatabase.insertOrGet("used", newFile(), null, 100)
+
+    insertPart(quoted.file, quote = true)
+    insertPart(used.file, quote = false)
+    insertPart(used.file, quote = true)
+
+    assertTrue(blobDatabase.deleteUnreferenced(System.currentTimeMillis() - AttachmentBlobDatabase.UNUSED_GRACE_PERIOD).isEmpty())
+    assertTrue(blobDatabase.nextCollectionTime > System.currentTimeMillis())
+
+    val deleted = blobDatabase.deleteUnreferenced(System.currentTimeMillis() + 1)
+
+    assertEquals(listOf(quoted.file), deleted.map { it.file })
+    assertNotNull(blobDatabase.getByFile(sqlCipher.signalWritableDatabase, used.file.absolutePath))
+  }
+
+  @Test
+  fun `blobs handed out for reuse are in their grace period`() {
+    val blob = blobDatabase.insertOrGet("hash", newFile(), null, 100)
+    val reused = blobDatabase.getForReuse(blob.file)!!
+
+    assertTrue(reused.isInGracePeriod(System.currentTimeMillis()))
+    assertFalse(reused.isInGracePeriod(System.currentTimeMillis() + AttachmentBlobDatabase.UNUSED_GRACE_PERIOD + 1))
+  }
+
+  private fun newFile(): File {
+    return folder.newFile()
+  }
+
+  private fun insertPart(file: File, quote: Boolean): Long {
+    val values = ContentValues().apply {
+      put(AttachmentDatabase.MMS_ID, 1)
+      put(AttachmentDatabase.DATA, file.absolutePath)
+      put(AttachmentDatabase.QUOTE, if (quote) 1 else 0)
+    }
+
+    return db.insert(AttachmentDatabase.TABLE_NAME, null, values)
+  }
+
+  private fun getRefCounts(file: File): Pair<Int, Int> {
+    db.query(AttachmentBlobDatabase.TABLE_NAME, arrayOf("ref_count", "quote_ref_count"), "_data = ?", arrayOf(file.absolutePath), null, null, null).use { cursor ->
+      assertTrue(cursor.moveToFirst())
+      return cursor.getInt(0) to cursor.getInt(1)
+    }
+  }
+}
@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.database
 import org.junit.Assert
 import org.junit.Test
 import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.FtsUtil
 import org.thoughtcrime.securesms.util.SqlUtil
 
 class ContactSearchSelectionBuilderTest {
@@ -59,14 +60,47 @@ class ContactSearchSelectionBuilderTest {
   }
 
   @Test
-  fun `Given a query, when I build, then I expect QUERY_SIGNAL_CONTACT`() {
+  fun `Given a query, when I build, then I expect SIGNAL_CONTACT and QUERY_MATCH`() {
     val result = RecipientDatabase.ContactSearchSelection.Builder()
       .withRegistered(true)
       .withGroups(false)
       .withSearchQuery("query")
       .build()
 
-    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_SIGNAL_CONTACT))
-    Assert.assertTrue(result.args.contains("query"))
+    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.SIGNAL_CONTACT))
+    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_MATCH))
+    Assert.assertFalse(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_PHONE))
+    Assert.assertTrue(result.args.contains(FtsUtil.createPrefixMatchString("query")))
+  }
+
+  @Test
+  fun `Given a partial phone number, when I build, then I expect QUERY_PHONE with its digits`() {
+    val result = RecipientDatabase.ContactSearchSelection.Builder()
+      .withRegistered(true)
+      .withGroups(false)
+      .withSearchQuery("555-12")
+      .build()
+
+    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_MATCH))
+    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_PHONE))
+    Assert.assertTrue(result.args.contains("*55512*"))
+  }
+
+  @Test
+  fun `Given a joined search query, when I build, then I expect the rank filter instead of a second match`() {
+    val result = RecipientDatabase.ContactSearchSelection.buildJoinedSearchQuery("555-12")
+
+    Assert.assertFalse(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_MATCH))
+    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_JOINED_MATCH))
+    Assert.assertTrue(result.where.contains(RecipientDatabase.ContactSearchSelection.QUERY_PHONE))
+    Assert.assertEquals(listOf("*55512*"), result.whereArgs.toList())
+  }
+
+  @Test
+  fun `Given a query of only symbols, when I build, then I expect no matches`() {
+    val result = RecipientDatabase.ContactSearchSelection.buildSearchQuery("!?")
+
+    Assert.assertEquals("0", result.where)
+    Assert.assertEquals(0, result.whereArgs.size)
   }
 }
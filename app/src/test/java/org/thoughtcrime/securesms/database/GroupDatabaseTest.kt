@@ -0,0 +1,150 @@
+package org.thoughtcrime.securesms.database
+
+import android.app.Application
+import android.content.ContentValues
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteConstraintException
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.ProxySQLCipherOpenHelper
+import org.thoughtcrime.securesms.testing.TestDatabaseUtil
+import java.security.SecureRandom
+import android.database.sqlite.SQLiteDatabase as AndroidSQLiteDatabase
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class GroupDatabaseTest {
+
+  private lateinit var db: AndroidSQLiteDatabase
+  private lateinit var sqlCipher: ProxySQLCipherOpenHelper
+  private lateinit var groupDatabase: GroupDatabase
+
+  @Before
+  fun setup() {
+    sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(RecipientDatabase.CREATE_TABLE)
+      execSQL(GroupDatabase.CREATE_TABLE)
+      execSQL(GroupDatabase.CREATE_MEMBERSHIP_TABLE)
+      execSQL(ThreadDatabase.CREATE_TABLE)
+      GroupDatabase.CREATE_INDEXS.forEach { execSQL(it) }
+    }
+
+    db = sqlCipher.writableDatabase
+    groupDatabase = GroupDatabase(ApplicationProvider.getApplicationContext(), sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `getGroupsContainingMember does not match on a prefix of another id`() {
+    val groupId = insertGroup(1, listOf(RecipientId.from(10), RecipientId.from(100)))
+
+    assertTrue(groupDatabase.getGroupsContainingMember(RecipientId.from(1), false).isEmpty())
+    assertEquals(listOf(groupId), groupDatabase.getGroupsContainingMember(RecipientId.from(100), false).map { it.id })
+  }
+
+  @Test
+  fun `replaceMembers drops members that were removed`() {
+    val groupId = insertGroup(1, listOf(RecipientId.from(10), RecipientId.from(11)))
+
+    groupDatabase.replaceMembers(sqlCipher.signalWritableDatabase, groupId, listOf(RecipientId.from(11)))
+
+    assertFalse(groupDatabase.isCurrentMember(groupId, RecipientId.from(10)))
+    assertTrue(groupDatabase.isCurrentMember(groupId, RecipientId.from(11)))
+  }
+
+  @Test
+  fun `getGroupsContainingMember over thousands of groups uses the membership index`() {
+    val member = RecipientId.from(5)
+    val expected = mutableSetOf<GroupId>()
+
+    db.beginTransaction()
+    try {
+      for (i in 1..3_000) {
+        val members = (0 until 20).map { RecipientId.from(1L + (i * 7L + it) % 500) }
+        val groupId = insertGroup(100_000L + i, members)
+
+        if (members.contains(member)) {
+          expected.add(groupId)
+        }
+      }
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    val groups = groupDatabase.getGroupsContainingMember(member, false)
+
+    assertEquals(expected, groups.map { it.id }.toSet())
+
+    db.rawQuery("EXPLAIN QUERY PLAN SELECT group_id FROM ${GroupDatabase.MEMBERSHIP_TABLE_NAME} WHERE recipient_id = ?", arrayOf(member.serialize())).use { cursor ->
+      val plan = StringBuilder()
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(cursor.getColumnIndexOrThrow("detail")))
+      }
+      assertTrue(plan.toString(), plan.contains("group_membership_recipient_id_index"))
+    }
+  }
+
+  @Test
+  fun `remapMember keeps memberships when the old recipient is deleted`() {
+    db.setForeignKeyConstraintsEnabled(true)
+    (1L..3L).forEach { insertRecipient(it) }
+
+    val onlyOld = insertGroup(100, listOf(RecipientId.from(1), RecipientId.from(3)))
+    val both = insertGroup(101, listOf(RecipientId.from(1), RecipientId.from(2)))
+
+    groupDatabase.remapMember(sqlCipher.signalWritableDatabase, RecipientId.from(1), RecipientId.from(2))
+    db.delete(RecipientDatabase.TABLE_NAME, "_id = ?", arrayOf("1"))
+
+    assertEquals(setOf(onlyOld, both), groupDatabase.getGroupsContainingMember(RecipientId.from(2), false, true).map { it.id }.toSet())
+    assertTrue(groupDatabase.isCurrentMember(onlyOld, RecipientId.from(3)))
+    assertEquals(3L, DatabaseUtils.queryNumEntries(db, GroupDatabase.MEMBERSHIP_TABLE_NAME))
+  }
+
+  @Test(expected = SQLiteConstraintException::class)
+  fun `replaceMembers throws for a recipient that does not exist`() {
+    db.setForeignKeyConstraintsEnabled(true)
+    insertRecipient(1)
+
+    insertGroup(100, listOf(RecipientId.from(1), RecipientId.from(2)))
+  }
+
+  private fun insertRecipient(id: Long) {
+    db.insert(RecipientDatabase.TABLE_NAME, null, ContentValues().apply { put("_id", id) })
+  }
+
+  private fun insertGroup(groupRecipientId: Long, members: List<RecipientId>): GroupId.V1 {
+    val groupId = GroupId.createV1(SecureRandom())
+
+    val groupValues = ContentValues().apply {
+      put(GroupDatabase.GROUP_ID, groupId.toString())
+      put(GroupDatabase.RECIPIENT_ID, groupRecipientId)
+      put(GroupDatabase.MEMBERS, RecipientId.toSerializedList(members))
+    }
+    db.insert(GroupDatabase.TABLE_NAME, null, groupValues)
+
+    val threadValues = ContentValues().apply {
+      put(ThreadDatabase.RECIPIENT_ID, groupRecipientId)
+      put(ThreadDatabase.DATE, groupRecipientId)
+    }
+    db.insert(ThreadDatabase.TABLE_NAME, null, threadValues)
+
+    groupDatabase.replaceMembers(sqlCipher.signalWritableDatabase, groupId, members)
+
+    return groupId
+  }
+}
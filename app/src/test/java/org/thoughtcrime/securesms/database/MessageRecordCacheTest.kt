@@ -0,0 +1,181 @@
+package org.thoughtcrime.securesms.database
+
+import android.app.Application
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.testing.ProxySQLCipherOpenHelper
+import org.thoughtcrime.securesms.testing.TestDatabaseUtil
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class MessageRecordCacheTest {
+
+  private lateinit var sqlCipher: ProxySQLCipherOpenHelper
+  private lateinit var cache: MessageRecordCache
+
+  @Before
+  fun setup() {
+    sqlCipher = TestDatabaseUtil.inMemoryDatabase {}
+    cache = MessageRecordCache(sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    sqlCipher.writableDatabase.close()
+  }
+
+  @Test
+  fun `put when nothing was invalidated, cache the record`() {
+    val record = record(id = 1, threadId = 1)
+
+    cache.put(MessageId(1, false), record, null, cache.generation)
+
+    assertEquals(record, cache.get(MessageId(1, false))?.record)
+  }
+
+  @Test
+  fun `put when the message was invalidated during the load, drop the record`() {
+    val generation = cache.generation
+    val record = record(id = 1, threadId = 1)
+
+    cache.invalidate(MessageId(1, false))
+    cache.put(MessageId(1, false), record, null, generation)
+
+    assertNull(cache.get(MessageId(1, false)))
+  }
+
+  @Test
+  fun `put when the thread was invalidated during the load, drop the record`() {
+    val generation = cache.generation
+
+    cache.invalidateThreads(listOf(1L, 2L))
+    cache.put(MessageId(1, false), record(id = 1, threadId = 2), null, generation)
+
+    assertNull(cache.get(MessageId(1, false)))
+  }
+
+  @Test
+  fun `put when everything was invalidated during the load, drop the record`() {
+    val generation = cache.generation
+
+    cache.invalidateAll()
+    cache.put(MessageId(1, false), record(id = 1, threadId = 1), null, generation)
+
+    assertNull(cache.get(MessageId(1, false)))
+  }
+
+  @Test
+  fun `put when a different thread or message was invalidated during the load, cache the record`() {
+    val generation = cache.generation
+
+    cache.invalidateThread(2)
+    cache.invalidate(MessageId(1, true))
+    cache.put(MessageId(1, false), record(id = 1, threadId = 1), null, generation)
+
+    assertNotNull(cache.get(MessageId(1, false)))
+  }
+
+  @Test
+  fun `put when too many other invalidations to remember happened during the load, drop the record`() {
+    val generation = cache.generation
+
+    for (i in 2L..1_001L) {
+      cache.invalidate(MessageId(i, false))
+    }
+
+    cache.put(MessageId(1, false), record(id = 1, threadId = 1), null, generation)
+    assertNotNull(cache.get(MessageId(1, false)))
+
+    cache.invalidate(MessageId(1_002, false))
+    cache.put(MessageId(5_000, false), record(id = 5_000, threadId = 1), null, generation)
+    assertNull(cache.get(MessageId(5_000, false)))
+  }
+
+  @Test
+  fun `invalidations in a transaction are repeated when it commits`() {
+    val db = sqlCipher.signalWritableDatabase
+    val stale = record(id = 1, threadId = 1)
+
+    db.beginTransaction()
+    try {
+      cache.invalidateThread(1)
+
+      val generation = cache.generation
+      cache.put(MessageId(1, false), stale, null, generation)
+      assertNotNull(cache.get(MessageId(1, false)))
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertNull(cache.get(MessageId(1, false)))
+  }
+
+  @Test
+  fun `invalidations in a transaction are repeated when it rolls back`() {
+    val db = sqlCipher.signalWritableDatabase
+    val stale = record(id = 1, threadId = 1)
+    var generation = 0L
+
+    db.beginTransaction()
+    try {
+      cache.invalidate(MessageId(1, false))
+
+      generation = cache.generation
+      cache.put(MessageId(1, false), stale, null, generation)
+    } finally {
+      db.endTransaction()
+    }
+
+    assertNull(cache.get(MessageId(1, false)))
+
+    cache.put(MessageId(1, false), stale, null, generation)
+    assertNull(cache.get(MessageId(1, false)))
+  }
+
+  @Test
+  fun `put when full, evict the oldest record`() {
+    val generation = cache.generation
+
+    for (i in 1L..501L) {
+      cache.put(MessageId(i, false), record(id = i, threadId = 1), null, generation)
+    }
+
+    assertNull(cache.get(MessageId(1, false)))
+    assertNotNull(cache.get(MessageId(2, false)))
+    assertNotNull(cache.get(MessageId(501, false)))
+  }
+
+  @Test
+  fun `getStats counts hits and misses`() {
+    cache.put(MessageId(1, false), record(id = 1, threadId = 1), null, cache.generation)
+
+    cache.get(MessageId(1, false))
+    cache.get(MessageId(1, false))
+    cache.get(MessageId(1, false))
+    cache.get(MessageId(2, false))
+
+    assertEquals("size: 1, hits: 3, misses: 1, hit rate: 75%", cache.stats)
+  }
+
+  private fun record(id: Long, threadId: Long): MessageRecord {
+    val record = mock(MessageRecord::class.java)
+
+    `when`(record.id).thenReturn(id)
+    `when`(record.threadId).thenReturn(threadId)
+
+    return record
+  }
+}
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.database
 
 import android.app.Application
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import androidx.test.core.app.ApplicationProvider
 import org.junit.After
@@ -12,6 +13,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.database.model.ConversationAnchor
 import org.thoughtcrime.securesms.testing.TestDatabaseUtil
 import org.thoughtcrime.securesms.util.CursorUtil
 
@@ -76,4 +78,177 @@ class MmsSmsDatabaseTest {
       assertTrue(CursorUtil.requireBoolean(cursor, MmsSmsDatabase.TRANSPORT))
     }
   }
+
+  @Test
+  fun `isSnippetType agrees with getConversationSnippet for ignored SMS types`() {
+    val timestamp = System.currentTimeMillis()
+    val ignored = MmsSmsColumns.Types.PROFILE_CHANGE_TYPE
+
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = timestamp)
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = timestamp + 1, type = ignored)
+
+    mmsSmsDatabase.getConversationSnippetCursor(1).use { cursor ->
+      cursor.moveToFirst()
+      assertEquals(1, CursorUtil.requireLong(cursor, MmsSmsColumns.ID))
+    }
+
+    assertTrue(MmsSmsDatabase.isSnippetType(MmsSmsColumns.Types.BASE_INBOX_TYPE, false))
+    assertFalse(MmsSmsDatabase.isSnippetType(ignored, false))
+  }
+
+  @Test
+  fun `isSnippetType is false for GV2 leave updates in either table`() {
+    val leave = MmsSmsColumns.Types.BASE_SENDING_TYPE or MmsSmsColumns.Types.SECURE_MESSAGE_BIT or MmsSmsColumns.Types.PUSH_MESSAGE_BIT or MmsSmsColumns.Types.GROUP_V2_LEAVE_BITS
+
+    assertFalse(MmsSmsDatabase.isSnippetType(leave, false))
+    assertFalse(MmsSmsDatabase.isSnippetType(leave, true))
+  }
+
+  @Test
+  fun `isMeaningfulType is false for end session SMS but true for any MMS`() {
+    val endSession = MmsSmsColumns.Types.BASE_INBOX_TYPE or MmsSmsColumns.Types.END_SESSION_BIT
+
+    assertFalse(MmsSmsDatabase.isMeaningfulType(endSession, false))
+    assertTrue(MmsSmsDatabase.isMeaningfulType(endSession, true))
+    assertTrue(MmsSmsDatabase.isMeaningfulType(MmsSmsColumns.Types.BASE_INBOX_TYPE, false))
+  }
+
+  @Test
+  fun `getTrimCutoffDate returns the date of the nth newest message across both tables`() {
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = 1)
+    TestMms.insertMmsMessage(db, receivedTimestampMillis = 2)
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = 3)
+    TestMms.insertMmsMessage(db, receivedTimestampMillis = 4)
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = 100, threadId = 2)
+
+    assertEquals(4L, mmsSmsDatabase.getTrimCutoffDate(1, 1))
+    assertEquals(2L, mmsSmsDatabase.getTrimCutoffDate(1, 3))
+    assertEquals(1L, mmsSmsDatabase.getTrimCutoffDate(1, 4))
+  }
+
+  @Test
+  fun `getTrimCutoffDate when thread is shorter than the length, return no trim`() {
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = 1)
+    TestMms.insertMmsMessage(db, receivedTimestampMillis = 2)
+
+    assertEquals(ThreadDatabase.NO_TRIM_BEFORE_DATE_SET, mmsSmsDatabase.getTrimCutoffDate(1, 3))
+  }
+
+  @Test
+  fun `getConversationAfter pages through messages with the same date_received in conversation order`() {
+    repeat(5) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = 100)
+      TestMms.insertMmsMessage(db, receivedTimestampMillis = 100)
+    }
+
+    val expected = getFullConversation()
+    val paged = mutableListOf(expected.first())
+
+    while (true) {
+      val page = mmsSmsDatabase.getConversationAfter(1, paged.last(), 0, 3).use { it.toAnchors() }
+      if (page.isEmpty()) {
+        break
+      }
+      paged += page
+    }
+
+    assertEquals(10, expected.size)
+    assertEquals(expected, paged)
+  }
+
+  @Test
+  fun `getConversationBefore pages through messages with the same date_received in conversation order`() {
+    repeat(5) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = 100)
+      TestMms.insertMmsMessage(db, receivedTimestampMillis = 100)
+    }
+
+    val expected = getFullConversation()
+    val paged = mutableListOf(expected.last())
+
+    while (true) {
+      val page = mmsSmsDatabase.getConversationBefore(1, paged.first(), 0, 3).use { it.toAnchors() }
+      if (page.isEmpty()) {
+        break
+      }
+      paged.addAll(0, page)
+    }
+
+    assertEquals(expected, paged)
+  }
+
+  @Test
+  fun `getConversationAfter and getConversationBefore interleave SMS and MMS by date_received`() {
+    for (i in 0 until 4) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = 10L * i + 1)
+      TestMms.insertMmsMessage(db, receivedTimestampMillis = 10L * i + 2)
+    }
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = 100, threadId = 2)
+
+    val expected = getFullConversation()
+
+    assertEquals(listOf(true, false, true, false, true, false, true, false), expected.map { it.isMms })
+    assertEquals(expected.subList(1, 8), mmsSmsDatabase.getConversationAfter(1, expected[0], 0, 10).use { it.toAnchors() })
+    assertEquals(expected.subList(0, 7), mmsSmsDatabase.getConversationBefore(1, expected[7], 0, 10).use { it.toAnchors() })
+  }
+
+  @Test
+  fun `getConversationAfter and getConversationBefore leave out skipped messages`() {
+    for (i in 0 until 10) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = i / 3L)
+      TestMms.insertMmsMessage(db, receivedTimestampMillis = i / 2L)
+    }
+
+    val expected = getFullConversation()
+
+    for (skip in 0..4) {
+      assertEquals(expected.subList(6 + skip, 10 + skip), mmsSmsDatabase.getConversationAfter(1, expected[5], skip.toLong(), 4).use { it.toAnchors() })
+      assertEquals(expected.subList(10 - skip, 14 - skip), mmsSmsDatabase.getConversationBefore(1, expected[14], skip.toLong(), 4).use { it.toAnchors() })
+    }
+  }
+
+  @Test
+  fun `getConversationAfter near the end of the conversation returns a short page`() {
+    for (i in 1..6) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = i.toLong())
+    }
+
+    val expected = getFullConversation()
+
+    assertEquals(expected.subList(4, 6), mmsSmsDatabase.getConversationAfter(1, expected[2], 1, 10).use { it.toAnchors() })
+    assertEquals(0, mmsSmsDatabase.getConversationAfter(1, expected[2], 3, 10).use { it.count })
+    assertEquals(0, mmsSmsDatabase.getConversationAfter(1, expected[5], 0, 10).use { it.count })
+    assertEquals(0, mmsSmsDatabase.getConversationBefore(1, expected[0], 0, 10).use { it.count })
+  }
+
+  @Test
+  fun `getConversationCountAfter counts the messages after the anchor up to the limit`() {
+    for (i in 1..6) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = i.toLong())
+    }
+
+    val expected = getFullConversation()
+
+    assertEquals(3, mmsSmsDatabase.getConversationCountAfter(1, expected[2], 10))
+    assertEquals(2, mmsSmsDatabase.getConversationCountAfter(1, expected[2], 2))
+    assertEquals(0, mmsSmsDatabase.getConversationCountAfter(1, expected[5], 10))
+  }
+
+  private fun getFullConversation(): List<ConversationAnchor> {
+    return mmsSmsDatabase.getConversation(1).use { it.toAnchors() }
+  }
+
+  private fun Cursor.toAnchors(): List<ConversationAnchor> {
+    val anchors = mutableListOf<ConversationAnchor>()
+
+    while (moveToNext()) {
+      anchors += ConversationAnchor(
+        CursorUtil.requireLong(this, MmsSmsColumns.NORMALIZED_DATE_RECEIVED),
+        CursorUtil.requireLong(this, MmsSmsColumns.ID),
+        CursorUtil.requireString(this, MmsSmsDatabase.TRANSPORT) == MmsSmsDatabase.MMS_TRANSPORT
+      )
+    }
+
+    return anchors
+  }
 }
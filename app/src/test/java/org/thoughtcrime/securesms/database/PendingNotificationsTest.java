@@ -0,0 +1,113 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.model.MessageId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PendingNotificationsTest {
+
+  @Test
+  public void empty() {
+    PendingNotifications pending = new PendingNotifications();
+
+    assertTrue(pending.getConversations().isEmpty());
+    assertTrue(pending.getVerboseConversations().isEmpty());
+    assertFalse(pending.hasConversationList());
+    assertTrue(pending.getMessageUpdates().isEmpty());
+    assertTrue(pending.getMessageInserts().isEmpty());
+    assertEquals(0, pending.getRequestedCount());
+    assertEquals(0, pending.getCoalescedCount());
+  }
+
+  @Test
+  public void addConversation_mergesThreads() {
+    PendingNotifications pending = new PendingNotifications();
+
+    pending.addConversation(1);
+    pending.addConversation(2);
+    pending.addConversation(1);
+    pending.addConversation(3);
+    pending.addConversation(2);
+
+    assertEquals(new LinkedHashSet<>(Arrays.asList(1L, 2L, 3L)), pending.getConversations());
+    assertEquals(5, pending.getRequestedCount());
+    assertEquals(2, pending.getCoalescedCount());
+  }
+
+  @Test
+  public void addConversation_supersedesVerbose() {
+    PendingNotifications pending = new PendingNotifications();
+
+    pending.addVerboseConversation(1);
+    pending.addVerboseConversation(2);
+    pending.addConversation(1);
+
+    assertEquals(Collections.singleton(1L), pending.getConversations());
+    assertEquals(Collections.singleton(2L), pending.getVerboseConversations());
+    assertEquals(3, pending.getRequestedCount());
+    assertEquals(1, pending.getCoalescedCount());
+  }
+
+  @Test
+  public void addVerboseConversation_isDroppedWhenConversationPending() {
+    PendingNotifications pending = new PendingNotifications();
+
+    pending.addConversation(1);
+    pending.addVerboseConversation(1);
+    pending.addVerboseConversation(2);
+    pending.addVerboseConversation(2);
+
+    assertEquals(Collections.singleton(1L), pending.getConversations());
+    assertEquals(Collections.singleton(2L), pending.getVerboseConversations());
+    assertEquals(4, pending.getRequestedCount());
+    assertEquals(2, pending.getCoalescedCount());
+  }
+
+  @Test
+  public void addConversationList_onlyOnce() {
+    PendingNotifications pending = new PendingNotifications();
+
+    pending.addConversationList();
+    pending.addConversationList();
+    pending.addConversationList();
+
+    assertTrue(pending.hasConversationList());
+    assertEquals(3, pending.getRequestedCount());
+    assertEquals(2, pending.getCoalescedCount());
+  }
+
+  @Test
+  public void addMessageUpdate_keepsSmsAndMmsApart() {
+    PendingNotifications pending = new PendingNotifications();
+
+    pending.addMessageUpdate(new MessageId(1, false));
+    pending.addMessageUpdate(new MessageId(1, true));
+    pending.addMessageUpdate(new MessageId(1, false));
+
+    assertEquals(new LinkedHashSet<>(Arrays.asList(new MessageId(1, false), new MessageId(1, true))), pending.getMessageUpdates());
+    assertEquals(1, pending.getCoalescedCount());
+  }
+
+  @Test
+  public void addMessageInsert_groupedByThread() {
+    PendingNotifications pending = new PendingNotifications();
+
+    pending.addMessageInsert(1, new MessageId(10, false));
+    pending.addMessageInsert(2, new MessageId(11, true));
+    pending.addMessageInsert(1, new MessageId(12, true));
+    pending.addMessageInsert(1, new MessageId(10, false));
+
+    assertEquals(2, pending.getMessageInserts().size());
+    assertEquals(new LinkedHashSet<>(Arrays.asList(new MessageId(10, false), new MessageId(12, true))), pending.getMessageInserts().get(1L));
+    assertEquals(Collections.singleton(new MessageId(11, true)), pending.getMessageInserts().get(2L));
+    assertEquals(4, pending.getRequestedCount());
+    assertEquals(1, pending.getCoalescedCount());
+  }
+}
@@ -0,0 +1,155 @@
+package org.thoughtcrime.securesms.database
+
+import android.app.Application
+import android.content.ContentValues
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.ProxySQLCipherOpenHelper
+import org.thoughtcrime.securesms.testing.TestDatabaseUtil
+import android.database.sqlite.SQLiteDatabase as AndroidSQLiteDatabase
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class ReactionDatabaseTest {
+
+  private lateinit var db: AndroidSQLiteDatabase
+  private lateinit var sqlCipher: ProxySQLCipherOpenHelper
+  private lateinit var reactionDatabase: ReactionDatabase
+
+  @Before
+  fun setup() {
+    sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(RecipientDatabase.CREATE_TABLE)
+      execSQL(SmsDatabase.CREATE_TABLE)
+      execSQL(MmsDatabase.CREATE_TABLE)
+      execSQL(ReactionDatabase.CREATE_TABLE)
+      ReactionDatabase.CREATE_TRIGGERS.forEach { execSQL(it) }
+    }
+
+    db = sqlCipher.writableDatabase
+    reactionDatabase = ReactionDatabase(ApplicationProvider.getApplicationContext(), sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `addReaction replaces the author's previous reaction`() {
+    val messageId = MessageId(1, false)
+
+    addReaction(messageId, reaction("a", 1))
+    addReaction(messageId, reaction("b", 1))
+
+    val reactions = reactionDatabase.getReactions(messageId)
+    assertEquals(1, reactions.size)
+    assertEquals("b", reactions[0].emoji)
+  }
+
+  @Test
+  fun `getReactionsForMessages keeps sms and mms with the same id apart`() {
+    addReaction(MessageId(1, false), reaction("a", 1))
+    addReaction(MessageId(1, true), reaction("b", 1))
+    addReaction(MessageId(1, true), reaction("c", 2))
+    addReaction(MessageId(2, true), reaction("d", 1))
+
+    val reactions = reactionDatabase.getReactionsForMessages(listOf(MessageId(1, false), MessageId(1, true), MessageId(3, false)))
+
+    assertEquals(2, reactions.size)
+    assertEquals(listOf("a"), reactions[MessageId(1, false)]!!.map { it.emoji })
+    assertEquals(setOf("b", "c"), reactions[MessageId(1, true)]!!.map { it.emoji }.toSet())
+  }
+
+  @Test
+  fun `getReactionsForMessages with only one message type`() {
+    addReaction(MessageId(1, true), reaction("a", 1))
+
+    val reactions = reactionDatabase.getReactionsForMessages(listOf(MessageId(1, true)))
+
+    assertEquals(1, reactions.size)
+  }
+
+  @Test
+  fun `deleteReaction only removes the author's reaction`() {
+    val messageId = MessageId(1, true)
+
+    addReaction(messageId, reaction("a", 1))
+    addReaction(messageId, reaction("b", 2))
+    reactionDatabase.deleteReaction(sqlCipher.signalWritableDatabase, messageId, RecipientId.from(1))
+
+    assertEquals(listOf("b"), reactionDatabase.getReactions(messageId).map { it.emoji })
+    assertTrue(reactionDatabase.hasReactions(sqlCipher.signalReadableDatabase, messageId))
+    assertFalse(reactionDatabase.hasReaction(messageId, reaction("a", 1)))
+    assertTrue(reactionDatabase.hasReaction(messageId, reaction("b", 2)))
+  }
+
+  @Test
+  fun `deleting a message deletes its reactions`() {
+    val smsId = TestSms.insertSmsMessage(db)
+    val mmsId = TestMms.insertMmsMessage(db)
+
+    addReaction(MessageId(smsId, false), reaction("a", 1))
+    addReaction(MessageId(mmsId, true), reaction("b", 1))
+
+    db.delete(SmsDatabase.TABLE_NAME, null, null)
+
+    assertTrue(reactionDatabase.getReactions(MessageId(smsId, false)).isEmpty())
+    assertEquals(1, reactionDatabase.getReactions(MessageId(mmsId, true)).size)
+  }
+
+  @Test
+  fun `remapAuthor keeps reactions when the old author is deleted`() {
+    db.setForeignKeyConstraintsEnabled(true)
+    insertRecipient(1)
+    insertRecipient(2)
+
+    addReaction(MessageId(1, true), reaction("a", 1))
+    addReaction(MessageId(2, true), reaction("b", 2))
+
+    reactionDatabase.remapAuthor(sqlCipher.signalWritableDatabase, RecipientId.from(1), RecipientId.from(2))
+    db.delete(RecipientDatabase.TABLE_NAME, "_id = ?", arrayOf("1"))
+
+    assertEquals(listOf(RecipientId.from(2)), reactionDatabase.getReactions(MessageId(1, true)).map { it.author })
+    assertEquals(listOf("b"), reactionDatabase.getReactions(MessageId(2, true)).map { it.emoji })
+  }
+
+  @Test
+  fun `remapAuthor keeps the latest reaction when both authors reacted`() {
+    val messageId = MessageId(1, true)
+
+    addReaction(messageId, ReactionRecord("old", RecipientId.from(1), 1, 2))
+    addReaction(messageId, ReactionRecord("new", RecipientId.from(2), 1, 3))
+    addReaction(MessageId(2, true), ReactionRecord("new", RecipientId.from(1), 1, 3))
+    addReaction(MessageId(2, true), ReactionRecord("old", RecipientId.from(2), 1, 2))
+
+    reactionDatabase.remapAuthor(sqlCipher.signalWritableDatabase, RecipientId.from(1), RecipientId.from(2))
+
+    assertEquals(listOf("new"), reactionDatabase.getReactions(messageId).map { it.emoji })
+    assertEquals(listOf("new"), reactionDatabase.getReactions(MessageId(2, true)).map { it.emoji })
+    assertEquals(listOf(RecipientId.from(2)), reactionDatabase.getReactions(MessageId(2, true)).map { it.author })
+  }
+
+  private fun insertRecipient(id: Long) {
+    db.insert(RecipientDatabase.TABLE_NAME, null, ContentValues().apply { put("_id", id) })
+  }
+
+  private fun addReaction(messageId: MessageId, reaction: ReactionRecord) {
+    reactionDatabase.addReaction(sqlCipher.signalWritableDatabase, messageId, reaction)
+  }
+
+  private fun reaction(emoji: String, author: Long): ReactionRecord {
+    return ReactionRecord(emoji, RecipientId.from(author), 1, 2)
+  }
+}
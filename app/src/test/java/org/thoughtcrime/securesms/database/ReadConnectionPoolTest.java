@@ -0,0 +1,152 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadConnectionPoolTest {
+
+  @Test
+  public void acquire_opensLazily() {
+    TestConnector                      connector = new TestConnector();
+    ReadConnectionPool<TestConnection> pool      = new ReadConnectionPool<>(3, connector);
+
+    assertEquals(0, connector.opened.get());
+
+    pool.acquire();
+
+    assertEquals(1, connector.opened.get());
+    assertEquals(1, pool.getStats().getOpenCount());
+  }
+
+  @Test
+  public void acquire_reusesReleasedConnection() {
+    ReadConnectionPool<TestConnection> pool = new ReadConnectionPool<>(3, new TestConnector());
+
+    TestConnection first = pool.acquire();
+    pool.release(first);
+
+    assertSame(first, pool.acquire());
+    assertEquals(1, pool.getStats().getOpenCount());
+    assertEquals(2, pool.getStats().getAcquisitions());
+    assertEquals(0, pool.getStats().getWaits());
+  }
+
+  @Test
+  public void acquire_opensUpToSize() {
+    TestConnector                      connector = new TestConnector();
+    ReadConnectionPool<TestConnection> pool      = new ReadConnectionPool<>(2, connector);
+
+    TestConnection first  = pool.acquire();
+    TestConnection second = pool.acquire();
+
+    assertNotSame(first, second);
+    assertEquals(2, connector.opened.get());
+  }
+
+  @Test
+  public void acquire_whenExhausted_waitsForRelease() throws InterruptedException {
+    ReadConnectionPool<TestConnection> pool     = new ReadConnectionPool<>(1, new TestConnector());
+    TestConnection                     held     = pool.acquire();
+    AtomicReference<TestConnection>    acquired = new AtomicReference<>();
+    CountDownLatch                     done     = new CountDownLatch(1);
+
+    Thread waiter = new Thread(() -> {
+      acquired.set(pool.acquire());
+      done.countDown();
+    });
+    waiter.start();
+
+    assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+    pool.release(held);
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertSame(held, acquired.get());
+    assertEquals(1, pool.getStats().getWaits());
+    assertTrue(pool.getStats().getMaxWaitMillis() >= 50);
+  }
+
+  @Test
+  public void acquire_whenOpenFails_freesSlot() {
+    TestConnector                      connector = new TestConnector();
+    ReadConnectionPool<TestConnection> pool      = new ReadConnectionPool<>(1, connector);
+
+    connector.failNext = true;
+
+    try {
+      pool.acquire();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    assertEquals(0, pool.getStats().getOpenCount());
+    pool.acquire();
+    assertEquals(1, pool.getStats().getOpenCount());
+  }
+
+  @Test
+  public void close_closesIdleConnectionsNow_andHeldConnectionsOnRelease() {
+    ReadConnectionPool<TestConnection> pool = new ReadConnectionPool<>(2, new TestConnector());
+
+    TestConnection idle = pool.acquire();
+    TestConnection held = pool.acquire();
+    pool.release(idle);
+
+    pool.close();
+
+    assertTrue(idle.closed);
+    assertFalse(held.closed);
+
+    pool.release(held);
+
+    assertTrue(held.closed);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void acquire_afterClose_throws() {
+    ReadConnectionPool<TestConnection> pool = new ReadConnectionPool<>(1, new TestConnector());
+
+    pool.close();
+    pool.acquire();
+  }
+
+  private static final class TestConnector implements ReadConnectionPool.Connector<TestConnection> {
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private volatile boolean failNext;
+
+    @Override
+    public @NonNull TestConnection open() {
+      if (failNext) {
+        failNext = false;
+        throw new IllegalStateException("Failed to open!");
+      }
+
+      opened.incrementAndGet();
+      return new TestConnection();
+    }
+
+    @Override
+    public void close(@NonNull TestConnection connection) {
+      connection.closed = true;
+    }
+  }
+
+  private static final class TestConnection {
+    private volatile boolean closed;
+  }
+}
@@ -0,0 +1,197 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.MatrixCursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class SlowQueryLogTest {
+
+  private static final String SQL = "SELECT * FROM sms WHERE body = 'hi'";
+
+  private TestExecutor explainExecutor;
+  private SlowQueryLog subject;
+  private List<String> explained;
+
+  @Before
+  public void setUp() {
+    explainExecutor = new TestExecutor();
+    subject         = new SlowQueryLog(explainExecutor);
+    explained       = new ArrayList<>();
+  }
+
+  @Test
+  public void onStatementComplete_ignoresFastStatementsWithoutDescribingThem() {
+    subject.onStatementComplete(planOf("SCAN sms"), SlowQueryLog.SLOW_STATEMENT_NANOS - 1, () -> {
+      throw new AssertionError("Described a fast statement!");
+    });
+
+    assertEquals(0, subject.getSnapshot().getSlowStatementCount());
+    assertTrue(subject.getSnapshot().getStatements().isEmpty());
+    assertEquals(0, explainExecutor.pending());
+  }
+
+  @Test
+  public void onStatementComplete_capturesPlanInBackground() {
+    subject.onStatementComplete(planOf("SCAN sms"), SlowQueryLog.SLOW_STATEMENT_NANOS, this::describe);
+
+    SlowQueryLog.SlowStatement pending = subject.getSnapshot().getStatements().get(0);
+
+    assertEquals("SELECT * FROM sms WHERE body = ?", pending.getSql());
+    assertEquals(Collections.singletonList("(pending)"), pending.getPlan());
+    assertTrue(explained.isEmpty());
+
+    explainExecutor.runAll();
+
+    SlowQueryLog.SlowStatement explainedStatement = subject.getSnapshot().getStatements().get(0);
+
+    assertEquals(Collections.singletonList("EXPLAIN QUERY PLAN " + SQL), explained);
+    assertEquals(Collections.singletonList("SCAN sms"), explainedStatement.getPlan());
+    assertTrue(explainedStatement.isFullScan());
+    assertEquals("(text)", explainedStatement.getLastArgumentShape());
+    assertEquals(1, subject.getSnapshot().getFullScanCount());
+  }
+
+  @Test
+  public void onStatementComplete_explainsEachStatementOnlyOnce() {
+    SlowQueryLog.QueryRunner runner = planOf("SEARCH sms USING INDEX sms_thread_id_index (thread_id=?)");
+
+    subject.onStatementComplete(runner, SlowQueryLog.SLOW_STATEMENT_NANOS, this::describe);
+    subject.onStatementComplete(runner, SlowQueryLog.SLOW_STATEMENT_NANOS * 2, this::describe);
+    explainExecutor.runAll();
+
+    SlowQueryLog.SlowStatement statement = subject.getSnapshot().getStatements().get(0);
+
+    assertEquals(1, explained.size());
+    assertEquals(2, statement.getCount());
+    assertFalse(statement.isFullScan());
+    assertEquals(0, subject.getSnapshot().getFullScanCount());
+    assertEquals(2, subject.getSnapshot().getSlowStatementCount());
+  }
+
+  @Test
+  public void onStatementComplete_countsFullScansFromBeforeThePlanWasCaptured() {
+    SlowQueryLog.QueryRunner runner = planOf("SCAN sms");
+
+    subject.onStatementComplete(runner, SlowQueryLog.SLOW_STATEMENT_NANOS, this::describe);
+    subject.onStatementComplete(runner, SlowQueryLog.SLOW_STATEMENT_NANOS, this::describe);
+    explainExecutor.runAll();
+
+    subject.onStatementComplete(runner, SlowQueryLog.SLOW_STATEMENT_NANOS, this::describe);
+
+    assertEquals(3, subject.getSnapshot().getFullScanCount());
+  }
+
+  @Test
+  public void onStatementComplete_keepsStatementWhenPlanFails() {
+    subject.onStatementComplete((sql, args) -> {
+      throw new IllegalStateException("No database!");
+    }, SlowQueryLog.SLOW_STATEMENT_NANOS, this::describe);
+
+    explainExecutor.runAll();
+
+    SlowQueryLog.SlowStatement statement = subject.getSnapshot().getStatements().get(0);
+
+    assertEquals(Collections.singletonList("(plan unavailable: IllegalStateException)"), statement.getPlan());
+    assertFalse(statement.isFullScan());
+  }
+
+  @Test
+  public void normalize_stripsLiteralsAndWhitespace() {
+    assertEquals("SELECT * FROM sms WHERE thread_id = ? AND body = ? LIMIT ?",
+                 SlowQueryLog.normalize("SELECT *  FROM sms\n WHERE thread_id = 12 AND body = 'it''s' LIMIT 50"));
+  }
+
+  @Test
+  public void normalize_keepsNumbersInIdentifiers() {
+    assertEquals("SELECT mms.part_count FROM mms WHERE _id > ?",
+                 SlowQueryLog.normalize("SELECT mms.part_count FROM mms WHERE _id > -1"));
+  }
+
+  @Test
+  public void getArgumentShape_listsTypes() {
+    assertEquals("(int, int-text, text, real, blob, null)",
+                 SlowQueryLog.getArgumentShape(new Object[] { 1L, "42", "hello", 1.5, new byte[3], null }));
+  }
+
+  @Test
+  public void getArgumentShape_summarizesLongLists() {
+    Object[] args = new Object[20];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = String.valueOf(i);
+    }
+    args[0] = null;
+
+    assertEquals("(20 args: 1xnull 19xint-text)", SlowQueryLog.getArgumentShape(args));
+  }
+
+  @Test
+  public void getArgumentShape_unknownArguments() {
+    assertEquals("(unknown)", SlowQueryLog.getArgumentShape(null));
+    assertEquals("()", SlowQueryLog.getArgumentShape(new Object[0]));
+  }
+
+  @Test
+  public void isFullScan() {
+    assertTrue(SlowQueryLog.isFullScan("SCAN TABLE sms"));
+    assertTrue(SlowQueryLog.isFullScan("SCAN sms"));
+    assertFalse(SlowQueryLog.isFullScan("SCAN TABLE sms USING INDEX sms_thread_date_index"));
+    assertFalse(SlowQueryLog.isFullScan("SCAN sms USING COVERING INDEX sms_thread_id_index"));
+    assertFalse(SlowQueryLog.isFullScan("SEARCH sms USING INDEX sms_thread_id_index (thread_id=?)"));
+    assertFalse(SlowQueryLog.isFullScan("SCAN CONSTANT ROW"));
+    assertFalse(SlowQueryLog.isFullScan("SCAN SUBQUERY 1"));
+    assertFalse(SlowQueryLog.isFullScan("USE TEMP B-TREE FOR ORDER BY"));
+  }
+
+  private SlowQueryLog.Description describe() {
+    return new SlowQueryLog.Description(SQL, new Object[] { "hi" });
+  }
+
+  private SlowQueryLog.QueryRunner planOf(String... steps) {
+    return (sql, args) -> {
+      explained.add(sql);
+
+      MatrixCursor cursor = new MatrixCursor(new String[] { "id", "parent", "notused", "detail" });
+      for (int i = 0; i < steps.length; i++) {
+        cursor.addRow(new Object[] { i, 0, 0, steps[i] });
+      }
+      return cursor;
+    };
+  }
+
+  private static final class TestExecutor implements Executor {
+
+    private final LinkedList<Runnable> tasks = new LinkedList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.removeFirst().run();
+      }
+    }
+
+    int pending() {
+      return tasks.size();
+    }
+  }
+}
@@ -81,4 +81,45 @@ class SmsDatabaseTest {
     TestSms.insertSmsMessage(db, type = MmsSmsColumns.Types.BASE_INBOX_TYPE or MmsSmsColumns.Types.GROUP_V2_LEAVE_BITS)
     assertFalse(smsDatabase.hasMeaningfulMessage(1))
   }
+
+  @Test
+  fun `deleteMessagesInThreadBeforeDate deletes at most the limit, oldest thread messages only`() {
+    for (i in 1..5) {
+      TestSms.insertSmsMessage(db, receivedTimestampMillis = i.toLong())
+    }
+    TestSms.insertSmsMessage(db, receivedTimestampMillis = 1, threadId = 2)
+
+    assertThat(smsDatabase.deleteMessagesInThreadBeforeDate(1, 5, 3), isEqual(3))
+    assertThat(smsDatabase.deleteMessagesInThreadBeforeDate(1, 5, 3), isEqual(1))
+    assertThat(smsDatabase.deleteMessagesInThreadBeforeDate(1, 5, 3), isEqual(0))
+
+    assertTrue(smsDatabase.hasMeaningfulMessage(1))
+    assertTrue(smsDatabase.hasMeaningfulMessage(2))
+  }
+
+  @Test
+  fun `getExpirationStartedMessages returns only started timers, soonest first`() {
+    val notStarted = TestSms.insertSmsMessage(db, expiresInMillis = 1000)
+    val later = TestSms.insertSmsMessage(db, expiresInMillis = 1000)
+    val sooner = TestSms.insertSmsMessage(db, expiresInMillis = 5000)
+
+    db.execSQL("UPDATE ${SmsDatabase.TABLE_NAME} SET ${MmsSmsColumns.EXPIRE_STARTED} = 4500 WHERE ${MmsSmsColumns.ID} = $later")
+    db.execSQL("UPDATE ${SmsDatabase.TABLE_NAME} SET ${MmsSmsColumns.EXPIRE_STARTED} = 100 WHERE ${MmsSmsColumns.ID} = $sooner")
+
+    val expiring = smsDatabase.expirationStartedMessages
+
+    assertThat(expiring.map { it.id }, isEqual(listOf(sooner, later)))
+    assertFalse(expiring.any { it.id == notStarted || it.isMms })
+  }
+
+  @Test
+  fun `deleteMessagesWithoutThreadUpdate returns the threads of the deleted messages`() {
+    val first = TestSms.insertSmsMessage(db, threadId = 1)
+    val second = TestSms.insertSmsMessage(db, threadId = 2)
+    TestSms.insertSmsMessage(db, threadId = 3)
+
+    assertThat(smsDatabase.deleteMessagesWithoutThreadUpdate(listOf(first, second)), isEqual(setOf(1L, 2L)))
+    assertFalse(smsDatabase.hasMeaningfulMessage(1))
+    assertTrue(smsDatabase.hasMeaningfulMessage(3))
+  }
 }
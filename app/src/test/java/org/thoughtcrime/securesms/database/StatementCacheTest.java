@@ -0,0 +1,188 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+
+  private static final String SELECT = "SELECT 1";
+  private static final String INSERT = "INSERT INTO t VALUES (?)";
+  private static final String UPDATE = "UPDATE t SET a = ?";
+
+  private final TestCompiler compiler = new TestCompiler();
+  private final TestDatabase database = new TestDatabase();
+
+  @Test
+  public void acquire_whenEmpty_compilesAndCountsMiss() {
+    StatementCache<TestDatabase, TestStatement> cache = new StatementCache<>(2, compiler);
+
+    TestStatement statement = cache.acquire(database, SELECT);
+
+    assertSame(database, statement.database);
+    assertEquals(SELECT, statement.sql);
+    assertEquals(1, compiler.compiled.size());
+    assertEquals(0, cache.getStats().getHits());
+    assertEquals(1, cache.getStats().getMisses());
+  }
+
+  @Test
+  public void acquire_afterRelease_reusesStatementAndCountsHit() {
+    StatementCache<TestDatabase, TestStatement> cache = new StatementCache<>(2, compiler);
+
+    TestStatement first = cache.acquire(database, SELECT);
+    cache.release(database, SELECT, first);
+
+    assertSame(first, cache.acquire(database, SELECT));
+    assertEquals(1, compiler.compiled.size());
+    assertEquals(1, cache.getStats().getHits());
+    assertEquals(1, cache.getStats().getMisses());
+    assertEquals(0.5f, cache.getStats().getHitRate(), 0);
+  }
+
+  @Test
+  public void acquire_whileCheckedOut_compilesSecondCopy() {
+    StatementCache<TestDatabase, TestStatement> cache = new StatementCache<>(2, compiler);
+
+    TestStatement first  = cache.acquire(database, SELECT);
+    TestStatement second = cache.acquire(database, SELECT);
+
+    assertNotSame(first, second);
+    assertEquals(2, cache.getStats().getMisses());
+  }
+
+  @Test
+  public void release_whenCopyAlreadyCached_closesReleasedCopy() {
+    StatementCache<TestDatabase, TestStatement> cache = new StatementCache<>(2, compiler);
+
+    TestStatement first  = cache.acquire(database, SELECT);
+    TestStatement second = cache.acquire(database, SELECT);
+
+    cache.release(database, SELECT, first);
+    cache.release(database, SELECT, second);
+
+    assertFalse(first.closed);
+    assertTrue(second.closed);
+    assertEquals(1, cache.getStats().getSize());
+    assertEquals(0, cache.getStats().getEvictions());
+  }
+
+  @Test
+  public void release_clearsBindings() {
+    StatementCache<TestDatabase, TestStatement> cache     = new StatementCache<>(2, compiler);
+    TestStatement                               statement = cache.acquire(database, SELECT);
+
+    statement.bound = true;
+    cache.release(database, SELECT, statement);
+
+    assertFalse(statement.bound);
+  }
+
+  @Test
+  public void release_whenFull_closesAndCountsLeastRecentlyUsed() {
+    StatementCache<TestDatabase, TestStatement> cache = new StatementCache<>(2, compiler);
+
+    TestStatement select = cache.acquire(database, SELECT);
+    TestStatement insert = cache.acquire(database, INSERT);
+    TestStatement update = cache.acquire(database, UPDATE);
+
+    cache.release(database, SELECT, select);
+    cache.release(database, INSERT, insert);
+
+    cache.release(database, SELECT, cache.acquire(database, SELECT));
+    cache.release(database, UPDATE, update);
+
+    assertTrue(insert.closed);
+    assertFalse(select.closed);
+    assertFalse(update.closed);
+    assertEquals(1, cache.getStats().getEvictions());
+    assertEquals(2, cache.getStats().getSize());
+    assertEquals(1, cache.getStats().getHits());
+    assertEquals(3, cache.getStats().getMisses());
+  }
+
+  @Test
+  public void acquire_onDifferentDatabase_closesStaleStatementAndCompilesNewOne() {
+    StatementCache<TestDatabase, TestStatement> cache    = new StatementCache<>(2, compiler);
+    TestDatabase                                reopened = new TestDatabase();
+
+    TestStatement stale = cache.acquire(database, SELECT);
+    cache.release(database, SELECT, stale);
+
+    TestStatement fresh = cache.acquire(reopened, SELECT);
+
+    assertNotSame(stale, fresh);
+    assertTrue(stale.closed);
+    assertSame(reopened, fresh.database);
+    assertEquals(0, cache.getStats().getHits());
+    assertEquals(2, cache.getStats().getMisses());
+    assertEquals(1, cache.getStats().getEvictions());
+
+    cache.release(reopened, SELECT, fresh);
+
+    assertSame(fresh, cache.acquire(reopened, SELECT));
+  }
+
+  @Test
+  public void clear_closesEveryCachedStatement() {
+    StatementCache<TestDatabase, TestStatement> cache = new StatementCache<>(2, compiler);
+
+    TestStatement select = cache.acquire(database, SELECT);
+    TestStatement insert = cache.acquire(database, INSERT);
+
+    cache.release(database, SELECT, select);
+    cache.release(database, INSERT, insert);
+    cache.clear();
+
+    assertTrue(select.closed);
+    assertTrue(insert.closed);
+    assertEquals(0, cache.getStats().getSize());
+    assertNotSame(select, cache.acquire(database, SELECT));
+  }
+
+  private static final class TestDatabase {
+  }
+
+  private static final class TestStatement {
+    private final TestDatabase database;
+    private final String       sql;
+
+    private boolean bound;
+    private boolean closed;
+
+    private TestStatement(@NonNull TestDatabase database, @NonNull String sql) {
+      this.database = database;
+      this.sql      = sql;
+    }
+  }
+
+  private static final class TestCompiler implements StatementCache.Compiler<TestDatabase, TestStatement> {
+    private final List<TestStatement> compiled = new ArrayList<>();
+
+    @Override
+    public @NonNull TestStatement compile(@NonNull TestDatabase database, @NonNull String sql) {
+      TestStatement statement = new TestStatement(database, sql);
+      compiled.add(statement);
+      return statement;
+    }
+
+    @Override
+    public void clearBindings(@NonNull TestStatement statement) {
+      statement.bound = false;
+    }
+
+    @Override
+    public void close(@NonNull TestStatement statement) {
+      statement.closed = true;
+    }
+  }
+}
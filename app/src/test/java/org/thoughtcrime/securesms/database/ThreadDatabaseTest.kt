@@ -0,0 +1,324 @@
+package org.thoughtcrime.securesms.database
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.testing.ProxySQLCipherOpenHelper
+import org.thoughtcrime.securesms.testing.TestDatabaseUtil
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class ThreadDatabaseTest {
+
+  private lateinit var sqlCipher: ProxySQLCipherOpenHelper
+  private lateinit var threadDatabase: TestThreadDatabase
+
+  @Before
+  fun setup() {
+    sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(ThreadDatabase.CREATE_TABLE)
+    }
+
+    threadDatabase = TestThreadDatabase(ApplicationProvider.getApplicationContext(), sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    sqlCipher.writableDatabase.close()
+  }
+
+  @Test
+  fun `updateForInsert when the thread is unknown, recompute the summary`() {
+    val message = insert(threadId = 1, id = 1, dateReceived = 10)
+
+    threadDatabase.updateForInsert(1, message, 10, false)
+
+    assertEquals(1, threadDatabase.snippetLookups)
+    assertEquals(message, threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updateForInsert when the message is older than the snippet, leave the summary alone`() {
+    val newest = insert(threadId = 1, id = 1, dateReceived = 10)
+    threadDatabase.updateForInsert(1, newest, 10, false)
+
+    val older = insert(threadId = 1, id = 2, dateReceived = 5)
+    threadDatabase.updateForInsert(1, older, 5, false)
+
+    assertEquals(1, threadDatabase.snippetLookups)
+    assertEquals(0, threadDatabase.recordLookups)
+    assertEquals(1, threadDatabase.writes)
+    assertEquals(newest, threadDatabase.snippets[1])
+    assertEquals(1L, threadDatabase.avoidedRecomputationCount)
+  }
+
+  @Test
+  fun `updateForInsert when the message is newer than the snippet, make it the snippet without recomputing`() {
+    val older = insert(threadId = 1, id = 1, dateReceived = 10)
+    threadDatabase.updateForInsert(1, older, 10, false)
+
+    val newer = insert(threadId = 1, id = 2, dateReceived = 20, mms = true)
+    threadDatabase.updateForInsert(1, newer, 20, false)
+
+    assertEquals(1, threadDatabase.snippetLookups)
+    assertEquals(1, threadDatabase.recordLookups)
+    assertEquals(newer, threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updateForInsert when the newer message can't be a snippet, keep the old snippet without recomputing`() {
+    val snippet = insert(threadId = 1, id = 1, dateReceived = 10)
+    threadDatabase.updateForInsert(1, snippet, 10, false)
+
+    val profileChange = insert(threadId = 1, id = 2, dateReceived = 20, type = MmsSmsColumns.Types.PROFILE_CHANGE_TYPE)
+    threadDatabase.updateForInsert(1, profileChange, 20, false)
+
+    assertEquals(1, threadDatabase.snippetLookups)
+    assertEquals(1, threadDatabase.writes)
+    assertEquals(snippet, threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updateForDelete when the message is not the snippet, leave the summary alone`() {
+    val older = insert(threadId = 1, id = 1, dateReceived = 5)
+    val snippet = insert(threadId = 1, id = 2, dateReceived = 10)
+    threadDatabase.updateForInsert(1, snippet, 10, false)
+
+    delete(threadId = 1, messageId = older)
+
+    assertFalse(threadDatabase.updateForDelete(1, older))
+    assertEquals(1, threadDatabase.snippetLookups)
+    assertEquals(snippet, threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updateForDelete when the message is the snippet, recompute the summary`() {
+    val older = insert(threadId = 1, id = 1, dateReceived = 5)
+    val snippet = insert(threadId = 1, id = 2, dateReceived = 10)
+    threadDatabase.updateForInsert(1, snippet, 10, false)
+
+    delete(threadId = 1, messageId = snippet)
+
+    assertFalse(threadDatabase.updateForDelete(1, snippet))
+    assertEquals(2, threadDatabase.snippetLookups)
+    assertEquals(older, threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updateForDelete when the last message is deleted, delete the thread`() {
+    val snippet = insert(threadId = 1, id = 1, dateReceived = 10)
+    threadDatabase.updateForInsert(1, snippet, 10, false)
+
+    delete(threadId = 1, messageId = snippet)
+
+    assertTrue(threadDatabase.updateForDelete(1, snippet))
+    assertEquals(listOf(1L), threadDatabase.deletedThreads)
+
+    threadDatabase.updateForDelete(1, snippet)
+    assertEquals(3, threadDatabase.snippetLookups)
+  }
+
+  @Test
+  fun `updates in a transaction are coalesced per thread and applied once on commit`() {
+    val db = sqlCipher.signalWritableDatabase
+
+    db.beginTransaction()
+    try {
+      threadDatabase.updateForInsert(1, insert(threadId = 1, id = 1, dateReceived = 10), 10, false)
+      threadDatabase.updateForInsert(1, insert(threadId = 1, id = 2, dateReceived = 20), 20, false)
+      threadDatabase.updateForInsert(2, insert(threadId = 2, id = 3, dateReceived = 15), 15, false)
+      threadDatabase.scheduleUpdate(2, false)
+
+      assertEquals(0, threadDatabase.writes)
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(2, threadDatabase.writes)
+    assertEquals(MessageId(2, false), threadDatabase.snippets[1])
+    assertEquals(MessageId(3, false), threadDatabase.snippets[2])
+    assertEquals(1, threadDatabase.listNotifications)
+  }
+
+  @Test
+  fun `updates in a nested transaction wait for the outermost commit`() {
+    val db = sqlCipher.signalWritableDatabase
+
+    db.beginTransaction()
+    try {
+      db.beginTransaction()
+      try {
+        threadDatabase.updateForInsert(1, insert(threadId = 1, id = 1, dateReceived = 10), 10, false)
+        db.setTransactionSuccessful()
+      } finally {
+        db.endTransaction()
+      }
+
+      assertEquals(0, threadDatabase.writes)
+
+      threadDatabase.updateForInsert(1, insert(threadId = 1, id = 2, dateReceived = 20), 20, false)
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(1, threadDatabase.writes)
+    assertEquals(MessageId(2, false), threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updates in a rolled back transaction are dropped`() {
+    val snippet = insert(threadId = 1, id = 1, dateReceived = 10)
+    threadDatabase.updateForInsert(1, snippet, 10, false)
+
+    val db = sqlCipher.signalWritableDatabase
+
+    val rolledBack = insert(threadId = 1, id = 2, dateReceived = 20)
+
+    db.beginTransaction()
+    try {
+      threadDatabase.updateForInsert(1, rolledBack, 20, false)
+    } finally {
+      db.endTransaction()
+    }
+
+    delete(threadId = 1, messageId = rolledBack)
+
+    assertEquals(1, threadDatabase.writes)
+    assertEquals(snippet, threadDatabase.snippets[1])
+    assertEquals(1, threadDatabase.listNotifications)
+
+    db.beginTransaction()
+    try {
+      threadDatabase.updateForInsert(1, insert(threadId = 1, id = 3, dateReceived = 30), 30, false)
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    assertEquals(2, threadDatabase.snippetLookups)
+    assertEquals(MessageId(3, false), threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `summaries written by a transaction that rolls back are forgotten`() {
+    val db = sqlCipher.signalWritableDatabase
+
+    val rolledBack = insert(threadId = 1, id = 1, dateReceived = 10)
+
+    db.beginTransaction()
+    try {
+      db.beginTransaction()
+      try {
+        threadDatabase.updateForInsert(1, rolledBack, 10, false)
+      } finally {
+        db.endTransaction()
+      }
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+
+    delete(threadId = 1, messageId = rolledBack)
+
+    assertEquals(1, threadDatabase.snippetLookups)
+    assertEquals(0, threadDatabase.listNotifications)
+
+    val older = insert(threadId = 1, id = 2, dateReceived = 5)
+    threadDatabase.updateForInsert(1, older, 5, false)
+
+    assertEquals(2, threadDatabase.snippetLookups)
+    assertEquals(older, threadDatabase.snippets[1])
+  }
+
+  @Test
+  fun `updateForInsert when the inserted message is gone, recompute the summary`() {
+    val snippet = insert(threadId = 1, id = 1, dateReceived = 10)
+    threadDatabase.updateForInsert(1, snippet, 10, false)
+
+    threadDatabase.updateForInsert(1, MessageId(2, false), 20, false)
+
+    assertEquals(1, threadDatabase.recordLookups)
+    assertEquals(2, threadDatabase.snippetLookups)
+    assertEquals(snippet, threadDatabase.snippets[1])
+  }
+
+  private fun insert(threadId: Long, id: Long, dateReceived: Long, type: Long = MmsSmsColumns.Types.BASE_INBOX_TYPE, mms: Boolean = false): MessageId {
+    val record = mock(MessageRecord::class.java)
+
+    `when`(record.id).thenReturn(id)
+    `when`(record.isMms).thenReturn(mms)
+    `when`(record.dateReceived).thenReturn(dateReceived)
+    `when`(record.type).thenReturn(type)
+
+    threadDatabase.messages.getOrPut(threadId) { mutableListOf() }.add(record)
+
+    return MessageId(id, mms)
+  }
+
+  private fun delete(threadId: Long, messageId: MessageId) {
+    threadDatabase.messages[threadId]?.removeAll { it.id == messageId.id && it.isMms == messageId.mms }
+  }
+
+  /**
+   * Keeps messages in memory and records what the thread summary logic asks for and writes, rather
+   * than going through the message tables.
+   */
+  private class TestThreadDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : ThreadDatabase(context, databaseHelper) {
+    val messages = mutableMapOf<Long, MutableList<MessageRecord>>()
+    val snippets = mutableMapOf<Long, MessageId>()
+    val deletedThreads = mutableListOf<Long>()
+
+    var snippetLookups = 0
+    var recordLookups = 0
+    var writes = 0
+    var listNotifications = 0
+
+    override fun getSnippetRecord(threadId: Long): MessageRecord? {
+      snippetLookups++
+
+      return messages[threadId]
+        ?.filter { MmsSmsDatabase.isMeaningfulType(it.type, it.isMms) && MmsSmsDatabase.isSnippetType(it.type, it.isMms) }
+        ?.maxByOrNull { it.dateReceived }
+    }
+
+    override fun getInsertedRecord(messageId: MessageId): MessageRecord {
+      recordLookups++
+
+      return messages.values
+        .flatten()
+        .firstOrNull { it.id == messageId.id && it.isMms == messageId.mms } ?: throw NoSuchMessageException("no message")
+    }
+
+    override fun writeSnippet(threadId: Long, record: MessageRecord, unarchive: Boolean) {
+      writes++
+      snippets[threadId] = MessageId(record.id, record.isMms)
+    }
+
+    override fun deleteConversation(threadId: Long) {
+      deletedThreads += threadId
+      snippets.remove(threadId)
+    }
+
+    override fun notifyConversationListListeners() {
+      listNotifications++
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.thoughtcrime.securesms.database.KeyValueDatabase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeyValueStoreTest {
+
+  private ExecutorService  executor;
+  private KeyValueDatabase database;
+  private KeyValueStore    subject;
+
+  @Before
+  public void setUp() {
+    KeyValueDataSet initial = new KeyValueDataSet();
+    initial.putString("existing", "value");
+
+    executor = Executors.newSingleThreadExecutor();
+    database = mock(KeyValueDatabase.class);
+    when(database.getDataSet()).thenReturn(initial);
+
+    subject = new KeyValueStore(executor, database);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void read_initialValues() {
+    assertEquals("value", subject.getString("existing", null));
+    assertFalse(subject.containsKey("missing"));
+  }
+
+  @Test
+  public void write_visibleImmediately() {
+    subject.beginWrite().putLong("long", 7).putBoolean("bool", true).remove("existing").apply();
+
+    assertEquals(7, subject.getLong("long", 0));
+    assertTrue(subject.getBoolean("bool", false));
+    assertNull(subject.getString("existing", null));
+  }
+
+  @Test
+  public void beginRead_isNotAffectedByLaterWrites() {
+    KeyValueReader reader = subject.beginRead();
+
+    subject.beginWrite().putString("existing", "changed").apply();
+
+    assertEquals("value", reader.getString("existing", null));
+    assertEquals("changed", subject.getString("existing", null));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void writes_queuedBehindAFlush_arePersistedTogether() throws InterruptedException {
+    CountDownLatch blocker = new CountDownLatch(1);
+    executor.execute(() -> {
+      try {
+        blocker.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    });
+
+    subject.beginWrite().putInteger("a", 1).apply();
+    subject.beginWrite().putInteger("b", 2).apply();
+    subject.beginWrite().putInteger("c", 3).remove("existing").apply();
+    subject.beginWrite().remove("a").apply();
+    subject.beginWrite().putInteger("c", 4).apply();
+
+    blocker.countDown();
+    subject.blockUntilAllWritesFinished();
+
+    ArgumentCaptor<KeyValueDataSet>    writes  = ArgumentCaptor.forClass(KeyValueDataSet.class);
+    ArgumentCaptor<Collection<String>> removes = ArgumentCaptor.forClass(Collection.class);
+
+    verify(database, times(1)).writeDataSet(writes.capture(), removes.capture());
+
+    assertFalse(writes.getValue().containsKey("a"));
+    assertEquals(2, writes.getValue().getInteger("b", 0));
+    assertEquals(4, writes.getValue().getInteger("c", 0));
+    assertEquals(2, removes.getValue().size());
+    assertTrue(removes.getValue().containsAll(Arrays.asList("a", "existing")));
+  }
+
+  @Test
+  public void write_afterFlush_isPersistedSeparately() {
+    subject.beginWrite().putInteger("a", 1).commit();
+    subject.beginWrite().putInteger("a", 2).commit();
+
+    verify(database, times(2)).writeDataSet(any(), any());
+  }
+
+  /**
+   * Readers and a writer run a fixed number of iterations at the same time, and the readers must
+   * never see half of a write.
+   */
+  @Test
+  public void reads_duringConcurrentWrites_neverSeeAPartialWrite() throws InterruptedException {
+    int                        readers    = 4;
+    int                        iterations = 10_000;
+    CountDownLatch             start      = new CountDownLatch(1);
+    CountDownLatch             finished   = new CountDownLatch(readers + 1);
+    AtomicReference<Throwable> failure    = new AtomicReference<>();
+
+    new Thread(() -> {
+      try {
+        start.await();
+        for (long i = 1; i <= iterations; i++) {
+          subject.beginWrite().putLong("left", i).putLong("right", i).apply();
+        }
+      } catch (Throwable t) {
+        failure.set(t);
+      }
+      finished.countDown();
+    }).start();
+
+    for (int r = 0; r < readers; r++) {
+      new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < iterations; i++) {
+            KeyValueReader reader = subject.beginRead();
+            if (reader.getLong("left", 0) != reader.getLong("right", 0)) {
+              throw new AssertionError("Saw a partial write");
+            }
+          }
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+        finished.countDown();
+      }).start();
+    }
+
+    start.countDown();
+    assertTrue(finished.await(30, TimeUnit.SECONDS));
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    assertEquals(iterations, subject.getLong("left", 0));
+    assertEquals(iterations, subject.getLong("right", 0));
+  }
+}
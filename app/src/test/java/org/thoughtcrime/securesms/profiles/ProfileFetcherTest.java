@@ -0,0 +1,160 @@
+package org.thoughtcrime.securesms.profiles;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.libsignal.util.Pair;
+import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
+import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProfileFetcherTest {
+
+  private static final SignalServiceProfile.RequestType PROFILE                = SignalServiceProfile.RequestType.PROFILE;
+  private static final SignalServiceProfile.RequestType PROFILE_AND_CREDENTIAL = SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL;
+
+  private FakeNetwork    network;
+  private ProfileFetcher fetcher;
+
+  @Before
+  public void setUp() {
+    network = new FakeNetwork();
+    fetcher = new ProfileFetcher(network, Long.MAX_VALUE);
+  }
+
+  @Test
+  public void givenRequestInFlight_whenSameRecipientIsRequested_thenIExpectOneNetworkCall() {
+    Recipient recipient = recipient(1, new byte[] { 1 });
+
+    TestObserver<Pair<Recipient, ServiceResponse<ProfileAndCredential>>> first  = fetcher.retrieve(recipient, PROFILE).test();
+    TestObserver<Pair<Recipient, ServiceResponse<ProfileAndCredential>>> second = fetcher.retrieve(recipient, PROFILE).test();
+
+    assertEquals(1, network.requests.size());
+
+    ProfileAndCredential result = mock(ProfileAndCredential.class);
+    network.requests.get(0).onSuccess(ServiceResponse.forResult(result, 200, null));
+
+    assertSame(result, first.values().get(0).second().getResult().get());
+    assertSame(result, second.values().get(0).second().getResult().get());
+  }
+
+  @Test
+  public void givenCompletedRequest_whenSameRecipientIsRequested_thenIExpectCachedResult() {
+    Recipient            recipient = recipient(1, new byte[] { 1 });
+    ProfileAndCredential result    = mock(ProfileAndCredential.class);
+
+    fetcher.retrieve(recipient, PROFILE).test();
+    network.requests.get(0).onSuccess(ServiceResponse.forResult(result, 200, null));
+
+    TestObserver<Pair<Recipient, ServiceResponse<ProfileAndCredential>>> observer = fetcher.retrieve(recipient, PROFILE).test();
+
+    assertEquals(1, network.requests.size());
+    assertSame(result, observer.values().get(0).second().getResult().get());
+  }
+
+  @Test
+  public void givenCachedResult_whenProfileKeyChanges_thenIExpectNewNetworkCall() {
+    fetcher.retrieve(recipient(1, new byte[] { 1 }), PROFILE).test();
+    network.requests.get(0).onSuccess(ServiceResponse.forResult(mock(ProfileAndCredential.class), 200, null));
+
+    fetcher.retrieve(recipient(1, new byte[] { 2 }), PROFILE).test();
+
+    assertEquals(2, network.requests.size());
+  }
+
+  @Test
+  public void givenCachedProfileOnly_whenCredentialIsRequested_thenIExpectNewNetworkCall() {
+    Recipient recipient = recipient(1, new byte[] { 1 });
+
+    fetcher.retrieve(recipient, PROFILE).test();
+    network.requests.get(0).onSuccess(ServiceResponse.forResult(mock(ProfileAndCredential.class), 200, null));
+
+    fetcher.retrieve(recipient, PROFILE_AND_CREDENTIAL).test();
+    fetcher.retrieve(recipient, PROFILE).test();
+
+    assertEquals(2, network.requests.size());
+  }
+
+  @Test
+  public void givenFailedRequest_whenSameRecipientIsRequested_thenIExpectNewNetworkCall() {
+    Recipient recipient = recipient(1, new byte[] { 1 });
+
+    fetcher.retrieve(recipient, PROFILE).test();
+    network.requests.get(0).onSuccess(ServiceResponse.forUnknownError(new IOException()));
+
+    fetcher.retrieve(recipient, PROFILE).test();
+
+    assertEquals(2, network.requests.size());
+  }
+
+  @Test
+  public void givenInvalidatedRecipient_whenRequested_thenIExpectNewNetworkCall() {
+    Recipient recipient = recipient(1, new byte[] { 1 });
+
+    fetcher.retrieve(recipient, PROFILE).test();
+    network.requests.get(0).onSuccess(ServiceResponse.forResult(mock(ProfileAndCredential.class), 200, null));
+
+    fetcher.invalidate(recipient.getId());
+    fetcher.retrieve(recipient, PROFILE).test();
+
+    assertEquals(2, network.requests.size());
+  }
+
+  @Test
+  public void givenManyRecipients_whenRetrieved_thenIExpectBoundedConcurrency() {
+    List<Recipient> recipients = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      recipients.add(recipient(i, new byte[] { (byte) i }));
+    }
+
+    TestObserver<Pair<Recipient, ServiceResponse<ProfileAndCredential>>> observer = fetcher.retrieve(recipients).test();
+
+    int firstWave = network.requests.size();
+    assertTrue(firstWave < recipients.size());
+
+    for (int i = 0; i < network.requests.size(); i++) {
+      network.requests.get(i).onSuccess(ServiceResponse.forResult(mock(ProfileAndCredential.class), 200, null));
+    }
+
+    observer.assertValueCount(recipients.size());
+    observer.assertComplete();
+    assertEquals(recipients.size(), network.requests.size());
+  }
+
+  private static @NonNull Recipient recipient(long id, @NonNull byte[] profileKey) {
+    Recipient recipient = mock(Recipient.class);
+    when(recipient.getId()).thenReturn(RecipientId.from(id));
+    when(recipient.getProfileKey()).thenReturn(Arrays.copyOf(profileKey, profileKey.length));
+    when(recipient.hasProfileKeyCredential()).thenReturn(true);
+    return recipient;
+  }
+
+  private static final class FakeNetwork implements ProfileFetcher.Network {
+    private final List<SingleSubject<ServiceResponse<ProfileAndCredential>>> requests = new ArrayList<>();
+
+    @Override
+    public @NonNull Single<ServiceResponse<ProfileAndCredential>> fetch(@NonNull Recipient recipient, @NonNull SignalServiceProfile.RequestType requestType) {
+      SingleSubject<ServiceResponse<ProfileAndCredential>> subject = SingleSubject.create();
+      requests.add(subject);
+      return subject;
+    }
+  }
+}
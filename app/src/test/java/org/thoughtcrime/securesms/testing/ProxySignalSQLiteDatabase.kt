@@ -13,20 +13,28 @@ import org.thoughtcrime.securesms.database.SQLiteDatabase as SignalSQLiteDatabas
  * Partial implementation of [SignalSQLiteDatabase] using an instance of [AndroidSQLiteDatabase] instead
  * of SQLCipher.
  */
-class ProxySignalSQLiteDatabase(private val database: AndroidSQLiteDatabase) : SignalSQLiteDatabase(null) {
+class ProxySignalSQLiteDatabase(private val database: AndroidSQLiteDatabase) : SignalSQLiteDatabase(null, null) {
   override fun getSqlCipherDatabase(): net.zetetic.database.sqlcipher.SQLiteDatabase {
     throw UnsupportedOperationException()
   }
 
   override fun beginTransaction() {
     database.beginTransaction()
+    onTransactionStarted()
   }
 
   override fun endTransaction() {
-    database.endTransaction()
+    var ended = false
+    try {
+      database.endTransaction()
+      ended = true
+    } finally {
+      onTransactionEnded(ended)
+    }
   }
 
   override fun setTransactionSuccessful() {
+    onTransactionMarkedSuccessful()
     database.setTransactionSuccessful()
   }
 
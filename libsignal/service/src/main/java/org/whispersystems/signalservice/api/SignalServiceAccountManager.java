@@ -66,6 +66,7 @@ import org.whispersystems.signalservice.internal.push.RequestVerificationCodeRes
 import org.whispersystems.signalservice.internal.push.SignalServiceProtos;
 import org.whispersystems.signalservice.internal.push.VerifyAccountResponse;
 import org.whispersystems.signalservice.internal.push.WhoAmIResponse;
+import org.whispersystems.signalservice.internal.push.http.ConnectionMetrics;
 import org.whispersystems.signalservice.internal.push.http.ProfileCipherOutputStreamFactory;
 import org.whispersystems.signalservice.internal.storage.protos.ManifestRecord;
 import org.whispersystems.signalservice.internal.storage.protos.ReadOperation;
@@ -803,6 +804,10 @@ public class SignalServiceAccountManager {
     this.pushServiceSocket.cancelInFlightRequests();
   }
 
+  public ConnectionMetrics.Snapshot getConnectionMetrics() {
+    return this.pushServiceSocket.getConnectionMetrics();
+  }
+
   private String createDirectoryServerToken(String e164number, boolean urlSafe) {
     try {
       MessageDigest digest  = MessageDigest.getInstance("SHA1");
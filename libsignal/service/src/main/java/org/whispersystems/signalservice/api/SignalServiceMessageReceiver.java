@@ -28,6 +28,7 @@ import org.whispersystems.signalservice.internal.configuration.SignalServiceConf
 import org.whispersystems.signalservice.internal.push.PushServiceSocket;
 import org.whispersystems.signalservice.internal.push.SignalServiceEnvelopeEntity;
 import org.whispersystems.signalservice.internal.push.SignalServiceMessagesResult;
+import org.whispersystems.signalservice.internal.push.http.ConnectionMetrics;
 import org.whispersystems.signalservice.internal.sticker.StickerProtos;
 import org.whispersystems.signalservice.internal.util.Util;
 import org.whispersystems.signalservice.internal.util.concurrent.FutureTransformers;
@@ -239,6 +240,17 @@ public class SignalServiceMessageReceiver {
     socket.setSoTimeoutMillis(soTimeoutMillis);
   }
 
+  /**
+   * See {@link PushServiceSocket#setRequestHedgingEnabled(boolean)}.
+   */
+  public void setRequestHedgingEnabled(boolean requestHedgingEnabled) {
+    socket.setRequestHedgingEnabled(requestHedgingEnabled);
+  }
+
+  public ConnectionMetrics.Snapshot getConnectionMetrics() {
+    return socket.getConnectionMetrics();
+  }
+
   public interface MessageReceivedCallback {
     public void onMessage(SignalServiceEnvelope envelope);
   }
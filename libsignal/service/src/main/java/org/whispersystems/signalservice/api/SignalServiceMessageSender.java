@@ -72,12 +72,14 @@ import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import org.whispersystems.signalservice.api.push.exceptions.ServerRejectedException;
 import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
 import org.whispersystems.signalservice.api.services.AttachmentService;
+import org.whispersystems.signalservice.api.services.KeysService;
 import org.whispersystems.signalservice.api.services.MessagingService;
 import org.whispersystems.signalservice.api.util.CredentialsProvider;
 import org.whispersystems.signalservice.api.util.Uint64RangeException;
 import org.whispersystems.signalservice.api.util.Uint64Util;
 import org.whispersystems.signalservice.api.util.UuidUtil;
 import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException;
+import org.whispersystems.signalservice.internal.ServiceResponse;
 import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
 import org.whispersystems.signalservice.internal.crypto.PaddingInputStream;
 import org.whispersystems.signalservice.internal.push.AttachmentV2UploadAttributes;
@@ -110,6 +112,7 @@ import org.whispersystems.signalservice.internal.push.exceptions.MismatchedDevic
 import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
 import org.whispersystems.signalservice.internal.push.http.AttachmentCipherOutputStreamFactory;
 import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.push.http.ConnectionMetrics;
 import org.whispersystems.signalservice.internal.push.http.PartialSendCompleteListener;
 import org.whispersystems.signalservice.internal.push.http.ResumableUploadSpec;
 import org.whispersystems.signalservice.internal.util.Util;
@@ -129,12 +132,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import io.reactivex.rxjava3.core.Single;
+
 /**
  * The main interface for sending Signal Service messages.
  *
@@ -154,6 +160,7 @@ public class SignalServiceMessageSender {
 
   private final AttachmentService attachmentService;
   private final MessagingService  messagingService;
+  private final KeysService       keysService;
 
   private final ExecutorService executor;
   private final long            maxEnvelopeSize;
@@ -176,6 +183,7 @@ public class SignalServiceMessageSender {
     this.localAddress      = new SignalServiceAddress(credentialsProvider.getUuid(), credentialsProvider.getE164());
     this.attachmentService = new AttachmentService(signalWebSocket);
     this.messagingService  = new MessagingService(signalWebSocket);
+    this.keysService       = new KeysService(signalWebSocket, socket);
     this.eventListener     = eventListener;
     this.executor          = executor != null ? executor : Executors.newSingleThreadExecutor();
     this.maxEnvelopeSize   = maxEnvelopeSize;
@@ -549,6 +557,10 @@ public class SignalServiceMessageSender {
     socket.cancelInFlightRequests();
   }
 
+  public ConnectionMetrics.Snapshot getConnectionMetrics() {
+    return socket.getConnectionMetrics();
+  }
+
   public SignalServiceAttachmentPointer uploadAttachment(SignalServiceAttachmentStream attachment) throws IOException {
     byte[]             attachmentKey    = attachment.getResumableUploadSpec().transform(ResumableUploadSpec::getSecretKey).or(() -> Util.getSecretBytes(64));
     byte[]             attachmentIV     = attachment.getResumableUploadSpec().transform(ResumableUploadSpec::getIV).or(() -> Util.getSecretBytes(16));
@@ -1524,25 +1536,25 @@ public class SignalServiceMessageSender {
     Log.d(TAG, "[" + timestamp + "] Sending to " + recipients.size() + " recipients.");
     enforceMaxContentSize(content);
 
-    long                                   startTime                  = System.currentTimeMillis();
-    List<Future<SendMessageResult>>        futureResults              = new LinkedList<>();
-    Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
-    Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
-
-    while (recipientIterator.hasNext()) {
-      SignalServiceAddress         recipient = recipientIterator.next();
-      Optional<UnidentifiedAccess> access    = unidentifiedAccessIterator.next();
-      futureResults.add(executor.submit(() -> {
-        SendMessageResult result = sendMessage(recipient, access, timestamp, content, online, cancelationSignal);
-        if (partialListener != null) {
-          partialListener.onPartialSendComplete(result);
-        }
-        return result;
-      }));
+    long                          startTime  = System.currentTimeMillis();
+    List<Callable<PipelinedSend>> dispatches = new ArrayList<>(recipients.size());
+
+    for (int i = 0; i < recipients.size(); i++) {
+      SignalServiceAddress         recipient = recipients.get(i);
+      Optional<UnidentifiedAccess> access    = unidentifiedAccess.get(i);
+      dispatches.add(() -> dispatchOverWebSocket(recipient, access, timestamp, content, online, cancelationSignal));
     }
 
-    List<SendMessageResult> results = new ArrayList<>(futureResults.size());
-    recipientIterator = recipients.iterator();
+    List<Future<SendMessageResult>> futureResults = pipeline(executor, dispatches, (index, dispatched) -> {
+      SendMessageResult result = sendMessage(recipients.get(index), unidentifiedAccess.get(index), timestamp, content, online, cancelationSignal, dispatched);
+      if (partialListener != null) {
+        partialListener.onPartialSendComplete(result);
+      }
+      return result;
+    });
+
+    List<SendMessageResult>        results           = new ArrayList<>(futureResults.size());
+    Iterator<SignalServiceAddress> recipientIterator = recipients.iterator();
 
     for (Future<SendMessageResult> futureResult : futureResults) {
       SignalServiceAddress recipient = recipientIterator.next();
@@ -1592,6 +1604,75 @@ public class SignalServiceMessageSender {
     return results;
   }
 
+  /**
+   * Runs every dispatch on the executor at once, then runs each completion with the result of its
+   * dispatch, in order. A completion is only submitted after its dispatch has finished, waiting on
+   * the calling thread, so no task on the executor ever blocks on another one. That matters for a
+   * bounded executor shared between sends, where the completions could otherwise take every thread
+   * while their dispatches are still queued.
+   *
+   * A dispatch that throws is treated as having returned null.
+   */
+  static <D, R> List<Future<R>> pipeline(ExecutorService executor, List<Callable<D>> dispatches, PipelineCompletion<D, R> completion)
+      throws IOException
+  {
+    List<Future<D>> dispatched = new ArrayList<>(dispatches.size());
+
+    for (Callable<D> dispatch : dispatches) {
+      dispatched.add(executor.submit(dispatch));
+    }
+
+    List<Future<R>> results = new ArrayList<>(dispatched.size());
+
+    for (int i = 0; i < dispatched.size(); i++) {
+      int index = i;
+      D   value;
+
+      try {
+        value = dispatched.get(i).get();
+      } catch (ExecutionException e) {
+        Log.w(TAG, "Dispatch failed, continuing without it.", e.getCause());
+        value = null;
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      D dispatchResult = value;
+      results.add(executor.submit(() -> completion.complete(index, dispatchResult)));
+    }
+
+    return results;
+  }
+
+  interface PipelineCompletion<D, R> {
+    R complete(int index, D dispatched) throws Exception;
+  }
+
+  /**
+   * Encrypts a message for the recipient and dispatches it over the websocket without waiting for the response,
+   * so that sends to many recipients can be in flight on the same connection at once. Returns null if the message
+   * could not be dispatched, in which case the regular send path will encrypt and send it.
+   */
+  private PipelinedSend dispatchOverWebSocket(SignalServiceAddress         recipient,
+                                              Optional<UnidentifiedAccess> unidentifiedAccess,
+                                              long                         timestamp,
+                                              EnvelopeContent              content,
+                                              boolean                      online,
+                                              CancelationSignal            cancelationSignal)
+  {
+    if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+      return null;
+    }
+
+    try {
+      OutgoingPushMessageList messages = getEncryptedMessages(socket, recipient, unidentifiedAccess, timestamp, content, online);
+      return new PipelinedSend(messages, messagingService.send(messages, unidentifiedAccess));
+    } catch (IOException | InvalidKeyException | UntrustedIdentityException e) {
+      Log.w(TAG, "[sendMessage][" + timestamp + "] Unable to dispatch over the websocket, will retry on the regular path. (" + e.getClass().getSimpleName() + ")");
+      return null;
+    }
+  }
+
   private SendMessageResult sendMessage(SignalServiceAddress         recipient,
                                         Optional<UnidentifiedAccess> unidentifiedAccess,
                                         long                         timestamp,
@@ -1599,6 +1680,22 @@ public class SignalServiceMessageSender {
                                         boolean                      online,
                                         CancelationSignal            cancelationSignal)
       throws UntrustedIdentityException, IOException
+  {
+    return sendMessage(recipient, unidentifiedAccess, timestamp, content, online, cancelationSignal, null);
+  }
+
+  /**
+   * @param dispatched A send that was already encrypted and dispatched over the websocket by
+   *                   {@link #dispatchOverWebSocket}, used for the first attempt. May be null.
+   */
+  private SendMessageResult sendMessage(SignalServiceAddress         recipient,
+                                        Optional<UnidentifiedAccess> unidentifiedAccess,
+                                        long                         timestamp,
+                                        EnvelopeContent              content,
+                                        boolean                      online,
+                                        CancelationSignal            cancelationSignal,
+                                        PipelinedSend                dispatched)
+      throws UntrustedIdentityException, IOException
   {
     enforceMaxContentSize(content);
 
@@ -1610,19 +1707,21 @@ public class SignalServiceMessageSender {
       }
 
       try {
-        OutgoingPushMessageList messages = getEncryptedMessages(socket, recipient, unidentifiedAccess, timestamp, content, online);
+        boolean                 useDispatched = i == 0 && dispatched != null;
+        OutgoingPushMessageList messages      = useDispatched ? dispatched.messages : getEncryptedMessages(socket, recipient, unidentifiedAccess, timestamp, content, online);
 
         if (content.getContent().isPresent() && content.getContent().get().getSyncMessage() != null && content.getContent().get().getSyncMessage().hasSent()) {
           Log.d(TAG, "[sendMessage][" + timestamp + "] Sending a sent sync message to devices: " + messages.getDevices());
         }
 
-        if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+        if (!useDispatched && cancelationSignal != null && cancelationSignal.isCanceled()) {
           throw new CancelationException();
         }
 
         if (!unidentifiedAccess.isPresent()) {
           try {
-            SendMessageResponse response = new MessagingService.SendResponseProcessor<>(messagingService.send(messages, Optional.absent()).blockingGet()).getResultOrThrow();
+            SendMessageResponse response = new MessagingService.SendResponseProcessor<>(useDispatched ? dispatched.response.blockingGet()
+                                                                                                      : messagingService.send(messages, Optional.absent()).blockingGet()).getResultOrThrow();
             return SendMessageResult.success(recipient, messages.getDevices(), false, response.getNeedsSync() || store.isMultiDevice(), System.currentTimeMillis() - startTime, content.getContent());
           } catch (WebSocketUnavailableException e) {
             Log.i(TAG, "[sendMessage][" + timestamp + "] Pipe unavailable, falling back... (" + e.getClass().getSimpleName() + ": " + e.getMessage() + ")");
@@ -1632,7 +1731,8 @@ public class SignalServiceMessageSender {
           }
         } else if (unidentifiedAccess.isPresent()) {
           try {
-            SendMessageResponse response = new MessagingService.SendResponseProcessor<>(messagingService.send(messages, unidentifiedAccess).blockingGet()).getResultOrThrow();
+            SendMessageResponse response = new MessagingService.SendResponseProcessor<>(useDispatched ? dispatched.response.blockingGet()
+                                                                                                      : messagingService.send(messages, unidentifiedAccess).blockingGet()).getResultOrThrow();
             return SendMessageResult.success(recipient, messages.getDevices(), true, response.getNeedsSync() || store.isMultiDevice(), System.currentTimeMillis() - startTime, content.getContent());
           } catch (WebSocketUnavailableException e) {
             Log.i(TAG, "[sendMessage][" + timestamp + "] Unidentified pipe unavailable, falling back... (" + e.getClass().getSimpleName() + ": " + e.getMessage() + ")");
@@ -1848,6 +1948,16 @@ public class SignalServiceMessageSender {
     }
   }
 
+  private static final class PipelinedSend {
+    private final OutgoingPushMessageList                      messages;
+    private final Single<ServiceResponse<SendMessageResponse>> response;
+
+    private PipelinedSend(OutgoingPushMessageList messages, Single<ServiceResponse<SendMessageResponse>> response) {
+      this.messages = messages;
+      this.response = response;
+    }
+  }
+
   private List<SendMessageResult> transformGroupResponseToMessageResults(Map<SignalServiceAddress, List<Integer>> recipients, SendGroupMessageResponse response, Content content) {
     Set<UUID> unregistered = response.getUnsentTargets();
 
@@ -1991,7 +2101,7 @@ public class SignalServiceMessageSender {
 
     if (!store.containsSession(signalProtocolAddress)) {
       try {
-        List<PreKeyBundle> preKeys = socket.getPreKeys(recipient, unidentifiedAccess, deviceId);
+        List<PreKeyBundle> preKeys = new KeysService.PreKeysResponseProcessor(keysService.getPreKeys(recipient, unidentifiedAccess, deviceId).blockingGet()).getResultOrThrow();
 
         for (PreKeyBundle preKey : preKeys) {
           try {
@@ -0,0 +1,80 @@
+package org.whispersystems.signalservice.api.services;
+
+import org.whispersystems.libsignal.state.PreKeyBundle;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.SignalWebSocket;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+import org.whispersystems.signalservice.internal.ServiceResponseProcessor;
+import org.whispersystems.signalservice.internal.push.PreKeyResponse;
+import org.whispersystems.signalservice.internal.push.PushServiceSocket;
+import org.whispersystems.signalservice.internal.websocket.DefaultResponseMapper;
+import org.whispersystems.signalservice.internal.websocket.ResponseMapper;
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+
+import java.security.SecureRandom;
+import java.util.List;
+
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Provide WebSocket based interface to pre-key fetching, falling back to REST if the WebSocket
+ * request fails.
+ */
+public final class KeysService {
+
+  private final SignalWebSocket   signalWebSocket;
+  private final PushServiceSocket pushServiceSocket;
+
+  public KeysService(SignalWebSocket signalWebSocket, PushServiceSocket pushServiceSocket) {
+    this.signalWebSocket   = signalWebSocket;
+    this.pushServiceSocket = pushServiceSocket;
+  }
+
+  public Single<ServiceResponse<List<PreKeyBundle>>> getPreKeys(SignalServiceAddress destination,
+                                                                Optional<UnidentifiedAccess> unidentifiedAccess,
+                                                                int deviceId)
+  {
+    String path = String.format("/v2/keys/%s/%s", destination.getIdentifier(), deviceId == SignalServiceAddress.DEFAULT_DEVICE_ID ? "*" : String.valueOf(deviceId));
+
+    WebSocketRequestMessage requestMessage = WebSocketRequestMessage.newBuilder()
+                                                                    .setId(new SecureRandom().nextLong())
+                                                                    .setVerb("GET")
+                                                                    .setPath(path)
+                                                                    .build();
+
+    ResponseMapper<PreKeyResponse> responseMapper = DefaultResponseMapper.extend(PreKeyResponse.class)
+                                                                         .withCustomError(404, (status, body, getHeader) -> new UnregisteredUserException(destination.getIdentifier(), new NotFoundException("not found")))
+                                                                         .build();
+
+    return signalWebSocket.request(requestMessage, unidentifiedAccess)
+                          .map(responseMapper::map)
+                          .map(KeysService::toPreKeyBundles)
+                          .onErrorResumeNext(t -> restFallback(destination, unidentifiedAccess, deviceId))
+                          .onErrorReturn(ServiceResponse::forUnknownError);
+  }
+
+  private Single<ServiceResponse<List<PreKeyBundle>>> restFallback(SignalServiceAddress destination,
+                                                                   Optional<UnidentifiedAccess> unidentifiedAccess,
+                                                                   int deviceId)
+  {
+    return Single.fromCallable(() -> ServiceResponse.forResult(pushServiceSocket.getPreKeys(destination, unidentifiedAccess, deviceId), 0, null));
+  }
+
+  private static ServiceResponse<List<PreKeyBundle>> toPreKeyBundles(ServiceResponse<PreKeyResponse> response) {
+    if (response.getResult().isPresent()) {
+      return ServiceResponse.forResult(response.getResult().get().toPreKeyBundles(), response.getStatus(), response.getBody().orNull());
+    } else {
+      return ServiceResponse.coerceError(response);
+    }
+  }
+
+  public static class PreKeysResponseProcessor extends ServiceResponseProcessor<List<PreKeyBundle>> {
+    public PreKeysResponseProcessor(ServiceResponse<List<PreKeyBundle>> response) {
+      super(response);
+    }
+  }
+}
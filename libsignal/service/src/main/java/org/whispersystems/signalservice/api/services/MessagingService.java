@@ -19,6 +19,7 @@ import org.whispersystems.signalservice.internal.websocket.ResponseMapper;
 import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
 import org.whispersystems.util.Base64;
 
+import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.LinkedList;
 import java.util.List;
@@ -48,7 +49,7 @@ public class MessagingService {
                                                                     .setVerb("PUT")
                                                                     .setPath(String.format("/v1/messages/%s", list.getDestination()))
                                                                     .addAllHeaders(headers)
-                                                                    .setBody(ByteString.copyFrom(JsonUtil.toJson(list).getBytes()))
+                                                                    .setBody(toJsonByteString(list))
                                                                     .build();
 
     ResponseMapper<SendMessageResponse> responseMapper = DefaultResponseMapper.extend(SendMessageResponse.class)
@@ -86,6 +87,22 @@ public class MessagingService {
                           .onErrorReturn(ServiceResponse::forUnknownError);
   }
 
+  /**
+   * Serializes straight into the protobuf body, rather than going through an intermediate String
+   * and byte array, each of which would hold another copy of every base64 encoded message.
+   */
+  private static ByteString toJsonByteString(Object entity) {
+    ByteString.Output output = ByteString.newOutput();
+
+    try {
+      JsonUtil.writeJson(output, entity);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    return output.toByteString();
+  }
+
   public static class SendResponseProcessor<T> extends ServiceResponseProcessor<T> {
     public SendResponseProcessor(ServiceResponse<T> response) {
       super(response);
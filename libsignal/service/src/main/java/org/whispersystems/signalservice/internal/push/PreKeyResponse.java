@@ -11,8 +11,11 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import org.whispersystems.libsignal.IdentityKey;
+import org.whispersystems.libsignal.ecc.ECPublicKey;
+import org.whispersystems.libsignal.state.PreKeyBundle;
 import org.whispersystems.signalservice.internal.util.JsonUtil;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class PreKeyResponse {
@@ -33,5 +36,32 @@ public class PreKeyResponse {
     return devices;
   }
 
+  public List<PreKeyBundle> toPreKeyBundles() {
+    List<PreKeyBundle> bundles = new LinkedList<>();
 
+    for (PreKeyResponseItem device : devices) {
+      ECPublicKey preKey                = null;
+      ECPublicKey signedPreKey          = null;
+      byte[]      signedPreKeySignature = null;
+      int         preKeyId              = -1;
+      int         signedPreKeyId        = -1;
+
+      if (device.getSignedPreKey() != null) {
+        signedPreKey          = device.getSignedPreKey().getPublicKey();
+        signedPreKeyId        = device.getSignedPreKey().getKeyId();
+        signedPreKeySignature = device.getSignedPreKey().getSignature();
+      }
+
+      if (device.getPreKey() != null) {
+        preKeyId = device.getPreKey().getKeyId();
+        preKey   = device.getPreKey().getPublicKey();
+      }
+
+      bundles.add(new PreKeyBundle(device.getRegistrationId(), device.getDeviceId(), preKeyId,
+          preKey, signedPreKeyId, signedPreKey, signedPreKeySignature,
+          identityKey));
+    }
+
+    return bundles;
+  }
 }
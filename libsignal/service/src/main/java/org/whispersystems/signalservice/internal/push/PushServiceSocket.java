@@ -98,8 +98,15 @@ import org.whispersystems.signalservice.internal.push.exceptions.NotInGroupExcep
 import org.whispersystems.signalservice.internal.push.exceptions.PaymentsRegionException;
 import org.whispersystems.signalservice.internal.push.exceptions.StaleDevicesException;
 import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.push.http.ConnectionMetrics;
 import org.whispersystems.signalservice.internal.push.http.DigestingRequestBody;
+import org.whispersystems.signalservice.internal.push.http.EndpointHealth;
+import org.whispersystems.signalservice.internal.push.http.EndpointHealthInterceptor;
+import org.whispersystems.signalservice.internal.push.http.EndpointSelector;
+import org.whispersystems.signalservice.internal.push.http.HedgedCall;
+import org.whispersystems.signalservice.internal.push.http.JsonRequestBody;
 import org.whispersystems.signalservice.internal.push.http.NoCipherOutputStreamFactory;
+import org.whispersystems.signalservice.internal.push.http.OkHttpClientVariants;
 import org.whispersystems.signalservice.internal.push.http.OutputStreamFactory;
 import org.whispersystems.signalservice.internal.push.http.ResumableUploadSpec;
 import org.whispersystems.signalservice.internal.storage.protos.ReadOperation;
@@ -150,6 +157,7 @@ import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
 import okhttp3.Credentials;
 import okhttp3.Dns;
+import okhttp3.EventListener;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
@@ -244,8 +252,17 @@ public class PushServiceSocket {
 
   private static final int MAX_FOLLOW_UPS = 20;
 
-  private       long      soTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
-  private final Set<Call> connections     = new HashSet<>();
+  private static final int  CONNECTION_POOL_MAX_IDLE       = 5;
+  private static final long CONNECTION_POOL_KEEP_ALIVE_SEC = 45;
+  private static final int  TLS_SESSION_CACHE_SIZE         = 32;
+  private static final int  TLS_SESSION_TIMEOUT_SEC        = (int) TimeUnit.HOURS.toSeconds(1);
+
+  private static final double HEDGE_LATENCY_PERCENTILE = 0.95;
+  private static final long   MIN_HEDGE_DELAY_MILLIS   = 100;
+
+  private          long      soTimeoutMillis       = TimeUnit.SECONDS.toMillis(30);
+  private volatile boolean   requestHedgingEnabled = false;
+  private final    Set<Call> connections           = new HashSet<>();
 
   private final ServiceConnectionHolder[]        serviceClients;
   private final Map<Integer, ConnectionHolder[]> cdnClientsMap;
@@ -258,6 +275,7 @@ public class PushServiceSocket {
   private final SecureRandom                     random;
   private final ClientZkProfileOperations        clientZkProfileOperations;
   private final boolean                          automaticNetworkRetry;
+  private final ConnectionMetrics                connectionMetrics;
 
   public PushServiceSocket(SignalServiceConfiguration configuration,
                            CredentialsProvider credentialsProvider,
@@ -268,11 +286,12 @@ public class PushServiceSocket {
     this.credentialsProvider       = credentialsProvider;
     this.signalAgent               = signalAgent;
     this.automaticNetworkRetry     = automaticNetworkRetry;
-    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
-    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
-    this.contactDiscoveryClients   = createConnectionHolders(configuration.getSignalContactDiscoveryUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
-    this.keyBackupServiceClients   = createConnectionHolders(configuration.getSignalKeyBackupServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
-    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
+    this.connectionMetrics         = new ConnectionMetrics();
+    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy(), connectionMetrics);
+    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy(), connectionMetrics);
+    this.contactDiscoveryClients   = createConnectionHolders(configuration.getSignalContactDiscoveryUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy(), connectionMetrics);
+    this.keyBackupServiceClients   = createConnectionHolders(configuration.getSignalKeyBackupServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy(), connectionMetrics);
+    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy(), connectionMetrics);
     this.random                    = new SecureRandom();
     this.clientZkProfileOperations = clientZkProfileOperations;
   }
@@ -432,7 +451,7 @@ public class PushServiceSocket {
   public SendGroupMessageResponse sendGroupMessage(byte[] body, byte[] joinedUnidentifiedAccess, long timestamp, boolean online)
       throws IOException
   {
-    ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
+    ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) selectConnectionHolder(serviceClients);
 
     String path = String.format(Locale.US, GROUP_MESSAGE_PATH, timestamp, online);
 
@@ -449,7 +468,7 @@ public class PushServiceSocket {
       requestBuilder.addHeader("Host", connectionHolder.getHostHeader().get());
     }
 
-    Call call = connectionHolder.getUnidentifiedClient().newCall(requestBuilder.build());
+    Call call = connectionHolder.getUnidentifiedClients().getBaseClient().newCall(requestBuilder.build());
 
     synchronized (connections) {
       connections.add(call);
@@ -491,7 +510,8 @@ public class PushServiceSocket {
       throws IOException
   {
     try {
-      String responseText = makeServiceRequest(String.format(MESSAGE_PATH, bundle.getDestination()), "PUT", JsonUtil.toJson(bundle), NO_HEADERS, unidentifiedAccess);
+      ResponseBody responseBody = makeServiceBodyRequest(String.format(MESSAGE_PATH, bundle.getDestination()), "PUT", new JsonRequestBody(bundle), NO_HEADERS, NO_HANDLER, unidentifiedAccess);
+      String       responseText = readBodyString(responseBody);
 
       if (responseText == null) return new SendMessageResponse(false);
       else                      return JsonUtil.fromJson(responseText, SendMessageResponse.class);
@@ -501,7 +521,7 @@ public class PushServiceSocket {
   }
 
   public Future<SendMessageResponse> submitMessage(OutgoingPushMessageList bundle, Optional<UnidentifiedAccess> unidentifiedAccess) {
-    ListenableFuture<String> response = submitServiceRequest(String.format(MESSAGE_PATH, bundle.getDestination()), "PUT", JsonUtil.toJson(bundle), NO_HEADERS, unidentifiedAccess);
+    ListenableFuture<String> response = submitServiceRequest(String.format(MESSAGE_PATH, bundle.getDestination()), "PUT", new JsonRequestBody(bundle), NO_HEADERS, unidentifiedAccess);
 
     return FutureTransformers.map(response, body -> {
       return body == null ? new SendMessageResponse(false)
@@ -578,34 +598,10 @@ public class PushServiceSocket {
 
       String path = String.format(PREKEY_DEVICE_PATH, destination.getIdentifier(), deviceId);
 
-      String             responseText = makeServiceRequest(path, "GET", null, NO_HEADERS, unidentifiedAccess);
-      PreKeyResponse     response     = JsonUtil.fromJson(responseText, PreKeyResponse.class);
-      List<PreKeyBundle> bundles      = new LinkedList<>();
-
-      for (PreKeyResponseItem device : response.getDevices()) {
-        ECPublicKey preKey                = null;
-        ECPublicKey signedPreKey          = null;
-        byte[]      signedPreKeySignature = null;
-        int         preKeyId              = -1;
-        int         signedPreKeyId        = -1;
-
-        if (device.getSignedPreKey() != null) {
-          signedPreKey          = device.getSignedPreKey().getPublicKey();
-          signedPreKeyId        = device.getSignedPreKey().getKeyId();
-          signedPreKeySignature = device.getSignedPreKey().getSignature();
-        }
-
-        if (device.getPreKey() != null) {
-          preKeyId = device.getPreKey().getKeyId();
-          preKey   = device.getPreKey().getPublicKey();
-        }
-
-        bundles.add(new PreKeyBundle(device.getRegistrationId(), device.getDeviceId(), preKeyId,
-            preKey, signedPreKeyId, signedPreKey, signedPreKeySignature,
-            response.getIdentityKey()));
-      }
+      String         responseText = makeServiceRequest(path, "GET", null, NO_HEADERS, unidentifiedAccess);
+      PreKeyResponse response     = JsonUtil.fromJson(responseText, PreKeyResponse.class);
 
-      return bundles;
+      return response.toPreKeyBundles();
     } catch (NotFoundException nfe) {
       throw new UnregisteredUserException(destination.getIdentifier(), nfe);
     }
@@ -704,7 +700,7 @@ public class PushServiceSocket {
   }
 
   public ListenableFuture<SignalServiceProfile> retrieveProfile(SignalServiceAddress target, Optional<UnidentifiedAccess> unidentifiedAccess) {
-    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, target.getIdentifier()), "GET", null, NO_HEADERS, unidentifiedAccess);
+    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, target.getIdentifier()), "GET", (RequestBody) null, NO_HEADERS, unidentifiedAccess);
 
     return FutureTransformers.map(response, body -> {
       try {
@@ -738,7 +734,7 @@ public class PushServiceSocket {
     String credentialRequest = Hex.toStringCondensed(request.serialize());
     String subPath           = String.format("%s/%s/%s", target, version, credentialRequest);
 
-    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", null, NO_HEADERS, unidentifiedAccess);
+    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", (RequestBody) null, NO_HEADERS, unidentifiedAccess);
 
     return FutureTransformers.map(response, body -> formatProfileAndCredentialBody(requestContext, body));
   }
@@ -769,7 +765,7 @@ public class PushServiceSocket {
 
     String                   version  = profileKeyIdentifier.serialize();
     String                   subPath  = String.format("%s/%s", target, version);
-    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", null, NO_HEADERS, unidentifiedAccess);
+    ListenableFuture<String> response = submitServiceRequest(String.format(PROFILE_PATH, subPath), "GET", (RequestBody) null, NO_HEADERS, unidentifiedAccess);
 
     return FutureTransformers.map(response, body -> {
       try {
@@ -1008,6 +1004,22 @@ public class PushServiceSocket {
     this.soTimeoutMillis = soTimeoutMillis;
   }
 
+  /**
+   * When enabled, idempotent GETs (profiles, attachment and sticker downloads) are re-issued to a second
+   * endpoint if the first has not responded within its recent p95 latency. Only applies when more than one
+   * endpoint is configured for the request.
+   */
+  public void setRequestHedgingEnabled(boolean requestHedgingEnabled) {
+    this.requestHedgingEnabled = requestHedgingEnabled;
+  }
+
+  /**
+   * @return Counters for connection reuse and TLS handshakes across all clients owned by this socket.
+   */
+  public ConnectionMetrics.Snapshot getConnectionMetrics() {
+    return connectionMetrics.getSnapshot();
+  }
+
   public void cancelInFlightRequests() {
     synchronized (connections) {
       Log.w(TAG, "Canceling: " + connections.size());
@@ -1108,25 +1120,14 @@ public class PushServiceSocket {
     if (cdnNumberClients == null) {
       throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
     }
-    ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
-
-    Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
-
-    if (connectionHolder.getHostHeader().isPresent()) {
-      request.addHeader("Host", connectionHolder.getHostHeader().get());
-    }
+    ConnectionHolder connectionHolder = selectConnectionHolder(cdnNumberClients);
 
     if (offset > 0) {
       Log.i(TAG, "Starting download from CDN with offset " + offset);
-      request.addHeader("Range", "bytes=" + offset + "-");
     }
 
-    Call call = okHttpClient.newCall(request.build());
+    Call       call       = newCdnDownloadCall(connectionHolder, path, offset);
+    HedgedCall hedgedCall = createHedgedCall(cdnNumberClients, connectionHolder, call, holder -> newCdnDownloadCall(holder, path, offset));
 
     synchronized (connections) {
       connections.add(call);
@@ -1136,7 +1137,7 @@ public class PushServiceSocket {
     ResponseBody body     = null;
 
     try {
-      response = call.execute();
+      response = hedgedCall != null ? hedgedCall.execute() : call.execute();
 
       if (response.isSuccessful()) {
         body = response.body();
@@ -1171,14 +1172,32 @@ public class PushServiceSocket {
       if (body != null) {
         body.close();
       }
+
+      List<Call> hedgedCalls = hedgedCall != null ? hedgedCall.getCalls() : Collections.emptyList();
+
       synchronized (connections) {
         connections.remove(call);
+        connections.removeAll(hedgedCalls);
       }
     }
 
     throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
   }
 
+  private Call newCdnDownloadCall(ConnectionHolder connectionHolder, String path, long offset) {
+    Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
+
+    if (connectionHolder.getHostHeader().isPresent()) {
+      request.addHeader("Host", connectionHolder.getHostHeader().get());
+    }
+
+    if (offset > 0) {
+      request.addHeader("Range", "bytes=" + offset + "-");
+    }
+
+    return connectionHolder.getClient(soTimeoutMillis).newCall(request.build());
+  }
+
   private byte[] uploadToCdn0(String path, String acl, String key, String policy, String algorithm,
                               String credential, String date, String signature,
                               InputStream data, String contentType, long length,
@@ -1186,12 +1205,8 @@ public class PushServiceSocket {
                               CancelationSignal cancelationSignal)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(0), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    ConnectionHolder connectionHolder = selectConnectionHolder(cdnClientsMap.get(0));
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     DigestingRequestBody file = new DigestingRequestBody(data, outputStreamFactory, contentType, length, progressListener, cancelationSignal, 0);
 
@@ -1241,12 +1256,8 @@ public class PushServiceSocket {
   }
 
   private String getResumableUploadUrl(String signedUrl, Map<String, String> headers) throws IOException {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    ConnectionHolder connectionHolder = selectConnectionHolder(cdnClientsMap.get(2));
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     Request.Builder request = new Request.Builder().url(buildConfiguredUrl(connectionHolder, signedUrl))
                                                    .post(RequestBody.create(null, ""));
@@ -1292,12 +1303,8 @@ public class PushServiceSocket {
   }
 
   private byte[] uploadToCdn2(String resumableUrl, InputStream data, String contentType, long length, OutputStreamFactory outputStreamFactory, ProgressListener progressListener, CancelationSignal cancelationSignal) throws IOException {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    ConnectionHolder connectionHolder = selectConnectionHolder(cdnClientsMap.get(2));
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     ResumeInfo           resumeInfo = getResumeInfo(resumableUrl, length);
     DigestingRequestBody file       = new DigestingRequestBody(data, outputStreamFactory, contentType, length, progressListener, cancelationSignal, resumeInfo.contentStart);
@@ -1343,12 +1350,8 @@ public class PushServiceSocket {
   }
 
   private ResumeInfo getResumeInfo(String resumableUrl, long contentLength) throws IOException {
-    ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    ConnectionHolder connectionHolder = selectConnectionHolder(cdnClientsMap.get(2));
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     final long   offset;
     final String contentRange;
@@ -1470,9 +1473,11 @@ public class PushServiceSocket {
   }
 
 
-  private ListenableFuture<String> submitServiceRequest(String urlFragment, String method, String jsonBody, Map<String, String> headers, Optional<UnidentifiedAccess> unidentifiedAccessKey) {
-    OkHttpClient okHttpClient = buildOkHttpClient(unidentifiedAccessKey.isPresent());
-    Call         call         = okHttpClient.newCall(buildServiceRequest(urlFragment, method, jsonRequestBody(jsonBody), headers, unidentifiedAccessKey));
+  private ListenableFuture<String> submitServiceRequest(String urlFragment, String method, RequestBody body, Map<String, String> headers, Optional<UnidentifiedAccess> unidentifiedAccessKey) {
+    ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) selectConnectionHolder(serviceClients);
+    Call                    call             = newServiceCall(connectionHolder, urlFragment, method, body, headers, unidentifiedAccessKey);
+    HedgedCall              hedgedCall       = "GET".equals(method) ? createHedgedCall(serviceClients, connectionHolder, call, holder -> newServiceCall((ServiceConnectionHolder) holder, urlFragment, method, null, headers, unidentifiedAccessKey))
+                                                                    : null;
 
     synchronized (connections) {
       connections.add(call);
@@ -1480,7 +1485,7 @@ public class PushServiceSocket {
 
     SettableFuture<String> bodyFuture = new SettableFuture<>();
 
-    call.enqueue(new Callback() {
+    Callback callback = new Callback() {
       @Override
       public void onResponse(Call call, Response response) {
         try (ResponseBody body = validateServiceResponse(response).body()) {
@@ -1494,7 +1499,13 @@ public class PushServiceSocket {
       public void onFailure(Call call, IOException e) {
         bodyFuture.setException(e);
       }
-    });
+    };
+
+    if (hedgedCall != null) {
+      hedgedCall.enqueue(callback);
+    } else {
+      call.enqueue(callback);
+    }
 
     return bodyFuture;
   }
@@ -1585,8 +1596,8 @@ public class PushServiceSocket {
       throws PushNetworkException
   {
     try {
-      OkHttpClient okHttpClient = buildOkHttpClient(unidentifiedAccess.isPresent());
-      Call         call         = okHttpClient.newCall(buildServiceRequest(urlFragment, method, body, headers, unidentifiedAccess));
+      ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) selectConnectionHolder(serviceClients);
+      Call                    call             = newServiceCall(connectionHolder, urlFragment, method, body, headers, unidentifiedAccess);
 
       synchronized (connections) {
         connections.add(call);
@@ -1604,20 +1615,19 @@ public class PushServiceSocket {
     }
   }
 
-  private OkHttpClient buildOkHttpClient(boolean unidentified) {
-    ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
-    OkHttpClient            baseClient       = unidentified ? connectionHolder.getUnidentifiedClient() : connectionHolder.getClient();
+  private Call newServiceCall(ServiceConnectionHolder connectionHolder, String urlFragment, String method, RequestBody body, Map<String, String> headers, Optional<UnidentifiedAccess> unidentifiedAccess) {
+    OkHttpClient okHttpClient = buildOkHttpClient(connectionHolder, unidentifiedAccess.isPresent());
 
-    return baseClient.newBuilder()
-                     .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .retryOnConnectionFailure(automaticNetworkRetry)
-                     .build();
+    return okHttpClient.newCall(buildServiceRequest(connectionHolder, urlFragment, method, body, headers, unidentifiedAccess));
   }
 
-  private Request buildServiceRequest(String urlFragment, String method, RequestBody body, Map<String, String> headers, Optional<UnidentifiedAccess> unidentifiedAccess) {
-    ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
+  private OkHttpClient buildOkHttpClient(ServiceConnectionHolder connectionHolder, boolean unidentified) {
+    OkHttpClientVariants clients = unidentified ? connectionHolder.getUnidentifiedClients() : connectionHolder.getClients();
+
+    return clients.get(soTimeoutMillis, automaticNetworkRetry, true);
+  }
 
+  private Request buildServiceRequest(ServiceConnectionHolder connectionHolder, String urlFragment, String method, RequestBody body, Map<String, String> headers, Optional<UnidentifiedAccess> unidentifiedAccess) {
 //      Log.d(TAG, "Push service URL: " + connectionHolder.getUrl());
 //      Log.d(TAG, "Opening URL: " + String.format("%s%s", connectionHolder.getUrl(), urlFragment));
 
@@ -1663,7 +1673,7 @@ public class PushServiceSocket {
   Response makeRequest(ClientSet clientSet, String authorization, List<String> cookies, String path, String method, String body)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    ConnectionHolder connectionHolder = getRandom(clientsFor(clientSet), random);
+    ConnectionHolder connectionHolder = selectConnectionHolder(clientsFor(clientSet));
 
     return makeRequest(connectionHolder, authorization, cookies, path, method, body);
   }
@@ -1671,11 +1681,7 @@ public class PushServiceSocket {
   private Response makeRequest(ConnectionHolder connectionHolder, String authorization, List<String> cookies, String path, String method, String body)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = connectionHolder.getClient(soTimeoutMillis);
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + path);
 
@@ -1747,12 +1753,8 @@ public class PushServiceSocket {
   private Response makeStorageRequestResponse(String authorization, String path, String method, RequestBody body, ResponseCodeHandler responseCodeHandler)
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
-    ConnectionHolder connectionHolder = getRandom(storageClients, random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    ConnectionHolder connectionHolder = selectConnectionHolder(storageClients);
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
 //    Log.d(TAG, "Opening URL: " + connectionHolder.getUrl());
 
@@ -1815,13 +1817,8 @@ public class PushServiceSocket {
   }
 
   public CallingResponse makeCallingRequest(long requestId, String url, String httpMethod, List<Pair<String, String>> headers, byte[] body) {
-    ConnectionHolder connectionHolder = getRandom(serviceClients, random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .followRedirects(false)
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    ConnectionHolder connectionHolder = selectConnectionHolder(serviceClients);
+    OkHttpClient     okHttpClient     = connectionHolder.getClients().get(soTimeoutMillis, true, false);
 
     RequestBody     requestBody = body != null ? RequestBody.create(null, body) : null;
     Request.Builder builder     = new Request.Builder()
@@ -1867,13 +1864,14 @@ public class PushServiceSocket {
   private ServiceConnectionHolder[] createServiceConnectionHolders(SignalUrl[] urls,
                                                                    List<Interceptor> interceptors,
                                                                    Optional<Dns> dns,
-                                                                   Optional<SignalProxy> proxy)
+                                                                   Optional<SignalProxy> proxy,
+                                                                   EventListener eventListener)
   {
     List<ServiceConnectionHolder> serviceConnectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns, proxy),
-                                                               createConnectionClient(url, interceptors, dns, proxy),
+      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns, proxy, eventListener),
+                                                               createConnectionClient(url, interceptors, dns, proxy, eventListener),
                                                                url.getUrl(), url.getHostHeader()));
     }
 
@@ -1883,12 +1881,13 @@ public class PushServiceSocket {
   private static Map<Integer, ConnectionHolder[]> createCdnClientsMap(final Map<Integer, SignalCdnUrl[]> signalCdnUrlMap,
                                                                       final List<Interceptor> interceptors,
                                                                       final Optional<Dns> dns,
-                                                                      final Optional<SignalProxy> proxy) {
+                                                                      final Optional<SignalProxy> proxy,
+                                                                      final EventListener eventListener) {
     validateConfiguration(signalCdnUrlMap);
     final Map<Integer, ConnectionHolder[]> result = new HashMap<>();
     for (Map.Entry<Integer, SignalCdnUrl[]> entry : signalCdnUrlMap.entrySet()) {
       result.put(entry.getKey(),
-                 createConnectionHolders(entry.getValue(), interceptors, dns, proxy));
+                 createConnectionHolders(entry.getValue(), interceptors, dns, proxy, eventListener));
     }
     return Collections.unmodifiableMap(result);
   }
@@ -1899,23 +1898,28 @@ public class PushServiceSocket {
     }
   }
 
-  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, List<Interceptor> interceptors, Optional<Dns> dns, Optional<SignalProxy> proxy) {
+  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, List<Interceptor> interceptors, Optional<Dns> dns, Optional<SignalProxy> proxy, EventListener eventListener) {
     List<ConnectionHolder> connectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns, proxy), url.getUrl(), url.getHostHeader()));
+      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns, proxy, eventListener), url.getUrl(), url.getHostHeader()));
     }
 
     return connectionHolders.toArray(new ConnectionHolder[0]);
   }
 
-  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, Optional<Dns> dns, Optional<SignalProxy> proxy) {
+  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, Optional<Dns> dns, Optional<SignalProxy> proxy, EventListener eventListener) {
     try {
       TrustManager[] trustManagers = BlacklistingTrustManager.createFor(url.getTrustStore());
 
       SSLContext context = SSLContext.getInstance("TLS");
       context.init(null, trustManagers, null);
 
+      // Every variant derived from this client shares the socket factory, and therefore this session cache,
+      // so later connections to the same host can resume the TLS session instead of doing a full handshake.
+      context.getClientSessionContext().setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+      context.getClientSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_SEC);
+
       OkHttpClient.Builder builder = new OkHttpClient.Builder()
                                                      .sslSocketFactory(new Tls12SocketFactory(context.getSocketFactory()), (X509TrustManager)trustManagers[0])
                                                      .connectionSpecs(url.getConnectionSpecs().or(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
@@ -1929,7 +1933,8 @@ public class PushServiceSocket {
              .connectionSpecs(url.getConnectionSpecs().or(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
              .build();
 
-      builder.connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS));
+      builder.connectionPool(new ConnectionPool(CONNECTION_POOL_MAX_IDLE, CONNECTION_POOL_KEEP_ALIVE_SEC, TimeUnit.SECONDS));
+      builder.eventListener(eventListener);
 
       for (Interceptor interceptor : interceptors) {
         builder.addInterceptor(interceptor);
@@ -1950,8 +1955,39 @@ public class PushServiceSocket {
     }
   }
 
-  private ConnectionHolder getRandom(ConnectionHolder[] connections, SecureRandom random) {
-    return connections[random.nextInt(connections.length)];
+  private ConnectionHolder selectConnectionHolder(ConnectionHolder[] connections) {
+    return EndpointSelector.select(connections, random);
+  }
+
+  /**
+   * Wraps an idempotent call in a {@link HedgedCall} that re-issues it to the healthiest other endpoint if the
+   * primary is slower than its recent p95 latency. Returns null if hedging is disabled, there is no other
+   * endpoint, or the primary has not yet been measured enough to pick a delay.
+   */
+  private HedgedCall createHedgedCall(ConnectionHolder[] endpoints, ConnectionHolder primaryHolder, Call primaryCall, EndpointCallFactory hedgeFactory) {
+    if (!requestHedgingEnabled || endpoints.length < 2) {
+      return null;
+    }
+
+    long hedgeDelayMillis = primaryHolder.getHealth().getLatencyPercentile(HEDGE_LATENCY_PERCENTILE);
+
+    if (hedgeDelayMillis < 0) {
+      return null;
+    }
+
+    ConnectionHolder alternate = EndpointSelector.selectAlternate(endpoints, primaryHolder);
+
+    // The hedge is created under the HedgedCall's lock, so the connections lock must never be held
+    // while calling into the HedgedCall.
+    return new HedgedCall(primaryCall, () -> {
+      Call hedge = hedgeFactory.create(alternate);
+
+      synchronized (connections) {
+        connections.add(hedge);
+      }
+
+      return hedge;
+    }, Math.max(MIN_HEDGE_DELAY_MILLIS, hedgeDelayMillis));
   }
 
   public ProfileKeyCredential parseResponse(UUID uuid, ProfileKey profileKey, ProfileKeyCredentialResponse profileKeyCredentialResponse) throws VerificationFailedException {
@@ -1994,9 +2030,12 @@ public class PushServiceSocket {
    * {@link IOException} during json parsing is converted to a {@link MalformedResponseException}
    */
   private static <T> T readBodyJson(ResponseBody body, Class<T> clazz) throws PushNetworkException, MalformedResponseException {
-    String json = readBodyString(body);
-    try {
-      return JsonUtil.fromJson(json, clazz);
+    if (body == null) {
+      throw new PushNetworkException("No body!");
+    }
+
+    try (InputStream in = body.byteStream()) {
+      return JsonUtil.fromJson(in, clazz);
     } catch (JsonProcessingException e) {
       Log.w(TAG, e);
       throw new MalformedResponseException("Unable to parse entity", e);
@@ -2064,20 +2103,41 @@ public class PushServiceSocket {
     public AuthCredentials backupCredentials;
   }
 
-  private static class ConnectionHolder {
+  private static class ConnectionHolder implements EndpointSelector.Endpoint {
 
-    private final OkHttpClient     client;
-    private final String           url;
-    private final Optional<String> hostHeader;
+    private final EndpointHealth       health;
+    private final OkHttpClientVariants clients;
+    private final String               url;
+    private final Optional<String>     hostHeader;
 
     private ConnectionHolder(OkHttpClient client, String url, Optional<String> hostHeader) {
-      this.client     = client;
+      this(new EndpointHealth(), client, url, hostHeader);
+    }
+
+    private ConnectionHolder(EndpointHealth health, OkHttpClient client, String url, Optional<String> hostHeader) {
+      this.health     = health;
+      this.clients    = new OkHttpClientVariants(withHealthTracking(client, health));
       this.url        = url;
       this.hostHeader = hostHeader;
     }
 
-    OkHttpClient getClient() {
-      return client;
+    static OkHttpClient withHealthTracking(OkHttpClient client, EndpointHealth health) {
+      return client.newBuilder()
+                   .addInterceptor(new EndpointHealthInterceptor(health))
+                   .build();
+    }
+
+    @Override
+    public EndpointHealth getHealth() {
+      return health;
+    }
+
+    OkHttpClientVariants getClients() {
+      return clients;
+    }
+
+    OkHttpClient getClient(long timeoutMillis) {
+      return clients.get(timeoutMillis);
     }
 
     public String getUrl() {
@@ -2091,18 +2151,26 @@ public class PushServiceSocket {
 
   private static class ServiceConnectionHolder extends ConnectionHolder {
 
-    private final OkHttpClient unidentifiedClient;
+    private final OkHttpClientVariants unidentifiedClients;
 
     private ServiceConnectionHolder(OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader) {
-      super(identifiedClient, url, hostHeader);
-      this.unidentifiedClient = unidentifiedClient;
+      this(new EndpointHealth(), identifiedClient, unidentifiedClient, url, hostHeader);
+    }
+
+    private ServiceConnectionHolder(EndpointHealth health, OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader) {
+      super(health, identifiedClient, url, hostHeader);
+      this.unidentifiedClients = new OkHttpClientVariants(withHealthTracking(unidentifiedClient, health));
     }
 
-    OkHttpClient getUnidentifiedClient() {
-      return unidentifiedClient;
+    OkHttpClientVariants getUnidentifiedClients() {
+      return unidentifiedClients;
     }
   }
 
+  private interface EndpointCallFactory {
+    Call create(ConnectionHolder connectionHolder);
+  }
+
   private interface ResponseCodeHandler {
     void handle(int responseCode) throws NonSuccessfulResponseCodeException, PushNetworkException;
   }
@@ -0,0 +1,97 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+/**
+ * Counts connection acquisitions, newly established connections and TLS handshakes across all
+ * clients it is attached to, so that the effectiveness of connection reuse can be observed.
+ */
+public final class ConnectionMetrics extends EventListener {
+
+  private final AtomicLong connectionsAcquired    = new AtomicLong();
+  private final AtomicLong connectionsEstablished = new AtomicLong();
+  private final AtomicLong connectionsFailed      = new AtomicLong();
+  private final AtomicLong tlsHandshakes          = new AtomicLong();
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    connectionsAcquired.incrementAndGet();
+  }
+
+  @Override
+  public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+    connectionsEstablished.incrementAndGet();
+  }
+
+  @Override
+  public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+    connectionsFailed.incrementAndGet();
+  }
+
+  @Override
+  public void secureConnectEnd(Call call, Handshake handshake) {
+    tlsHandshakes.incrementAndGet();
+  }
+
+  public Snapshot getSnapshot() {
+    return new Snapshot(connectionsAcquired.get(), connectionsEstablished.get(), connectionsFailed.get(), tlsHandshakes.get());
+  }
+
+  public static final class Snapshot {
+    private final long connectionsAcquired;
+    private final long connectionsEstablished;
+    private final long connectionsFailed;
+    private final long tlsHandshakes;
+
+    private Snapshot(long connectionsAcquired, long connectionsEstablished, long connectionsFailed, long tlsHandshakes) {
+      this.connectionsAcquired    = connectionsAcquired;
+      this.connectionsEstablished = connectionsEstablished;
+      this.connectionsFailed      = connectionsFailed;
+      this.tlsHandshakes          = tlsHandshakes;
+    }
+
+    public long getConnectionsAcquired() {
+      return connectionsAcquired;
+    }
+
+    public long getConnectionsEstablished() {
+      return connectionsEstablished;
+    }
+
+    public long getConnectionsFailed() {
+      return connectionsFailed;
+    }
+
+    public long getTlsHandshakes() {
+      return tlsHandshakes;
+    }
+
+    /**
+     * @return The fraction of acquired connections that were taken from the pool rather than newly established.
+     */
+    public float getReuseRate() {
+      if (connectionsAcquired == 0) {
+        return 0;
+      }
+
+      return Math.max(0, connectionsAcquired - connectionsEstablished) / (float) connectionsAcquired;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+                           "acquired: %d, established: %d, failed: %d, tlsHandshakes: %d, reuseRate: %.2f",
+                           connectionsAcquired, connectionsEstablished, connectionsFailed, tlsHandshakes, getReuseRate());
+    }
+  }
+}
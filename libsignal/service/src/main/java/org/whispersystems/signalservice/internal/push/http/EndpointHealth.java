@@ -0,0 +1,82 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.util.Arrays;
+
+/**
+ * Tracks an exponentially weighted moving average of latency and error rate for a single endpoint,
+ * along with a window of recent latencies for percentile estimates.
+ */
+public final class EndpointHealth {
+
+  private static final double LATENCY_ALPHA        = 0.2;
+  private static final double ERROR_ALPHA          = 0.1;
+  private static final long   ERROR_PENALTY_MILLIS = 10_000;
+  private static final int    SAMPLE_WINDOW        = 64;
+  private static final int    MIN_SAMPLES          = 8;
+
+  private final long[] recentLatencies = new long[SAMPLE_WINDOW];
+
+  private double ewmaLatencyMillis;
+  private double ewmaErrorRate;
+  private int    latencySamples;
+  private int    totalSamples;
+
+  public synchronized void recordSuccess(long latencyMillis) {
+    ewmaLatencyMillis = totalSamples == 0 ? latencyMillis : ewma(ewmaLatencyMillis, latencyMillis, LATENCY_ALPHA);
+    ewmaErrorRate     = ewma(ewmaErrorRate, 0, ERROR_ALPHA);
+
+    recentLatencies[latencySamples % SAMPLE_WINDOW] = latencyMillis;
+    latencySamples++;
+    totalSamples++;
+  }
+
+  public synchronized void recordFailure() {
+    ewmaErrorRate = totalSamples == 0 ? 1 : ewma(ewmaErrorRate, 1, ERROR_ALPHA);
+    totalSamples++;
+  }
+
+  /**
+   * @return A cost for routing a request to this endpoint, where lower is better. Endpoints with no
+   *         samples score zero so that they are tried.
+   */
+  public synchronized double getScore() {
+    if (totalSamples == 0) {
+      return 0;
+    }
+
+    return ewmaLatencyMillis + ewmaErrorRate * ERROR_PENALTY_MILLIS;
+  }
+
+  public synchronized double getLatencyMillis() {
+    return ewmaLatencyMillis;
+  }
+
+  public synchronized double getErrorRate() {
+    return ewmaErrorRate;
+  }
+
+  /**
+   * @return The given percentile (0..1) of recent successful latencies, or -1 if there are not yet enough samples.
+   */
+  public long getLatencyPercentile(double percentile) {
+    long[] samples;
+
+    synchronized (this) {
+      if (latencySamples < MIN_SAMPLES) {
+        return -1;
+      }
+
+      samples = Arrays.copyOf(recentLatencies, Math.min(latencySamples, SAMPLE_WINDOW));
+    }
+
+    Arrays.sort(samples);
+
+    int index = (int) Math.ceil(percentile * samples.length) - 1;
+
+    return samples[Math.max(0, Math.min(samples.length - 1, index))];
+  }
+
+  private static double ewma(double previous, double sample, double alpha) {
+    return alpha * sample + (1 - alpha) * previous;
+  }
+}
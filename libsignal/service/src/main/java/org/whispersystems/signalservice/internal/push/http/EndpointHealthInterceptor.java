@@ -0,0 +1,42 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Records the time to response headers, and any failures, of every call into an {@link EndpointHealth}.
+ * Server errors count as failures. Calls that fail because they were canceled are not recorded.
+ */
+public final class EndpointHealthInterceptor implements Interceptor {
+
+  private final EndpointHealth health;
+
+  public EndpointHealthInterceptor(EndpointHealth health) {
+    this.health = health;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    long start = System.nanoTime();
+
+    try {
+      Response response = chain.proceed(chain.request());
+
+      if (response.code() >= 500) {
+        health.recordFailure();
+      } else {
+        health.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+
+      return response;
+    } catch (IOException e) {
+      if (!chain.call().isCanceled()) {
+        health.recordFailure();
+      }
+      throw e;
+    }
+  }
+}
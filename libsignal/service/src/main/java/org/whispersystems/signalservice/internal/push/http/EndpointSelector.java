@@ -0,0 +1,55 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.util.Random;
+
+/**
+ * Chooses between equivalent endpoints (fronting domains, proxies, CDN hosts) based on their
+ * {@link EndpointHealth}. Uses "power of two choices": two endpoints are picked at random and the
+ * healthier one wins, which favors fast endpoints without herding every request onto one of them.
+ * A small fraction of requests are routed at random so that recovering endpoints are re-measured.
+ */
+public final class EndpointSelector {
+
+  private static final float EXPLORATION_PROBABILITY = 0.05f;
+
+  private EndpointSelector() {}
+
+  public interface Endpoint {
+    EndpointHealth getHealth();
+  }
+
+  public static <E extends Endpoint> E select(E[] endpoints, Random random) {
+    if (endpoints.length == 1) {
+      return endpoints[0];
+    }
+
+    E first = endpoints[random.nextInt(endpoints.length)];
+
+    if (random.nextFloat() < EXPLORATION_PROBABILITY) {
+      return first;
+    }
+
+    E second = endpoints[random.nextInt(endpoints.length - 1)];
+
+    if (second == first) {
+      second = endpoints[endpoints.length - 1];
+    }
+
+    return first.getHealth().getScore() <= second.getHealth().getScore() ? first : second;
+  }
+
+  /**
+   * @return The healthiest endpoint other than the one provided, or null if there is none.
+   */
+  public static <E extends Endpoint> E selectAlternate(E[] endpoints, E exclude) {
+    E best = null;
+
+    for (E endpoint : endpoints) {
+      if (endpoint != exclude && (best == null || endpoint.getHealth().getScore() < best.getHealth().getScore())) {
+        best = endpoint;
+      }
+    }
+
+    return best;
+  }
+}
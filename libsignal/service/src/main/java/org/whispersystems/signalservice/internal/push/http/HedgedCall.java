@@ -0,0 +1,253 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Runs an idempotent request against a primary endpoint and, if no response has arrived after a
+ * delay, issues the same request to a second endpoint. The first response wins and the other call
+ * is canceled.
+ *
+ * Only transport failures are considered failures; any HTTP response, successful or not, is
+ * delivered as-is. If the primary call fails before the hedge has been started, the failure is
+ * delivered immediately.
+ *
+ * {@link #execute()} never goes through the client's dispatcher: the primary runs on the calling
+ * thread and the hedge on a thread of its own, just like any other synchronous call, so they don't
+ * count against the dispatcher's per-host limit and can't be queued behind asynchronous calls.
+ *
+ * The hedge is created and tracked under the same lock that delivery takes, and never once a result
+ * has been delivered. So by the time {@link #execute()} returns or the callback runs,
+ * {@link #getCalls()} holds every call that will ever be made.
+ */
+public final class HedgedCall {
+
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "signal-HedgedCall");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final ExecutorService SYNCHRONOUS_HEDGES = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "signal-HedgedCall-sync");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Call        primary;
+  private final CallFactory hedgeFactory;
+  private final long        hedgeDelayMillis;
+  private final List<Call>  calls = new ArrayList<>(2);
+
+  private Callback           callback;
+  private ScheduledFuture<?> hedgeTimer;
+  private boolean            synchronous;
+  private boolean            hedgeStarted;
+  private boolean            delivered;
+  private int                outstanding;
+
+  public HedgedCall(Call primary, CallFactory hedgeFactory, long hedgeDelayMillis) {
+    this.primary          = primary;
+    this.hedgeFactory     = hedgeFactory;
+    this.hedgeDelayMillis = hedgeDelayMillis;
+  }
+
+  public void enqueue(Callback callback) {
+    synchronized (this) {
+      if (this.callback != null) {
+        throw new IllegalStateException("Already started!");
+      }
+
+      this.callback   = callback;
+      this.hedgeTimer = SCHEDULER.schedule(this::startHedge, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    start(primary, track(primary));
+  }
+
+  public Response execute() throws IOException {
+    CountDownLatch latch    = new CountDownLatch(1);
+    Response[]     response = new Response[1];
+    IOException[]  failure  = new IOException[1];
+
+    synchronized (this) {
+      if (this.callback != null) {
+        throw new IllegalStateException("Already started!");
+      }
+
+      this.synchronous = true;
+      this.callback    = new Callback() {
+        @Override
+        public void onResponse(Call call, Response result) {
+          response[0] = result;
+          latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+          failure[0] = e;
+          latch.countDown();
+        }
+      };
+      this.hedgeTimer  = SCHEDULER.schedule(this::startHedge, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    track(primary);
+    run(primary);
+
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      cancel();
+      throw new InterruptedIOException("Interrupted while waiting for a response");
+    }
+
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+
+    return response[0];
+  }
+
+  public synchronized boolean isHedgeStarted() {
+    return hedgeStarted;
+  }
+
+  /**
+   * @return Every call that has been started so far, including the hedge if there was one.
+   */
+  public synchronized List<Call> getCalls() {
+    return new ArrayList<>(calls);
+  }
+
+  public void cancel() {
+    for (Call call : getCalls()) {
+      call.cancel();
+    }
+  }
+
+  private void startHedge() {
+    Call    hedge;
+    boolean runSynchronously;
+
+    synchronized (this) {
+      if (delivered || hedgeStarted) {
+        return;
+      }
+
+      hedgeStarted     = true;
+      hedge            = hedgeFactory.create();
+      runSynchronously = track(hedge);
+    }
+
+    start(hedge, runSynchronously);
+  }
+
+  private void start(Call call, boolean runSynchronously) {
+    if (runSynchronously) {
+      SYNCHRONOUS_HEDGES.execute(() -> run(call));
+      return;
+    }
+
+    call.enqueue(new Callback() {
+      @Override
+      public void onResponse(Call call, Response response) throws IOException {
+        onResult(call, response, null);
+      }
+
+      @Override
+      public void onFailure(Call call, IOException e) {
+        try {
+          onResult(call, null, e);
+        } catch (IOException ignored) {
+          // Failures are delivered through onFailure, which does not throw.
+        }
+      }
+    });
+  }
+
+  /**
+   * @return True if the call should be run synchronously.
+   */
+  private synchronized boolean track(Call call) {
+    calls.add(call);
+    outstanding++;
+
+    return synchronous;
+  }
+
+  private void run(Call call) {
+    Response    response = null;
+    IOException failure  = null;
+
+    try {
+      response = call.execute();
+    } catch (IOException e) {
+      failure = e;
+    }
+
+    try {
+      onResult(call, response, failure);
+    } catch (IOException ignored) {
+      // The callback used by execute() does not throw.
+    }
+  }
+
+  private void onResult(Call call, Response response, IOException failure) throws IOException {
+    List<Call> losers = new ArrayList<>(1);
+
+    synchronized (this) {
+      outstanding--;
+
+      if (delivered) {
+        if (response != null) {
+          response.close();
+        }
+        return;
+      }
+
+      if (response == null && outstanding > 0) {
+        return;
+      }
+
+      delivered = true;
+      hedgeTimer.cancel(false);
+
+      for (Call other : calls) {
+        if (other != call) {
+          losers.add(other);
+        }
+      }
+    }
+
+    for (Call loser : losers) {
+      loser.cancel();
+    }
+
+    if (response != null) {
+      callback.onResponse(call, response);
+    } else {
+      callback.onFailure(call, failure);
+    }
+  }
+
+  public interface CallFactory {
+    /**
+     * Called with the {@link HedgedCall}'s lock held, at most once, and only if no result has been
+     * delivered yet.
+     */
+    Call create();
+  }
+}
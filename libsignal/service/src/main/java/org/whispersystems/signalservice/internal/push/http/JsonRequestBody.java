@@ -0,0 +1,58 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.whispersystems.signalservice.internal.util.JsonUtil;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * A {@link RequestBody} that serializes its entity with Jackson straight into an okio
+ * {@link Buffer}, rather than first building the whole JSON document as a String and then encoding
+ * it to bytes.
+ *
+ * The entity is serialized once, the first time either the content length or the body is needed,
+ * and the buffer is then reused. Writing hands out a shallow copy of the buffer's segments, so the
+ * body can be written again if the request is retried.
+ */
+public final class JsonRequestBody extends RequestBody {
+
+  private static final MediaType CONTENT_TYPE = MediaType.parse("application/json");
+
+  private final Object entity;
+
+  private Buffer serialized;
+
+  public JsonRequestBody(Object entity) {
+    this.entity = entity;
+  }
+
+  @Override
+  public MediaType contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public long contentLength() throws IOException {
+    return getSerialized().size();
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    Buffer copy = getSerialized().clone();
+    sink.write(copy, copy.size());
+  }
+
+  private synchronized Buffer getSerialized() throws IOException {
+    if (serialized == null) {
+      Buffer buffer = new Buffer();
+      JsonUtil.writeJson(buffer.outputStream(), entity);
+      serialized = buffer;
+    }
+
+    return serialized;
+  }
+}
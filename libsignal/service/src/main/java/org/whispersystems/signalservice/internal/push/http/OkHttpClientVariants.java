@@ -0,0 +1,88 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Holds the configured variants (timeouts, retry and redirect behavior) of a single base
+ * {@link OkHttpClient}. Each variant is built once and then reused, rather than calling
+ * {@link OkHttpClient#newBuilder()} for every request.
+ *
+ * All variants share the base client's connection pool, dispatcher and socket factories.
+ */
+public final class OkHttpClientVariants {
+
+  private final OkHttpClient               baseClient;
+  private final Map<Variant, OkHttpClient> variants = new ConcurrentHashMap<>();
+
+  public OkHttpClientVariants(OkHttpClient baseClient) {
+    this.baseClient = baseClient;
+  }
+
+  public OkHttpClient getBaseClient() {
+    return baseClient;
+  }
+
+  public OkHttpClient get(long timeoutMillis) {
+    return get(timeoutMillis, baseClient.retryOnConnectionFailure(), baseClient.followRedirects());
+  }
+
+  public OkHttpClient get(long timeoutMillis, boolean retryOnConnectionFailure, boolean followRedirects) {
+    Variant      variant = new Variant(timeoutMillis, retryOnConnectionFailure, followRedirects);
+    OkHttpClient client  = variants.get(variant);
+
+    if (client == null) {
+      client = baseClient.newBuilder()
+                         .connectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                         .readTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                         .retryOnConnectionFailure(retryOnConnectionFailure)
+                         .followRedirects(followRedirects)
+                         .build();
+
+      OkHttpClient existing = variants.putIfAbsent(variant, client);
+
+      if (existing != null) {
+        client = existing;
+      }
+    }
+
+    return client;
+  }
+
+  int size() {
+    return variants.size();
+  }
+
+  private static final class Variant {
+    private final long    timeoutMillis;
+    private final boolean retryOnConnectionFailure;
+    private final boolean followRedirects;
+
+    private Variant(long timeoutMillis, boolean retryOnConnectionFailure, boolean followRedirects) {
+      this.timeoutMillis            = timeoutMillis;
+      this.retryOnConnectionFailure = retryOnConnectionFailure;
+      this.followRedirects          = followRedirects;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Variant other = (Variant) o;
+      return timeoutMillis            == other.timeoutMillis            &&
+             retryOnConnectionFailure == other.retryOnConnectionFailure &&
+             followRedirects          == other.followRedirects;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int) (timeoutMillis ^ (timeoutMillis >>> 32));
+      result = 31 * result + (retryOnConnectionFailure ? 1 : 0);
+      result = 31 * result + (followRedirects ? 1 : 0);
+      return result;
+    }
+  }
+}
@@ -25,6 +25,8 @@ import org.whispersystems.signalservice.api.util.UuidUtil;
 import org.whispersystems.util.Base64;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.UUID;
 
 public class JsonUtil {
@@ -46,12 +48,36 @@ public class JsonUtil {
     }
   }
 
+  /**
+   * Serializes directly into the provided stream, without building an intermediate String. The
+   * stream is flushed but not closed.
+   */
+  public static void writeJson(OutputStream outputStream, Object object) throws IOException {
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      objectMapper.writeValue(generator, object);
+    }
+  }
+
   public static <T> T fromJson(String json, Class<T> clazz)
       throws IOException
   {
     return objectMapper.readValue(json, clazz);
   }
 
+  /**
+   * Parses directly from the provided stream, without reading it into an intermediate String. The
+   * stream is not closed.
+   */
+  public static <T> T fromJson(InputStream inputStream, Class<T> clazz)
+      throws IOException
+  {
+    try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      return objectMapper.readValue(parser, clazz);
+    }
+  }
+
   public static <T> T fromJsonResponse(String body, Class<T> clazz)
       throws MalformedResponseException {
     try {
@@ -0,0 +1,145 @@
+package org.whispersystems.signalservice.api;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SignalServiceMessageSenderTest {
+
+  private ExecutorService executor;
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void givenDispatches_whenIPipeline_thenIExpectEachCompletionToGetItsDispatchResult() throws Exception {
+    executor = Executors.newFixedThreadPool(4);
+
+    List<Callable<String>> dispatches = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      String value = "dispatch-" + i;
+      dispatches.add(() -> value);
+    }
+
+    List<Future<String>> results = SignalServiceMessageSender.pipeline(executor, dispatches, (index, dispatched) -> index + ":" + dispatched);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i + ":dispatch-" + i, results.get(i).get());
+    }
+  }
+
+  /**
+   * Every dispatch waits until all of them have started, so this only finishes if the whole
+   * fan-out is in flight at once rather than one recipient at a time.
+   */
+  @Test(timeout = 10_000)
+  public void givenEnoughThreads_whenIPipeline_thenIExpectEveryDispatchInFlightTogether() throws Exception {
+    int recipients = 8;
+
+    executor = Executors.newFixedThreadPool(recipients);
+
+    CountDownLatch         started    = new CountDownLatch(recipients);
+    List<Callable<String>> dispatches = new ArrayList<>();
+
+    for (int i = 0; i < recipients; i++) {
+      dispatches.add(() -> {
+        started.countDown();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return "sent";
+      });
+    }
+
+    List<Future<String>> results = SignalServiceMessageSender.pipeline(executor, dispatches, (index, dispatched) -> dispatched);
+
+    for (Future<String> result : results) {
+      assertEquals("sent", result.get());
+    }
+  }
+
+  /**
+   * A single thread that always runs the newest task first. If completions were submitted up front
+   * and blocked on their dispatch, the first completion to run would wait forever on a dispatch
+   * queued behind it.
+   */
+  @Test(timeout = 10_000)
+  public void givenSingleThreadRunningNewestTaskFirst_whenIPipeline_thenIExpectNoDeadlock() throws Exception {
+    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>() {
+      @Override
+      public boolean offer(Runnable runnable) {
+        return offerFirst(runnable);
+      }
+    });
+
+    List<Callable<Integer>> dispatches = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      int value = i;
+      dispatches.add(() -> value * 10);
+    }
+
+    List<Future<Integer>> results = SignalServiceMessageSender.pipeline(executor, dispatches, (index, dispatched) -> dispatched + index);
+
+    List<Integer> values = new ArrayList<>();
+    for (Future<Integer> result : results) {
+      values.add(result.get());
+    }
+
+    assertEquals(Arrays.asList(0, 11, 22, 33, 44), values);
+  }
+
+  @Test
+  public void givenFailingDispatch_whenIPipeline_thenIExpectItsCompletionToGetNull() throws Exception {
+    executor = Executors.newFixedThreadPool(2);
+
+    List<Callable<String>> dispatches = Arrays.asList(() -> "first",
+                                                      () -> { throw new IllegalStateException("boom"); },
+                                                      () -> "third");
+
+    List<Future<String>> results = SignalServiceMessageSender.pipeline(executor, dispatches, (index, dispatched) -> String.valueOf(dispatched));
+
+    assertEquals("first", results.get(0).get());
+    assertEquals("null", results.get(1).get());
+    assertEquals("third", results.get(2).get());
+  }
+
+  @Test
+  public void givenFailingCompletion_whenIPipeline_thenIExpectOnlyItsFutureToFail() throws Exception {
+    executor = Executors.newFixedThreadPool(2);
+
+    List<Callable<String>> dispatches = Arrays.asList(() -> "first", () -> "second");
+
+    List<Future<String>> results = SignalServiceMessageSender.pipeline(executor, dispatches, (index, dispatched) -> {
+      if (index == 0) {
+        throw new IOException("failed");
+      }
+      return dispatched;
+    });
+
+    try {
+      results.get(0).get();
+      fail("Expected the first completion to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    assertEquals("second", results.get(1).get());
+  }
+}
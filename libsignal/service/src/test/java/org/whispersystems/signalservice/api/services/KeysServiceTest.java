@@ -0,0 +1,145 @@
+package org.whispersystems.signalservice.api.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.libsignal.IdentityKey;
+import org.whispersystems.libsignal.ecc.Curve;
+import org.whispersystems.libsignal.ecc.ECPublicKey;
+import org.whispersystems.libsignal.state.PreKeyBundle;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.SignalWebSocket;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.internal.ServiceResponse;
+import org.whispersystems.signalservice.internal.push.PushServiceSocket;
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import org.whispersystems.signalservice.internal.websocket.WebsocketResponse;
+import org.whispersystems.util.Base64;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import io.reactivex.rxjava3.core.Single;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.whispersystems.signalservice.testutil.LibSignalLibraryUtil.assumeLibSignalSupportedOnOS;
+
+public class KeysServiceTest {
+
+  private static final SignalServiceAddress         DESTINATION = new SignalServiceAddress(UUID.fromString("12345678-1234-1234-1234-123456789012"));
+  private static final Optional<UnidentifiedAccess> NO_ACCESS   = Optional.absent();
+
+  private SignalWebSocket   signalWebSocket;
+  private PushServiceSocket pushServiceSocket;
+  private KeysService       subject;
+
+  @Before
+  public void setUp() {
+    signalWebSocket   = mock(SignalWebSocket.class);
+    pushServiceSocket = mock(PushServiceSocket.class);
+    subject           = new KeysService(signalWebSocket, pushServiceSocket);
+  }
+
+  @Test
+  public void givenWebSocketResponse_whenIGetPreKeys_thenIExpectBundlesFromIt() throws IOException {
+    assumeLibSignalSupportedOnOS();
+
+    IdentityKey identityKey  = new IdentityKey(Curve.generateKeyPair().getPublicKey());
+    ECPublicKey preKey       = Curve.generateKeyPair().getPublicKey();
+    ECPublicKey signedPreKey = Curve.generateKeyPair().getPublicKey();
+
+    String body = "{\"identityKey\":\"" + encode(identityKey.serialize()) + "\"," +
+                  "\"devices\":[{\"deviceId\":1,\"registrationId\":1234," +
+                  "\"preKey\":{\"keyId\":5,\"publicKey\":\"" + encode(preKey.serialize()) + "\"}," +
+                  "\"signedPreKey\":{\"keyId\":6,\"publicKey\":\"" + encode(signedPreKey.serialize()) + "\",\"signature\":\"" + encode(new byte[64]) + "\"}}]}";
+
+    respondOverWebSocket(Single.just(response(200, body)));
+
+    ServiceResponse<List<PreKeyBundle>> response = subject.getPreKeys(DESTINATION, NO_ACCESS, SignalServiceAddress.DEFAULT_DEVICE_ID).blockingGet();
+
+    assertTrue(response.getResult().isPresent());
+
+    PreKeyBundle bundle = response.getResult().get().get(0);
+
+    assertEquals(1, bundle.getDeviceId());
+    assertEquals(1234, bundle.getRegistrationId());
+    assertEquals(5, bundle.getPreKeyId());
+    assertEquals(6, bundle.getSignedPreKeyId());
+    assertEquals(identityKey, bundle.getIdentityKey());
+
+    assertEquals("/v2/keys/" + DESTINATION.getIdentifier() + "/*", capturedRequest().getPath());
+    verify(pushServiceSocket, never()).getPreKeys(any(), any(), anyInt());
+  }
+
+  @Test
+  public void givenNotFoundOverWebSocket_whenIGetPreKeys_thenIExpectUnregisteredWithoutFallback() throws IOException {
+    respondOverWebSocket(Single.just(response(404, "")));
+
+    ServiceResponse<List<PreKeyBundle>> response = subject.getPreKeys(DESTINATION, NO_ACCESS, 2).blockingGet();
+
+    assertFalse(response.getResult().isPresent());
+    assertTrue(response.getApplicationError().get() instanceof UnregisteredUserException);
+    assertEquals("/v2/keys/" + DESTINATION.getIdentifier() + "/2", capturedRequest().getPath());
+    verify(pushServiceSocket, never()).getPreKeys(any(), any(), anyInt());
+  }
+
+  @Test
+  public void givenWebSocketFailure_whenIGetPreKeys_thenIExpectRestFallback() throws IOException {
+    respondOverWebSocket(Single.error(new IOException("websocket unavailable")));
+    when(pushServiceSocket.getPreKeys(DESTINATION, NO_ACCESS, 2)).thenReturn(Collections.emptyList());
+
+    ServiceResponse<List<PreKeyBundle>> response = subject.getPreKeys(DESTINATION, NO_ACCESS, 2).blockingGet();
+
+    assertTrue(response.getResult().isPresent());
+    assertTrue(response.getResult().get().isEmpty());
+    verify(pushServiceSocket).getPreKeys(DESTINATION, NO_ACCESS, 2);
+  }
+
+  @Test
+  public void givenWebSocketAndRestFailure_whenIGetPreKeys_thenIExpectExecutionError() throws IOException {
+    IOException restFailure = new IOException("rest unavailable");
+
+    respondOverWebSocket(Single.error(new IOException("websocket unavailable")));
+    when(pushServiceSocket.getPreKeys(DESTINATION, NO_ACCESS, 2)).thenThrow(restFailure);
+
+    ServiceResponse<List<PreKeyBundle>> response = subject.getPreKeys(DESTINATION, NO_ACCESS, 2).blockingGet();
+
+    assertFalse(response.getResult().isPresent());
+    assertEquals(restFailure, response.getExecutionError().get());
+  }
+
+  private void respondOverWebSocket(Single<WebsocketResponse> response) {
+    when(signalWebSocket.request(any(WebSocketRequestMessage.class), any())).thenReturn(response);
+  }
+
+  private WebSocketRequestMessage capturedRequest() {
+    ArgumentCaptor<WebSocketRequestMessage> request = ArgumentCaptor.forClass(WebSocketRequestMessage.class);
+    verify(signalWebSocket).request(request.capture(), any());
+    return request.getValue();
+  }
+
+  private static WebsocketResponse response(int status, String body) {
+    WebsocketResponse response = mock(WebsocketResponse.class);
+
+    when(response.getStatus()).thenReturn(status);
+    when(response.getBody()).thenReturn(body);
+
+    return response;
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.encodeBytesWithoutPadding(bytes);
+  }
+}
@@ -0,0 +1,80 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointSelectorTest {
+
+  @Test
+  public void givenOneSlowEndpoint_whenISelect_thenIExpectTheFastEndpointToBePreferred() {
+    TestEndpoint fast = new TestEndpoint();
+    TestEndpoint slow = new TestEndpoint();
+
+    for (int i = 0; i < 20; i++) {
+      fast.health.recordSuccess(50);
+      slow.health.recordSuccess(2000);
+    }
+
+    TestEndpoint[] endpoints = { fast, slow };
+    Random         random    = new Random(1);
+    int            fastCount = 0;
+
+    for (int i = 0; i < 1000; i++) {
+      if (EndpointSelector.select(endpoints, random) == fast) {
+        fastCount++;
+      }
+    }
+
+    assertTrue("Fast endpoint selected " + fastCount + " times", fastCount > 950);
+    assertTrue("Slow endpoint never re-measured", fastCount < 1000);
+  }
+
+  @Test
+  public void givenFailingEndpoint_whenISelectAlternate_thenIExpectTheHealthyEndpoint() {
+    TestEndpoint healthy = new TestEndpoint();
+    TestEndpoint failing = new TestEndpoint();
+    TestEndpoint primary = new TestEndpoint();
+
+    healthy.health.recordSuccess(300);
+    failing.health.recordSuccess(100);
+    failing.health.recordFailure();
+    failing.health.recordFailure();
+
+    assertSame(healthy, EndpointSelector.selectAlternate(new TestEndpoint[] { primary, failing, healthy }, primary));
+  }
+
+  @Test
+  public void givenSingleEndpoint_whenISelectAlternate_thenIExpectNull() {
+    TestEndpoint only = new TestEndpoint();
+
+    assertEquals(null, EndpointSelector.selectAlternate(new TestEndpoint[] { only }, only));
+  }
+
+  @Test
+  public void givenLatencySamples_whenIGetPercentile_thenIExpectNearestRank() {
+    EndpointHealth health = new EndpointHealth();
+
+    assertEquals(-1, health.getLatencyPercentile(0.95));
+
+    for (int i = 1; i <= 20; i++) {
+      health.recordSuccess(i * 10);
+    }
+
+    assertEquals(190, health.getLatencyPercentile(0.95));
+    assertEquals(100, health.getLatencyPercentile(0.5));
+  }
+
+  private static final class TestEndpoint implements EndpointSelector.Endpoint {
+    private final EndpointHealth health = new EndpointHealth();
+
+    @Override
+    public EndpointHealth getHealth() {
+      return health;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgedCallTest {
+
+  private final OkHttpClient client = new OkHttpClient();
+
+  private HttpServer slowServer;
+  private HttpServer fastServer;
+
+  @Before
+  public void setUp() throws IOException {
+    slowServer = startServer("slow", 2000);
+    fastServer = startServer("fast", 0);
+  }
+
+  @After
+  public void tearDown() {
+    slowServer.stop(0);
+    fastServer.stop(0);
+  }
+
+  @Test
+  public void givenSlowPrimary_whenIExecute_thenIExpectTheHedgeToWin() throws IOException {
+    Call       primary = newCall(slowServer);
+    HedgedCall hedged  = new HedgedCall(primary, () -> newCall(fastServer), 50);
+
+    try (Response response = hedged.execute()) {
+      assertEquals("fast", response.body().string());
+    }
+
+    assertTrue(hedged.isHedgeStarted());
+    assertTrue(primary.isCanceled());
+  }
+
+  @Test
+  public void givenFastPrimary_whenIExecute_thenIExpectNoHedge() throws IOException {
+    HedgedCall hedged = new HedgedCall(newCall(fastServer), () -> newCall(slowServer), 1000);
+
+    try (Response response = hedged.execute()) {
+      assertEquals("fast", response.body().string());
+    }
+
+    assertFalse(hedged.isHedgeStarted());
+    assertEquals(1, hedged.getCalls().size());
+  }
+
+  @Test
+  public void givenPrimaryFinishesWhileHedgeIsCreated_whenIExecute_thenIExpectTheHedgeInCallsAndCanceled() throws IOException {
+    HttpServer primaryServer = startServer("primary", 100);
+    List<Call> created       = new CopyOnWriteArrayList<>();
+
+    HedgedCall hedged = new HedgedCall(newCall(primaryServer), () -> {
+      try {
+        Thread.sleep(300);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+
+      Call hedge = newCall(slowServer);
+      created.add(hedge);
+      return hedge;
+    }, 0);
+
+    try (Response response = hedged.execute()) {
+      assertEquals("primary", response.body().string());
+    } finally {
+      primaryServer.stop(0);
+    }
+
+    assertEquals(1, created.size());
+    assertTrue(hedged.getCalls().containsAll(created));
+    assertTrue(created.get(0).isCanceled());
+  }
+
+  @Test
+  public void givenBusyDispatcher_whenIExecute_thenIExpectNotToWaitForIt() throws IOException {
+    client.dispatcher().setMaxRequestsPerHost(1);
+
+    AtomicBoolean asyncFinished = new AtomicBoolean(false);
+
+    newCall(slowServer).enqueue(new Callback() {
+      @Override
+      public void onResponse(Call call, Response response) {
+        response.close();
+        asyncFinished.set(true);
+      }
+
+      @Override
+      public void onFailure(Call call, IOException e) {
+        asyncFinished.set(true);
+      }
+    });
+
+    HedgedCall hedged = new HedgedCall(newCall(fastServer), () -> newCall(fastServer), 1000);
+
+    try (Response response = hedged.execute()) {
+      assertEquals("fast", response.body().string());
+    }
+
+    assertFalse(asyncFinished.get());
+  }
+
+  @Test
+  public void givenHealthInterceptor_whenICallSlowServer_thenIExpectLatencyRecorded() throws IOException {
+    EndpointHealth health        = new EndpointHealth();
+    OkHttpClient   trackedClient = client.newBuilder().addInterceptor(new EndpointHealthInterceptor(health)).build();
+
+    HttpServer server = startServer("ok", 100);
+
+    try (Response response = trackedClient.newCall(new Request.Builder().url(urlFor(server)).build()).execute()) {
+      assertEquals("ok", response.body().string());
+    } finally {
+      server.stop(0);
+    }
+
+    assertTrue(health.getLatencyMillis() >= 100);
+    assertEquals(0, health.getErrorRate(), 0);
+  }
+
+  private Call newCall(HttpServer server) {
+    return client.newCall(new Request.Builder().url(urlFor(server)).build());
+  }
+
+  private static String urlFor(HttpServer server) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  private static HttpServer startServer(String body, long delayMillis) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+    server.createContext("/", exchange -> {
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, bytes.length);
+
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+
+    return server;
+  }
+}
@@ -0,0 +1,154 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.junit.Test;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessage;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessageList;
+import org.whispersystems.signalservice.internal.push.SignalServiceEnvelopeEntityList;
+import org.whispersystems.signalservice.internal.util.JsonUtil;
+import org.whispersystems.util.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class JsonRequestBodyTest {
+
+  private static final int DEVICES      = 5;
+  private static final int CONTENT_SIZE = 256 * 1024;
+
+  @Test
+  public void givenMessageList_whenIWriteTo_thenIExpectSameBytesAsStringSerialization() throws IOException {
+    OutgoingPushMessageList list = createMessageList(DEVICES, 1024);
+    JsonRequestBody         body = new JsonRequestBody(list);
+    byte[]                  expected = JsonUtil.toJson(list).getBytes(StandardCharsets.UTF_8);
+
+    try (Buffer buffer = new Buffer()) {
+      body.writeTo(buffer);
+      assertArrayEquals(expected, buffer.readByteArray());
+    }
+
+    assertEquals(expected.length, body.contentLength());
+  }
+
+  @Test
+  public void givenMessageList_whenIWriteToTwice_thenIExpectSameBytesBothTimes() throws IOException {
+    OutgoingPushMessageList list = createMessageList(DEVICES, 1024);
+    JsonRequestBody         body = new JsonRequestBody(list);
+
+    try (Buffer first = new Buffer(); Buffer second = new Buffer()) {
+      body.writeTo(first);
+      body.writeTo(second);
+
+      assertEquals(body.contentLength(), first.size());
+      assertArrayEquals(first.readByteArray(), second.readByteArray());
+    }
+  }
+
+  @Test
+  public void givenEnvelopeListJson_whenIParseFromStream_thenIExpectSameResultAsFromString() throws IOException {
+    byte[] content = new byte[1024];
+    new Random(1).nextBytes(content);
+
+    String json = "{\"messages\":[{\"type\":1,\"timestamp\":1000,\"sourceUuid\":\"12345678-1234-1234-1234-123456789012\",\"sourceDevice\":2,\"content\":\"" + Base64.encodeBytes(content) + "\",\"serverTimestamp\":2000,\"guid\":\"abc\"}]}";
+
+    SignalServiceEnvelopeEntityList fromString = JsonUtil.fromJson(json, SignalServiceEnvelopeEntityList.class);
+    SignalServiceEnvelopeEntityList fromStream = JsonUtil.fromJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), SignalServiceEnvelopeEntityList.class);
+
+    assertEquals(1, fromStream.getMessages().size());
+    assertEquals(fromString.getMessages().get(0).getTimestamp(), fromStream.getMessages().get(0).getTimestamp());
+    assertEquals(fromString.getMessages().get(0).getSourceUuid(), fromStream.getMessages().get(0).getSourceUuid());
+    assertArrayEquals(content, fromStream.getMessages().get(0).getContent());
+  }
+
+  /**
+   * Multi-device fan-out with a large payload. Building the JSON String and encoding it holds the
+   * whole document three times over (chars, bytes, sink), while streaming only fills the sink.
+   */
+  @Test
+  public void givenLargeMessageList_whenIWriteTo_thenIExpectFewerAllocationsThanStringSerialization() throws IOException {
+    assumeTrue(isAllocationCountingSupported());
+
+    OutgoingPushMessageList list = createMessageList(DEVICES, CONTENT_SIZE);
+
+    for (int i = 0; i < 3; i++) {
+      writeAsString(list);
+      writeStreaming(new JsonRequestBody(list));
+    }
+
+    long contentLength  = new JsonRequestBody(list).contentLength();
+    long stringBytes    = allocatedBytes(() -> writeAsString(list));
+    long streamingBytes = allocatedBytes(() -> writeStreaming(new JsonRequestBody(list)));
+
+    assertTrue(stringBytes > 2 * contentLength);
+    assertTrue(streamingBytes < 2 * contentLength);
+  }
+
+  @Test
+  public void givenSerializedBody_whenIWriteToAgain_thenIExpectNoSecondSerialization() throws IOException {
+    assumeTrue(isAllocationCountingSupported());
+
+    OutgoingPushMessageList list = createMessageList(DEVICES, CONTENT_SIZE);
+    JsonRequestBody         body = new JsonRequestBody(list);
+
+    writeStreaming(body);
+
+    long rewriteBytes = allocatedBytes(() -> writeStreaming(body));
+
+    assertTrue(rewriteBytes < body.contentLength() / 10);
+  }
+
+  private static void writeAsString(OutgoingPushMessageList list) throws IOException {
+    try (Buffer sink = new Buffer()) {
+      sink.write(JsonUtil.toJson(list).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static void writeStreaming(JsonRequestBody body) throws IOException {
+    try (Buffer sink = new Buffer()) {
+      body.writeTo(sink);
+    }
+  }
+
+  private static boolean isAllocationCountingSupported() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    return bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+  }
+
+  private static long allocatedBytes(IoRunnable runnable) throws IOException {
+    com.sun.management.ThreadMXBean bean     = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long                            threadId = Thread.currentThread().getId();
+    long                            start    = bean.getThreadAllocatedBytes(threadId);
+
+    runnable.run();
+
+    return bean.getThreadAllocatedBytes(threadId) - start;
+  }
+
+  private static OutgoingPushMessageList createMessageList(int devices, int contentSize) {
+    Random                    random   = new Random(1);
+    List<OutgoingPushMessage> messages = new ArrayList<>(devices);
+
+    for (int i = 1; i <= devices; i++) {
+      byte[] content = new byte[contentSize];
+      random.nextBytes(content);
+      messages.add(new OutgoingPushMessage(1, i, i, Base64.encodeBytes(content)));
+    }
+
+    return new OutgoingPushMessageList("+14152222222", 1000, messages, false);
+  }
+
+  private interface IoRunnable {
+    void run() throws IOException;
+  }
+}
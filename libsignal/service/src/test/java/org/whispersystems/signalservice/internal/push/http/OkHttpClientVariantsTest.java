@@ -0,0 +1,40 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.junit.Test;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OkHttpClientVariantsTest {
+
+  private final OkHttpClient         baseClient = new OkHttpClient.Builder().connectionPool(new ConnectionPool()).build();
+  private final OkHttpClientVariants variants   = new OkHttpClientVariants(baseClient);
+
+  @Test
+  public void givenSameVariant_whenIGetTwice_thenIExpectSameClient() {
+    OkHttpClient first  = variants.get(30_000, true, true);
+    OkHttpClient second = variants.get(30_000, true, true);
+
+    assertSame(first, second);
+    assertEquals(1, variants.size());
+  }
+
+  @Test
+  public void givenDifferentVariants_whenIGet_thenIExpectDistinctClientsSharingThePool() {
+    OkHttpClient first  = variants.get(30_000, true, true);
+    OkHttpClient second = variants.get(10_000, false, false);
+
+    assertNotSame(first, second);
+    assertEquals(2, variants.size());
+    assertEquals(10_000, second.readTimeoutMillis());
+    assertFalse(second.followRedirects());
+    assertFalse(second.retryOnConnectionFailure());
+    assertSame(baseClient.connectionPool(), first.connectionPool());
+    assertSame(baseClient.connectionPool(), second.connectionPool());
+  }
+}
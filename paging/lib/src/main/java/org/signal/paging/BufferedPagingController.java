@@ -26,15 +26,17 @@ class BufferedPagingController<Key, Data> implements PagingController<Key> {
   private final PagingConfig                config;
   private final MutableLiveData<List<Data>> liveData;
   private final Executor                    serializationExecutor;
+  private final PagingStats                 stats;
 
   private PagingController<Key> activeController;
   private int                   lastRequestedIndex;
 
-  BufferedPagingController(PagedDataSource<Key, Data> dataSource, PagingConfig config, @NonNull MutableLiveData<List<Data>> liveData) {
+  BufferedPagingController(PagedDataSource<Key, Data> dataSource, PagingConfig config, @NonNull MutableLiveData<List<Data>> liveData, @NonNull PagingStats stats) {
     this.dataSource            = dataSource;
     this.config                = config;
     this.liveData              = liveData;
     this.serializationExecutor = Executors.newSingleThreadExecutor();
+    this.stats                 = stats;
 
     this.activeController   = null;
     this.lastRequestedIndex = config.startIndex();
@@ -57,7 +59,7 @@ class BufferedPagingController<Key, Data> implements PagingController<Key> {
         activeController.onDataInvalidated();
       }
 
-      activeController = new FixedSizePagingController<>(dataSource, config, liveData, dataSource.size());
+      activeController = new FixedSizePagingController<>(dataSource, config, liveData, stats, dataSource.size());
       activeController.onDataNeededAroundIndex(lastRequestedIndex);
     });
   }
@@ -79,4 +81,13 @@ class BufferedPagingController<Key, Data> implements PagingController<Key> {
       }
     });
   }
+
+  @Override
+  public void onDataItemRemoved(Key key, int position) {
+    serializationExecutor.execute(() -> {
+      if (activeController != null) {
+        activeController.onDataItemRemoved(key, position);
+      }
+    });
+  }
 }
@@ -1,48 +1,300 @@
 package org.signal.paging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A placeholder class for efficiently storing lists that are mostly empty space.
- * TODO [greyson][paging]
+ * A list that's efficient at storing data that is mostly empty space, like a paged data set with
+ * only a few pages loaded.
+ *
+ * Positions are grouped into fixed-size chunks, and a chunk is only allocated once something
+ * non-null is put in it. Copying a list shares its chunks with the original, and a chunk is only
+ * copied the first time one of the lists writes to it. That means neither list may be written to
+ * concurrently with the copy being made, but both may be read.
+ *
+ * Lists emitted by {@link PagedData} may also carry the {@link ListChanges} that produced them from
+ * the previously emitted list. Those aren't carried over to copies.
  */
 public class CompressedList<E> extends AbstractList<E> {
 
-  private final List<E> wrapped;
+  private static final int CHUNK_SHIFT = 6;
+  private static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK  = CHUNK_SIZE - 1;
+
+  private Object[][] chunks;
+  private boolean[]  owned;
+  private int        size;
+
+  private ListChanges changes;
 
   public CompressedList(@NonNull List<E> source) {
-    this.wrapped = new ArrayList<>(source);
+    if (source instanceof CompressedList) {
+      CompressedList<E> compressed = (CompressedList<E>) source;
+
+      this.chunks = compressed.chunks.clone();
+      this.owned  = new boolean[chunks.length];
+      this.size   = compressed.size;
+
+      Arrays.fill(compressed.owned, false);
+    } else {
+      this.chunks = new Object[chunkCount(source.size())][];
+      this.owned  = new boolean[chunks.length];
+      this.size   = source.size();
+
+      for (int i = 0; i < size; i++) {
+        E element = source.get(i);
+        if (element != null) {
+          writableChunk(i >> CHUNK_SHIFT)[i & CHUNK_MASK] = element;
+        }
+      }
+    }
   }
 
   public CompressedList(int totalSize) {
-    this.wrapped = new ArrayList<>(totalSize);
-
-    for (int i = 0; i < totalSize; i++) {
-      wrapped.add(null);
+    if (totalSize < 0) {
+      throw new IllegalArgumentException("Requested: " + totalSize);
     }
+
+    this.chunks = new Object[chunkCount(totalSize)][];
+    this.owned  = new boolean[chunks.length];
+    this.size   = totalSize;
   }
 
   @Override
   public int size() {
-    return wrapped.size();
+    return size;
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public E get(int index) {
-    return wrapped.get(index);
+    checkIndex(index, size);
+
+    Object[] chunk = chunks[index >> CHUNK_SHIFT];
+    return chunk != null ? (E) chunk[index & CHUNK_MASK] : null;
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public E set(int globalIndex, E element) {
-    return wrapped.set(globalIndex, element);
+    checkIndex(globalIndex, size);
+
+    int      chunkIndex = globalIndex >> CHUNK_SHIFT;
+    Object[] chunk      = chunks[chunkIndex];
+
+    if (chunk == null) {
+      if (element != null) {
+        writableChunk(chunkIndex)[globalIndex & CHUNK_MASK] = element;
+      }
+      return null;
+    }
+
+    E previous = (E) chunk[globalIndex & CHUNK_MASK];
+
+    if (previous != element) {
+      writableChunk(chunkIndex)[globalIndex & CHUNK_MASK] = element;
+    }
+
+    return previous;
+  }
+
+  /**
+   * Equivalent to calling {@link #set(int, Object)} for each of the elements, starting at
+   * {@code startIndex}, but only looks up and copies each chunk once.
+   */
+  public void setRange(int startIndex, @NonNull List<? extends E> elements) {
+    if (startIndex < 0 || startIndex + elements.size() > size) {
+      throw new IndexOutOfBoundsException("Start: " + startIndex + ", count: " + elements.size() + ", size: " + size);
+    }
+
+    int i = 0;
+
+    while (i < elements.size()) {
+      int      position   = startIndex + i;
+      int      chunkIndex = position >> CHUNK_SHIFT;
+      int      offset     = position & CHUNK_MASK;
+      int      count      = Math.min(CHUNK_SIZE - offset, elements.size() - i);
+      Object[] chunk      = writableChunk(chunkIndex);
+
+      for (int j = 0; j < count; j++) {
+        chunk[offset + j] = elements.get(i + j);
+      }
+
+      i += count;
+    }
+
+    modCount++;
+  }
+
+  /**
+   * Sets everything in the range to null, dropping any chunks that fall entirely inside of it.
+   */
+  public void clearRange(int startInclusive, int endExclusive) {
+    if (startInclusive < 0 || endExclusive > size || startInclusive > endExclusive) {
+      throw new IndexOutOfBoundsException("Start: " + startInclusive + ", end: " + endExclusive + ", size: " + size);
+    }
+
+    int position = startInclusive;
+
+    while (position < endExclusive) {
+      int chunkIndex = position >> CHUNK_SHIFT;
+      int offset     = position & CHUNK_MASK;
+      int count      = Math.min(CHUNK_SIZE - offset, endExclusive - position);
+
+      if (count == CHUNK_SIZE) {
+        chunks[chunkIndex] = null;
+        owned[chunkIndex]  = false;
+      } else if (chunks[chunkIndex] != null) {
+        Arrays.fill(writableChunk(chunkIndex), offset, offset + count, null);
+      }
+
+      position += count;
+    }
+
+    modCount++;
   }
 
+  /**
+   * Shifts everything after the index over by one. This only touches allocated chunks, so it's
+   * cheap for a list that's mostly empty, even if it's large.
+   */
   @Override
   public void add(int index, E element) {
-    wrapped.add(index, element);
+    checkIndex(index, size + 1);
+
+    if (chunkCount(size + 1) > chunks.length) {
+      int capacity = Math.max(chunks.length + 1, chunks.length + (chunks.length >> 1));
+
+      chunks = Arrays.copyOf(chunks, capacity);
+      owned  = Arrays.copyOf(owned, capacity);
+    }
+
+    int firstChunk = index >> CHUNK_SHIFT;
+    int lastChunk  = size >> CHUNK_SHIFT;
+
+    for (int c = lastChunk; c > firstChunk; c--) {
+      Object[] previous = chunks[c - 1];
+      Object   carry    = previous != null ? previous[CHUNK_SIZE - 1] : null;
+
+      if (chunks[c] != null) {
+        Object[] chunk = writableChunk(c);
+        System.arraycopy(chunk, 0, chunk, 1, CHUNK_SIZE - 1);
+        chunk[0] = carry;
+      } else if (carry != null) {
+        writableChunk(c)[0] = carry;
+      }
+    }
+
+    int offset = index & CHUNK_MASK;
+
+    if (chunks[firstChunk] != null) {
+      Object[] chunk = writableChunk(firstChunk);
+      System.arraycopy(chunk, offset, chunk, offset + 1, CHUNK_SIZE - 1 - offset);
+      chunk[offset] = element;
+    } else if (element != null) {
+      writableChunk(firstChunk)[offset] = element;
+    }
+
+    size++;
+    modCount++;
+  }
+
+  /**
+   * Shifts everything after the index back by one. Like {@link #add(int, Object)}, this only
+   * touches allocated chunks.
+   */
+  @Override
+  public E remove(int index) {
+    checkIndex(index, size);
+
+    E removed = get(index);
+
+    int firstChunk = index >> CHUNK_SHIFT;
+    int lastChunk  = (size - 1) >> CHUNK_SHIFT;
+    int offset     = index & CHUNK_MASK;
+
+    if (chunks[firstChunk] != null) {
+      Object[] chunk = writableChunk(firstChunk);
+      System.arraycopy(chunk, offset + 1, chunk, offset, CHUNK_SIZE - 1 - offset);
+      chunk[CHUNK_SIZE - 1] = null;
+    }
+
+    for (int c = firstChunk + 1; c <= lastChunk; c++) {
+      if (chunks[c] == null) {
+        continue;
+      }
+
+      Object[] chunk = writableChunk(c);
+
+      if (chunk[0] != null) {
+        writableChunk(c - 1)[CHUNK_SIZE - 1] = chunk[0];
+      }
+
+      System.arraycopy(chunk, 1, chunk, 0, CHUNK_SIZE - 1);
+      chunk[CHUNK_SIZE - 1] = null;
+    }
+
+    size--;
+    modCount++;
+
+    return removed;
+  }
+
+  /**
+   * @return The changes that turned the previously emitted list into this one, if it was produced
+   *         by an incremental update.
+   */
+  public @Nullable ListChanges getChanges() {
+    return changes;
+  }
+
+  void setChanges(@Nullable ListChanges changes) {
+    this.changes = changes;
+  }
+
+  /**
+   * @return How many chunks have been allocated, whether or not they're shared with another list.
+   */
+  int getAllocatedChunkCount() {
+    int count = 0;
+
+    for (Object[] chunk : chunks) {
+      if (chunk != null) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  private @NonNull Object[] writableChunk(int chunkIndex) {
+    Object[] chunk = chunks[chunkIndex];
+
+    if (chunk == null) {
+      chunk = new Object[CHUNK_SIZE];
+    } else if (!owned[chunkIndex]) {
+      chunk = chunk.clone();
+    } else {
+      return chunk;
+    }
+
+    chunks[chunkIndex] = chunk;
+    owned[chunkIndex]  = true;
+
+    return chunk;
+  }
+
+  private static int chunkCount(int size) {
+    return (size + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
   }
 }
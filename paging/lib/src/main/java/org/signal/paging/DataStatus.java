@@ -7,13 +7,20 @@ import java.util.BitSet;
 
 /**
  * Keeps track of what data is empty vs filled with an emphasis on doing so in a space-efficient way.
+ *
+ * Mostly used from the controller's thread, but loads that are canceled on a fetch thread unmark
+ * their ranges too, so access is synchronized.
  */
 class DataStatus {
 
   private static final Pools.Pool<BitSet> POOL = new Pools.SynchronizedPool<>(1);
 
   private final BitSet state;
-  private final int    size;
+
+  private int     size;
+  private BitSet  evicted;
+  private boolean recycled;
+  private int     structureVersion;
 
   public static DataStatus obtain(int size) {
     BitSet bitset = POOL.acquire();
@@ -31,11 +38,65 @@ class DataStatus {
     this.state = bitset;
   }
 
-  void markRange(int startInclusive, int endExclusive) {
+  /**
+   * @return How many of the positions in the range had previously been evicted, and are therefore
+   *         being reloaded.
+   */
+  synchronized int markRange(int startInclusive, int endExclusive) {
     state.set(startInclusive, endExclusive, true);
+
+    if (evicted == null) {
+      return 0;
+    }
+
+    int reloaded = evicted.get(startInclusive, endExclusive).cardinality();
+    evicted.clear(startInclusive, endExclusive);
+
+    return reloaded;
   }
 
-  int getEarliestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
+  /**
+   * Unmarks everything in the range, and remembers what was marked, so that loading it again can be
+   * counted as a reload.
+   *
+   * @return How many positions in the range were marked.
+   */
+  synchronized int evictRange(int startInclusive, int endExclusive) {
+    int count = 0;
+
+    for (int i = state.nextSetBit(startInclusive); i >= 0 && i < endExclusive; i = state.nextSetBit(i + 1)) {
+      if (evicted == null) {
+        evicted = new BitSet(size);
+      }
+
+      evicted.set(i);
+      count++;
+    }
+
+    state.clear(startInclusive, endExclusive);
+
+    return count;
+  }
+
+  /**
+   * Unmarks everything in the range without counting it as evicted. Does nothing once this has been
+   * recycled, since the underlying state may already belong to someone else.
+   */
+  synchronized void unmarkRange(int startInclusive, int endExclusive) {
+    if (!recycled) {
+      state.clear(startInclusive, endExclusive);
+    }
+  }
+
+  /**
+   * @return True if anything outside of the range is marked.
+   */
+  synchronized boolean hasMarkedOutsideRange(int startInclusive, int endExclusive) {
+    int first = state.nextSetBit(0);
+    return (first >= 0 && first < startInclusive) || state.nextSetBit(endExclusive) >= 0;
+  }
+
+  synchronized int getEarliestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
     for (int i = startInclusive; i < endExclusive; i++) {
       if (!state.get(i)) {
         return i;
@@ -44,7 +105,7 @@ class DataStatus {
     return -1;
   }
 
-  int getLatestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
+  synchronized int getLatestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
     for (int i = endExclusive - 1; i >= startInclusive; i--) {
       if (!state.get(i)) {
         return i;
@@ -53,11 +114,66 @@ class DataStatus {
     return -1;
   }
 
-  int size() {
+  /**
+   * Makes room for a new position, shifting everything at or after it over by one.
+   */
+  synchronized void insert(int position, boolean marked) {
+    shift(state, position, size, 1);
+    state.set(position, marked);
+
+    if (evicted != null) {
+      shift(evicted, position, size, 1);
+    }
+
+    size++;
+    structureVersion++;
+  }
+
+  /**
+   * Drops a position, shifting everything after it back by one. Like {@link #unmarkRange(int, int)},
+   * this can be called from a fetch thread, so it does nothing once this has been recycled.
+   */
+  synchronized void remove(int position) {
+    if (recycled) {
+      return;
+    }
+
+    shift(state, position + 1, size, -1);
+
+    if (evicted != null) {
+      shift(evicted, position + 1, size, -1);
+    }
+
+    size--;
+    structureVersion++;
+  }
+
+  /**
+   * @return A count of the inserts and removes so far. Each one moves a range by at most one
+   *         position, so the difference between two versions bounds how far a range may have moved.
+   */
+  synchronized int getStructureVersion() {
+    return structureVersion;
+  }
+
+  synchronized int size() {
     return size;
   }
 
-  void recycle() {
-    POOL.release(state);
+  private static void shift(@NonNull BitSet bits, int startInclusive, int endExclusive, int distance) {
+    BitSet moved = bits.get(startInclusive, endExclusive);
+
+    bits.clear(Math.min(startInclusive, startInclusive + distance), endExclusive + Math.max(0, distance));
+
+    for (int i = moved.nextSetBit(0); i >= 0; i = moved.nextSetBit(i + 1)) {
+      bits.set(startInclusive + distance + i);
+    }
+  }
+
+  synchronized void recycle() {
+    if (!recycled) {
+      recycled = true;
+      POOL.release(state);
+    }
   }
 }
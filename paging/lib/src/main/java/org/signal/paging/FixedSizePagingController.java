@@ -3,14 +3,13 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.MutableLiveData;
 
-import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The workhorse of managing page requests.
@@ -19,41 +18,59 @@ import java.util.concurrent.Executor;
  * a fixed size throughout. It assumes that all interface methods are called on a single thread,
  * which allows it to keep track of pending requests in a thread-safe way, while spinning off
  * tasks to fetch data on its own executor.
+ *
+ * The positions of loaded keys are only written on the fetch queue, but they're also read on the
+ * controller's thread, so that inserts of items that are already loaded can be dropped right away.
  */
 class FixedSizePagingController<Key, Data> implements PagingController<Key> {
 
   private static final String TAG = FixedSizePagingController.class.getSimpleName();
 
-  private static final Executor FETCH_EXECUTOR = SignalExecutors.newCachedSingleThreadExecutor("signal-FixedSizePagingController");
-  private static final boolean  DEBUG          = false;
+  private static final boolean DEBUG = false;
 
   private final PagedDataSource<Key, Data>  dataSource;
   private final PagingConfig                config;
   private final MutableLiveData<List<Data>> liveData;
   private final DataStatus                  loadState;
   private final Map<Key, Integer>           keyToPosition;
+  private final PagingStats                 stats;
+  private final PagingFetchExecutor.Queue   fetchQueue;
 
-  private List<Data> data;
+  private CompressedList<Data> data;
 
   private volatile boolean invalidated;
+  private volatile int     lastNeededIndex;
 
   FixedSizePagingController(@NonNull PagedDataSource<Key, Data> dataSource,
                             @NonNull PagingConfig config,
                             @NonNull MutableLiveData<List<Data>> liveData,
+                            @NonNull PagingStats stats,
                             int size)
+  {
+    this(dataSource, config, liveData, stats, size, PagingFetchExecutor.INSTANCE.newQueue());
+  }
+
+  FixedSizePagingController(@NonNull PagedDataSource<Key, Data> dataSource,
+                            @NonNull PagingConfig config,
+                            @NonNull MutableLiveData<List<Data>> liveData,
+                            @NonNull PagingStats stats,
+                            int size,
+                            @NonNull PagingFetchExecutor.Queue fetchQueue)
   {
     this.dataSource    = dataSource;
     this.config        = config;
     this.liveData      = liveData;
     this.loadState     = DataStatus.obtain(size);
     this.data          = new CompressedList<>(loadState.size());
-    this.keyToPosition = new HashMap<>();
+    this.keyToPosition = new ConcurrentHashMap<>();
+    this.stats         = stats;
+    this.fetchQueue    = fetchQueue;
   }
 
   /**
    * We assume this method is always called on the same thread, so we can read our
    * {@code loadState} and construct the parameters of a fetch request. That fetch request can
-   * then be performed on separate single-thread executor.
+   * then be performed on this controller's queue in the {@link PagingFetchExecutor}.
    */
   @Override
   public void onDataNeededAroundIndex(int aroundIndex) {
@@ -67,10 +84,16 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
       return;
     }
 
+    lastNeededIndex = aroundIndex;
+
     int leftPageBoundary  = (aroundIndex / config.pageSize()) * config.pageSize();
     int rightPageBoundary = leftPageBoundary + config.pageSize();
     int buffer            = config.bufferPages() * config.pageSize();
 
+    if (config.evictionWindowPages() > 0) {
+      evictOutsideWindow(leftPageBoundary, rightPageBoundary);
+    }
+
     int leftLoadBoundary  = Math.max(0, leftPageBoundary - buffer);
     int rightLoadBoundary = Math.min(loadState.size(), rightPageBoundary + buffer);
 
@@ -90,35 +113,53 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
 
     int totalSize = loadState.size();
 
-    loadState.markRange(loadStart, loadEnd);
+    int reloaded = loadState.markRange(loadStart, loadEnd);
+
+    if (reloaded > 0) {
+      stats.onReloaded(reloaded);
+    }
 
     if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "start: " + loadStart + ", end: " + loadEnd + ", totalSize: " + totalSize));
 
-    FETCH_EXECUTOR.execute(() -> {
+    int structureVersion = loadState.getStructureVersion();
+
+    fetchQueue.executeLoad(() -> {
       if (invalidated) {
         Log.w(TAG, buildLog(aroundIndex, "Invalidated! At beginning of load task."));
         return;
       }
 
-      List<Data> loaded = dataSource.load(loadStart, loadEnd - loadStart, () -> invalidated);
+      if (isOutsideLoadWindow(loadStart, loadEnd)) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "Canceled before load, now at " + lastNeededIndex));
+        cancelLoad(loadStart, loadEnd, structureVersion);
+        return;
+      }
+
+      PagedDataSource.CancellationSignal cancellationSignal = () -> invalidated || isOutsideLoadWindow(loadStart, loadEnd);
+
+      List<Data> loaded = dataSource.load(loadStart, loadEnd - loadStart, cancellationSignal);
 
       if (invalidated) {
         Log.w(TAG, buildLog(aroundIndex, "Invalidated! Just after data was loaded."));
         return;
       }
 
-      List<Data> updated = new CompressedList<>(data);
+      if (cancellationSignal.isCanceled()) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "Canceled during load, now at " + lastNeededIndex));
+        cancelLoad(loadStart, loadEnd, structureVersion);
+        return;
+      }
 
-      for (int i = 0, len = Math.min(loaded.size(), data.size() - loadStart); i < len; i++) {
-        int  position = loadStart + i;
-        Data item     = loaded.get(i);
+      CompressedList<Data> updated = new CompressedList<>(data);
+      List<Data>           inRange = loaded.subList(0, Math.min(loaded.size(), data.size() - loadStart));
 
-        updated.set(position, item);
-        keyToPosition.put(dataSource.getKey(item), position);
+      updated.setRange(loadStart, inRange);
+
+      for (int i = 0; i < inRange.size(); i++) {
+        keyToPosition.put(dataSource.getKey(inRange.get(i)), loadStart + i);
       }
 
-      data = updated;
-      liveData.postValue(updated);
+      publish(updated, new ListChanges.Builder().changed(loadStart, inRange.size()));
     });
   }
 
@@ -134,7 +175,11 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
 
   @Override
   public void onDataItemChanged(Key key) {
-    FETCH_EXECUTOR.execute(() -> {
+    fetchQueue.execute(() -> {
+      if (invalidated) {
+        return;
+      }
+
       Integer position = keyToPosition.get(key);
 
       if (position == null) {
@@ -149,36 +194,205 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
         return;
       }
 
-      List<Data> updatedList = new CompressedList<>(data);
+      CompressedList<Data> updatedList = new CompressedList<>(data);
 
       updatedList.set(position, item);
-      data = updatedList;
-      liveData.postValue(updatedList);
+      publish(updatedList, new ListChanges.Builder().changed(position, 1));
     });
   }
 
+  /**
+   * The position is claimed here, on the controller's thread, so that any load requested after this
+   * is already working with the new positions. The item itself is loaded on the fetch queue, after
+   * every load requested before this.
+   *
+   * If the item has already been loaded, like when the data was invalidated and reloaded with the
+   * item in it before the insert was reported, the insert is dropped. That's checked again on the
+   * fetch queue, since a load that was requested earlier may only get to the item there, in which
+   * case the claimed position is given back.
+   */
   @Override
   public void onDataItemInserted(Key key, int position) {
-    FETCH_EXECUTOR.execute(() -> {
+    if (invalidated) {
+      return;
+    }
+
+    if (position < 0 || position > loadState.size()) {
+      Log.w(TAG, "Notified of key " + key + " being inserted at " + position + ", but the size is " + loadState.size() + "!");
+      return;
+    }
+
+    if (keyToPosition.containsKey(key)) {
+      Log.w(TAG, "Notified of key " + key + " being inserted at " + position + ", but the item already exists!");
+      return;
+    }
+
+    loadState.insert(position, true);
+
+    fetchQueue.execute(() -> {
+      if (invalidated) {
+        return;
+      }
+
       if (keyToPosition.containsKey(key)) {
-        Log.w(TAG, "Notified of key " + key + " being inserted at " + position + ", but the item already exists!");
+        Log.w(TAG, "Notified of key " + key + " being inserted at " + position + ", but the item was loaded in the meantime!");
+        loadState.remove(position);
         return;
       }
 
+      dataSource.onItemInserted(position);
+
       Data item = dataSource.load(key);
 
       if (item == null) {
         Log.w(TAG, "Notified of key " + key + " being inserted at " + position + ", but the loaded item was null!");
-        return;
+        loadState.unmarkRange(position, position + 1);
       }
 
-      List<Data> updatedList = new CompressedList<>(data);
+      CompressedList<Data> updatedList = new CompressedList<>(data);
 
       updatedList.add(position, item);
-      keyToPosition.put(dataSource.getKey(item), position);
+      shiftPositions(position, 1);
+
+      if (item != null) {
+        keyToPosition.put(dataSource.getKey(item), position);
+      }
+
+      publish(updatedList, new ListChanges.Builder().inserted(position, 1));
+    });
+  }
+
+  /**
+   * Like {@link #onDataItemInserted(Object, int)}, the position is dropped right away, and the item
+   * is removed from the data on the fetch queue.
+   */
+  @Override
+  public void onDataItemRemoved(Key key, int position) {
+    if (invalidated) {
+      return;
+    }
+
+    if (position < 0 || position >= loadState.size()) {
+      Log.w(TAG, "Notified of key " + key + " being removed from " + position + ", but the size is " + loadState.size() + "!");
+      return;
+    }
+
+    loadState.remove(position);
+
+    fetchQueue.execute(() -> {
+      if (invalidated) {
+        return;
+      }
+
+      dataSource.onItemRemoved(position);
+
+      Integer cachedPosition = keyToPosition.remove(key);
+
+      if (cachedPosition != null && cachedPosition != position) {
+        Log.w(TAG, "Notified of key " + key + " being removed from " + position + ", but it was at " + cachedPosition + "!");
+      }
+
+      CompressedList<Data> updatedList = new CompressedList<>(data);
+
+      updatedList.remove(position);
+      shiftPositions(position + 1, -1);
+
+      publish(updatedList, new ListChanges.Builder().removed(position, 1));
+    });
+  }
+
+  /**
+   * Moves every cached position at or after the provided one by the distance.
+   */
+  private void shiftPositions(int startPosition, int distance) {
+    for (Map.Entry<Key, Integer> entry : keyToPosition.entrySet()) {
+      if (entry.getValue() >= startPosition) {
+        entry.setValue(entry.getValue() + distance);
+      }
+    }
+  }
+
+  /**
+   * Must be called on the fetch queue.
+   */
+  private void publish(@NonNull CompressedList<Data> updated, @NonNull ListChanges.Builder changes) {
+    updated.setChanges(changes.build(data));
+
+    data = updated;
+    liveData.postValue(updated);
+  }
+
+  /**
+   * A load is stale once the range it's loading no longer overlaps with the range that would be
+   * loaded around the most recently needed index, like after a fling.
+   */
+  private boolean isOutsideLoadWindow(int loadStart, int loadEnd) {
+    int leftPageBoundary  = (lastNeededIndex / config.pageSize()) * config.pageSize();
+    int buffer            = config.bufferPages() * config.pageSize();
+    int leftLoadBoundary  = leftPageBoundary - buffer;
+    int rightLoadBoundary = leftPageBoundary + config.pageSize() + buffer;
+
+    return loadEnd <= leftLoadBoundary || loadStart >= rightLoadBoundary;
+  }
+
+  /**
+   * Unmarks a range that won't be loaded after all, so that it'll be requested again if it's
+   * needed. If items were inserted or removed since the load was requested, the range may have
+   * moved, so it's widened to cover everywhere it could be. Unmarking too much only means that
+   * something may be loaded twice.
+   */
+  private void cancelLoad(int loadStart, int loadEnd, int structureVersion) {
+    int drift = loadState.getStructureVersion() - structureVersion;
+
+    loadState.unmarkRange(Math.max(0, loadStart - drift), Math.min(loadState.size(), loadEnd + drift));
+    stats.onCanceled(loadEnd - loadStart);
+  }
+
+  /**
+   * Drops everything that's been loaded outside of the eviction window around the active page, so
+   * that memory use doesn't grow with how far the data has been scrolled. The dropped positions
+   * are unmarked, so they'll be loaded again if they're needed.
+   */
+  private void evictOutsideWindow(int leftPageBoundary, int rightPageBoundary) {
+    int pagesBefore = (config.evictionWindowPages() - 1) / 2;
+    int pagesAfter  = config.evictionWindowPages() - 1 - pagesBefore;
+    int windowStart = Math.max(0, leftPageBoundary - pagesBefore * config.pageSize());
+    int windowEnd   = Math.min(loadState.size(), rightPageBoundary + pagesAfter * config.pageSize());
+
+    if (!loadState.hasMarkedOutsideRange(windowStart, windowEnd)) {
+      return;
+    }
+
+    int evicted = loadState.evictRange(0, windowStart) + loadState.evictRange(windowEnd, loadState.size());
+
+    stats.onEvicted(evicted);
+
+    if (DEBUG) Log.i(TAG, "Evicting " + evicted + " items outside of [" + windowStart + ", " + windowEnd + "), " + stats);
+
+    fetchQueue.execute(() -> {
+      if (invalidated) {
+        Log.w(TAG, "Invalidated! At beginning of eviction task.");
+        return;
+      }
+
+      CompressedList<Data> updated = new CompressedList<>(data);
+      int                  end     = Math.min(windowEnd, updated.size());
+
+      updated.clearRange(0, Math.min(windowStart, end));
+      updated.clearRange(end, updated.size());
+
+      Iterator<Integer> positions = keyToPosition.values().iterator();
+
+      while (positions.hasNext()) {
+        int position = positions.next();
+
+        if (position < windowStart || position >= end) {
+          positions.remove();
+        }
+      }
 
-      data = updatedList;
-      liveData.postValue(updatedList);
+      publish(updated, new ListChanges.Builder().changed(0, Math.min(windowStart, end))
+                                                .changed(end, updated.size() - end));
     });
   }
 
@@ -0,0 +1,198 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link PagedDataSource} for data sets that are cheap to query relative to a known item (keyset,
+ * or "seek", pagination) but expensive to query by absolute position, such as a large table read
+ * with OFFSET.
+ *
+ * It remembers the anchors at the boundaries of every page it has loaded, and turns each
+ * positional request into a request relative to the nearest of them. Only when no anchor is closer
+ * than the start of the data set does it fall back to a positional load.
+ *
+ * Because a new size is requested at the start of every invalidation cycle, {@link #size()} is
+ * also where previously remembered anchors are dropped. Single inserts and removals don't start a
+ * new cycle, so they shift the remembered positions instead.
+ */
+public final class KeysetPagedDataSource<Key, Data, Anchor> implements PagedDataSource<Key, Data> {
+
+  private final Source<Key, Data, Anchor> source;
+  private final TreeMap<Integer, Anchor>  anchors = new TreeMap<>();
+
+  private int generation;
+
+  public KeysetPagedDataSource(@NonNull Source<Key, Data, Anchor> source) {
+    this.source = source;
+  }
+
+  @Override
+  public int size() {
+    synchronized (anchors) {
+      anchors.clear();
+      generation++;
+    }
+
+    return source.size();
+  }
+
+  @Override
+  public @NonNull List<Data> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    Map.Entry<Integer, Anchor> before;
+    Map.Entry<Integer, Anchor> after;
+    int                        loadGeneration;
+
+    synchronized (anchors) {
+      before         = anchors.floorEntry(start - 1);
+      after          = anchors.ceilingEntry(start + length);
+      loadGeneration = generation;
+    }
+
+    int beforeDistance = before != null ? start - 1 - before.getKey() : Integer.MAX_VALUE;
+    int afterDistance  = after  != null ? after.getKey() - (start + length) : Integer.MAX_VALUE;
+
+    List<Data> loaded;
+
+    if (start <= beforeDistance && start <= afterDistance) {
+      loaded = source.load(start, length, cancellationSignal);
+    } else if (beforeDistance <= afterDistance) {
+      loaded = source.loadAfter(before.getValue(), beforeDistance, length, cancellationSignal);
+    } else {
+      loaded = source.loadBefore(after.getValue(), afterDistance, length, cancellationSignal);
+    }
+
+    if (!cancellationSignal.isCanceled()) {
+      remember(loadGeneration, start, loaded);
+    }
+
+    return loaded;
+  }
+
+  @Override
+  public @Nullable Data load(Key key) {
+    return source.load(key);
+  }
+
+  @Override
+  public @NonNull Key getKey(@NonNull Data data) {
+    return source.getKey(data);
+  }
+
+  @Override
+  public void onItemInserted(int position) {
+    synchronized (anchors) {
+      shiftAnchors(position, 1);
+      generation++;
+    }
+  }
+
+  @Override
+  public void onItemRemoved(int position) {
+    synchronized (anchors) {
+      anchors.remove(position);
+      shiftAnchors(position + 1, -1);
+      generation++;
+    }
+  }
+
+  int getAnchorCount() {
+    synchronized (anchors) {
+      return anchors.size();
+    }
+  }
+
+  private void remember(int loadGeneration, int start, @NonNull List<Data> loaded) {
+    if (loaded.isEmpty()) {
+      return;
+    }
+
+    Anchor first = source.getAnchor(loaded.get(0));
+    Anchor last  = source.getAnchor(loaded.get(loaded.size() - 1));
+
+    synchronized (anchors) {
+      if (loadGeneration != generation) {
+        return;
+      }
+
+      if (first != null) {
+        anchors.put(start, first);
+      }
+
+      if (last != null) {
+        anchors.put(start + loaded.size() - 1, last);
+      }
+    }
+  }
+
+  /**
+   * Moves every anchor at or after the provided position by the distance. Must be called while
+   * holding the lock on {@link #anchors}.
+   */
+  private void shiftAnchors(int startPosition, int distance) {
+    Map<Integer, Anchor> shifted = anchors.tailMap(startPosition, true);
+
+    if (shifted.isEmpty()) {
+      return;
+    }
+
+    TreeMap<Integer, Anchor> moved = new TreeMap<>();
+
+    for (Map.Entry<Integer, Anchor> entry : shifted.entrySet()) {
+      moved.put(entry.getKey() + distance, entry.getValue());
+    }
+
+    shifted.clear();
+    anchors.putAll(moved);
+  }
+
+  public interface Source<Key, Data, Anchor> {
+    /**
+     * @see PagedDataSource#size()
+     */
+    @WorkerThread
+    int size();
+
+    /**
+     * Positional load, used when no anchor is nearer than the start of the data set.
+     *
+     * @see PagedDataSource#load(int, int, CancellationSignal)
+     */
+    @WorkerThread
+    @NonNull List<Data> load(int start, int length, @NonNull CancellationSignal cancellationSignal);
+
+    /**
+     * @param skip The number of items directly after the anchor that should not be included.
+     *
+     * @return Up to {@code length} items that follow the anchor, in data set order.
+     */
+    @WorkerThread
+    @NonNull List<Data> loadAfter(@NonNull Anchor anchor, int skip, int length, @NonNull CancellationSignal cancellationSignal);
+
+    /**
+     * @param skip The number of items directly before the anchor that should not be included.
+     *
+     * @return Up to {@code length} items that precede the anchor, in data set order. The last item
+     *         returned is the one {@code skip + 1} positions before the anchor.
+     */
+    @WorkerThread
+    @NonNull List<Data> loadBefore(@NonNull Anchor anchor, int skip, int length, @NonNull CancellationSignal cancellationSignal);
+
+    @WorkerThread
+    @Nullable Data load(Key key);
+
+    @WorkerThread
+    @NonNull Key getKey(@NonNull Data data);
+
+    /**
+     * @return The anchor for an item, or null if the item can't be used as one (e.g. it is not
+     *         backed by the underlying store).
+     */
+    @Nullable Anchor getAnchor(@NonNull Data data);
+  }
+}
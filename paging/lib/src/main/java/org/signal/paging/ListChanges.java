@@ -0,0 +1,105 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes exactly how a list emitted by {@link PagedData} differs from the list that was emitted
+ * right before it, so that a consumer that's showing that previous list can apply the changes
+ * directly rather than diffing the two.
+ *
+ * {@link PagedData#getData()} may skip emissions, so a consumer must check {@link #appliesTo(List)}
+ * first, and fall back to a full diff if the changes are relative to some other list.
+ */
+public final class ListChanges {
+
+  private final WeakReference<List<?>> previous;
+  private final List<Change>           changes;
+
+  private ListChanges(@NonNull List<?> previous, @NonNull List<Change> changes) {
+    this.previous = new WeakReference<>(previous);
+    this.changes  = changes;
+  }
+
+  /**
+   * @return The changes that turn the previous list into this one, or null if the list didn't come
+   *         from an incremental update, like the first list after an invalidation.
+   */
+  public static @Nullable ListChanges of(@Nullable List<?> list) {
+    return list instanceof CompressedList ? ((CompressedList<?>) list).getChanges() : null;
+  }
+
+  /**
+   * @return True if these changes were made relative to the provided list.
+   */
+  public boolean appliesTo(@Nullable List<?> list) {
+    return list != null && previous.get() == list;
+  }
+
+  /**
+   * Reports each change in the order it was made, so positions are always relative to the list as
+   * it was after the changes before it.
+   */
+  public void dispatchTo(@NonNull Callback callback) {
+    for (Change change : changes) {
+      switch (change.type) {
+        case INSERTED: callback.onInserted(change.position, change.count); break;
+        case REMOVED:  callback.onRemoved(change.position, change.count);  break;
+        case CHANGED:  callback.onChanged(change.position, change.count);  break;
+      }
+    }
+  }
+
+  public interface Callback {
+    void onInserted(int position, int count);
+    void onRemoved(int position, int count);
+    void onChanged(int position, int count);
+  }
+
+  static final class Builder {
+    private final List<Change> changes = new ArrayList<>(1);
+
+    @NonNull Builder inserted(int position, int count) {
+      return add(Type.INSERTED, position, count);
+    }
+
+    @NonNull Builder removed(int position, int count) {
+      return add(Type.REMOVED, position, count);
+    }
+
+    @NonNull Builder changed(int position, int count) {
+      return add(Type.CHANGED, position, count);
+    }
+
+    @NonNull ListChanges build(@NonNull List<?> previous) {
+      return new ListChanges(previous, changes);
+    }
+
+    private @NonNull Builder add(@NonNull Type type, int position, int count) {
+      if (count > 0) {
+        changes.add(new Change(type, position, count));
+      }
+      return this;
+    }
+  }
+
+  private enum Type {
+    INSERTED, REMOVED, CHANGED
+  }
+
+  private static final class Change {
+    private final Type type;
+    private final int  position;
+    private final int  count;
+
+    private Change(@NonNull Type type, int position, int count) {
+      this.type     = type;
+      this.position = position;
+      this.count    = count;
+    }
+  }
+}
@@ -14,18 +14,21 @@ public final class PagedData<Key, Data> {
 
   private final LiveData<List<Data>>  data;
   private final PagingController<Key> controller;
+  private final PagingStats           stats;
 
   @AnyThread
   public static <Key, Data> PagedData<Key, Data> create(@NonNull PagedDataSource<Key, Data> dataSource, @NonNull PagingConfig config) {
     MutableLiveData<List<Data>> liveData   = new MutableLiveData<>();
-    PagingController<Key>       controller = new BufferedPagingController<>(dataSource, config, liveData);
+    PagingStats                 stats      = new PagingStats();
+    PagingController<Key>       controller = new BufferedPagingController<>(dataSource, config, liveData, stats);
 
-    return new PagedData<>(liveData, controller);
+    return new PagedData<>(liveData, controller, stats);
   }
 
-  private PagedData(@NonNull LiveData<List<Data>> data, @NonNull PagingController<Key> controller) {
+  private PagedData(@NonNull LiveData<List<Data>> data, @NonNull PagingController<Key> controller, @NonNull PagingStats stats) {
     this.data       = data;
     this.controller = controller;
+    this.stats      = stats;
   }
 
   @AnyThread
@@ -37,4 +40,9 @@ public final class PagedData<Key, Data> {
   public @NonNull PagingController<Key> getController() {
     return controller;
   }
+
+  @AnyThread
+  public @NonNull PagingStats getStats() {
+    return stats;
+  }
 }
@@ -33,6 +33,20 @@ public interface PagedDataSource<Key, Data> {
   @WorkerThread
   @NonNull Key getKey(@NonNull Data data);
 
+  /**
+   * Called when an item has been inserted at a position without the data set being invalidated,
+   * in order with respect to every load. Only data sources that track positions need to care.
+   */
+  @WorkerThread
+  default void onItemInserted(int position) {}
+
+  /**
+   * Called when the item at a position has been removed without the data set being invalidated,
+   * in order with respect to every load. Only data sources that track positions need to care.
+   */
+  @WorkerThread
+  default void onItemRemoved(int position) {}
+
   interface CancellationSignal {
     /**
      * @return True if the operation has been canceled, otherwise false.
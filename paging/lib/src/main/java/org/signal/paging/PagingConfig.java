@@ -12,11 +12,13 @@ public final class PagingConfig {
   private final int bufferPages;
   private final int startIndex;
   private final int pageSize;
+  private final int evictionWindowPages;
 
   private PagingConfig(@NonNull Builder builder) {
-    this.bufferPages = builder.bufferPages;
-    this.startIndex  = builder.startIndex;
-    this.pageSize    = builder.pageSize;
+    this.bufferPages         = builder.bufferPages;
+    this.startIndex          = builder.startIndex;
+    this.pageSize            = builder.pageSize;
+    this.evictionWindowPages = builder.evictionWindowPages;
   }
 
   /**
@@ -42,11 +44,21 @@ public final class PagingConfig {
     return startIndex;
   }
 
+  /**
+   * @return How many pages around the active position to keep in memory. Anything loaded outside of
+   *         that window is dropped, and loaded again if it's needed. 0 if nothing should be dropped.
+   */
+  int evictionWindowPages() {
+    return evictionWindowPages;
+  }
+
   public static class Builder {
     private int bufferPages = 1;
     private int startIndex  = 0;
     private int pageSize    = 50;
 
+    private int evictionWindowPages = 0;
+
     public @NonNull Builder setBufferPages(int bufferPages) {
       if (bufferPages < 1) {
         throw new IllegalArgumentException("You must have at least one buffer page! Requested: " + bufferPages);
@@ -74,7 +86,25 @@ public final class PagingConfig {
       return this;
     }
 
+    /**
+     * Bounds memory use by only keeping this many pages around the active position, no matter how
+     * far the data has been scrolled through. It must cover the active page and the buffer pages on
+     * either side of it. 0, the default, keeps everything that's been loaded.
+     */
+    public @NonNull Builder setEvictionWindowPages(int evictionWindowPages) {
+      if (evictionWindowPages < 0) {
+        throw new IllegalArgumentException("You can't have a negative eviction window! Requested: " + evictionWindowPages);
+      }
+
+      this.evictionWindowPages = evictionWindowPages;
+      return this;
+    }
+
     public @NonNull PagingConfig build() {
+      if (evictionWindowPages > 0 && evictionWindowPages < bufferPages * 2 + 1) {
+        throw new IllegalArgumentException("The eviction window must cover the buffer pages on either side of the active page! Requested: " + evictionWindowPages + ", buffer pages: " + bufferPages);
+      }
+
       return new PagingConfig(this);
     }
   }
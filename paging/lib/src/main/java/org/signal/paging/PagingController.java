@@ -6,4 +6,5 @@ public interface PagingController<Key> {
   void onDataInvalidated();
   void onDataItemChanged(Key key);
   void onDataItemInserted(Key key, int position);
+  void onDataItemRemoved(Key key, int position);
 }
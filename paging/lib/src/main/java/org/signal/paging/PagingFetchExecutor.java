@@ -0,0 +1,113 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.concurrent.SignalExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the fetches for every {@link FixedSizePagingController} on a small, shared pool of workers,
+ * while giving each controller its own serial queue. That way a slow load in one list can't hold up
+ * loads for another, but each controller still sees its tasks run one at a time.
+ *
+ * Within a queue, loads are run latest-first, like {@link org.signal.core.util.concurrent.LatestPrioritizedSerialExecutor},
+ * since the most recent request is the one closest to what the user is looking at. Unlike that
+ * executor, older loads aren't dropped, because the controller has already marked their ranges as
+ * loading. They're expected to notice that they're stale and cancel themselves instead.
+ *
+ * Any other task acts as a barrier: it runs after every load that was queued before it, and before
+ * every load that was queued after it, so that updates are applied in the order they were made.
+ */
+final class PagingFetchExecutor {
+
+  private static final int MAX_WORKERS = 3;
+
+  static final PagingFetchExecutor INSTANCE = new PagingFetchExecutor(SignalExecutors.newCachedBoundedExecutor("signal-PagingFetch", 1, MAX_WORKERS));
+
+  private final Executor workers;
+
+  PagingFetchExecutor(@NonNull Executor workers) {
+    this.workers = workers;
+  }
+
+  @NonNull Queue newQueue() {
+    return new Queue();
+  }
+
+  final class Queue implements Executor {
+
+    private final List<Task> tasks = new ArrayList<>();
+
+    private boolean active;
+
+    /**
+     * Runs the task in order with respect to every other task in the queue.
+     */
+    @Override
+    public synchronized void execute(@NonNull Runnable runnable) {
+      tasks.add(new Task(runnable, false));
+      scheduleNextIfIdle();
+    }
+
+    /**
+     * Runs the load ahead of any loads that were queued before it, unless a non-load task is
+     * between them.
+     */
+    synchronized void executeLoad(@NonNull Runnable runnable) {
+      tasks.add(new Task(runnable, true));
+      scheduleNextIfIdle();
+    }
+
+    private void scheduleNextIfIdle() {
+      if (!active) {
+        scheduleNext();
+      }
+    }
+
+    private synchronized void scheduleNext() {
+      if (tasks.isEmpty()) {
+        active = false;
+        return;
+      }
+
+      active = true;
+
+      Runnable next = tasks.remove(nextIndex()).runnable;
+
+      workers.execute(() -> {
+        try {
+          next.run();
+        } finally {
+          scheduleNext();
+        }
+      });
+    }
+
+    /**
+     * @return The latest load before the first barrier, or the barrier itself if there are no loads
+     *         ahead of it.
+     */
+    private int nextIndex() {
+      for (int i = 0; i < tasks.size(); i++) {
+        if (!tasks.get(i).load) {
+          return Math.max(0, i - 1);
+        }
+      }
+
+      return tasks.size() - 1;
+    }
+  }
+
+  private static final class Task {
+    private final Runnable runnable;
+    private final boolean  load;
+
+    private Task(@NonNull Runnable runnable, boolean load) {
+      this.runnable = runnable;
+      this.load     = load;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Counts how much paged data has been evicted to stay within
+ * {@link PagingConfig.Builder#setEvictionWindowPages(int)}, and how much of it had to be loaded
+ * again, as well as how much was canceled because it was no longer needed by the time it would
+ * have been loaded. Carries over across invalidations of the data.
+ */
+public final class PagingStats {
+
+  private long evicted;
+  private long reloaded;
+  private long canceled;
+
+  synchronized void onEvicted(int count) {
+    evicted += count;
+  }
+
+  synchronized void onReloaded(int count) {
+    reloaded += count;
+  }
+
+  synchronized void onCanceled(int count) {
+    canceled += count;
+  }
+
+  public synchronized long getEvictedCount() {
+    return evicted;
+  }
+
+  public synchronized long getReloadedCount() {
+    return reloaded;
+  }
+
+  public synchronized long getCanceledCount() {
+    return canceled;
+  }
+
+  @Override
+  public synchronized @NonNull String toString() {
+    return "evicted: " + evicted + ", reloaded: " + reloaded + ", canceled: " + canceled;
+  }
+}
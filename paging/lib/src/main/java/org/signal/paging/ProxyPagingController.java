@@ -39,6 +39,13 @@ public class ProxyPagingController<Key> implements PagingController<Key> {
     }
   }
 
+  @Override
+  public void onDataItemRemoved(Key key, int position) {
+    if (proxied != null) {
+      proxied.onDataItemRemoved(key, position);
+    }
+  }
+
   /**
    * Updates the underlying controller to the one specified.
    */
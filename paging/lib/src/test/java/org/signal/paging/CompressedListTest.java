@@ -0,0 +1,292 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public final class CompressedListTest {
+
+  @Test
+  public void givenNewList_whenIGet_thenIExpectNulls() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    assertEquals(1000, list.size());
+    assertNull(list.get(0));
+    assertNull(list.get(999));
+    assertEquals(0, list.getAllocatedChunkCount());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void givenNewList_whenIGetPastTheEnd_thenIExpectException() {
+    new CompressedList<Integer>(10).get(10);
+  }
+
+  @Test
+  public void givenNewList_whenISet_thenIExpectOnlyThatChunkAllocated() {
+    CompressedList<Integer> list = new CompressedList<>(300_000);
+
+    assertNull(list.set(150_000, 1));
+
+    assertEquals(Integer.valueOf(1), list.get(150_000));
+    assertNull(list.get(149_999));
+    assertNull(list.get(150_001));
+    assertEquals(1, list.getAllocatedChunkCount());
+  }
+
+  @Test
+  public void givenNewList_whenISetNull_thenIExpectNothingAllocated() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    list.set(5, null);
+
+    assertEquals(0, list.getAllocatedChunkCount());
+  }
+
+  @Test
+  public void givenNewList_whenISetRangeAcrossChunks_thenIExpectValues() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    list.setRange(60, range(60, 100));
+
+    assertNull(list.get(59));
+    for (int i = 60; i < 160; i++) {
+      assertEquals(Integer.valueOf(i), list.get(i));
+    }
+    assertNull(list.get(160));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void givenNewList_whenISetRangePastTheEnd_thenIExpectException() {
+    new CompressedList<Integer>(10).setRange(5, range(5, 6));
+  }
+
+  @Test
+  public void givenCopy_whenIWriteToCopy_thenIExpectOriginalUnchanged() {
+    CompressedList<Integer> original = new CompressedList<>(1000);
+    original.setRange(0, range(0, 10));
+
+    CompressedList<Integer> copy = new CompressedList<>(original);
+    copy.set(5, -5);
+    copy.set(500, 500);
+
+    assertEquals(Integer.valueOf(5), original.get(5));
+    assertNull(original.get(500));
+    assertEquals(Integer.valueOf(-5), copy.get(5));
+    assertEquals(Integer.valueOf(500), copy.get(500));
+  }
+
+  @Test
+  public void givenCopy_whenIWriteToOriginal_thenIExpectCopyUnchanged() {
+    CompressedList<Integer> original = new CompressedList<>(1000);
+    original.setRange(0, range(0, 10));
+
+    CompressedList<Integer> copy = new CompressedList<>(original);
+    original.set(5, -5);
+
+    assertEquals(Integer.valueOf(5), copy.get(5));
+    assertEquals(Integer.valueOf(-5), original.get(5));
+  }
+
+  @Test
+  public void givenArrayList_whenICopy_thenIExpectEqualList() {
+    List<Integer> source = new ArrayList<>(Collections.nCopies(200, null));
+    source.set(3, 3);
+    source.set(150, 150);
+
+    CompressedList<Integer> list = new CompressedList<>(source);
+
+    assertEquals(source, list);
+    assertEquals(2, list.getAllocatedChunkCount());
+  }
+
+  @Test
+  public void givenLoadedList_whenIClearRange_thenIExpectNullsAndChunksDropped() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+    list.setRange(0, range(0, 1000));
+
+    list.clearRange(10, 300);
+
+    assertEquals(Integer.valueOf(9), list.get(9));
+    assertNull(list.get(10));
+    assertNull(list.get(299));
+    assertEquals(Integer.valueOf(300), list.get(300));
+    assertEquals(16 - 3, list.getAllocatedChunkCount());
+  }
+
+  @Test
+  public void givenCopy_whenIClearRange_thenIExpectOriginalUnchanged() {
+    CompressedList<Integer> original = new CompressedList<>(200);
+    original.setRange(0, range(0, 200));
+
+    CompressedList<Integer> copy = new CompressedList<>(original);
+    copy.clearRange(0, 100);
+
+    assertEquals(range(0, 200), original);
+    assertNull(copy.get(99));
+    assertEquals(Integer.valueOf(100), copy.get(100));
+  }
+
+  @Test
+  public void givenSparseList_whenIAdd_thenIExpectSameResultAsArrayList() {
+    List<Integer>           expected = new ArrayList<>(Collections.nCopies(300, null));
+    CompressedList<Integer> list     = new CompressedList<>(300);
+
+    for (int i : Arrays.asList(0, 63, 64, 127, 128, 200, 299)) {
+      expected.set(i, i);
+      list.set(i, i);
+    }
+
+    for (int index : Arrays.asList(0, 64, 65, 10, 301, 150, 306)) {
+      expected.add(index, -index);
+      list.add(index, -index);
+
+      assertEquals(expected, list);
+    }
+  }
+
+  @Test
+  public void givenSparseList_whenIRemove_thenIExpectSameResultAsArrayList() {
+    List<Integer>           expected = new ArrayList<>(Collections.nCopies(300, null));
+    CompressedList<Integer> list     = new CompressedList<>(300);
+
+    for (int i : Arrays.asList(0, 1, 63, 64, 127, 128, 200, 299)) {
+      expected.set(i, i);
+      list.set(i, i);
+    }
+
+    for (int index : Arrays.asList(0, 63, 62, 100, 295, 126, 0)) {
+      assertEquals(expected.remove(index), list.remove(index));
+      assertEquals(expected, list);
+    }
+  }
+
+  @Test
+  public void givenCopy_whenIRemoveFromCopy_thenIExpectOriginalUnchanged() {
+    CompressedList<Integer> original = new CompressedList<>(200);
+    original.setRange(0, range(0, 200));
+
+    CompressedList<Integer> copy = new CompressedList<>(original);
+    copy.remove(0);
+
+    assertEquals(range(0, 200), original);
+    assertEquals(range(1, 199), copy);
+  }
+
+  @Test
+  public void givenCopy_whenICheckChanges_thenIExpectNone() {
+    CompressedList<Integer> original = new CompressedList<>(10);
+    original.setChanges(new ListChanges.Builder().changed(0, 1).build(Collections.emptyList()));
+
+    assertNull(new CompressedList<>(original).getChanges());
+  }
+
+  @Test
+  public void givenEmptyList_whenIAdd_thenIExpectGrowth() {
+    CompressedList<Integer> list = new CompressedList<>(0);
+
+    for (int i = 0; i < 200; i++) {
+      list.add(i, i);
+    }
+
+    assertEquals(range(0, 200), list);
+  }
+
+  /**
+   * Pages through a large conversation the way the controller does, loading each page into a copy
+   * of the previous list. Only the chunks holding loaded items should ever be allocated.
+   */
+  @Test
+  public void givenLargeList_whenIPageThroughCopies_thenIExpectOnlyLoadedChunksAllocated() {
+    int size     = 300_000;
+    int pageSize = 50;
+    int pages    = 20;
+    int loaded   = pages * pageSize;
+
+    CompressedList<Integer> data = new CompressedList<>(size);
+    for (int p = 0; p < pages; p++) {
+      CompressedList<Integer> updated = new CompressedList<>(data);
+      updated.setRange(p * pageSize, range(p * pageSize, pageSize));
+      data = updated;
+    }
+
+    CompressedList<Integer> loadedAtOnce = new CompressedList<>(size);
+    loadedAtOnce.setRange(0, range(0, loaded));
+
+    assertEquals(loadedAtOnce.getAllocatedChunkCount(), data.getAllocatedChunkCount());
+    assertEquals(range(0, loaded), data.subList(0, loaded));
+    assertNull(data.get(loaded));
+    assertEquals(size, data.size());
+  }
+
+  /**
+   * Same paging as above, compared against the ArrayList full of nulls that used to back each
+   * emitted list, which had to be copied in full for every page.
+   */
+  @Test
+  public void givenLargeList_whenIPageThroughCopies_thenIExpectFarFewerAllocationsThanArrayList() {
+    assumeTrue(isAllocationCountingSupported());
+
+    int                 size     = 300_000;
+    int                 pageSize = 50;
+    int                 pages    = 20;
+    List<List<Integer>> loads    = new ArrayList<>(pages);
+
+    for (int p = 0; p < pages; p++) {
+      loads.add(range(p * pageSize, pageSize));
+    }
+
+    List<Integer> arrayList = new ArrayList<>(Collections.nCopies(size, null));
+    long          start     = allocatedBytes();
+
+    for (int p = 0; p < pages; p++) {
+      List<Integer> updated = new ArrayList<>(arrayList);
+      for (int i = 0; i < pageSize; i++) {
+        updated.set(p * pageSize + i, loads.get(p).get(i));
+      }
+      arrayList = updated;
+    }
+
+    long arrayListBytes = allocatedBytes() - start;
+
+    CompressedList<Integer> compressed = new CompressedList<>(size);
+    start = allocatedBytes();
+
+    for (int p = 0; p < pages; p++) {
+      CompressedList<Integer> updated = new CompressedList<>(compressed);
+      updated.setRange(p * pageSize, loads.get(p));
+      compressed = updated;
+    }
+
+    long compressedBytes = allocatedBytes() - start;
+
+    assertEquals(arrayList, compressed);
+    assertTrue(compressedBytes * 10 < arrayListBytes);
+  }
+
+  private static boolean isAllocationCountingSupported() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    return bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static List<Integer> range(int start, int length) {
+    List<Integer> values = new ArrayList<>(length);
+    for (int i = start; i < start + length; i++) {
+      values.add(i);
+    }
+    return values;
+  }
+}
@@ -0,0 +1,122 @@
+package org.signal.paging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class DataStatusTest {
+
+  private DataStatus status;
+
+  @Before
+  public void setUp() {
+    status = DataStatus.obtain(1000);
+  }
+
+  @After
+  public void tearDown() {
+    status.recycle();
+  }
+
+  @Test
+  public void givenMarkedRange_whenIEvictPartOfIt_thenIExpectItUnmarked() {
+    status.markRange(100, 200);
+
+    assertEquals(50, status.evictRange(0, 150));
+
+    assertEquals(0, status.getEarliestUnmarkedIndexInRange(0, 1000));
+    assertEquals(100, status.getEarliestUnmarkedIndexInRange(100, 1000));
+    assertEquals(-1, status.getEarliestUnmarkedIndexInRange(150, 200));
+  }
+
+  @Test
+  public void givenEvictedRange_whenIMarkItAgain_thenIExpectReloadsCounted() {
+    assertEquals(0, status.markRange(100, 200));
+    status.evictRange(100, 150);
+
+    assertEquals(50, status.markRange(0, 300));
+    assertEquals(0, status.markRange(100, 150));
+  }
+
+  @Test
+  public void givenMarkedRange_whenICheckOutside_thenIExpectMarksOutsideFound() {
+    assertFalse(status.hasMarkedOutsideRange(0, 1000));
+
+    status.markRange(100, 200);
+
+    assertFalse(status.hasMarkedOutsideRange(100, 200));
+    assertFalse(status.hasMarkedOutsideRange(50, 250));
+    assertTrue(status.hasMarkedOutsideRange(101, 200));
+    assertTrue(status.hasMarkedOutsideRange(100, 199));
+  }
+
+  @Test
+  public void givenMarkedRange_whenIUnmark_thenIExpectNoEvictionRecorded() {
+    status.markRange(100, 200);
+    status.unmarkRange(100, 150);
+
+    assertEquals(100, status.getEarliestUnmarkedIndexInRange(100, 200));
+    assertEquals(0, status.markRange(100, 150));
+  }
+
+  @Test
+  public void givenRecycledStatus_whenIUnmark_thenIExpectReusedStateUntouched() {
+    status.markRange(0, 10);
+    status.recycle();
+
+    DataStatus reused = DataStatus.obtain(1000);
+    reused.markRange(0, 10);
+
+    status.unmarkRange(0, 10);
+
+    assertEquals(-1, reused.getEarliestUnmarkedIndexInRange(0, 10));
+    reused.recycle();
+  }
+
+  @Test
+  public void givenMarkedRange_whenIInsertBeforeIt_thenIExpectItShifted() {
+    status.markRange(10, 20);
+
+    status.insert(5, false);
+
+    assertEquals(1001, status.size());
+    assertEquals(1, status.getStructureVersion());
+    assertEquals(-1, status.getEarliestUnmarkedIndexInRange(11, 21));
+    assertEquals(21, status.getEarliestUnmarkedIndexInRange(11, 30));
+  }
+
+  @Test
+  public void givenMarkedRange_whenIInsertMarkedInsideIt_thenIExpectItExtended() {
+    status.markRange(10, 20);
+
+    status.insert(15, true);
+
+    assertEquals(-1, status.getEarliestUnmarkedIndexInRange(10, 21));
+    assertEquals(21, status.getEarliestUnmarkedIndexInRange(10, 30));
+  }
+
+  @Test
+  public void givenMarkedRange_whenIRemoveBeforeIt_thenIExpectItShifted() {
+    status.markRange(10, 20);
+
+    status.remove(0);
+
+    assertEquals(999, status.size());
+    assertEquals(-1, status.getEarliestUnmarkedIndexInRange(9, 19));
+    assertEquals(19, status.getEarliestUnmarkedIndexInRange(9, 30));
+  }
+
+  @Test
+  public void givenEvictedRange_whenIRemoveBeforeIt_thenIExpectReloadsShifted() {
+    status.markRange(10, 20);
+    status.evictRange(10, 20);
+
+    status.remove(0);
+
+    assertEquals(10, status.markRange(9, 19));
+  }
+}
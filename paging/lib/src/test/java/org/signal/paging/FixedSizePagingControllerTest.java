@@ -0,0 +1,214 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.MutableLiveData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class FixedSizePagingControllerTest {
+
+  private static final PagingConfig CONFIG = new PagingConfig.Builder().setPageSize(10)
+                                                                       .setBufferPages(1)
+                                                                       .build();
+
+  private TestExecutor workers;
+  private FakeSource   source;
+  private TestLiveData liveData;
+  private PagingStats  stats;
+
+  @Before
+  public void setUp() {
+    workers  = new TestExecutor();
+    source   = new FakeSource(100);
+    liveData = new TestLiveData();
+    stats    = new PagingStats();
+  }
+
+  @Test
+  public void givenLoadedData_whenIInsertAtStart_thenIExpectItemAddedAndOthersShifted() {
+    FixedSizePagingController<Integer, Integer> controller = newController(CONFIG);
+
+    controller.onDataNeededAroundIndex(0);
+    workers.runAll();
+
+    source.items.add(0, 1000);
+    controller.onDataItemInserted(1000, 0);
+    workers.runAll();
+
+    assertEquals(101, liveData.latest.size());
+    assertEquals(1000, (int) liveData.latest.get(0));
+    assertEquals(0, (int) liveData.latest.get(1));
+  }
+
+  @Test
+  public void givenLoadedData_whenIRemoveItem_thenIExpectItemDroppedAndOthersShifted() {
+    FixedSizePagingController<Integer, Integer> controller = newController(CONFIG);
+
+    controller.onDataNeededAroundIndex(0);
+    workers.runAll();
+
+    source.items.remove(5);
+    controller.onDataItemRemoved(5, 5);
+    workers.runAll();
+
+    assertEquals(99, liveData.latest.size());
+    assertEquals(4, (int) liveData.latest.get(4));
+    assertEquals(6, (int) liveData.latest.get(5));
+  }
+
+  @Test
+  public void givenItemAlreadyLoaded_whenIInsertIt_thenIExpectInsertDropped() {
+    source.items.add(0, 1000);
+
+    FixedSizePagingController<Integer, Integer> controller = newController(CONFIG);
+
+    controller.onDataNeededAroundIndex(0);
+    workers.runAll();
+
+    controller.onDataItemInserted(1000, 0);
+
+    assertEquals(0, workers.pending());
+    assertEquals(101, liveData.latest.size());
+    assertEquals(1, Collections.frequency(liveData.latest, 1000));
+  }
+
+  @Test
+  public void givenItemLoadedBeforeInsertRuns_whenIInsertIt_thenIExpectInsertDropped() {
+    source.items.add(0, 1000);
+
+    FixedSizePagingController<Integer, Integer> controller = newController(CONFIG);
+
+    controller.onDataNeededAroundIndex(0);
+    controller.onDataItemInserted(1000, 0);
+    workers.runAll();
+
+    assertEquals(101, liveData.latest.size());
+    assertEquals(1, Collections.frequency(liveData.latest, 1000));
+
+    controller.onDataNeededAroundIndex(100);
+    workers.runAll();
+
+    assertEquals(101, liveData.latest.size());
+    assertEquals(99, (int) liveData.latest.get(100));
+  }
+
+  @Test
+  public void givenEvictionWindow_whenIMoveFarAway_thenIExpectOldItemsEvicted() {
+    PagingConfig config = new PagingConfig.Builder().setPageSize(10)
+                                                    .setBufferPages(1)
+                                                    .setEvictionWindowPages(3)
+                                                    .build();
+
+    FixedSizePagingController<Integer, Integer> controller = newController(config);
+
+    controller.onDataNeededAroundIndex(0);
+    workers.runAll();
+
+    controller.onDataNeededAroundIndex(50);
+    workers.runAll();
+
+    assertEquals(20, stats.getEvictedCount());
+    assertNull(liveData.latest.get(0));
+    assertEquals(50, (int) liveData.latest.get(50));
+
+    controller.onDataNeededAroundIndex(0);
+    workers.runAll();
+
+    assertEquals(0, (int) liveData.latest.get(0));
+    assertEquals(20, stats.getReloadedCount());
+  }
+
+  @Test
+  public void givenStaleLoad_whenIMoveAwayBeforeItRuns_thenIExpectItCanceledAndLoadableAgain() {
+    FixedSizePagingController<Integer, Integer> controller = newController(CONFIG);
+
+    controller.onDataNeededAroundIndex(0);
+    controller.onDataNeededAroundIndex(50);
+    workers.runAll();
+
+    assertEquals(20, stats.getCanceledCount());
+    assertNull(liveData.latest.get(0));
+    assertEquals(50, (int) liveData.latest.get(50));
+
+    controller.onDataNeededAroundIndex(0);
+    workers.runAll();
+
+    assertEquals(0, (int) liveData.latest.get(0));
+  }
+
+  private @NonNull FixedSizePagingController<Integer, Integer> newController(@NonNull PagingConfig config) {
+    return new FixedSizePagingController<>(source, config, liveData, stats, source.size(), new PagingFetchExecutor(workers).newQueue());
+  }
+
+  private static final class FakeSource implements PagedDataSource<Integer, Integer> {
+
+    private final List<Integer> items = new ArrayList<>();
+
+    FakeSource(int size) {
+      for (int i = 0; i < size; i++) {
+        items.add(i);
+      }
+    }
+
+    @Override
+    public int size() {
+      return items.size();
+    }
+
+    @Override
+    public @NonNull List<Integer> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
+      return new ArrayList<>(items.subList(start, Math.min(items.size(), start + length)));
+    }
+
+    @Override
+    public @Nullable Integer load(Integer key) {
+      return items.contains(key) ? key : null;
+    }
+
+    @Override
+    public @NonNull Integer getKey(@NonNull Integer data) {
+      return data;
+    }
+  }
+
+  private static final class TestLiveData extends MutableLiveData<List<Integer>> {
+
+    private List<Integer> latest;
+
+    @Override
+    public void postValue(List<Integer> value) {
+      latest = value;
+    }
+  }
+
+  private static final class TestExecutor implements Executor {
+
+    private final LinkedList<Runnable> tasks = new LinkedList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.removeFirst().run();
+      }
+    }
+
+    int pending() {
+      return tasks.size();
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public final class KeysetPagedDataSourceTest {
+
+  private static final PagedDataSource.CancellationSignal NOT_CANCELED = () -> false;
+
+  private FakeSource                                       source;
+  private KeysetPagedDataSource<Integer, Integer, Integer> dataSource;
+
+  @Before
+  public void setUp() {
+    source     = new FakeSource(1000);
+    dataSource = new KeysetPagedDataSource<>(source);
+    dataSource.size();
+  }
+
+  @Test
+  public void givenNoAnchors_whenILoad_thenIExpectPositionalLoad() {
+    List<Integer> result = dataSource.load(500, 10, NOT_CANCELED);
+
+    assertEquals(range(500, 10), result);
+    assertEquals(1, source.positionalLoads);
+  }
+
+  @Test
+  public void givenPreviousPage_whenILoadNextPage_thenIExpectLoadAfterWithNoSkip() {
+    dataSource.load(500, 10, NOT_CANCELED);
+
+    List<Integer> result = dataSource.load(510, 10, NOT_CANCELED);
+
+    assertEquals(range(510, 10), result);
+    assertEquals(1, source.afterLoads);
+    assertEquals(0, source.lastSkip);
+  }
+
+  @Test
+  public void givenLaterPage_whenILoadPreviousPage_thenIExpectLoadBeforeWithNoSkip() {
+    dataSource.load(500, 10, NOT_CANCELED);
+
+    List<Integer> result = dataSource.load(490, 10, NOT_CANCELED);
+
+    assertEquals(range(490, 10), result);
+    assertEquals(1, source.beforeLoads);
+    assertEquals(0, source.lastSkip);
+  }
+
+  @Test
+  public void givenGap_whenILoad_thenIExpectNearestAnchorAndSkip() {
+    dataSource.load(500, 10, NOT_CANCELED);
+    dataSource.load(600, 10, NOT_CANCELED);
+
+    List<Integer> result = dataSource.load(580, 10, NOT_CANCELED);
+
+    assertEquals(range(580, 10), result);
+    assertEquals(1, source.beforeLoads);
+    assertEquals(10, source.lastSkip);
+  }
+
+  @Test
+  public void givenAnchorFartherThanStart_whenILoad_thenIExpectPositionalLoad() {
+    dataSource.load(500, 10, NOT_CANCELED);
+
+    List<Integer> result = dataSource.load(20, 10, NOT_CANCELED);
+
+    assertEquals(range(20, 10), result);
+    assertEquals(2, source.positionalLoads);
+  }
+
+  @Test
+  public void givenInvalidation_whenILoad_thenIExpectAnchorsForgotten() {
+    dataSource.load(500, 10, NOT_CANCELED);
+    dataSource.size();
+
+    dataSource.load(510, 10, NOT_CANCELED);
+
+    assertEquals(0, source.afterLoads);
+    assertEquals(2, source.positionalLoads);
+  }
+
+  @Test
+  public void givenInsertAtStart_whenILoadMiddlePage_thenIExpectShiftedItems() {
+    dataSource.load(500, 10, NOT_CANCELED);
+
+    source.insert(0);
+    dataSource.onItemInserted(0);
+
+    List<Integer> result = dataSource.load(511, 10, NOT_CANCELED);
+
+    assertEquals(source.items.subList(511, 521), result);
+    assertEquals(1, source.afterLoads);
+  }
+
+  @Test
+  public void givenRemoveAtStart_whenILoadMiddlePage_thenIExpectShiftedItems() {
+    dataSource.load(500, 10, NOT_CANCELED);
+
+    source.remove(0);
+    dataSource.onItemRemoved(0);
+
+    List<Integer> result = dataSource.load(509, 10, NOT_CANCELED);
+
+    assertEquals(source.items.subList(509, 519), result);
+    assertEquals(1, source.afterLoads);
+  }
+
+  @Test
+  public void givenRemovedAnchor_whenIRemove_thenIExpectAnchorForgotten() {
+    dataSource.load(500, 10, NOT_CANCELED);
+
+    dataSource.onItemRemoved(500);
+
+    assertEquals(1, dataSource.getAnchorCount());
+  }
+
+  @Test
+  public void givenCanceledLoad_whenILoad_thenIExpectNoAnchorsRemembered() {
+    dataSource.load(500, 10, () -> true);
+
+    assertEquals(0, dataSource.getAnchorCount());
+  }
+
+  private static List<Integer> range(int start, int length) {
+    List<Integer> values = new ArrayList<>(length);
+    for (int i = start; i < start + length; i++) {
+      values.add(i);
+    }
+    return values;
+  }
+
+  /**
+   * Items start out with their position as their value, which also serves as their key and anchor.
+   * Inserted items get negative values, so every value stays unique.
+   */
+  private static final class FakeSource implements KeysetPagedDataSource.Source<Integer, Integer, Integer> {
+
+    private final List<Integer> items;
+
+    int positionalLoads;
+    int afterLoads;
+    int beforeLoads;
+    int lastSkip = -1;
+
+    private FakeSource(int size) {
+      this.items = range(0, size);
+    }
+
+    void insert(int position) {
+      items.add(position, -1 - items.size());
+    }
+
+    void remove(int position) {
+      items.remove(position);
+    }
+
+    @Override
+    public int size() {
+      return items.size();
+    }
+
+    @Override
+    public @NonNull List<Integer> load(int start, int length, @NonNull PagedDataSource.CancellationSignal cancellationSignal) {
+      positionalLoads++;
+      return slice(start, start + length);
+    }
+
+    @Override
+    public @NonNull List<Integer> loadAfter(@NonNull Integer anchor, int skip, int length, @NonNull PagedDataSource.CancellationSignal cancellationSignal) {
+      afterLoads++;
+      lastSkip = skip;
+      int start = items.indexOf(anchor) + 1 + skip;
+      return slice(start, start + length);
+    }
+
+    @Override
+    public @NonNull List<Integer> loadBefore(@NonNull Integer anchor, int skip, int length, @NonNull PagedDataSource.CancellationSignal cancellationSignal) {
+      beforeLoads++;
+      lastSkip = skip;
+      int end = items.indexOf(anchor) - skip;
+      return slice(end - length, end);
+    }
+
+    @Override
+    public @Nullable Integer load(Integer key) {
+      return key;
+    }
+
+    @Override
+    public @NonNull Integer getKey(@NonNull Integer data) {
+      return data;
+    }
+
+    @Override
+    public @Nullable Integer getAnchor(@NonNull Integer data) {
+      return data;
+    }
+
+    private List<Integer> slice(int start, int end) {
+      return new ArrayList<>(items.subList(Math.max(0, start), Math.min(items.size(), end)));
+    }
+  }
+}
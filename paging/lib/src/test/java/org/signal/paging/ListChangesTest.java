@@ -0,0 +1,62 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ListChangesTest {
+
+  @Test
+  public void givenChanges_whenICheckTheirList_thenIExpectOnlyThePreviousList() {
+    List<Integer> previous = new ArrayList<>(Collections.singletonList(1));
+    ListChanges   changes  = new ListChanges.Builder().changed(0, 1).build(previous);
+
+    assertTrue(changes.appliesTo(previous));
+    assertFalse(changes.appliesTo(new ArrayList<>(previous)));
+    assertFalse(changes.appliesTo(null));
+  }
+
+  @Test
+  public void givenChanges_whenIDispatch_thenIExpectThemInOrder() {
+    ListChanges changes = new ListChanges.Builder().inserted(0, 1)
+                                                   .changed(5, 10)
+                                                   .removed(3, 1)
+                                                   .changed(20, 0)
+                                                   .build(Collections.emptyList());
+
+    List<String> dispatched = new ArrayList<>();
+
+    changes.dispatchTo(new ListChanges.Callback() {
+      @Override
+      public void onInserted(int position, int count) {
+        dispatched.add("inserted " + position + " " + count);
+      }
+
+      @Override
+      public void onRemoved(int position, int count) {
+        dispatched.add("removed " + position + " " + count);
+      }
+
+      @Override
+      public void onChanged(int position, int count) {
+        dispatched.add("changed " + position + " " + count);
+      }
+    });
+
+    assertEquals(Arrays.asList("inserted 0 1", "changed 5 10", "removed 3 1"), dispatched);
+  }
+
+  @Test
+  public void givenPlainList_whenIGetChanges_thenIExpectNull() {
+    assertNull(ListChanges.of(Collections.emptyList()));
+    assertNull(ListChanges.of(new CompressedList<>(10)));
+  }
+}
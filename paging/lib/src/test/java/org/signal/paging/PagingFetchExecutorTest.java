@@ -0,0 +1,132 @@
+package org.signal.paging;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public final class PagingFetchExecutorTest {
+
+  private TestExecutor        workers;
+  private PagingFetchExecutor subject;
+  private List<String>        ran;
+
+  @Before
+  public void setUp() {
+    workers = new TestExecutor();
+    subject = new PagingFetchExecutor(workers);
+    ran     = new ArrayList<>();
+  }
+
+  @Test
+  public void givenQueuedLoads_whenIRun_thenIExpectLatestFirst() {
+    PagingFetchExecutor.Queue queue = subject.newQueue();
+
+    queue.executeLoad(record("placeholder"));
+    queue.executeLoad(record("a"));
+    queue.executeLoad(record("b"));
+    queue.executeLoad(record("c"));
+
+    workers.runAll();
+
+    assertEquals(Arrays.asList("placeholder", "c", "b", "a"), ran);
+  }
+
+  @Test
+  public void givenBarrier_whenIRun_thenIExpectLoadsNotReorderedAcrossIt() {
+    PagingFetchExecutor.Queue queue = subject.newQueue();
+
+    queue.executeLoad(record("placeholder"));
+    queue.executeLoad(record("a"));
+    queue.executeLoad(record("b"));
+    queue.execute(record("barrier"));
+    queue.executeLoad(record("c"));
+    queue.executeLoad(record("d"));
+
+    workers.runAll();
+
+    assertEquals(Arrays.asList("placeholder", "b", "a", "barrier", "d", "c"), ran);
+  }
+
+  @Test
+  public void givenTasks_whenIRun_thenIExpectOneTaskPerQueueAtATime() {
+    PagingFetchExecutor.Queue queue = subject.newQueue();
+
+    queue.executeLoad(record("a"));
+    queue.executeLoad(record("b"));
+
+    assertEquals(1, workers.pending());
+
+    workers.next();
+
+    assertEquals(1, workers.pending());
+  }
+
+  @Test
+  public void givenTwoQueues_whenIRun_thenIExpectThemToRunIndependently() {
+    PagingFetchExecutor.Queue slow = subject.newQueue();
+    PagingFetchExecutor.Queue fast = subject.newQueue();
+
+    slow.executeLoad(record("slow"));
+    fast.executeLoad(record("fast"));
+
+    assertEquals(2, workers.pending());
+
+    workers.runLast();
+
+    assertEquals(Collections.singletonList("fast"), ran);
+  }
+
+  @Test
+  public void givenEmptyQueue_whenIExecuteAgain_thenIExpectItToRun() {
+    PagingFetchExecutor.Queue queue = subject.newQueue();
+
+    queue.execute(record("a"));
+    workers.runAll();
+
+    queue.execute(record("b"));
+    workers.runAll();
+
+    assertEquals(Arrays.asList("a", "b"), ran);
+    assertEquals(0, workers.pending());
+  }
+
+  private Runnable record(String name) {
+    return () -> ran.add(name);
+  }
+
+  private static final class TestExecutor implements Executor {
+
+    private final LinkedList<Runnable> tasks = new LinkedList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void next() {
+      tasks.removeFirst().run();
+    }
+
+    void runLast() {
+      tasks.removeLast().run();
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        next();
+      }
+    }
+
+    int pending() {
+      return tasks.size();
+    }
+  }
+}